@@ -3,11 +3,11 @@ package gov.nasa.ziggy.collections;
 import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_BOOLEAN;
 import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_DOUBLE;
 import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_ENUM;
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_FLOAT;
 import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_INT;
 import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_LONG;
 import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_STRING;
 import static gov.nasa.ziggy.collections.ZiggyDataType.box1dArray;
-import static gov.nasa.ziggy.collections.ZiggyDataType.castBoxedNumericToUnboxedNumeric;
 import static gov.nasa.ziggy.collections.ZiggyDataType.fill1dArray;
 import static gov.nasa.ziggy.collections.ZiggyDataType.getDataType;
 import static gov.nasa.ziggy.collections.ZiggyDataType.getDataTypeFromClass;
@@ -119,10 +119,13 @@ public class ZiggyArrayUtils {
     /**
      * Determine the size of an array. The number of dimensions of the array are initially unknown.
      *
-     * @param dataObject The array that is to be sized.
+     * @param dataObject The array that is to be sized, which can also be a {@link ZiggyNdArray}.
      * @return long[] with the size of each dimension in the array.
      */
     public static long[] getArraySize(Object dataObject) {
+        if (dataObject instanceof ZiggyNdArray) {
+            return ((ZiggyNdArray) dataObject).getDimensions();
+        }
         List<Long> arrayDimensionList = new ArrayList<>();
         Class<? extends Object> currentClass = dataObject.getClass();
         Object loopObject = dataObject;
@@ -209,48 +212,62 @@ public class ZiggyArrayUtils {
      * @return cast of SourceArray to desired type
      */
     public static Object castArray(Object sourceArray, Object castType) {
-        ZiggyDataType hType = castDataType(castType);
         long[] arraySize = getArraySize(sourceArray);
+        if (arraySize.length == 1) {
+            return cast1dArray(sourceArray, castType);
+        }
         Object destinationArray = constructPrimitiveArray(arraySize.length, (int) arraySize[0],
-            hType);
-        Object[] destArray1 = arraySize.length > 1 ? (Object[]) destinationArray : null;
-        ArrayRecursionLevel nextLevel = (obj, i) -> destArray1[i] = castArray(obj, castType);
-        ArrayRecursionLevel lowestLevel = new ArrayRecursionLevel() {
-            // TODO Try to eliminate this SuppressWarnings annotation
-            @SuppressWarnings({ "unchecked", "rawtypes" })
-            @Override
-            public void apply(Object sourceArray1, int i) {
-                ZiggyDataType hType = castDataType(castType);
-                Object destinationArray1 = null;
-                ZiggyDataType sourceDataType = getDataType(sourceArray1);
-
-                // there are a few options here:
-                if (sourceDataType.isNumeric() && hType.equals(ZIGGY_BOOLEAN)) {
-                    destinationArray1 = castNumericToBoolean(sourceArray1);
-                }
-                if (sourceDataType.equals(ZIGGY_BOOLEAN) && hType.isNumeric()) {
-                    destinationArray1 = castBooleanToNumeric(sourceArray1, hType);
-                }
-                if (sourceDataType.equals(ZIGGY_ENUM) && hType.equals(ZIGGY_STRING)) {
-                    destinationArray1 = castEnumToString(sourceArray1);
-                }
-                if (sourceDataType.equals(ZIGGY_STRING) && hType.equals(ZIGGY_ENUM)) {
-                    destinationArray1 = castStringToEnum(sourceArray1, (Class) castType);
-                }
-                if (sourceDataType.isNumeric() && hType.isNumeric()) {
-                    destinationArray1 = castNumericToNumeric(sourceArray1, hType);
-                }
-                if (destinationArray1 == null) {
-                    throw new PipelineException("Unable to cast array from "
-                        + sourceDataType.getJavaClassName() + " to " + hType.getJavaClassName());
-                }
-                System.arraycopy(destinationArray1, 0, destinationArray, 0, (int) arraySize[0]);
-            }
-        };
-        arrayLevelRecursionMaster(sourceArray, nextLevel, lowestLevel);
+            castDataType(castType));
+        Object[] destArray1 = (Object[]) destinationArray;
+        Object[] sourceArray1 = (Object[]) sourceArray;
+        for (int i = 0; i < sourceArray1.length; i++) {
+            destArray1[i] = castArray(sourceArray1[i], castType);
+        }
         return destinationArray;
     }
 
+    /**
+     * Casts a 1-d array. The result is always a new array, which the cast methods construct
+     * directly rather than the result being copied into a separately constructed array.
+     */
+    // TODO Try to eliminate this SuppressWarnings annotation
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object cast1dArray(Object sourceArray1, Object castType) {
+        ZiggyDataType hType = castDataType(castType);
+        Object destinationArray1 = null;
+        ZiggyDataType sourceDataType = getDataType(sourceArray1);
+
+        // there are a few options here:
+        if (sourceDataType.isNumeric() && hType.equals(ZIGGY_BOOLEAN)) {
+            destinationArray1 = castNumericToBoolean(sourceArray1);
+        }
+        if (sourceDataType.equals(ZIGGY_BOOLEAN) && hType.isNumeric()) {
+            destinationArray1 = castBooleanToNumeric(sourceArray1, hType);
+        }
+        if (sourceDataType.equals(ZIGGY_ENUM) && hType.equals(ZIGGY_STRING)) {
+            destinationArray1 = castEnumToString(sourceArray1);
+        }
+        if (sourceDataType.equals(ZIGGY_STRING) && hType.equals(ZIGGY_ENUM)) {
+            destinationArray1 = castStringToEnum(sourceArray1, (Class) castType);
+        }
+        if (sourceDataType.isNumeric() && hType.isNumeric()) {
+            destinationArray1 = castNumericToNumeric(sourceArray1, hType);
+        }
+        if (destinationArray1 == null) {
+            throw new PipelineException("Unable to cast array from "
+                + sourceDataType.getJavaClassName() + " to " + hType.getJavaClassName());
+        }
+
+        // a numeric cast to the same type returns its argument
+        if (destinationArray1 == sourceArray1) {
+            int length = Array.getLength(sourceArray1);
+            destinationArray1 = Array.newInstance(sourceArray1.getClass().getComponentType(),
+                length);
+            System.arraycopy(sourceArray1, 0, destinationArray1, 0, length);
+        }
+        return destinationArray1;
+    }
+
     /**
      * Utility method that converts an Enum.class object to an Enum DataType object, but otherwise
      * assumes that its argument is a DataType and returns it.
@@ -343,14 +360,213 @@ public class ZiggyArrayUtils {
      * @return contents of sourceArray1d, cast to type indicated by ziggyDataType
      */
     static Object castNumericToNumeric(Object sourceArray1d, ZiggyDataType ziggyDataType) {
-        if (ziggyDataType.equals(getDataType(sourceArray1d))) {
+        ZiggyDataType sourceDataType = getDataType(sourceArray1d);
+        if (ziggyDataType.equals(sourceDataType)) {
             return sourceArray1d;
         }
-        Number[] boxedSourceArray = (Number[]) box(sourceArray1d);
-        Object destinationArray = Array.newInstance(ziggyDataType.getJavaClass(),
-            boxedSourceArray.length);
-        castBoxedNumericToUnboxedNumeric(boxedSourceArray, destinationArray);
-        return destinationArray;
+
+        // Widen to long or double, and then narrow to the destination type. The primitive casts
+        // give the same results as the Number methods (i.e., Double.intValue()), without boxing
+        // every element.
+        if (sourceDataType.equals(ZIGGY_FLOAT) || sourceDataType.equals(ZIGGY_DOUBLE)) {
+            return castDoubleToNumeric(widenToDouble(sourceArray1d), ziggyDataType);
+        }
+        return castLongToNumeric(widenToLong(sourceArray1d), ziggyDataType);
+    }
+
+    private static double[] widenToDouble(Object sourceArray1d) {
+        if (sourceArray1d instanceof double[]) {
+            return (double[]) sourceArray1d;
+        }
+        float[] floatArray = (float[]) sourceArray1d;
+        double[] doubleArray = new double[floatArray.length];
+        for (int i = 0; i < floatArray.length; i++) {
+            doubleArray[i] = floatArray[i];
+        }
+        return doubleArray;
+    }
+
+    private static long[] widenToLong(Object sourceArray1d) {
+        if (sourceArray1d instanceof long[]) {
+            return (long[]) sourceArray1d;
+        }
+        long[] longArray = new long[Array.getLength(sourceArray1d)];
+        if (sourceArray1d instanceof byte[]) {
+            byte[] byteArray = (byte[]) sourceArray1d;
+            for (int i = 0; i < byteArray.length; i++) {
+                longArray[i] = byteArray[i];
+            }
+        } else if (sourceArray1d instanceof short[]) {
+            short[] shortArray = (short[]) sourceArray1d;
+            for (int i = 0; i < shortArray.length; i++) {
+                longArray[i] = shortArray[i];
+            }
+        } else {
+            int[] intArray = (int[]) sourceArray1d;
+            for (int i = 0; i < intArray.length; i++) {
+                longArray[i] = intArray[i];
+            }
+        }
+        return longArray;
+    }
+
+    private static Object castDoubleToNumeric(double[] sourceArray, ZiggyDataType ziggyDataType) {
+        int length = sourceArray.length;
+        switch (ziggyDataType) {
+            case ZIGGY_BYTE:
+                byte[] byteArray = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    byteArray[i] = (byte) sourceArray[i];
+                }
+                return byteArray;
+            case ZIGGY_SHORT:
+                short[] shortArray = new short[length];
+                for (int i = 0; i < length; i++) {
+                    shortArray[i] = (short) sourceArray[i];
+                }
+                return shortArray;
+            case ZIGGY_INT:
+                int[] intArray = new int[length];
+                for (int i = 0; i < length; i++) {
+                    intArray[i] = (int) sourceArray[i];
+                }
+                return intArray;
+            case ZIGGY_LONG:
+                long[] longArray = new long[length];
+                for (int i = 0; i < length; i++) {
+                    longArray[i] = (long) sourceArray[i];
+                }
+                return longArray;
+            case ZIGGY_FLOAT:
+                float[] floatArray = new float[length];
+                for (int i = 0; i < length; i++) {
+                    floatArray[i] = (float) sourceArray[i];
+                }
+                return floatArray;
+            case ZIGGY_DOUBLE:
+                return sourceArray;
+            default:
+                throw new PipelineException(
+                    "Unable to cast array from double to " + ziggyDataType.getJavaClassName());
+        }
+    }
+
+    private static Object castLongToNumeric(long[] sourceArray, ZiggyDataType ziggyDataType) {
+        int length = sourceArray.length;
+        switch (ziggyDataType) {
+            case ZIGGY_BYTE:
+                byte[] byteArray = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    byteArray[i] = (byte) sourceArray[i];
+                }
+                return byteArray;
+            case ZIGGY_SHORT:
+                short[] shortArray = new short[length];
+                for (int i = 0; i < length; i++) {
+                    shortArray[i] = (short) sourceArray[i];
+                }
+                return shortArray;
+            case ZIGGY_INT:
+                int[] intArray = new int[length];
+                for (int i = 0; i < length; i++) {
+                    intArray[i] = (int) sourceArray[i];
+                }
+                return intArray;
+            case ZIGGY_LONG:
+                return sourceArray;
+            case ZIGGY_FLOAT:
+                float[] floatArray = new float[length];
+                for (int i = 0; i < length; i++) {
+                    floatArray[i] = sourceArray[i];
+                }
+                return floatArray;
+            case ZIGGY_DOUBLE:
+                double[] doubleArray = new double[length];
+                for (int i = 0; i < length; i++) {
+                    doubleArray[i] = sourceArray[i];
+                }
+                return doubleArray;
+            default:
+                throw new PipelineException(
+                    "Unable to cast array from long to " + ziggyDataType.getJavaClassName());
+        }
+    }
+
+    /**
+     * Copies a multi-dimensional array of primitives into a 1-d array of the same type, in
+     * row-major order (i.e., the last index varies fastest). This is the order in which HDF5
+     * stores arrays, so the 1-d array can be passed to HDF5 without any further conversion.
+     *
+     * @param mdArray array of primitives. The array must be a hyper-rectangle (i.e., not ragged).
+     * @return 1-d array with the contents of mdArray. A 1-d argument is returned as-is.
+     */
+    public static Object flatten(Object mdArray) {
+        long[] dimensions = getArraySize(mdArray);
+        if (dimensions.length == 1) {
+            return mdArray;
+        }
+        long elementCount = 1;
+        for (long dimension : dimensions) {
+            elementCount *= dimension;
+        }
+        if (elementCount > Integer.MAX_VALUE) {
+            throw new PipelineException(
+                "Unable to flatten array of " + elementCount + " elements to a single array");
+        }
+        Class<?> elementClass = mdArray.getClass();
+        while (elementClass.isArray()) {
+            elementClass = elementClass.getComponentType();
+        }
+        Object flatArray = Array.newInstance(elementClass, (int) elementCount);
+        flatten(mdArray, (int) dimensions[dimensions.length - 1], flatArray, 0);
+        return flatArray;
+    }
+
+    private static int flatten(Object array, int rowLength, Object flatArray, int offset) {
+        if (array instanceof Object[]) {
+            int nextOffset = offset;
+            for (Object subArray : (Object[]) array) {
+                nextOffset = flatten(subArray, rowLength, flatArray, nextOffset);
+            }
+            return nextOffset;
+        }
+        if (Array.getLength(array) != rowLength) {
+            throw new PipelineException("Unable to flatten ragged array");
+        }
+        System.arraycopy(array, 0, flatArray, offset, rowLength);
+        return offset + rowLength;
+    }
+
+    /**
+     * Copies a 1-d array of primitives, in row-major order, into a new multi-dimensional array.
+     * This is the inverse of {@link #flatten(Object)}.
+     *
+     * @param flatArray 1-d array of primitives.
+     * @param dimensions dimensions of the desired array; the product of the dimensions must be
+     * the length of flatArray.
+     * @return multi-dimensional array with the contents of flatArray. If dimensions has only one
+     * element, flatArray is returned as-is.
+     */
+    public static Object unflatten(Object flatArray, long[] dimensions) {
+        if (dimensions.length == 1) {
+            return flatArray;
+        }
+        Object mdArray = Array.newInstance(flatArray.getClass().getComponentType(),
+            longToInt1d(dimensions));
+        unflatten(flatArray, (int) dimensions[dimensions.length - 1], mdArray, 0);
+        return mdArray;
+    }
+
+    private static int unflatten(Object flatArray, int rowLength, Object array, int offset) {
+        if (array instanceof Object[]) {
+            int nextOffset = offset;
+            for (Object subArray : (Object[]) array) {
+                nextOffset = unflatten(flatArray, rowLength, subArray, nextOffset);
+            }
+            return nextOffset;
+        }
+        System.arraycopy(flatArray, offset, array, 0, rowLength);
+        return offset + rowLength;
     }
 
     /**
@@ -560,7 +776,8 @@ public class ZiggyArrayUtils {
 
     /**
      * Fill a multi-dimensional array with a numeric fill value. Note that the array must be a
-     * primitive array of numeric type (byte, short, int, long, float, double).
+     * primitive array of numeric type (byte, short, int, long, float, double), or a numeric
+     * {@link ZiggyNdArray}.
      *
      * @param array Array to be filled
      * @param fillValue numeric value to be used in the fill
@@ -589,6 +806,10 @@ public class ZiggyArrayUtils {
      * @param fillValue Object that supplies the fill value.
      */
     static void fillRecursively(Object array, Object fillValue) {
+        if (array instanceof ZiggyNdArray) {
+            ((ZiggyNdArray) array).fill(fillValue);
+            return;
+        }
         ArrayRecursionLevel nextLevel = (array1, i) -> fillRecursively(array1, fillValue);
         ArrayRecursionLevel lowestLevel = (array1, i) -> {
             fill1dArray(array1, fillValue);
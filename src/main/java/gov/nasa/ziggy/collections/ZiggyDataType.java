@@ -833,6 +833,8 @@ public enum ZiggyDataType {
         }
         if (object instanceof List) {
             hdf5Type = getDataTypeFromList((List<? extends Object>) object);
+        } else if (object instanceof ZiggyNdArray) {
+            hdf5Type = ((ZiggyNdArray) object).getDataType();
         } else {
             hdf5Type = getDataTypeFromClass(object.getClass());
         }
@@ -847,6 +849,18 @@ public enum ZiggyDataType {
         return hdf5Type;
     }
 
+    /**
+     * Data types of the classes seen so far. Determining the data type of a class involves name
+     * matching and a class lookup, which is too slow to do for every member of a large array of
+     * Persistable objects.
+     */
+    private static final ClassValue<ZiggyDataType> DATA_TYPES = new ClassValue<ZiggyDataType>() {
+        @Override
+        protected ZiggyDataType computeValue(Class<?> clazz) {
+            return dataTypeFromClass(clazz);
+        }
+    };
+
     /**
      * Get the data type associated with a particular Java class.
      *
@@ -854,6 +868,10 @@ public enum ZiggyDataType {
      * @return ZiggyDataType associated with the class.
      */
     static ZiggyDataType getDataTypeFromClass(Class<?> clazz) {
+        return DATA_TYPES.get(clazz);
+    }
+
+    private static ZiggyDataType dataTypeFromClass(Class<?> clazz) {
         ZiggyDataType hdf5Type = null;
         String simpleName = clazz.getSimpleName().toLowerCase();
         int bracketLocation = simpleName.indexOf("[");
@@ -0,0 +1,586 @@
+package gov.nasa.ziggy.collections;
+
+import static gov.nasa.ziggy.collections.ZiggyArrayUtils.intToLong1d;
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_BOOLEAN;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import gov.nasa.ziggy.module.PipelineException;
+
+/**
+ * Multi-dimensional array of primitive values stored in a single flat buffer, rather than as
+ * nested Java arrays. The values are stored in row-major order (i.e., the last index varies
+ * fastest), which is the order in which HDF5 stores arrays. The buffer can be on the Java heap,
+ * off the heap, or memory-mapped from a file, so that arrays that are larger than the heap can be
+ * used.
+ * <p>
+ * Each array has a stride for each dimension, which is the distance in elements between adjacent
+ * values in that dimension. This allows an array to be a view of a region of another array, which
+ * shares its buffer: changes to the values of either are visible in the other. The views returned
+ * by {@link #slice(HyperRectangle)} and {@link #subArray(long)} are contiguous in the buffer;
+ * those returned by {@link #slice(long[], long[])} in general are not.
+ * <p>
+ * The supported data types are the numeric types and boolean; booleans are stored as bytes that are
+ * 0 or 1. A buffer can hold at most 2 GB, which is the limit of the Java NIO buffers.
+ *
+ * @author PT
+ */
+public final class ZiggyNdArray {
+
+    /**
+     * Location of the buffer that holds the values.
+     */
+    public enum Storage {
+        HEAP, DIRECT, MAPPED
+    }
+
+    private final ZiggyDataType dataType;
+    private final int elementBytes;
+    private final long[] dimensions;
+    private final long[] strides;
+    private final long offset;
+    private final ByteBuffer buffer;
+    private final Storage storage;
+
+    private ZiggyNdArray(ZiggyDataType dataType, long[] dimensions, long[] strides, long offset,
+        ByteBuffer buffer, Storage storage) {
+        this.dataType = dataType;
+        elementBytes = elementBytes(dataType);
+        this.dimensions = dimensions;
+        this.strides = strides;
+        this.offset = offset;
+        this.buffer = buffer;
+        this.storage = storage;
+    }
+
+    /**
+     * Constructs an array of zeros (or falses) in a buffer on the Java heap.
+     */
+    public static ZiggyNdArray allocate(ZiggyDataType dataType, long... dimensions) {
+        return new ZiggyNdArray(dataType, dimensions.clone(), rowMajorStrides(dimensions), 0,
+            ByteBuffer.allocate(bufferBytes(dataType, dimensions)).order(ByteOrder.nativeOrder()),
+            Storage.HEAP);
+    }
+
+    /**
+     * Constructs an array of zeros (or falses) in a buffer outside of the Java heap. The buffer is
+     * released when the array and all views of it are garbage collected.
+     */
+    public static ZiggyNdArray allocateDirect(ZiggyDataType dataType, long... dimensions) {
+        return new ZiggyNdArray(dataType, dimensions.clone(), rowMajorStrides(dimensions), 0,
+            ByteBuffer.allocateDirect(bufferBytes(dataType, dimensions))
+                .order(ByteOrder.nativeOrder()),
+            Storage.DIRECT);
+    }
+
+    /**
+     * Constructs an array that is memory-mapped from a file. If the file does not exist, it is
+     * created, and the array is all zeros (or falses); if it does, the array holds its contents,
+     * in the native byte order, and the file is extended if it is too short for the array.
+     * Changes to the array are written to the file by the operating system, or immediately by
+     * {@link #force()}.
+     */
+    public static ZiggyNdArray map(File file, ZiggyDataType dataType, long... dimensions) {
+        int bytes = bufferBytes(dataType, dimensions);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buffer.order(ByteOrder.nativeOrder());
+            return new ZiggyNdArray(dataType, dimensions.clone(), rowMajorStrides(dimensions), 0,
+                buffer, Storage.MAPPED);
+        } catch (IOException e) {
+            throw new PipelineException("Unable to map file " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Constructs an array on the Java heap with the contents of a nested array of primitives.
+     *
+     * @param array array of primitives. The array must be a hyper-rectangle (i.e., not ragged).
+     */
+    public static ZiggyNdArray fromArray(Object array) {
+        ZiggyNdArray ndArray = allocate(ZiggyDataType.getDataType(array),
+            ZiggyArrayUtils.getArraySize(array));
+        ndArray.copyFrom(array);
+        return ndArray;
+    }
+
+    private static int elementBytes(ZiggyDataType dataType) {
+        if (dataType == ZIGGY_BOOLEAN) {
+            return 1;
+        }
+        if (!dataType.isNumeric()) {
+            throw new PipelineException(
+                "Unable to store values of type " + dataType.getJavaClassName() + " in array");
+        }
+        try {
+            return ZiggyDataType.elementSizeBytes(dataType);
+        } catch (IllegalAccessException e) {
+            throw new PipelineException(
+                "Unable to determine size of type " + dataType.getJavaClassName(), e);
+        }
+    }
+
+    private static int bufferBytes(ZiggyDataType dataType, long[] dimensions) {
+        long bytes = elementBytes(dataType);
+        for (long dimension : dimensions) {
+            if (dimension < 0) {
+                throw new PipelineException(
+                    "Invalid array dimensions " + Arrays.toString(dimensions));
+            }
+            bytes *= dimension;
+        }
+        if (bytes > Integer.MAX_VALUE) {
+            throw new PipelineException("Array of size " + Arrays.toString(dimensions)
+                + " is larger than the maximum buffer size of " + Integer.MAX_VALUE + " bytes");
+        }
+        return (int) bytes;
+    }
+
+    private static long[] rowMajorStrides(long[] dimensions) {
+        long[] strides = new long[dimensions.length];
+        long stride = 1;
+        for (int i = dimensions.length - 1; i >= 0; i--) {
+            strides[i] = stride;
+            stride *= dimensions[i];
+        }
+        return strides;
+    }
+
+    // *********************** views ***********************
+
+    /**
+     * Returns a view of a region of the array. The view has the same number of dimensions as the
+     * array.
+     *
+     * @param regionOffset location of the first element of the region.
+     * @param regionSize size of the region.
+     */
+    public ZiggyNdArray slice(long[] regionOffset, long[] regionSize) {
+        if (regionOffset.length != dimensions.length || regionSize.length != dimensions.length) {
+            throw new PipelineException("Region with offset " + Arrays.toString(regionOffset)
+                + " and size " + Arrays.toString(regionSize) + " does not match array of size "
+                + Arrays.toString(dimensions));
+        }
+        long sliceOffset = offset;
+        for (int i = 0; i < dimensions.length; i++) {
+            if (regionOffset[i] < 0 || regionSize[i] < 0
+                || regionOffset[i] + regionSize[i] > dimensions[i]) {
+                throw new PipelineException("Region with offset " + Arrays.toString(regionOffset)
+                    + " and size " + Arrays.toString(regionSize)
+                    + " is not within array of size " + Arrays.toString(dimensions));
+            }
+            sliceOffset += regionOffset[i] * strides[i];
+        }
+        return new ZiggyNdArray(dataType, regionSize.clone(), strides, sliceOffset, buffer,
+            storage);
+    }
+
+    /**
+     * Returns a view of the region of the array given by a {@link HyperRectangle}, whose full
+     * array size must be the size of the array.
+     */
+    public ZiggyNdArray slice(HyperRectangle hyperRectangle) {
+        if (!Arrays.equals(intToLong1d(hyperRectangle.getFullArraySize()), dimensions)) {
+            throw new PipelineException("HyperRectangle of array of size "
+                + Arrays.toString(hyperRectangle.getFullArraySize())
+                + " does not match array of size " + Arrays.toString(dimensions));
+        }
+        return slice(intToLong1d(hyperRectangle.getOffset()),
+            intToLong1d(hyperRectangle.getSize()));
+    }
+
+    /**
+     * Returns a view of the values at one index of the first dimension, with one fewer dimension
+     * than the array: the equivalent of {@code array[index]} for a nested array.
+     */
+    public ZiggyNdArray subArray(long index) {
+        if (dimensions.length < 2) {
+            throw new PipelineException("Unable to take sub-array of 1-d array");
+        }
+        if (index < 0 || index >= dimensions[0]) {
+            throw new PipelineException(
+                "Index " + index + " is not within array of size " + Arrays.toString(dimensions));
+        }
+        return new ZiggyNdArray(dataType, Arrays.copyOfRange(dimensions, 1, dimensions.length),
+            Arrays.copyOfRange(strides, 1, strides.length), offset + index * strides[0], buffer,
+            storage);
+    }
+
+    /**
+     * Indicates whether the values of the array are contiguous in its buffer, in row-major order.
+     */
+    public boolean isContiguous() {
+        long stride = 1;
+        for (int i = dimensions.length - 1; i >= 0; i--) {
+            if (dimensions[i] > 1 && strides[i] != stride) {
+                return false;
+            }
+            stride *= dimensions[i];
+        }
+        return true;
+    }
+
+    // *********************** single values ***********************
+
+    /**
+     * Returns the value at a location, boxed.
+     */
+    public Object get(long... location) {
+        int position = bytePosition(location);
+        switch (dataType) {
+            case ZIGGY_BOOLEAN:
+                return buffer.get(position) != 0;
+            case ZIGGY_BYTE:
+                return buffer.get(position);
+            case ZIGGY_SHORT:
+                return buffer.getShort(position);
+            case ZIGGY_INT:
+                return buffer.getInt(position);
+            case ZIGGY_LONG:
+                return buffer.getLong(position);
+            case ZIGGY_FLOAT:
+                return buffer.getFloat(position);
+            default:
+                return buffer.getDouble(position);
+        }
+    }
+
+    /**
+     * Returns the value at a location as a double. Boolean values are returned as 0 or 1.
+     */
+    public double getDouble(long... location) {
+        int position = bytePosition(location);
+        switch (dataType) {
+            case ZIGGY_BOOLEAN:
+            case ZIGGY_BYTE:
+                return buffer.get(position);
+            case ZIGGY_SHORT:
+                return buffer.getShort(position);
+            case ZIGGY_INT:
+                return buffer.getInt(position);
+            case ZIGGY_LONG:
+                return buffer.getLong(position);
+            case ZIGGY_FLOAT:
+                return buffer.getFloat(position);
+            default:
+                return buffer.getDouble(position);
+        }
+    }
+
+    /**
+     * Sets the value at a location.
+     *
+     * @param value a Boolean for boolean arrays, otherwise a Number, which is converted to the
+     * data type of the array with a primitive cast.
+     */
+    public void set(Object value, long... location) {
+        int position = bytePosition(location);
+        if (dataType == ZIGGY_BOOLEAN) {
+            buffer.put(position, (byte) ((Boolean) value ? 1 : 0));
+            return;
+        }
+        Number number = (Number) value;
+        switch (dataType) {
+            case ZIGGY_BYTE:
+                buffer.put(position, number.byteValue());
+                break;
+            case ZIGGY_SHORT:
+                buffer.putShort(position, number.shortValue());
+                break;
+            case ZIGGY_INT:
+                buffer.putInt(position, number.intValue());
+                break;
+            case ZIGGY_LONG:
+                buffer.putLong(position, number.longValue());
+                break;
+            case ZIGGY_FLOAT:
+                buffer.putFloat(position, number.floatValue());
+                break;
+            default:
+                buffer.putDouble(position, number.doubleValue());
+        }
+    }
+
+    private int bytePosition(long[] location) {
+        if (location.length != dimensions.length) {
+            throw new PipelineException("Location " + Arrays.toString(location)
+                + " does not match array of size " + Arrays.toString(dimensions));
+        }
+        long element = offset;
+        for (int i = 0; i < location.length; i++) {
+            if (location[i] < 0 || location[i] >= dimensions[i]) {
+                throw new PipelineException("Location " + Arrays.toString(location)
+                    + " is not within array of size " + Arrays.toString(dimensions));
+            }
+            element += location[i] * strides[i];
+        }
+        return (int) (element * elementBytes);
+    }
+
+    // *********************** bulk transfers ***********************
+
+    /**
+     * Copies the values of the array into a new nested array of primitives with the same
+     * dimensions.
+     */
+    public Object toArray() {
+        return ZiggyArrayUtils.unflatten(toFlatArray(), dimensions);
+    }
+
+    /**
+     * Copies the values of the array into a new 1-d array of primitives, in row-major order.
+     */
+    public Object toFlatArray() {
+        Object flatArray = Array.newInstance(dataType.getJavaClass(), (int) elementCount());
+        transfer(flatArray, true);
+        return flatArray;
+    }
+
+    /**
+     * Copies values into the array. The values can be a nested array of primitives with the same
+     * dimensions as the array, or a 1-d array of primitives with the values in row-major order.
+     * Values of a different type are cast to the type of the array, as by
+     * {@link ZiggyArrayUtils#castArray(Object, Object)}.
+     */
+    public void copyFrom(Object array) {
+        Object flatArray = ZiggyArrayUtils.flatten(array);
+        if (Array.getLength(flatArray) != elementCount()) {
+            throw new PipelineException(
+                "Array of size " + Arrays.toString(ZiggyArrayUtils.getArraySize(array))
+                    + " does not match array of size " + Arrays.toString(dimensions));
+        }
+        if (ZiggyDataType.getDataType(flatArray) != dataType) {
+            flatArray = ZiggyArrayUtils.castArray(flatArray, dataType);
+        }
+        transfer(flatArray, false);
+    }
+
+    /**
+     * Copies the values of another array into this one. The arrays must have the same dimensions,
+     * and values of a different type are cast to the type of this array.
+     */
+    public void copyFrom(ZiggyNdArray ndArray) {
+        if (!Arrays.equals(ndArray.dimensions, dimensions)) {
+            throw new PipelineException("Array of size " + Arrays.toString(ndArray.dimensions)
+                + " does not match array of size " + Arrays.toString(dimensions));
+        }
+        copyFrom(ndArray.toFlatArray());
+    }
+
+    /**
+     * Sets all the values of the array.
+     *
+     * @param fillValue a Boolean for boolean arrays, otherwise a Number.
+     */
+    public void fill(Object fillValue) {
+        Object row = Array.newInstance(dataType.getJavaClass(),
+            dimensions.length == 0 ? 1 : (int) dimensions[dimensions.length - 1]);
+        ZiggyDataType.fill1dArray(row, fillValue);
+        forEachRow((rowStart, flatOffset, rowLength) -> transferRow(row, 0, rowStart, rowLength,
+            false));
+    }
+
+    /**
+     * Writes any changes to a memory-mapped array to its file. Has no effect on other arrays.
+     */
+    public void force() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    /**
+     * Copies all the values of the array between its buffer and a 1-d array, row by row.
+     */
+    private void transfer(Object flatArray, boolean toFlatArray) {
+        forEachRow((rowStart, flatOffset, rowLength) -> transferRow(flatArray, flatOffset,
+            rowStart, rowLength, toFlatArray));
+    }
+
+    /**
+     * Calls a function for each row of the array (i.e., each set of values that differ only in
+     * the last index), in row-major order.
+     */
+    private void forEachRow(RowFunction function) {
+        long elementCount = elementCount();
+        if (elementCount == 0) {
+            return;
+        }
+        if (dimensions.length == 0) {
+            function.apply(offset, 0, 1);
+            return;
+        }
+        int lastDim = dimensions.length - 1;
+        int rowLength = (int) dimensions[lastDim];
+        long[] location = new long[lastDim];
+        for (int flatOffset = 0; flatOffset < elementCount; flatOffset += rowLength) {
+            long rowStart = offset;
+            for (int i = 0; i < lastDim; i++) {
+                rowStart += location[i] * strides[i];
+            }
+            function.apply(rowStart, flatOffset, rowLength);
+            for (int i = lastDim - 1; i >= 0; i--) {
+                if (++location[i] < dimensions[i]) {
+                    break;
+                }
+                location[i] = 0;
+            }
+        }
+    }
+
+    private interface RowFunction {
+        void apply(long rowStart, int flatOffset, int rowLength);
+    }
+
+    /**
+     * Copies one row between the buffer and a 1-d array. Rows whose values are adjacent in the
+     * buffer are copied with a single bulk operation.
+     */
+    private void transferRow(Object flatArray, int flatOffset, long rowStart, int rowLength,
+        boolean toFlatArray) {
+        long stride = dimensions.length == 0 ? 1 : strides[dimensions.length - 1];
+        if (stride != 1 || dataType == ZIGGY_BOOLEAN) {
+            for (int i = 0; i < rowLength; i++) {
+                int position = (int) ((rowStart + i * stride) * elementBytes);
+                if (toFlatArray) {
+                    getElement(flatArray, flatOffset + i, position);
+                } else {
+                    putElement(flatArray, flatOffset + i, position);
+                }
+            }
+            return;
+        }
+        ByteBuffer view = buffer.duplicate().order(buffer.order());
+        view.position((int) (rowStart * elementBytes));
+        switch (dataType) {
+            case ZIGGY_BYTE:
+                if (toFlatArray) {
+                    view.get((byte[]) flatArray, flatOffset, rowLength);
+                } else {
+                    view.put((byte[]) flatArray, flatOffset, rowLength);
+                }
+                break;
+            case ZIGGY_SHORT:
+                if (toFlatArray) {
+                    view.asShortBuffer().get((short[]) flatArray, flatOffset, rowLength);
+                } else {
+                    view.asShortBuffer().put((short[]) flatArray, flatOffset, rowLength);
+                }
+                break;
+            case ZIGGY_INT:
+                if (toFlatArray) {
+                    view.asIntBuffer().get((int[]) flatArray, flatOffset, rowLength);
+                } else {
+                    view.asIntBuffer().put((int[]) flatArray, flatOffset, rowLength);
+                }
+                break;
+            case ZIGGY_LONG:
+                if (toFlatArray) {
+                    view.asLongBuffer().get((long[]) flatArray, flatOffset, rowLength);
+                } else {
+                    view.asLongBuffer().put((long[]) flatArray, flatOffset, rowLength);
+                }
+                break;
+            case ZIGGY_FLOAT:
+                if (toFlatArray) {
+                    view.asFloatBuffer().get((float[]) flatArray, flatOffset, rowLength);
+                } else {
+                    view.asFloatBuffer().put((float[]) flatArray, flatOffset, rowLength);
+                }
+                break;
+            default:
+                if (toFlatArray) {
+                    view.asDoubleBuffer().get((double[]) flatArray, flatOffset, rowLength);
+                } else {
+                    view.asDoubleBuffer().put((double[]) flatArray, flatOffset, rowLength);
+                }
+        }
+    }
+
+    private void getElement(Object flatArray, int index, int position) {
+        switch (dataType) {
+            case ZIGGY_BOOLEAN:
+                ((boolean[]) flatArray)[index] = buffer.get(position) != 0;
+                break;
+            case ZIGGY_BYTE:
+                ((byte[]) flatArray)[index] = buffer.get(position);
+                break;
+            case ZIGGY_SHORT:
+                ((short[]) flatArray)[index] = buffer.getShort(position);
+                break;
+            case ZIGGY_INT:
+                ((int[]) flatArray)[index] = buffer.getInt(position);
+                break;
+            case ZIGGY_LONG:
+                ((long[]) flatArray)[index] = buffer.getLong(position);
+                break;
+            case ZIGGY_FLOAT:
+                ((float[]) flatArray)[index] = buffer.getFloat(position);
+                break;
+            default:
+                ((double[]) flatArray)[index] = buffer.getDouble(position);
+        }
+    }
+
+    private void putElement(Object flatArray, int index, int position) {
+        switch (dataType) {
+            case ZIGGY_BOOLEAN:
+                buffer.put(position, (byte) (((boolean[]) flatArray)[index] ? 1 : 0));
+                break;
+            case ZIGGY_BYTE:
+                buffer.put(position, ((byte[]) flatArray)[index]);
+                break;
+            case ZIGGY_SHORT:
+                buffer.putShort(position, ((short[]) flatArray)[index]);
+                break;
+            case ZIGGY_INT:
+                buffer.putInt(position, ((int[]) flatArray)[index]);
+                break;
+            case ZIGGY_LONG:
+                buffer.putLong(position, ((long[]) flatArray)[index]);
+                break;
+            case ZIGGY_FLOAT:
+                buffer.putFloat(position, ((float[]) flatArray)[index]);
+                break;
+            default:
+                buffer.putDouble(position, ((double[]) flatArray)[index]);
+        }
+    }
+
+    // *********************** getters ***********************
+
+    public ZiggyDataType getDataType() {
+        return dataType;
+    }
+
+    public long[] getDimensions() {
+        return dimensions.clone();
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public long elementCount() {
+        long elementCount = 1;
+        for (long dimension : dimensions) {
+            elementCount *= dimension;
+        }
+        return elementCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ZiggyNdArray [dataType=" + dataType + ", dimensions="
+            + Arrays.toString(dimensions) + ", storage=" + storage + "]";
+    }
+}
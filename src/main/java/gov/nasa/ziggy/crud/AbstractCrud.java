@@ -1,18 +1,34 @@
 package gov.nasa.ziggy.crud;
 
 import java.io.Serializable;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.hibernate.Criteria;
 import org.hibernate.Query;
 import org.hibernate.SQLQuery;
 import org.hibernate.Session;
+import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.CustomType;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +60,28 @@ public abstract class AbstractCrud implements AbstractCrudInterface {
      */
     public static final int MAX_EXPRESSIONS = 950;
 
+    /**
+     * Name of the temporary table used by {@link InListStrategy#TEMP_TABLE}. Rows are deleted when
+     * the transaction that inserted them commits, and each session sees only its own rows.
+     */
+    public static final String IN_LIST_TABLE = "ZIGGY_IN_LIST";
+
+    /** DDL for the {@link #IN_LIST_TABLE} in HSQLDB, which is included in the schema. */
+    public static final String HSQLDB_IN_LIST_TABLE_DDL = "create global temporary table "
+        + IN_LIST_TABLE + " (LIST_ID bigint not null, LONG_VALUE bigint,"
+        + " STRING_VALUE varchar(1000000)) on commit delete rows";
+
+    /** DDL for the {@link #IN_LIST_TABLE} in PostgreSQL, which is created in each session. */
+    private static final String POSTGRESQL_IN_LIST_TABLE_DDL = "create temporary table"
+        + " if not exists " + IN_LIST_TABLE
+        + " (LIST_ID bigint not null, LONG_VALUE bigint, STRING_VALUE varchar)"
+        + " on commit delete rows";
+
+    private static final int IN_LIST_BATCH_SIZE = 1000;
+
+    /** Identifies the rows of the {@link #IN_LIST_TABLE} that belong to each restriction. */
+    private static final AtomicLong inListId = new AtomicLong();
+
     private DatabaseService databaseService;
     private boolean readOnly;
 
@@ -303,6 +341,232 @@ public abstract class AbstractCrud implements AbstractCrudInterface {
         return criterion;
     }
 
+    /**
+     * Use this to produce a Criterion that restricts a property of an entity to the values in a
+     * collection of any size. Collections of up to {@link #MAX_EXPRESSIONS} values use a simple IN
+     * clause. Larger collections of numbers or strings use the {@link InListStrategy} selected for
+     * the database, so that neither the size of the SQL statement nor the number of queries grows
+     * with the size of the collection:
+     * <ol>
+     * <li>{@link InListStrategy#ARRAY}: the values are bound as a single array parameter.
+     * <li>{@link InListStrategy#TEMP_TABLE}: the values are batch-inserted into the
+     * {@link #IN_LIST_TABLE} and the restriction is a subquery on that table.
+     * <li>{@link InListStrategy#CHUNKED}: see {@link #restrictionPropertyIn(String, Collection)}.
+     * </ol>
+     * The property must be a property of the root entity of the query, which must be of the
+     * specified class.
+     */
+    protected <T> Criterion restrictionPropertyIn(Class<?> entityClass, String property,
+        Collection<T> values) {
+        if (values.size() <= MAX_EXPRESSIONS) {
+            return restrictionPropertyIn(property, values);
+        }
+        boolean numeric = values.stream().allMatch(Number.class::isInstance);
+        if (!numeric && !values.stream().allMatch(String.class::isInstance)) {
+            return restrictionPropertyIn(property, values);
+        }
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) getSession()
+            .getSessionFactory();
+        Dialect dialect = sessionFactory.getDialect();
+        String column = ((AbstractEntityPersister) sessionFactory
+            .getEntityPersister(entityClass.getName())).getPropertyColumnNames(property)[0];
+        switch (InListStrategy.forDialect(dialect)) {
+            case ARRAY:
+                return arrayRestriction(dialect, column, values, numeric);
+            case TEMP_TABLE:
+                Criterion restriction = tempTableRestriction(dialect, column, values, numeric);
+                return restriction != null ? restriction : restrictionPropertyIn(property, values);
+            default:
+                return restrictionPropertyIn(property, values);
+        }
+    }
+
+    private <T> Criterion arrayRestriction(Dialect dialect, String column, Collection<T> values,
+        boolean numeric) {
+        return Restrictions.sqlRestriction(arrayCondition(dialect, "{alias}." + column),
+            arrayElements(values, numeric), arrayType(dialect, numeric));
+    }
+
+    private static String arrayCondition(Dialect dialect, String column) {
+        return column + (dialect instanceof PostgreSQL81Dialect ? " = any(?)" : " in (unnest(?))");
+    }
+
+    private static <T> List<Object> arrayElements(Collection<T> values, boolean numeric) {
+        List<Object> elements = new ArrayList<>(values.size());
+        if (numeric) {
+            values.forEach(value -> elements.add(((Number) value).longValue()));
+        } else {
+            elements.addAll(values);
+        }
+        return elements;
+    }
+
+    private static Type arrayType(Dialect dialect, boolean numeric) {
+        boolean postgresql = dialect instanceof PostgreSQL81Dialect;
+        String elementTypeName;
+        if (numeric) {
+            elementTypeName = postgresql ? "int8" : "BIGINT";
+        } else {
+            elementTypeName = postgresql ? "varchar" : "VARCHAR";
+        }
+        return new CustomType(new SqlArrayUserType(elementTypeName));
+    }
+
+    /**
+     * Writes the values to the {@link #IN_LIST_TABLE} and returns a restriction that selects them.
+     * Returns null if the table does not exist, as is the case for an HSQLDB database whose schema
+     * predates the table.
+     */
+    private <T> Criterion tempTableRestriction(Dialect dialect, String column,
+        Collection<T> values, boolean numeric) {
+        long listId = writeInListTable(dialect, values, numeric);
+        if (listId < 0) {
+            return null;
+        }
+        return Restrictions
+            .sqlRestriction("{alias}." + tempTableCondition(column, numeric) + listId + ")");
+    }
+
+    private static String tempTableCondition(String column, boolean numeric) {
+        return column + " in (select " + (numeric ? "LONG_VALUE" : "STRING_VALUE") + " from "
+            + IN_LIST_TABLE + " where LIST_ID = ";
+    }
+
+    /**
+     * Writes values to the {@link #IN_LIST_TABLE} and returns the list ID that identifies them.
+     * Returns -1 if the table does not exist.
+     */
+    private <T> long writeInListTable(Dialect dialect, Collection<T> values, boolean numeric) {
+        long listId = inListId.incrementAndGet();
+        String valueColumn = numeric ? "LONG_VALUE" : "STRING_VALUE";
+        boolean tableExists = getSession().doReturningWork(connection -> {
+            if (dialect instanceof PostgreSQL81Dialect) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(POSTGRESQL_IN_LIST_TABLE_DDL);
+                }
+            } else {
+                DatabaseMetaData metaData = connection.getMetaData();
+                try (ResultSet tables = metaData.getTables(null, null, IN_LIST_TABLE, null)) {
+                    if (!tables.next()) {
+                        return false;
+                    }
+                }
+            }
+            try (PreparedStatement insert = connection.prepareStatement("insert into "
+                + IN_LIST_TABLE + " (LIST_ID, " + valueColumn + ") values (?, ?)")) {
+                int batchCount = 0;
+                for (T value : values) {
+                    insert.setLong(1, listId);
+                    if (numeric) {
+                        insert.setLong(2, ((Number) value).longValue());
+                    } else {
+                        insert.setString(2, (String) value);
+                    }
+                    insert.addBatch();
+                    if (++batchCount == IN_LIST_BATCH_SIZE) {
+                        insert.executeBatch();
+                        batchCount = 0;
+                    }
+                }
+                if (batchCount > 0) {
+                    insert.executeBatch();
+                }
+            }
+            return true;
+        });
+        if (!tableExists) {
+            log.warn("Table " + IN_LIST_TABLE + " not found, using chunked IN clauses");
+            return -1;
+        }
+        return listId;
+    }
+
+    /**
+     * Restriction of a column to a collection of values, for use in a native SQL query. The SQL
+     * contains positional parameters, which are set by {@link #bind(Query, int)}.
+     */
+    protected static final class SqlInList {
+
+        private final String sql;
+        private final List<Object> parameters = new ArrayList<>();
+        private final List<Type> types = new ArrayList<>();
+
+        private SqlInList(String sql) {
+            this.sql = sql;
+        }
+
+        private SqlInList addParameter(Object parameter, Type type) {
+            parameters.add(parameter);
+            types.add(type);
+            return this;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Sets the parameters of the restriction, starting at a given position in the query, and
+         * returns the position of the next parameter.
+         */
+        public int bind(Query query, int position) {
+            for (int i = 0; i < parameters.size(); i++) {
+                query.setParameter(position++, parameters.get(i), types.get(i));
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Use this to restrict a column to the values in a collection of any size in a native SQL
+     * query. The values must all be numbers or all be strings. The restriction uses the
+     * {@link InListStrategy} for the database, as described in
+     * {@link #restrictionPropertyIn(Class, String, Collection)}, so that the query does not need to
+     * be repeated for chunks of the collection. With {@link InListStrategy#CHUNKED}, the
+     * restriction is a disjunction of IN clauses of at most {@link #MAX_EXPRESSIONS} values each.
+     *
+     * @param column the column, qualified with its table alias if needed.
+     */
+    protected <T> SqlInList sqlInList(String column, Collection<T> values) {
+        if (values.isEmpty()) {
+            return new SqlInList("1 = 0");
+        }
+        boolean numeric = values.stream().allMatch(Number.class::isInstance);
+        if (!numeric && !values.stream().allMatch(String.class::isInstance)) {
+            throw new IllegalArgumentException("Values must all be numbers or all be strings");
+        }
+        if (values.size() > MAX_EXPRESSIONS) {
+            Dialect dialect = ((SessionFactoryImplementor) getSession().getSessionFactory())
+                .getDialect();
+            switch (InListStrategy.forDialect(dialect)) {
+                case ARRAY:
+                    return new SqlInList(arrayCondition(dialect, column))
+                        .addParameter(arrayElements(values, numeric), arrayType(dialect, numeric));
+                case TEMP_TABLE:
+                    long listId = writeInListTable(dialect, values, numeric);
+                    if (listId >= 0) {
+                        return new SqlInList(tempTableCondition(column, numeric) + "?)")
+                            .addParameter(listId, StandardBasicTypes.LONG);
+                    }
+                    break;
+                default:
+            }
+        }
+        Type type = numeric ? StandardBasicTypes.LONG : StandardBasicTypes.STRING;
+        List<String> inClauses = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>(values.size());
+        for (List<T> chunk : Lists.partition(new ArrayList<>(values), MAX_EXPRESSIONS)) {
+            inClauses.add(column + " in ("
+                + chunk.stream().map(value -> "?").collect(Collectors.joining(", ")) + ")");
+            chunk.forEach(
+                value -> parameters.add(numeric ? ((Number) value).longValue() : value));
+        }
+        SqlInList inList = new SqlInList(inClauses.size() == 1 ? inClauses.get(0)
+            : "(" + String.join(" or ", inClauses) + ")");
+        parameters.forEach(parameter -> inList.addParameter(parameter, type));
+        return inList;
+    }
+
     /**
      * Flush any changes to persistent objects to the underlying database.
      */
@@ -317,6 +581,25 @@ public abstract class AbstractCrud implements AbstractCrudInterface {
         getSession().clear();
     }
 
+    /**
+     * Evict all instances of a given class from the Hibernate session. This is needed when the
+     * database is updated by means that bypass the session (for example, bulk updates via JDBC), so
+     * that subsequent retrievals do not return stale instances from the session.
+     */
+    protected void evictAll(Class<?> clazz) {
+        PersistenceContext persistenceContext = ((SessionImplementor) getSession())
+            .getPersistenceContext();
+        List<Object> entities = new ArrayList<>();
+        for (Object entity : persistenceContext.getEntitiesByKey().values()) {
+            if (clazz.isInstance(entity)) {
+                entities.add(entity);
+            }
+        }
+        for (Object entity : entities) {
+            evict(entity);
+        }
+    }
+
     /**
      * Clear the hibernate cache after first flushing all changes.
      */
@@ -0,0 +1,69 @@
+package gov.nasa.ziggy.crud;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.HSQLDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+
+/**
+ * Strategies for restricting a query to a property whose value is in a large collection. See
+ * {@link AbstractCrud#restrictionPropertyIn(Class, String, java.util.Collection)}.
+ *
+ * @author PT
+ */
+public enum InListStrategy {
+
+    /**
+     * The collection is split into chunks of {@link AbstractCrud#MAX_EXPRESSIONS} values, and the
+     * query contains an IN clause for each chunk. Supported by all databases.
+     */
+    CHUNKED,
+
+    /**
+     * The collection is written to a temporary table with a batched insert, and the query
+     * restriction is a subquery on the temporary table. Supported by HSQLDB and PostgreSQL.
+     */
+    TEMP_TABLE,
+
+    /**
+     * The collection is bound to the query as a single SQL array parameter. Supported by HSQLDB
+     * and PostgreSQL.
+     */
+    ARRAY;
+
+    /** Property value that selects the strategy based on the database dialect. */
+    public static final String AUTO = "auto";
+
+    /**
+     * Returns the strategy selected by the
+     * {@link PropertyNames#DATABASE_IN_LIST_STRATEGY_PROP_NAME} property for a given dialect. If
+     * the property is "auto" (the default), PostgreSQL uses {@link #ARRAY}, HSQLDB uses
+     * {@link #TEMP_TABLE}, and all other databases use {@link #CHUNKED}. A strategy that the
+     * dialect does not support is replaced with {@link #CHUNKED}.
+     */
+    public static InListStrategy forDialect(Dialect dialect) {
+        String strategyName = ZiggyConfiguration.getInstance()
+            .getString(PropertyNames.DATABASE_IN_LIST_STRATEGY_PROP_NAME, AUTO);
+        if (strategyName.equalsIgnoreCase(AUTO)) {
+            if (dialect instanceof PostgreSQL81Dialect) {
+                return ARRAY;
+            }
+            return dialect instanceof HSQLDialect ? TEMP_TABLE : CHUNKED;
+        }
+        InListStrategy strategy;
+        try {
+            strategy = valueOf(strategyName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new PipelineException("Unknown value " + strategyName + " for property "
+                + PropertyNames.DATABASE_IN_LIST_STRATEGY_PROP_NAME, e);
+        }
+        if (strategy != CHUNKED && !(dialect instanceof HSQLDialect)
+            && !(dialect instanceof PostgreSQL81Dialect)) {
+            return CHUNKED;
+        }
+        return strategy;
+    }
+}
@@ -0,0 +1,108 @@
+package gov.nasa.ziggy.crud;
+
+import java.io.Serializable;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.usertype.UserType;
+
+/**
+ * Hibernate {@link UserType} that maps a {@link Collection} to a SQL array. Used to bind query
+ * parameters for the {@link InListStrategy#ARRAY} strategy. Arrays that are read from the database
+ * are returned as unmodifiable {@link List}s of their elements.
+ *
+ * @author PT
+ */
+class SqlArrayUserType implements UserType {
+
+    private static final int[] SQL_TYPES = { Types.ARRAY };
+
+    private final String elementTypeName;
+
+    /**
+     * @param elementTypeName Database-specific name of the SQL type of the array elements.
+     */
+    public SqlArrayUserType(String elementTypeName) {
+        this.elementTypeName = elementTypeName;
+    }
+
+    @Override
+    public int[] sqlTypes() {
+        return SQL_TYPES;
+    }
+
+    @Override
+    public Class<?> returnedClass() {
+        return Collection.class;
+    }
+
+    @Override
+    public boolean equals(Object x, Object y) {
+        return x == null ? y == null : x.equals(y);
+    }
+
+    @Override
+    public int hashCode(Object x) {
+        return x.hashCode();
+    }
+
+    @Override
+    public Object nullSafeGet(ResultSet rs, String[] names, SessionImplementor session,
+        Object owner) throws SQLException {
+        Array array = rs.getArray(names[0]);
+        if (array == null) {
+            return null;
+        }
+        try {
+            return Collections.unmodifiableList(Arrays.asList((Object[]) array.getArray()));
+        } finally {
+            array.free();
+        }
+    }
+
+    @Override
+    public void nullSafeSet(PreparedStatement st, Object value, int index,
+        SessionImplementor session) throws SQLException {
+        if (value == null) {
+            st.setNull(index, Types.ARRAY);
+            return;
+        }
+        Object[] elements = ((Collection<?>) value).toArray();
+        st.setArray(index, st.getConnection().createArrayOf(elementTypeName, elements));
+    }
+
+    @Override
+    public Object deepCopy(Object value) {
+        return value;
+    }
+
+    @Override
+    public boolean isMutable() {
+        return false;
+    }
+
+    @Override
+    public Serializable disassemble(Object value) {
+        return value == null ? null : new ArrayList<>((Collection<?>) value);
+    }
+
+    @Override
+    public Object assemble(Serializable cached, Object owner) {
+        return cached == null ? null
+            : Collections.unmodifiableList(new ArrayList<>((Collection<?>) cached));
+    }
+
+    @Override
+    public Object replace(Object original, Object target, Object owner) {
+        return original;
+    }
+}
@@ -0,0 +1,293 @@
+package gov.nasa.ziggy.data.management;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongPredicate;
+
+/**
+ * Immutable set of consumer task IDs for a datastore file, stored in a compact binary form. This
+ * is the representation of the consumers of a {@link DatastoreProducerConsumer} that is used when
+ * the consumers are stored in the {@link DatastoreProducerConsumer.ConsumerStorage#BLOB} mode.
+ * <p>
+ * The encoded form starts with a format byte and a varint count of the IDs. The IDs follow in one
+ * of two formats, whichever is smaller:
+ * <ol>
+ * <li>{@link #SORTED_DELTAS}: the smallest ID as a zigzag varint, followed by the difference
+ * between each ID and its predecessor as a varint.
+ * <li>{@link #BITMAP}: the smallest ID as a zigzag varint, followed by a bitmap in which bit n is
+ * set if the smallest ID plus n is in the set.
+ * </ol>
+ * Because the encoding of a given set is unique, two instances are equal if and only if their
+ * encoded forms are equal. Membership tests are performed by scanning the encoded form, so the set
+ * never needs to be expanded into a collection of boxed IDs in order to be queried.
+ *
+ * @author PT
+ */
+public final class ConsumerSet {
+
+    static final byte SORTED_DELTAS = 1;
+    static final byte BITMAP = 2;
+
+    public static final ConsumerSet EMPTY = new ConsumerSet(new byte[] { SORTED_DELTAS, 0 });
+
+    private final byte[] bytes;
+
+    private ConsumerSet(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Constructs a {@link ConsumerSet} from a collection of IDs.
+     */
+    public static ConsumerSet of(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return EMPTY;
+        }
+        long[] values = new long[ids.size()];
+        int i = 0;
+        for (long id : ids) {
+            values[i++] = id;
+        }
+        return of(values);
+    }
+
+    private static ConsumerSet of(long[] values) {
+        long[] sorted = Arrays.stream(values).sorted().distinct().toArray();
+        if (sorted.length == 0) {
+            return EMPTY;
+        }
+        byte[] sortedDeltas = encodeSortedDeltas(sorted);
+        long span = sorted[sorted.length - 1] - sorted[0];
+        if (span >= 0 && span / 8 + 1 < sortedDeltas.length) {
+            return new ConsumerSet(encodeBitmap(sorted));
+        }
+        return new ConsumerSet(sortedDeltas);
+    }
+
+    /**
+     * Constructs a {@link ConsumerSet} from its encoded form. A null or empty array produces an
+     * empty set.
+     */
+    public static ConsumerSet fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return EMPTY;
+        }
+        if (bytes[0] != SORTED_DELTAS && bytes[0] != BITMAP) {
+            throw new IllegalArgumentException("Unknown consumer set format " + bytes[0]);
+        }
+        return new ConsumerSet(bytes.clone());
+    }
+
+    /**
+     * Returns the encoded form of the set.
+     */
+    public byte[] toBytes() {
+        return bytes.clone();
+    }
+
+    /**
+     * Returns a {@link ConsumerSet} that contains the IDs in this set plus the specified ID. If the
+     * ID is already present, this set is returned.
+     */
+    public ConsumerSet with(long id) {
+        if (contains(id)) {
+            return this;
+        }
+        long[] values = toArray();
+        long[] newValues = Arrays.copyOf(values, values.length + 1);
+        newValues[values.length] = id;
+        return of(newValues);
+    }
+
+    /**
+     * Returns a {@link ConsumerSet} that contains the IDs in this set plus the specified IDs.
+     */
+    public ConsumerSet withAll(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return this;
+        }
+        long[] values = toArray();
+        long[] newValues = Arrays.copyOf(values, values.length + ids.size());
+        int i = values.length;
+        for (long id : ids) {
+            newValues[i++] = id;
+        }
+        return of(newValues);
+    }
+
+    public int size() {
+        return (int) new Decoder().count;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean contains(long id) {
+        return anyMatch(value -> value == id);
+    }
+
+    /**
+     * Determines whether any of the specified IDs are in the set.
+     */
+    public boolean containsAny(Collection<Long> ids) {
+        if (ids.isEmpty() || isEmpty()) {
+            return false;
+        }
+        return containsAny(ids.stream().mapToLong(Long::longValue).sorted().toArray());
+    }
+
+    /**
+     * Determines whether any of the specified IDs are in the set. The IDs must be in ascending
+     * order. Use this method rather than {@link #containsAny(Collection)} when the same IDs are
+     * tested against many sets.
+     */
+    public boolean containsAny(long[] sortedIds) {
+        if (sortedIds.length == 0 || isEmpty()) {
+            return false;
+        }
+        return anyMatch(value -> Arrays.binarySearch(sortedIds, value) >= 0);
+    }
+
+    /**
+     * Returns the IDs in the set, in ascending order.
+     */
+    public long[] toArray() {
+        Decoder decoder = new Decoder();
+        long[] values = new long[(int) decoder.count];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = decoder.next();
+        }
+        return values;
+    }
+
+    /**
+     * Returns the IDs in the set as a new, mutable {@link Set}.
+     */
+    public Set<Long> toSet() {
+        Set<Long> set = new TreeSet<>();
+        for (long value : toArray()) {
+            set.add(value);
+        }
+        return set;
+    }
+
+    private boolean anyMatch(LongPredicate predicate) {
+        Decoder decoder = new Decoder();
+        for (long i = 0; i < decoder.count; i++) {
+            if (predicate.test(decoder.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return Arrays.equals(bytes, ((ConsumerSet) obj).bytes);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private static byte[] encodeSortedDeltas(long[] sorted) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sorted.length + 8);
+        out.write(SORTED_DELTAS);
+        writeVarint(out, sorted.length);
+        writeVarint(out, zigzag(sorted[0]));
+        for (int i = 1; i < sorted.length; i++) {
+            writeVarint(out, sorted[i] - sorted[i - 1]);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeBitmap(long[] sorted) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(BITMAP);
+        writeVarint(out, sorted.length);
+        writeVarint(out, zigzag(sorted[0]));
+        byte[] bitmap = new byte[(int) ((sorted[sorted.length - 1] - sorted[0]) / 8 + 1)];
+        for (long value : sorted) {
+            long offset = value - sorted[0];
+            bitmap[(int) (offset >>> 3)] |= 1 << (offset & 7);
+        }
+        out.write(bitmap, 0, bitmap.length);
+        return out.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) (remaining & 0x7F | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    private static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+
+    private static long unzigzag(long value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    /**
+     * Sequential decoder for the encoded form.
+     */
+    private class Decoder {
+
+        private final long count;
+        private int position = 1;
+        private long previous;
+        private long returned;
+        private long bitOffset = -1;
+        private final long base;
+
+        public Decoder() {
+            count = readVarint();
+            base = count > 0 ? unzigzag(readVarint()) : 0;
+        }
+
+        public long next() {
+            if (bytes[0] == SORTED_DELTAS) {
+                previous = returned == 0 ? base : previous + readVarint();
+                returned++;
+                return previous;
+            }
+            do {
+                bitOffset++;
+            } while ((bytes[position + (int) (bitOffset >>> 3)] & 1 << (bitOffset & 7)) == 0);
+            returned++;
+            return base + bitOffset;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package gov.nasa.ziggy.data.management;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.usertype.UserType;
+
+/**
+ * Hibernate {@link UserType} that stores a {@link ConsumerSet} as a binary column containing its
+ * encoded form. A null column is read as an empty set.
+ *
+ * @author PT
+ */
+public class ConsumerSetUserType implements UserType {
+
+    private static final int[] SQL_TYPES = { Types.VARBINARY };
+
+    @Override
+    public int[] sqlTypes() {
+        return SQL_TYPES;
+    }
+
+    @Override
+    public Class<?> returnedClass() {
+        return ConsumerSet.class;
+    }
+
+    @Override
+    public boolean equals(Object x, Object y) {
+        return x == null ? y == null : x.equals(y);
+    }
+
+    @Override
+    public int hashCode(Object x) {
+        return x.hashCode();
+    }
+
+    @Override
+    public Object nullSafeGet(ResultSet rs, String[] names, SessionImplementor session,
+        Object owner) throws SQLException {
+        return ConsumerSet.fromBytes(rs.getBytes(names[0]));
+    }
+
+    @Override
+    public void nullSafeSet(PreparedStatement st, Object value, int index,
+        SessionImplementor session) throws SQLException {
+        if (value == null) {
+            st.setNull(index, Types.VARBINARY);
+        } else {
+            st.setBytes(index, ((ConsumerSet) value).toBytes());
+        }
+    }
+
+    // ConsumerSet is immutable, so no copies are needed.
+    @Override
+    public Object deepCopy(Object value) {
+        return value;
+    }
+
+    @Override
+    public boolean isMutable() {
+        return false;
+    }
+
+    @Override
+    public Serializable disassemble(Object value) {
+        return value == null ? null : ((ConsumerSet) value).toBytes();
+    }
+
+    @Override
+    public Object assemble(Serializable cached, Object owner) {
+        return ConsumerSet.fromBytes((byte[]) cached);
+    }
+
+    @Override
+    public Object replace(Object original, Object target, Object owner) {
+        return original;
+    }
+}
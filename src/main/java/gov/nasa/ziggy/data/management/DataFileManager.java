@@ -8,27 +8,28 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import gov.nasa.ziggy.data.management.DataFileType.RegexType;
 import gov.nasa.ziggy.models.ModelImporter;
@@ -69,12 +70,15 @@ import gov.nasa.ziggy.util.io.FileUtil;
  */
 public class DataFileManager {
 
+    private static final Logger log = LoggerFactory.getLogger(DataFileManager.class);
+
     public static final String OVERWRITE_PERMISSIONS = "rwxrwxr-x";
     public static final String FILE_PERMISSIONS = "r--r--r--";
     public static final String DIR_PERMISSIONS = "r-xr-xr-x";
+    static final String COPY_MODE_AUTO = "auto";
 
-    private static final Predicate<? super File> WITH_RESULTS = AlgorithmStateFiles::hasResults;
-    private static final Predicate<? super File> WITHOUT_RESULTS = WITH_RESULTS.negate();
+    // Number of files cloned by each cp process when staging with reflinks.
+    private static final int REFLINK_BATCH_SIZE = 256;
 
     private DatastorePathLocator datastorePathLocator;
     private PipelineTask pipelineTask;
@@ -135,14 +139,50 @@ public class DataFileManager {
         taskDirCopyType = taskDirCopyType();
     }
 
+    /**
+     * Selects the copy type for staging files to the task directory. If symlinks are enabled, they
+     * are used. Otherwise, the copy mode property selects among copies (the default), hard links,
+     * and reflinks; auto selects the fastest mode that the datastore and task directory file
+     * systems support. Reflinks are preferred to hard links because the task directory files are
+     * then independent of the datastore files.
+     */
     private DatastoreCopyType taskDirCopyType() {
-        DatastoreCopyType copyType = null;
         boolean useSymlinks = ZiggyConfiguration.getInstance()
             .getBoolean(PropertyNames.USE_SYMLINKS_PROP_NAME, false);
         if (useSymlinks) {
-            copyType = DatastoreCopyType.SYMLINK;
+            return DatastoreCopyType.SYMLINK;
+        }
+        String copyMode = ZiggyConfiguration.getInstance()
+            .getString(PropertyNames.COPY_MODE_PROP_NAME, DatastoreCopyType.COPY.name());
+        if (copyMode.equalsIgnoreCase(DatastoreCopyType.COPY.name())) {
+            return DatastoreCopyType.COPY;
+        }
+        FileSystemCapabilities capabilities = FileSystemCapabilities.forDirectories(datastoreRoot,
+            taskDirectory);
+        DatastoreCopyType copyType = DatastoreCopyType.COPY;
+        if (copyMode.equalsIgnoreCase(COPY_MODE_AUTO)) {
+            if (capabilities.reflinksSupported()) {
+                copyType = DatastoreCopyType.REFLINK;
+            } else if (capabilities.hardLinksSupported()) {
+                copyType = DatastoreCopyType.HARDLINK;
+            }
+        } else if (copyMode.equalsIgnoreCase(DatastoreCopyType.REFLINK.name())) {
+            copyType = DatastoreCopyType.REFLINK;
+            if (!capabilities.reflinksSupported()) {
+                log.warn("Reflinks not supported from " + datastoreRoot + " to " + taskDirectory
+                    + ", using copies");
+                copyType = DatastoreCopyType.COPY;
+            }
+        } else if (copyMode.equalsIgnoreCase(DatastoreCopyType.HARDLINK.name())) {
+            copyType = DatastoreCopyType.HARDLINK;
+            if (!capabilities.hardLinksSupported()) {
+                log.warn("Hard links not supported from " + datastoreRoot + " to " + taskDirectory
+                    + ", using copies");
+                copyType = DatastoreCopyType.COPY;
+            }
         } else {
-            copyType = DatastoreCopyType.COPY;
+            throw new PipelineException("Unsupported value of "
+                + PropertyNames.COPY_MODE_PROP_NAME + ": " + copyMode);
         }
         return copyType;
     }
@@ -165,13 +205,18 @@ public class DataFileManager {
 
     /**
      * Obtains a Map from DataFileType instances to files of each type in a sub-directory of the
-     * datastore.
+     * datastore. If the {@link DatastoreCatalog} is enabled, the catalog is used to find the files;
+     * otherwise the sub-directory is searched.
      *
      * @param datastoreSubDir subdirectory of the datastore to be searched.
      * @param dataFileTypes Set of DataFileType instances to be matched.
      */
     public Map<DataFileType, Set<Path>> datastoreDataFilesMap(Path datastoreSubDir,
         Set<DataFileType> dataFileTypes) {
+        if (DatastoreCatalog.isEnabled()) {
+            return datastoreCatalog().dataFilesMap(datastoreRoot.resolve(datastoreSubDir),
+                dataFileTypes);
+        }
         return dataFilesMap(datastoreRoot.resolve(datastoreSubDir), dataFileTypes,
             RegexType.DATASTORE);
     }
@@ -259,12 +304,14 @@ public class DataFileManager {
         Path workingDirectory = DirectoryProperties.workingDir();
         Map<DataFileType, Set<Path>> sourceDataFiles = dataFilesMap(workingDirectory, dataFileTypes,
             RegexType.TASK_DIR);
+        Map<Path, Path> sourceToDestination = new LinkedHashMap<>();
         for (DataFileType dataFileType : sourceDataFiles.keySet()) {
             for (Path sourceFile : sourceDataFiles.get(dataFileType)) {
-                taskDirCopyType.copy(workingDirectory.resolve(sourceFile),
+                sourceToDestination.put(workingDirectory.resolve(sourceFile),
                     taskDirectory.resolve(sourceFile));
             }
         }
+        taskDirCopyType.copy(sourceToDestination);
     }
 
     /**
@@ -315,10 +362,50 @@ public class DataFileManager {
      */
     public void copyFilesByNameFromTaskDirToWorkingDir(Collection<String> filenames) {
         Path workingDirectory = DirectoryProperties.workingDir();
+        Map<Path, Path> sourceToDestination = new LinkedHashMap<>();
         for (String filename : filenames) {
-            taskDirCopyType.copy(taskDirectory.resolve(filename),
+            sourceToDestination.put(taskDirectory.resolve(filename),
                 workingDirectory.resolve(filename));
         }
+        taskDirCopyType.copy(sourceToDestination);
+    }
+
+    /**
+     * Populates all the subtask directories of a task with their files from the task directory at
+     * once, so that the inputs processing of each subtask need not stage them. Each subtask
+     * receives its own files and the shared files, such as models. Files are symlinked in parallel
+     * if symlinks are used for the task directory. Otherwise, they are hard-linked whenever the
+     * task directory's file system supports hard links, regardless of the copy mode, since the
+     * subtask directories are within the task directory; a file is only copied if it can't be
+     * linked.
+     *
+     * @param taskConfigurationManager the {@link TaskConfigurationManager} that defines the files
+     * of each subtask.
+     * @param sharedFilenames the names of the files that all subtasks need.
+     */
+    public void populateSubtaskDirectories(TaskConfigurationManager taskConfigurationManager,
+        Collection<String> sharedFilenames) {
+        DatastoreCopyType copyType = taskDirCopyType;
+        if (copyType != DatastoreCopyType.SYMLINK && FileSystemCapabilities
+            .forDirectories(taskDirectory, taskDirectory)
+            .hardLinksSupported()) {
+            copyType = DatastoreCopyType.HARDLINK_OR_COPY;
+        }
+        List<Map.Entry<Path, Path>> sourcesAndDestinations = new ArrayList<>();
+        for (int i = 0; i < taskConfigurationManager.numSubTasks(); i++) {
+            Path subtaskDirectory = TaskConfigurationManager
+                .subtaskDirectory(taskDirectory.toFile(), i)
+                .toPath();
+            Set<String> filenames = new TreeSet<>(taskConfigurationManager.filesForSubtask(i));
+            filenames.addAll(sharedFilenames);
+            for (String filename : filenames) {
+                sourcesAndDestinations.add(new AbstractMap.SimpleImmutableEntry<>(
+                    taskDirectory.resolve(filename), subtaskDirectory.resolve(filename)));
+            }
+        }
+        log.info("Populating " + taskConfigurationManager.numSubTasks()
+            + " subtask directories with " + sourcesAndDestinations.size() + " files");
+        new FileStagingEngine(copyType).stage(sourcesAndDestinations);
     }
 
     /**
@@ -365,6 +452,8 @@ public class DataFileManager {
         for (Set<Path> paths : datastoreFilesMap.values()) {
             datastoreFiles.addAll(paths);
         }
+        updateDatastoreCatalog(datastoreFiles);
+
         // Record the originator in the data accountability table in the database
         datastoreProducerConsumerCrud().createOrUpdateProducer(pipelineTask, datastoreFiles,
             DatastoreProducerConsumer.DataReceiptFileType.DATA);
@@ -492,10 +581,12 @@ public class DataFileManager {
      */
     public void copyToTaskDirectory(Set<? extends DataFileInfo> dataFiles) {
         Map<DataFileInfo, Path> dataFileInfoToPath = findInputFiles(dataFiles);
+        Map<Path, Path> sourceToDestination = new LinkedHashMap<>();
         for (DataFileInfo dataFileInfo : dataFileInfoToPath.keySet()) {
-            taskDirCopyType.copy(dataFileInfoToPath.get(dataFileInfo),
+            sourceToDestination.put(dataFileInfoToPath.get(dataFileInfo),
                 taskDirectory.resolve(dataFileInfo.getName()));
         }
+        taskDirCopyType.copy(sourceToDestination);
 
         // obtain the originators for all datastore files and add them as producers to the
         // current pipeline task; also delete any existing ones so that in the event of a
@@ -561,19 +652,15 @@ public class DataFileManager {
      */
     public void moveToDatastore(Set<? extends DataFileInfo> dataFiles) {
         Set<Path> datastoreFiles = new HashSet<>();
+        Map<Path, Path> sourceToDestination = new LinkedHashMap<>();
         for (DataFileInfo dataFileInfo : dataFiles) {
             Path taskDirLocation = taskDirectory.resolve(dataFileInfo.getName());
             Path datastoreLocation = datastorePathLocator.datastorePath(dataFileInfo);
-            Path datastoreLocationParent = datastoreLocation.getParent();
-            try {
-                Files.createDirectories(datastoreLocationParent);
-            } catch (IOException e) {
-                throw new PipelineException("Unable to create directory " + datastoreLocationParent,
-                    e);
-            }
-            datastoreCopyType.copy(taskDirLocation, datastoreLocation);
+            sourceToDestination.put(taskDirLocation, datastoreLocation);
             datastoreFiles.add(datastoreRoot.relativize(datastoreLocation));
         }
+        datastoreCopyType.copy(sourceToDestination);
+        updateDatastoreCatalog(datastoreFiles);
 
         // Record the originator in the data accountability table in the database
         datastoreProducerConsumerCrud().createOrUpdateProducer(pipelineTask, datastoreFiles,
@@ -634,6 +721,23 @@ public class DataFileManager {
         return datastoreProducerConsumerCrud;
     }
 
+    /**
+     * Returns the {@link DatastoreCatalog} for the datastore used by this instance.
+     */
+    DatastoreCatalog datastoreCatalog() {
+        return DatastoreCatalog.forDatastore(datastoreRoot);
+    }
+
+    /**
+     * Adds files that have been moved into the datastore to the {@link DatastoreCatalog}, if the
+     * catalog is enabled.
+     */
+    private void updateDatastoreCatalog(Set<Path> datastoreFiles) {
+        if (DatastoreCatalog.isEnabled()) {
+            datastoreCatalog().add(datastoreFiles);
+        }
+    }
+
     /**
      * Returns the PipelineTaskCrud instance, constructing if necessary. Public to allow mocking in
      * unit tests.
@@ -662,7 +766,8 @@ public class DataFileManager {
     /**
      * Helper function that performs the general process of searching a collection of directories
      * for files that match DataFileType regular expressions, and returns a Map from the
-     * DataFileType instances to the identified files.
+     * DataFileType instances to the identified files. Each file is classified against all the
+     * DataFileType instances in a single pass as the directories are traversed.
      *
      * @param directories Collection of directories to be searched.
      * @param dataFileTypes Set of DataFileType instances to search for.
@@ -671,38 +776,15 @@ public class DataFileManager {
     private Map<DataFileType, Set<Path>> dataFilesMap(Collection<Path> directories,
         Set<DataFileType> dataFileTypes, DataFileType.RegexType regexType) {
 
-        Map<DataFileType, Set<Path>> dataFilesMap = new HashMap<>();
-        Set<Path> filesSet;
-        Stream<Path> pathStream = null;
-        Path pathToRelativize = null;
+        DataFileTypeMatcher matcher = new DataFileTypeMatcher(dataFileTypes, regexType);
+        Map<DataFileType, Set<Path>> dataFilesMap = matcher.emptyDataFilesMap();
         for (Path directory : directories) {
-            try {
-                pathStream = regexType.pathStream(directory);
-                pathToRelativize = regexType.pathToRelativize(directory, datastoreRoot);
-                final Path finalPathToRelativize = pathToRelativize;
-                filesSet = pathStream.map(s -> finalPathToRelativize.relativize(s))
-                    .collect(Collectors.toCollection(TreeSet::new));
+            Path pathToRelativize = regexType.pathToRelativize(directory, datastoreRoot);
+            try (Stream<Path> pathStream = regexType.pathStream(directory)) {
+                matcher.addMatches(pathStream.map(s -> pathToRelativize.relativize(s)),
+                    dataFilesMap);
             } catch (IOException e) {
                 throw new PipelineException("Unable to list files in " + directory.toString(), e);
-            } finally {
-                if (pathStream != null) {
-                    pathStream.close();
-                }
-            }
-
-            for (DataFileType dataFileType : dataFileTypes) {
-                Pattern pattern = regexType.getPattern(dataFileType);
-                Set<Path> filesOfType = new TreeSet<>();
-                for (Path filePath : filesSet) {
-                    if (pattern.matcher(filePath.toString()).matches()) {
-                        filesOfType.add(filePath);
-                    }
-                }
-                if (dataFilesMap.containsKey(dataFileType)) {
-                    dataFilesMap.get(dataFileType).addAll(filesOfType);
-                } else {
-                    dataFilesMap.put(dataFileType, filesOfType);
-                }
             }
         }
         return dataFilesMap;
@@ -772,6 +854,7 @@ public class DataFileManager {
         DatastoreCopyType copyType, TaskConfigurationParameters taskConfig) {
 
         Map<DataFileType, Set<Path>> copiedFiles = new HashMap<>();
+        Map<Path, Path> sourceToDestination = new LinkedHashMap<>();
         for (DataFileType dataFileType : dataFileTypesMap.keySet()) {
             Set<Path> dataFiles = filterDataFiles(dataFileTypesMap.get(dataFileType), destination,
                 taskConfig);
@@ -783,13 +866,14 @@ public class DataFileManager {
                 DataFilePaths dataFilePaths = destination.dataFilePaths(datastoreRoot,
                     taskDirectory, dataFileType, dataFile);
                 datastoreFiles.add(datastoreRoot.relativize(dataFilePaths.getDatastorePath()));
-                copyType.copy(dataFilePaths.getSourcePath(), dataFilePaths.getDestinationPath());
-
+                sourceToDestination.put(dataFilePaths.getSourcePath(),
+                    dataFilePaths.getDestinationPath());
             }
             if (destination.equals(RegexType.DATASTORE)) {
                 copiedFiles.put(dataFileType, datastoreFiles);
             }
         }
+        copyType.copy(sourceToDestination);
         return copiedFiles;
     }
 
@@ -821,24 +905,24 @@ public class DataFileManager {
 //    }
 
     private List<Path> completedSubtaskDirectoriesWithResults() {
-        return completedSubtaskDirectories(WITH_RESULTS);
+        return completedSubtaskDirectories(true);
     }
 
     private List<Path> completedSubtaskDirectoriesWithoutResults() {
-        return completedSubtaskDirectories(WITHOUT_RESULTS);
+        return completedSubtaskDirectories(false);
     }
 
-    private List<Path> completedSubtaskDirectories(Predicate<? super File> predicate) {
+    private List<Path> completedSubtaskDirectories(boolean withResults) {
 
         // Reconstitute the TaskConfigurationManager from the task directory
         TaskConfigurationManager configManager = TaskConfigurationManager
             .restore(taskDirectory.toFile());
 
         // Identify the subtask directories that correspond to successful executions of an algorithm
-        return configManager.allSubTaskDirectories()
+        return AlgorithmStateFiles
+            .completedSubtaskDirectories(taskDirectory.toFile(),
+                configManager.allSubTaskDirectories(), withResults)
             .stream()
-            .filter(AlgorithmStateFiles::isComplete)
-            .filter(predicate)
             .map(File::toPath)
             .collect(Collectors.toList());
 
@@ -879,59 +963,29 @@ public class DataFileManager {
      */
     private Set<Path> filterDataFilesForKeepUpProcessing(Set<Path> allDataFiles) {
 
-        // collect all the consumers of the files in question -- note that we want both the
-        // consumers that produced output with the files AND consumers that failed to produce
-        // output but which recorded successful processing. The latter are stored with
-        // negative consumer IDs. This is necessary because for any file that ran successfully
-        // but produced no output, we don't want to process it again during "keep-up" processing.
-        List<DatastoreProducerConsumer> dpcs = datastoreProducerConsumerCrud()
-            .retrieveByFilename(allDataFiles);
-        Set<Long> allConsumers = new HashSet<>();
-        dpcs.stream().forEach(s -> allConsumers.addAll(s.getAllConsumers()));
-
-        // Determine the consumers that have the same pipeline definition node as the
-        // current task
-        List<Long> consumersWithMatchingNode = pipelineTaskCrud()
-            .retrieveIdsForPipelineDefinitionNode(allConsumers,
-                pipelineTask.getPipelineDefinitionNode());
-
-        // Return the data files that don't have any consumers that have the specified
-        // pipeline definition node
-        return dpcs.stream()
-            .filter(s -> Collections.disjoint(s.getAllConsumers(), consumersWithMatchingNode))
-            .map(s -> Paths.get(s.getFilename()))
-            .collect(Collectors.toSet());
-
+        // Note that we want to filter out files with consumers that produced output AND
+        // consumers that failed to produce output but which recorded successful processing. The
+        // latter are stored with negative consumer IDs. This is necessary because for any file
+        // that ran successfully but produced no output, we don't want to process it again during
+        // "keep-up" processing. The filtering is performed by the database, so only the
+        // surviving files are retrieved.
+        return datastoreProducerConsumerCrud().retrieveFilesNotConsumedByNode(allDataFiles,
+            pipelineTask.getPipelineDefinitionNode());
     }
 
     /**
      * Filters data files for "bugfix" reprocessing. This is reprocessing in which the user doesn't
      * want to process all files, but just the ones that have failed in a prior processing run. This
      * is accomplished by taking the prior run or runs (in the form of pipeline task IDs) and
-     * excluding all inputs that were successfully processed in any of those prior tasks.
+     * excluding all inputs that were successfully processed in any of those prior tasks that used
+     * the same pipeline definition node as the current task.
      */
     private Set<Path> filterDataFilesForBugfixProcessing(Set<Path> allDataFiles,
         long[] reprocessingTasksExclude) {
 
-        List<DatastoreProducerConsumer> dpcs = datastoreProducerConsumerCrud()
-            .retrieveByFilename(allDataFiles);
-
-        // Figure out if any of the excluded tasks use the same pipeline definition node
-        // as the current one, if not we can walk away
-        List<Long> reprocessingTasksExcludeList = Arrays
-            .asList(ArrayUtils.toObject(reprocessingTasksExclude));
-        List<Long> tasksWithMatchingNode = pipelineTaskCrud().retrieveIdsForPipelineDefinitionNode(
-            reprocessingTasksExcludeList, pipelineTask.getPipelineDefinitionNode());
-        if (tasksWithMatchingNode.isEmpty()) {
-            return allDataFiles;
-        }
-
-        // Otherwise, any input that DOES NOT have one of the excluded tasks as
-        // a past consumer should be returned
-        return dpcs.stream()
-            .filter(s -> Collections.disjoint(s.getConsumers(), tasksWithMatchingNode))
-            .map(s -> Paths.get(s.getFilename()))
-            .collect(Collectors.toSet());
+        return datastoreProducerConsumerCrud().retrieveFilesNotConsumedByTasks(allDataFiles,
+            Arrays.asList(ArrayUtils.toObject(reprocessingTasksExclude)),
+            pipelineTask.getPipelineDefinitionNode());
     }
 
     /**
@@ -944,10 +998,13 @@ public class DataFileManager {
      * or it's a file (symlink or regular file) that lies inside the datastore.
      */
     public static Path realSourceFile(Path src) throws IOException {
-        Path datastoreRoot = DirectoryProperties.datastoreRootDir();
+        return realSourceFile(src, DirectoryProperties.datastoreRootDir());
+    }
+
+    private static Path realSourceFile(Path src, Path datastoreRoot) throws IOException {
         Path trueSrc = src;
-        if (Files.isSymbolicLink(src) && !src.startsWith(datastoreRoot)) {
-            trueSrc = realSourceFile(Files.readSymbolicLink(src));
+        while (Files.isSymbolicLink(trueSrc) && !trueSrc.startsWith(datastoreRoot)) {
+            trueSrc = Files.readSymbolicLink(trueSrc);
         }
         return trueSrc;
     }
@@ -963,6 +1020,16 @@ public class DataFileManager {
      * source file, as defined by the {@link DataFileManager#realSourceFile(Path)} method.
      * Symlinking can be faster than copying and can consume less disk space (assuming the datastore
      * and working directories are on the same file system).
+     * <li>{@link DatastoreCopyType#HARDLINK} makes the destination a hard link to the true source
+     * file. Like a symlink, a hard link is fast and consumes no space, but unlike a symlink it
+     * remains valid when the directory that contains it is copied elsewhere. Hard links require the
+     * source and destination to be on the same file system. Directories are reproduced at the
+     * destination, with each file in the directory hard-linked.
+     * <li>{@link DatastoreCopyType#HARDLINK_OR_COPY} makes the destination a hard link to the true
+     * source file if possible, and otherwise a copy of it.
+     * <li>{@link DatastoreCopyType#REFLINK} makes the destination a copy-on-write clone of the true
+     * source file. Clones are as fast as hard links, but the destination is an independent file.
+     * If the file system does not support clones, a traditional copy is performed.
      * <li>{@link DatastoreCopyType#MOVE} will move the true source file to the destination; that
      * is, it will follow symlinks via the {@link DataFileManager#realSourceFile(Path)} method and
      * move the file that is found in this way. In addition, if the source file is a symlink, the
@@ -977,22 +1044,24 @@ public class DataFileManager {
      * prior to execution.
      * <p>
      * IFor copying files from the datastore to the task directory, or from the task directory to
-     * the subtask directory, {@link DatastoreCopyType#COPY}, and {@link DatastoreCopyType#SYMLINK}
-     * options are available. For copies from the task directory to the datastore, only one option
+     * the subtask directory, {@link DatastoreCopyType#COPY}, {@link DatastoreCopyType#SYMLINK},
+     * {@link DatastoreCopyType#HARDLINK}, and {@link DatastoreCopyType#REFLINK} options are
+     * available. For copies from the task directory to the datastore, only one option
      * is provided: {@link DatastoreCopyType#MOVE}.
      *
      * @author PT
      */
-    private enum DatastoreCopyType {
+    private enum DatastoreCopyType implements FileStagingEngine.StagingOperation {
         COPY {
             @Override
-            protected void copyInternal(Path src, Path dest) throws IOException {
+            public long transfer(Path src, Path dest) throws IOException {
                 checkout(src, dest);
                 if (Files.isRegularFile(src)) {
                     Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
-                } else {
-                    FileUtils.copyDirectory(src.toFile(), dest.toFile());
+                    return Files.size(dest);
                 }
+                FileUtils.copyDirectory(src.toFile(), dest.toFile());
+                return FileUtils.sizeOfDirectory(dest.toFile());
             }
 
             @Override
@@ -1000,9 +1069,127 @@ public class DataFileManager {
                 return "Unable to copy file %s to %s\n";
             }
         },
+        HARDLINK {
+            @Override
+            public long transfer(Path src, Path dest) throws IOException {
+                checkout(src, dest);
+                Path trueSrc = DataFileManager.realSourceFile(src);
+                if (Files.exists(dest, LinkOption.NOFOLLOW_LINKS)) {
+                    FileUtils.forceDelete(dest.toFile());
+                }
+                if (!Files.isDirectory(trueSrc)) {
+                    Files.createLink(dest, trueSrc);
+                    return 0;
+                }
+                try (Stream<Path> paths = Files.walk(trueSrc)) {
+                    for (Path path : (Iterable<Path>) paths::iterator) {
+                        Path destPath = dest.resolve(trueSrc.relativize(path));
+                        if (Files.isDirectory(path)) {
+                            Files.createDirectories(destPath);
+                        } else {
+                            Files.createLink(destPath, path);
+                        }
+                    }
+                }
+                return 0;
+            }
+
+            @Override
+            protected String pipelineExceptionFormat() {
+                return "Unable to create hard link %s from %s\n";
+            }
+        },
+        HARDLINK_OR_COPY {
+            @Override
+            public long transfer(Path src, Path dest) throws IOException {
+                try {
+                    return HARDLINK.transfer(src, dest);
+                } catch (IOException e) {
+                    log.debug("Unable to hard-link " + src + " to " + dest + ", copying", e);
+                }
+
+                // Remove anything that a failed hard link of a directory may have left behind.
+                if (Files.exists(dest, LinkOption.NOFOLLOW_LINKS)) {
+                    FileUtils.forceDelete(dest.toFile());
+                }
+                return COPY.transfer(DataFileManager.realSourceFile(src), dest);
+            }
+
+            @Override
+            protected String pipelineExceptionFormat() {
+                return "Unable to hard-link or copy file %s to %s\n";
+            }
+        },
+        REFLINK {
+            @Override
+            public long transfer(Path src, Path dest) throws IOException {
+                checkout(src, dest);
+                Path trueSrc = DataFileManager.realSourceFile(src);
+                if (Files.exists(dest, LinkOption.NOFOLLOW_LINKS)) {
+                    FileUtils.forceDelete(dest.toFile());
+                }
+                if (FileSystemCapabilities.reflink(trueSrc, dest)) {
+                    return 0;
+                }
+
+                // Fall back to a conventional copy, after removing anything that a failed
+                // reflink of a directory may have left behind.
+                if (Files.exists(dest, LinkOption.NOFOLLOW_LINKS)) {
+                    FileUtils.forceDelete(dest.toFile());
+                }
+                return COPY.transfer(trueSrc, dest);
+            }
+
+            /**
+             * Clones a group of files with a single cp process. Files that are renamed at the
+             * destination, or that are in a group that could not be cloned, are transferred
+             * individually.
+             */
+            @Override
+            public long transfer(Path destDir, List<Map.Entry<Path, Path>> sourcesAndDestinations)
+                throws IOException {
+                List<Path> trueSources = new ArrayList<>();
+                List<Map.Entry<Path, Path>> cloned = new ArrayList<>();
+                List<Map.Entry<Path, Path>> individual = new ArrayList<>();
+                for (Map.Entry<Path, Path> entry : sourcesAndDestinations) {
+                    Path src = entry.getKey();
+                    Path dest = entry.getValue();
+                    checkout(src, dest);
+                    Path trueSrc = DataFileManager.realSourceFile(src);
+                    if (!trueSrc.getFileName().equals(dest.getFileName())) {
+                        individual.add(entry);
+                        continue;
+                    }
+                    if (Files.exists(dest, LinkOption.NOFOLLOW_LINKS)) {
+                        FileUtils.forceDelete(dest.toFile());
+                    }
+                    trueSources.add(trueSrc);
+                    cloned.add(entry);
+                }
+                if (!trueSources.isEmpty()
+                    && !FileSystemCapabilities.reflink(trueSources, destDir)) {
+                    individual.addAll(cloned);
+                }
+                long bytes = 0;
+                for (Map.Entry<Path, Path> entry : individual) {
+                    bytes += transfer(entry.getKey(), entry.getValue());
+                }
+                return bytes;
+            }
+
+            @Override
+            public int batchSize() {
+                return REFLINK_BATCH_SIZE;
+            }
+
+            @Override
+            protected String pipelineExceptionFormat() {
+                return "Unable to reflink file %s to %s\n";
+            }
+        },
         MOVE {
             @Override
-            protected void copyInternal(Path src, Path dest) throws IOException {
+            public long transfer(Path src, Path dest) throws IOException {
                 checkout(src, dest);
                 Path trueSrc = DataFileManager.realSourceFile(src);
                 if (Files.exists(dest)) {
@@ -1010,11 +1197,16 @@ public class DataFileManager {
                 }
                 Files.move(trueSrc, dest, StandardCopyOption.REPLACE_EXISTING,
                     StandardCopyOption.ATOMIC_MOVE);
-                FileUtil.setPosixPermissionsRecursively(dest, FILE_PERMISSIONS, DIR_PERMISSIONS);
                 if (src != trueSrc) {
                     Files.delete(src);
                     Files.createSymbolicLink(trueSrc, dest);
                 }
+                return 0;
+            }
+
+            @Override
+            public void setPermissions(Path dest) throws IOException {
+                FileUtil.setPosixPermissionsRecursively(dest, FILE_PERMISSIONS, DIR_PERMISSIONS);
             }
 
             @Override
@@ -1024,13 +1216,14 @@ public class DataFileManager {
         },
         SYMLINK {
             @Override
-            protected void copyInternal(Path src, Path dest) throws IOException {
+            public long transfer(Path src, Path dest) throws IOException {
                 checkout(src, dest);
                 Path trueSrc = DataFileManager.realSourceFile(src);
                 if (Files.exists(dest)) {
                     Files.delete(dest);
                 }
                 Files.createSymbolicLink(dest, trueSrc);
+                return 0;
             }
 
             @Override
@@ -1040,10 +1233,12 @@ public class DataFileManager {
         };
 
         /**
-         * Copy operation that allows / forces the caller to manage any {@link IOException} that
-         * occurs.
+         * Sets the permissions of the destination after the copy operation. The default is to
+         * leave the permissions unchanged.
          */
-        protected abstract void copyInternal(Path src, Path dest) throws IOException;
+        @Override
+        public void setPermissions(Path dest) throws IOException {
+        }
 
         /**
          * Provides a formatting string for the {@link PipelineException} thrown by
@@ -1051,6 +1246,11 @@ public class DataFileManager {
          */
         protected abstract String pipelineExceptionFormat();
 
+        @Override
+        public String failureMessage(Path src, Path dest) {
+            return String.format(pipelineExceptionFormat(), src.toString(), dest.toString());
+        }
+
         /**
          * Copy operation that manages any resulting {@link IOException}}. In this event, a
          * {@link PipelineException} is thrown, which terminates execution of the datastore
@@ -1058,13 +1258,24 @@ public class DataFileManager {
          */
         public void copy(Path src, Path dest) {
             try {
-                copyInternal(src, dest);
+                transfer(src, dest);
+                setPermissions(dest);
             } catch (IOException e) {
-                throw new PipelineException(
-                    String.format(pipelineExceptionFormat(), src.toString(), dest.toString()), e);
+                throw new PipelineException(failureMessage(src, dest), e);
             }
         }
 
+        /**
+         * Copy operation for a collection of files, which are copied in parallel by a
+         * {@link FileStagingEngine}.
+         *
+         * @param sourceToDestination {@link Map} from the source path of each file to its
+         * destination path.
+         */
+        public void copy(Map<Path, Path> sourceToDestination) {
+            new FileStagingEngine(this).stage(sourceToDestination);
+        }
+
         private static void checkout(Path src, Path dest) {
             checkNotNull(src, "src");
             checkNotNull(dest, "dest");
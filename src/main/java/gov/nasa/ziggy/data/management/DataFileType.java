@@ -23,7 +23,6 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
-import gov.nasa.ziggy.module.PipelineException;
 import gov.nasa.ziggy.module.io.Persistable;
 import gov.nasa.ziggy.module.io.ProxyIgnore;
 import gov.nasa.ziggy.util.RegexBackslashManager;
@@ -96,12 +95,6 @@ public class DataFileType implements Persistable {
                 String destinationName = dataFileType
                     .datastoreFileNameFromTaskDirFileName(dataFile.toString());
                 Path destinationPath = datastoreRoot.resolve(destinationName);
-                try {
-                    Files.createDirectories(destinationPath.getParent());
-                } catch (IOException e) {
-                    throw new PipelineException(
-                        "Unable to create directory " + destinationPath.getParent(), e);
-                }
                 DataFilePaths paths = new DataFilePaths(sourcePath, destinationPath);
                 paths.setDatastorePathToDestination();
                 return paths;
@@ -0,0 +1,127 @@
+package gov.nasa.ziggy.data.management;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.stream.Stream;
+
+import gov.nasa.ziggy.data.management.DataFileType.RegexType;
+import gov.nasa.ziggy.util.RegexLiterals;
+
+/**
+ * Classifies paths against the regular expressions of a collection of {@link DataFileType}
+ * instances in a single pass.
+ * <p>
+ * For each data file type, the literal prefix and suffix of the selected regular expression (task
+ * directory or datastore) are determined once, when the matcher is constructed. Each path is then
+ * checked against the prefix and suffix of each type before the regular expression is evaluated,
+ * which allows most non-matching paths to be rejected with a pair of string comparisons. The
+ * {@link Matcher} for each type is reused from one path to the next, so instances of this class are
+ * not thread-safe.
+ *
+ * @author PT
+ */
+public class DataFileTypeMatcher {
+
+    private final List<TypeMatcher> typeMatchers = new ArrayList<>();
+
+    public DataFileTypeMatcher(Collection<DataFileType> dataFileTypes, RegexType regexType) {
+        for (DataFileType dataFileType : dataFileTypes) {
+            typeMatchers.add(new TypeMatcher(dataFileType, regexType));
+        }
+    }
+
+    /**
+     * Returns the data file types that match a given path. In the usual case, in which the path
+     * matches a single type or none, no collection is allocated.
+     */
+    public List<DataFileType> matchingTypes(String path) {
+        List<DataFileType> matchingTypes = null;
+        DataFileType firstMatch = null;
+        for (TypeMatcher typeMatcher : typeMatchers) {
+            if (!typeMatcher.matches(path)) {
+                continue;
+            }
+            if (firstMatch == null) {
+                firstMatch = typeMatcher.dataFileType;
+            } else {
+                if (matchingTypes == null) {
+                    matchingTypes = new ArrayList<>();
+                    matchingTypes.add(firstMatch);
+                }
+                matchingTypes.add(typeMatcher.dataFileType);
+            }
+        }
+        if (matchingTypes != null) {
+            return matchingTypes;
+        }
+        return firstMatch == null ? Collections.emptyList()
+            : Collections.singletonList(firstMatch);
+    }
+
+    /**
+     * Returns an empty {@link Map} with a key for each data file type. This is the starting point
+     * for {@link #addMatches(Stream, Map)}.
+     */
+    public Map<DataFileType, Set<Path>> emptyDataFilesMap() {
+        Map<DataFileType, Set<Path>> dataFilesMap = new HashMap<>();
+        for (TypeMatcher typeMatcher : typeMatchers) {
+            dataFilesMap.put(typeMatcher.dataFileType, new HashSet<>());
+        }
+        return dataFilesMap;
+    }
+
+    /**
+     * Classifies each path in a stream and adds the path to the set for each type that it matches.
+     * Paths that match no type are discarded.
+     */
+    public void addMatches(Stream<Path> paths, Map<DataFileType, Set<Path>> dataFilesMap) {
+        paths.forEach(path -> {
+            for (DataFileType dataFileType : matchingTypes(path.toString())) {
+                dataFilesMap.get(dataFileType).add(path);
+            }
+        });
+    }
+
+    /**
+     * Returns a {@link Map} from each data file type to the paths in a stream that match it.
+     */
+    public Map<DataFileType, Set<Path>> dataFilesMap(Stream<Path> paths) {
+        Map<DataFileType, Set<Path>> dataFilesMap = emptyDataFilesMap();
+        addMatches(paths, dataFilesMap);
+        return dataFilesMap;
+    }
+
+    /**
+     * Matching apparatus for a single data file type.
+     */
+    private static class TypeMatcher {
+
+        private final DataFileType dataFileType;
+        private final RegexLiterals literals;
+        private final Matcher matcher;
+
+        public TypeMatcher(DataFileType dataFileType, RegexType regexType) {
+            this.dataFileType = dataFileType;
+            literals = new RegexLiterals(regexType.getPattern(dataFileType));
+            matcher = regexType.getPattern(dataFileType).matcher("");
+        }
+
+        public boolean matches(String path) {
+            if (!literals.mayMatch(path)) {
+                return false;
+            }
+            if (literals.isLiteral()) {
+                return true;
+            }
+            return matcher.reset(path).matches();
+        }
+    }
+}
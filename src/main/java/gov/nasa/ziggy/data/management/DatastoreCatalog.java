@@ -0,0 +1,477 @@
+package gov.nasa.ziggy.data.management;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+
+/**
+ * Persistent, incrementally maintained catalog of the paths in the datastore.
+ * <p>
+ * The catalog allows the {@link DataFileManager} to locate datastore files of a given
+ * {@link DataFileType} without walking the datastore directory tree. It is stored as a journal file
+ * in the datastore root: each line is "+" followed by a path relative to the datastore root,
+ * indicating that the path was added to the datastore. Processes that write to the datastore append
+ * to the journal while holding an exclusive lock on a separate lock file, which is also held while
+ * the journal is rebuilt or compacted, so that no append can be lost when the journal is replaced;
+ * processes that query the catalog load the journal once and thereafter read only the lines that
+ * have been appended since their last query.
+ * <p>
+ * Just as a walk of the datastore would, the catalog contains directories as well as regular files.
+ * When a path is added, all of its parent directories below the datastore root are added as well,
+ * and if the path is a directory, all of its contents are added.
+ * <p>
+ * The catalog is only used if the {@link PropertyNames#DATASTORE_CATALOG_ENABLED_PROP_NAME}
+ * property is set to true. If the catalog is enabled for an existing datastore, it must first be
+ * populated by running the {@link DatastoreCatalogCli} with the rebuild option, which is also the
+ * means by which the catalog can be reconciled with the contents of the datastore if files are
+ * added or removed outside of Ziggy.
+ *
+ * @author PT
+ */
+public class DatastoreCatalog {
+
+    private static final Logger log = LoggerFactory.getLogger(DatastoreCatalog.class);
+
+    public static final String CATALOG_FILE_NAME = ".datastore-catalog";
+    static final String LOCK_FILE_NAME = CATALOG_FILE_NAME + ".lock";
+
+    private static final char ADD = '+';
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private static final Map<Path, DatastoreCatalog> catalogs = new HashMap<>();
+
+    private final Path datastoreRoot;
+    private final Path catalogFile;
+    private final Path lockFile;
+    private final NavigableSet<String> entries = new TreeSet<>();
+    private long bytesRead;
+    private Object catalogFileKey;
+
+    DatastoreCatalog(Path datastoreRoot) {
+        this.datastoreRoot = datastoreRoot.toAbsolutePath().normalize();
+        catalogFile = this.datastoreRoot.resolve(CATALOG_FILE_NAME);
+        lockFile = this.datastoreRoot.resolve(LOCK_FILE_NAME);
+    }
+
+    /**
+     * Determines whether the datastore catalog is enabled.
+     */
+    public static boolean isEnabled() {
+        return ZiggyConfiguration.getInstance()
+            .getBoolean(PropertyNames.DATASTORE_CATALOG_ENABLED_PROP_NAME, false);
+    }
+
+    /**
+     * Returns the catalog for a given datastore root. All callers in a given JVM share a single
+     * catalog instance for each datastore root.
+     */
+    public static synchronized DatastoreCatalog forDatastore(Path datastoreRoot) {
+        Path root = datastoreRoot.toAbsolutePath().normalize();
+        DatastoreCatalog catalog = catalogs.get(root);
+        if (catalog == null) {
+            catalog = new DatastoreCatalog(root);
+            catalogs.put(root, catalog);
+        }
+        return catalog;
+    }
+
+    // =========================================================================
+    //
+    // Updates
+    //
+    // =========================================================================
+
+    /**
+     * Adds paths to the catalog. The paths can be either absolute or relative to the datastore
+     * root. Parent directories of each path are added, unless they are already in the catalog, as
+     * are the contents of any path that is a directory.
+     */
+    public synchronized void add(Collection<Path> datastorePaths) {
+        if (datastorePaths.isEmpty()) {
+            return;
+        }
+        Set<String> newEntries = new TreeSet<>();
+        for (Path datastorePath : datastorePaths) {
+            Path relativePath = relativePath(datastorePath);
+            for (int nameCount = 1; nameCount < relativePath.getNameCount(); nameCount++) {
+                String parent = relativePath.subpath(0, nameCount).toString();
+                if (!entries.contains(parent)) {
+                    newEntries.add(parent);
+                }
+            }
+            newEntries.add(relativePath.toString());
+            Path absolutePath = datastoreRoot.resolve(relativePath);
+            if (Files.isDirectory(absolutePath, LinkOption.NOFOLLOW_LINKS)) {
+                newEntries.addAll(walk(absolutePath));
+            }
+        }
+        append(ADD, newEntries);
+    }
+
+    /**
+     * Replaces the contents of the catalog with the current contents of the datastore.
+     */
+    public synchronized void rebuild() {
+        log.info("Rebuilding datastore catalog " + catalogFile.toString());
+        try {
+            FileChannel lock = lock(false);
+            try {
+                replaceCatalogFile(walk(datastoreRoot));
+            } finally {
+                unlock(lock);
+            }
+        } catch (IOException e) {
+            throw new PipelineException("Unable to rebuild catalog " + catalogFile.toString(), e);
+        }
+        log.info("Datastore catalog contains " + entries.size() + " entries");
+    }
+
+    /**
+     * Rewrites the catalog file such that it contains only one line per path in the catalog, i.e.,
+     * removes duplicate lines. The set of paths in the catalog is unchanged.
+     */
+    public synchronized void compact() {
+        try {
+            FileChannel lock = lock(false);
+            try {
+                readCatalogFile();
+                replaceCatalogFile(new TreeSet<>(entries));
+            } finally {
+                unlock(lock);
+            }
+        } catch (IOException e) {
+            throw new PipelineException("Unable to compact catalog " + catalogFile.toString(), e);
+        }
+    }
+
+    /**
+     * Compares the catalog to the contents of the datastore.
+     */
+    public synchronized Discrepancies verify() {
+        refresh();
+        Set<String> datastoreEntries = walk(datastoreRoot);
+        Set<String> missingFromCatalog = datastoreEntries.stream()
+            .filter(s -> !entries.contains(s))
+            .collect(Collectors.toCollection(TreeSet::new));
+        Set<String> missingFromDatastore = entries.stream()
+            .filter(s -> !datastoreEntries.contains(s))
+            .collect(Collectors.toCollection(TreeSet::new));
+        return new Discrepancies(missingFromCatalog, missingFromDatastore);
+    }
+
+    // =========================================================================
+    //
+    // Queries
+    //
+    // =========================================================================
+
+    /**
+     * Returns the paths, relative to the datastore root, of all the catalog entries in a given
+     * datastore subdirectory, including the subdirectory itself.
+     */
+    public synchronized Set<Path> paths(Path datastoreSubDir) {
+        refresh();
+        return entriesInSubtree(relativePath(datastoreSubDir)).stream()
+            .map(Paths::get)
+            .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * Obtains a {@link Map} from {@link DataFileType} instances to the paths, relative to the
+     * datastore root, of files of each type in a datastore subdirectory. The returned Map has the
+     * same content that would be obtained by walking the subdirectory and matching each path
+     * against the datastore regular expression for each data file type.
+     */
+    public Map<DataFileType, Set<Path>> dataFilesMap(Path datastoreSubDir,
+        Set<DataFileType> dataFileTypes) {
+        Set<String> subtreeEntries;
+        synchronized (this) {
+            refresh();
+            subtreeEntries = entriesInSubtree(relativePath(datastoreSubDir));
+        }
+        return new DataFileTypeMatcher(dataFileTypes, DataFileType.RegexType.DATASTORE)
+            .dataFilesMap(subtreeEntries.stream().map(Paths::get));
+    }
+
+    public Path getCatalogFile() {
+        return catalogFile;
+    }
+
+    // =========================================================================
+    //
+    // Private methods
+    //
+    // =========================================================================
+
+    private Path relativePath(Path datastorePath) {
+        Path path = datastorePath.isAbsolute()
+            ? datastoreRoot.relativize(datastorePath.normalize())
+            : datastorePath.normalize();
+        if (path.startsWith("..")) {
+            throw new IllegalArgumentException(
+                "Path " + datastorePath.toString() + " is not in datastore " + datastoreRoot);
+        }
+        return path;
+    }
+
+    /**
+     * Returns the entries at or below a given path. The empty path returns all entries.
+     */
+    private Set<String> entriesInSubtree(Path relativePath) {
+        String prefix = relativePath.toString();
+        if (prefix.isEmpty()) {
+            return new TreeSet<>(entries);
+        }
+        Set<String> subtree = new TreeSet<>();
+        if (entries.contains(prefix)) {
+            subtree.add(prefix);
+        }
+        String childPrefix = prefix + "/";
+        subtree.addAll(entries.subSet(childPrefix, true, childPrefix + Character.MAX_VALUE, false));
+        return subtree;
+    }
+
+    /**
+     * Walks a directory and returns all paths at or below it, relative to the datastore root. The
+     * datastore root itself and the catalog files are not included.
+     */
+    private Set<String> walk(Path directory) {
+        try (Stream<Path> pathStream = Files.walk(directory)) {
+            return pathStream.filter(s -> !s.equals(datastoreRoot))
+                .filter(s -> !isCatalogFile(s))
+                .map(s -> datastoreRoot.relativize(s).toString())
+                .collect(Collectors.toCollection(TreeSet::new));
+        } catch (IOException e) {
+            throw new PipelineException("Unable to walk directory " + directory.toString(), e);
+        }
+    }
+
+    private boolean isCatalogFile(Path path) {
+        return datastoreRoot.equals(path.getParent())
+            && path.getFileName().toString().startsWith(CATALOG_FILE_NAME);
+    }
+
+    /**
+     * Appends a set of entries to the catalog file, then reads the file to bring the in-memory
+     * entries up to date.
+     */
+    private void append(char operation, Set<String> newEntries) {
+        if (newEntries.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (String entry : newEntries) {
+            lines.append(operation).append(entry).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            FileChannel lock = lock(false);
+            try (FileChannel channel = FileChannel.open(catalogFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                readCatalogFile();
+            } finally {
+                unlock(lock);
+            }
+        } catch (IOException e) {
+            throw new PipelineException("Unable to update catalog " + catalogFile.toString(), e);
+        }
+    }
+
+    /**
+     * Locks the lock file of the catalog, and returns the channel that holds the lock, which must
+     * be passed to {@link #unlock(FileChannel)} to release the lock. Since file locks are held on behalf of the JVM, callers must hold
+     * the monitor of this instance.
+     *
+     * @param shared true for a shared (read) lock, false for an exclusive (write) lock.
+     */
+    private FileChannel lock(boolean shared) throws IOException {
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            channel.lock(0, Long.MAX_VALUE, shared);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Releases a lock obtained from {@link #lock(boolean)}.
+     */
+    private void unlock(FileChannel lock) {
+        try {
+            lock.close();
+        } catch (IOException e) {
+            log.warn("Unable to release lock on " + lockFile.toString(), e);
+        }
+    }
+
+    /**
+     * Reads the portion of the catalog file that has been written since the last read, while
+     * holding a shared lock on the catalog.
+     */
+    private void refresh() {
+        try {
+            FileChannel lock = lock(true);
+            try {
+                readCatalogFile();
+            } finally {
+                unlock(lock);
+            }
+        } catch (IOException e) {
+            throw new PipelineException("Unable to lock catalog " + catalogFile.toString(), e);
+        }
+    }
+
+    /**
+     * Reads the portion of the catalog file that has been written since the last read. If the
+     * catalog file has been replaced since the last read (i.e., by a rebuild or compaction in
+     * another process), the in-memory entries are discarded and the full file is read. The caller
+     * must hold a lock on the catalog.
+     */
+    private void readCatalogFile() {
+        if (!Files.exists(catalogFile)) {
+            entries.clear();
+            bytesRead = 0;
+            catalogFileKey = null;
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(catalogFile, StandardOpenOption.READ)) {
+            Object fileKey = Files.readAttributes(catalogFile, BasicFileAttributes.class)
+                .fileKey();
+            if (!Objects.equals(fileKey, catalogFileKey) || channel.size() < bytesRead) {
+                entries.clear();
+                bytesRead = 0;
+                catalogFileKey = fileKey;
+            }
+            channel.position(bytesRead);
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            StringBuilder partialLine = new StringBuilder();
+            long position = bytesRead;
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                String chunk = new String(buffer.array(), 0, buffer.limit(),
+                    StandardCharsets.ISO_8859_1);
+                buffer.clear();
+                partialLine.append(chunk);
+                int lineEnd;
+                while ((lineEnd = partialLine.indexOf("\n")) >= 0) {
+                    String line = partialLine.substring(0, lineEnd);
+                    partialLine.delete(0, lineEnd + 1);
+                    position += lineEnd + 1;
+                    applyLine(new String(line.getBytes(StandardCharsets.ISO_8859_1),
+                        StandardCharsets.UTF_8));
+                }
+            }
+            bytesRead = position;
+        } catch (IOException e) {
+            throw new PipelineException("Unable to read catalog " + catalogFile.toString(), e);
+        }
+    }
+
+    private void applyLine(String line) {
+        if (line.isEmpty()) {
+            return;
+        }
+        if (line.charAt(0) == ADD) {
+            entries.add(line.substring(1));
+        } else {
+            log.warn("Ignoring malformed catalog line: " + line);
+        }
+    }
+
+    /**
+     * Atomically replaces the catalog file with one that contains a given set of entries. The
+     * caller must hold the exclusive lock on the catalog.
+     */
+    private void replaceCatalogFile(Set<String> newEntries) {
+        Path tempFile = datastoreRoot.resolve(CATALOG_FILE_NAME + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+            Channels.newOutputStream(FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)),
+            StandardCharsets.UTF_8))) {
+            for (String entry : newEntries) {
+                writer.write(ADD);
+                writer.write(entry);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new PipelineException("Unable to write catalog " + tempFile.toString(), e);
+        }
+        try {
+            Files.move(tempFile, catalogFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new PipelineException("Unable to replace catalog " + catalogFile.toString(), e);
+        }
+        readCatalogFile();
+    }
+
+    /**
+     * Differences between the catalog and the contents of the datastore, as determined by
+     * {@link DatastoreCatalog#verify()}.
+     *
+     * @author PT
+     */
+    public static class Discrepancies {
+
+        private final Set<String> missingFromCatalog;
+        private final Set<String> missingFromDatastore;
+
+        public Discrepancies(Set<String> missingFromCatalog, Set<String> missingFromDatastore) {
+            this.missingFromCatalog = missingFromCatalog;
+            this.missingFromDatastore = missingFromDatastore;
+        }
+
+        public boolean isEmpty() {
+            return missingFromCatalog.isEmpty() && missingFromDatastore.isEmpty();
+        }
+
+        /** Paths that are present in the datastore but not in the catalog. */
+        public Set<String> getMissingFromCatalog() {
+            return missingFromCatalog;
+        }
+
+        /** Paths that are present in the catalog but not in the datastore. */
+        public Set<String> getMissingFromDatastore() {
+            return missingFromDatastore;
+        }
+    }
+
+    // For testing only.
+    static synchronized void reset() {
+        catalogs.clear();
+    }
+}
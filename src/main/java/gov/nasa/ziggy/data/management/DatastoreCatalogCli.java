@@ -0,0 +1,95 @@
+package gov.nasa.ziggy.data.management;
+
+import java.nio.file.Path;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import gov.nasa.ziggy.services.config.DirectoryProperties;
+
+/**
+ * Command-line interface for maintenance of the {@link DatastoreCatalog}. The following options are
+ * supported:
+ * <ol>
+ * <li>-verify: compares the catalog to the contents of the datastore and reports any differences.
+ * <li>-rebuild: replaces the catalog with the current contents of the datastore.
+ * <li>-compact: removes duplicate lines from the catalog file; the set of paths is unchanged.
+ * </ol>
+ * If both -verify and -rebuild are specified, the verification is performed first.
+ *
+ * @author PT
+ */
+public class DatastoreCatalogCli {
+
+    private static final int MAX_DISCREPANCIES_TO_PRINT = 100;
+
+    public static void main(String[] args) {
+
+        CommandLineParser parser = new DefaultParser();
+        Options options = new Options();
+        options.addOption("verify", false, "Compares the catalog to the datastore contents");
+        options.addOption("rebuild", false, "Rebuilds the catalog from the datastore contents");
+        options.addOption("compact", false, "Removes duplicate lines from the catalog file");
+        CommandLine cmdLine = null;
+        try {
+            cmdLine = parser.parse(options, args);
+        } catch (ParseException e) {
+            System.err.println("Illegal argument: " + e.getMessage());
+            new HelpFormatter().printHelp("datastore-catalog", options);
+            System.exit(1);
+        }
+        if (!cmdLine.hasOption("verify") && !cmdLine.hasOption("rebuild")
+            && !cmdLine.hasOption("compact")) {
+            new HelpFormatter().printHelp("datastore-catalog", options);
+            System.exit(1);
+        }
+
+        Path datastoreRoot = DirectoryProperties.datastoreRootDir();
+        DatastoreCatalog catalog = DatastoreCatalog.forDatastore(datastoreRoot);
+        int exitStatus = 0;
+        if (cmdLine.hasOption("verify")) {
+            DatastoreCatalog.Discrepancies discrepancies = catalog.verify();
+            if (discrepancies.isEmpty()) {
+                System.out.println("Catalog " + catalog.getCatalogFile().toString()
+                    + " is consistent with datastore");
+            } else {
+                printDiscrepancies("Present in datastore but not in catalog",
+                    discrepancies.getMissingFromCatalog());
+                printDiscrepancies("Present in catalog but not in datastore",
+                    discrepancies.getMissingFromDatastore());
+                exitStatus = 2;
+            }
+        }
+        if (cmdLine.hasOption("rebuild")) {
+            catalog.rebuild();
+            System.out.println("Catalog " + catalog.getCatalogFile().toString() + " rebuilt");
+            exitStatus = 0;
+        } else if (cmdLine.hasOption("compact")) {
+            catalog.compact();
+            System.out.println("Catalog " + catalog.getCatalogFile().toString() + " compacted");
+        }
+        System.exit(exitStatus);
+    }
+
+    private static void printDiscrepancies(String description, Iterable<String> paths) {
+        int count = 0;
+        for (String path : paths) {
+            if (count++ == 0) {
+                System.out.println(description + ":");
+            }
+            if (count <= MAX_DISCREPANCIES_TO_PRINT) {
+                System.out.println("    " + path);
+            }
+        }
+        if (count > MAX_DISCREPANCIES_TO_PRINT) {
+            System.out.println("    ... and " + (count - MAX_DISCREPANCIES_TO_PRINT) + " more");
+        }
+        if (count > 0) {
+            System.out.println(description + ": " + count + " total");
+        }
+    }
+}
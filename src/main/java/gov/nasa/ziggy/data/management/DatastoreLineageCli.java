@@ -0,0 +1,57 @@
+package gov.nasa.ziggy.data.management;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import gov.nasa.ziggy.data.management.DatastoreProducerConsumer.ConsumerStorage;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.database.DatabaseTransactionFactory;
+
+/**
+ * Command-line interface for maintenance of the datastore lineage, i.e., the
+ * {@link DatastoreProducerConsumer} table. The following option is supported:
+ * <ol>
+ * <li>-migrate: moves the consumers of all datastore files from the {@link ConsumerStorage#TABLE}
+ * to the {@link ConsumerStorage#BLOB} representation.
+ * </ol>
+ * The {@link PropertyNames#DATASTORE_CONSUMER_STORAGE_PROP_NAME} property should be set to "blob"
+ * once the migration is complete, and the pipeline should not be running while the migration is
+ * performed.
+ *
+ * @author PT
+ */
+public class DatastoreLineageCli {
+
+    public static void main(String[] args) {
+
+        CommandLineParser parser = new DefaultParser();
+        Options options = new Options();
+        options.addOption("migrate", false,
+            "Moves consumers from the PI_DATASTORE_CONSUMERS table to per-file consumer sets");
+        CommandLine cmdLine = null;
+        try {
+            cmdLine = parser.parse(options, args);
+        } catch (ParseException e) {
+            System.err.println("Illegal argument: " + e.getMessage());
+            new HelpFormatter().printHelp("datastore-lineage", options);
+            System.exit(1);
+        }
+        if (!cmdLine.hasOption("migrate")) {
+            new HelpFormatter().printHelp("datastore-lineage", options);
+            System.exit(1);
+        }
+
+        int fileCount = (int) DatabaseTransactionFactory.performTransaction(
+            () -> new DatastoreProducerConsumerCrud().migrateConsumersToBlobs());
+        System.out.println("Migrated consumers of " + fileCount + " datastore files");
+        if (ConsumerStorage.configured() != ConsumerStorage.BLOB) {
+            System.out.println("Set " + PropertyNames.DATASTORE_CONSUMER_STORAGE_PROP_NAME
+                + " to blob to use the migrated consumers");
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,282 @@
+package gov.nasa.ziggy.data.management;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.google.common.collect.Lists;
+
+import gov.nasa.ziggy.crud.AbstractCrud;
+import gov.nasa.ziggy.data.management.DatastoreProducerConsumer.ConsumerStorage;
+import gov.nasa.ziggy.data.management.DatastoreProducerConsumer.DataReceiptFileType;
+
+/**
+ * Writes producer and consumer information for large numbers of datastore files directly through
+ * JDBC. Each operation uses a fixed number of statements per chunk of {@link #CHUNK_SIZE}
+ * filenames, plus a batched insert for any files that are not yet in the database, so the number of
+ * round trips to the database grows with the number of chunks rather than with the number of
+ * files.
+ * <p>
+ * Consumers are written in the {@link ConsumerStorage} mode passed to the constructor. The writer
+ * also migrates existing consumers from the {@link ConsumerStorage#TABLE} to the
+ * {@link ConsumerStorage#BLOB} representation.
+ * <p>
+ * The writer bypasses the Hibernate session, so callers must ensure that the session holds no
+ * pending changes to, or stale copies of, {@link DatastoreProducerConsumer} instances. See
+ * {@link DatastoreProducerConsumerCrud}.
+ *
+ * @author PT
+ */
+class DatastoreLineageWriter {
+
+    /** Number of filenames in each IN clause. */
+    static final int CHUNK_SIZE = AbstractCrud.MAX_EXPRESSIONS;
+
+    /** Number of rows in each JDBC batch. */
+    static final int BATCH_SIZE = 1000;
+
+    private static final String TABLE = "PI_DATASTORE_PRODUCER_CONSUMER";
+    private static final String CONSUMERS_TABLE = "PI_DATASTORE_CONSUMERS";
+    private static final String SEQUENCE = "PI_PROD_CONS_SEQ";
+
+    private final Connection connection;
+    private final String nextIdExpression;
+    private final ConsumerStorage consumerStorage;
+
+    /**
+     * @param connection JDBC connection.
+     * @param nextValueExpression Function that returns the SQL expression for the next value of a
+     * sequence, given the sequence name (for example,
+     * {@code Dialect::getSelectSequenceNextValString}).
+     * @param consumerStorage Storage mode for consumers.
+     */
+    public DatastoreLineageWriter(Connection connection,
+        Function<String, String> nextValueExpression, ConsumerStorage consumerStorage) {
+        this.connection = connection;
+        nextIdExpression = nextValueExpression.apply(SEQUENCE);
+        this.consumerStorage = consumerStorage;
+    }
+
+    /**
+     * Sets the producer for a collection of files. Files that are not yet in the database are
+     * added with the specified type; files that are already present retain their existing type.
+     */
+    public void setProducer(long producerId, Collection<String> filenames,
+        DataReceiptFileType type) throws SQLException {
+        List<String> filenameList = new ArrayList<>(new HashSet<>(filenames));
+        Set<String> existingFilenames = new HashSet<>();
+        for (List<String> chunk : Lists.partition(filenameList, CHUNK_SIZE)) {
+            try (PreparedStatement update = connection.prepareStatement("update " + TABLE
+                + " set PRODUCER_ID = ? where FILENAME in (" + placeholders(chunk.size()) + ")")) {
+                update.setLong(1, producerId);
+                setStrings(update, 2, chunk);
+                int updateCount = update.executeUpdate();
+                if (updateCount == chunk.size()) {
+                    existingFilenames.addAll(chunk);
+                } else if (updateCount > 0) {
+                    existingFilenames.addAll(existingFilenames(chunk));
+                }
+            }
+        }
+        insert(producerId, filenameList, existingFilenames, type);
+    }
+
+    /**
+     * Adds a consumer to each of a collection of files. Files that are not yet in the database are
+     * added with a producer ID of zero.
+     */
+    public void addConsumer(long consumerId, Collection<String> filenames) throws SQLException {
+        List<String> filenameList = new ArrayList<>(new HashSet<>(filenames));
+        Set<String> existingFilenames = new HashSet<>();
+        for (List<String> chunk : Lists.partition(filenameList, CHUNK_SIZE)) {
+            existingFilenames.addAll(existingFilenames(chunk));
+        }
+        insert(0L, filenameList, existingFilenames, DataReceiptFileType.DATA);
+
+        if (consumerStorage == ConsumerStorage.BLOB) {
+            addConsumerToBlobs(consumerId, filenameList);
+            return;
+        }
+        for (List<String> chunk : Lists.partition(filenameList, CHUNK_SIZE)) {
+            try (PreparedStatement append = connection.prepareStatement("insert into "
+                + CONSUMERS_TABLE + " (DATASTORE_PRODUCER_CONSUMER_ID, CONSUMERS) select p.ID, ?"
+                + " from " + TABLE + " p where p.FILENAME in (" + placeholders(chunk.size())
+                + ") and not exists (select 1 from " + CONSUMERS_TABLE
+                + " c where c.DATASTORE_PRODUCER_CONSUMER_ID = p.ID and c.CONSUMERS = ?)")) {
+                append.setLong(1, consumerId);
+                setStrings(append, 2, chunk);
+                append.setLong(chunk.size() + 2, consumerId);
+                append.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Adds a consumer to the {@link ConsumerSet} of each of a list of files. The sets are read
+     * with one query per chunk of files, and those that change are written back in batches.
+     */
+    private void addConsumerToBlobs(long consumerId, List<String> filenames)
+        throws SQLException {
+        try (PreparedStatement update = connection
+            .prepareStatement("update " + TABLE + " set CONSUMER_SET = ? where ID = ?")) {
+            int batchCount = 0;
+            for (List<String> chunk : Lists.partition(filenames, CHUNK_SIZE)) {
+                try (PreparedStatement select = connection
+                    .prepareStatement("select ID, CONSUMER_SET from " + TABLE
+                        + " where FILENAME in (" + placeholders(chunk.size()) + ")")) {
+                    setStrings(select, 1, chunk);
+                    try (ResultSet resultSet = select.executeQuery()) {
+                        while (resultSet.next()) {
+                            ConsumerSet consumerSet = ConsumerSet.fromBytes(resultSet.getBytes(2));
+                            if (consumerSet.contains(consumerId)) {
+                                continue;
+                            }
+                            update.setBytes(1, consumerSet.with(consumerId).toBytes());
+                            update.setLong(2, resultSet.getLong(1));
+                            update.addBatch();
+                            batchCount++;
+                        }
+                    }
+                }
+                if (batchCount >= BATCH_SIZE) {
+                    update.executeBatch();
+                    batchCount = 0;
+                }
+            }
+            if (batchCount > 0) {
+                update.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Moves the consumers in the PI_DATASTORE_CONSUMERS table into the {@link ConsumerSet} of each
+     * file, merging them with any consumers already in the set, and then empties the table. The
+     * table is read in a single pass ordered by file, so only the consumers of one file are held in
+     * memory at a time.
+     *
+     * @return the number of files whose consumers were migrated.
+     */
+    public int migrateConsumerTable() throws SQLException {
+        int fileCount = 0;
+        try (PreparedStatement select = connection.prepareStatement(
+            "select c.DATASTORE_PRODUCER_CONSUMER_ID, c.CONSUMERS, p.CONSUMER_SET from "
+                + CONSUMERS_TABLE + " c join " + TABLE
+                + " p on p.ID = c.DATASTORE_PRODUCER_CONSUMER_ID"
+                + " where c.CONSUMERS is not null order by c.DATASTORE_PRODUCER_CONSUMER_ID");
+            PreparedStatement update = connection
+                .prepareStatement("update " + TABLE + " set CONSUMER_SET = ? where ID = ?");
+            ResultSet resultSet = select.executeQuery()) {
+            long currentId = 0;
+            ConsumerSet currentSet = null;
+            List<Long> currentConsumers = new ArrayList<>();
+            int batchCount = 0;
+            while (resultSet.next()) {
+                long id = resultSet.getLong(1);
+                if (currentSet != null && id != currentId) {
+                    addToBatch(update, currentId, currentSet.withAll(currentConsumers));
+                    fileCount++;
+                    if (++batchCount == BATCH_SIZE) {
+                        update.executeBatch();
+                        batchCount = 0;
+                    }
+                    currentConsumers.clear();
+                    currentSet = null;
+                }
+                if (currentSet == null) {
+                    currentId = id;
+                    currentSet = ConsumerSet.fromBytes(resultSet.getBytes(3));
+                }
+                currentConsumers.add(resultSet.getLong(2));
+            }
+            if (currentSet != null) {
+                addToBatch(update, currentId, currentSet.withAll(currentConsumers));
+                fileCount++;
+                batchCount++;
+            }
+            if (batchCount > 0) {
+                update.executeBatch();
+            }
+        }
+        try (PreparedStatement delete = connection
+            .prepareStatement("delete from " + CONSUMERS_TABLE)) {
+            delete.executeUpdate();
+        }
+        return fileCount;
+    }
+
+    private void addToBatch(PreparedStatement update, long id, ConsumerSet consumerSet)
+        throws SQLException {
+        update.setBytes(1, consumerSet.toBytes());
+        update.setLong(2, id);
+        update.addBatch();
+    }
+
+    private Set<String> existingFilenames(List<String> chunk) throws SQLException {
+        Set<String> existingFilenames = new HashSet<>();
+        try (PreparedStatement select = connection.prepareStatement("select FILENAME from " + TABLE
+            + " where FILENAME in (" + placeholders(chunk.size()) + ")")) {
+            setStrings(select, 1, chunk);
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    existingFilenames.add(resultSet.getString(1));
+                }
+            }
+        }
+        return existingFilenames;
+    }
+
+    /**
+     * Inserts rows for all filenames that are not in a set of existing filenames.
+     */
+    private void insert(long producerId, List<String> filenames, Set<String> existingFilenames,
+        DataReceiptFileType type) throws SQLException {
+        if (existingFilenames.size() == filenames.size()) {
+            return;
+        }
+        try (PreparedStatement insert = connection.prepareStatement("insert into " + TABLE
+            + " (ID, DATA_RECEIPT_FILE_TYPE, FILENAME, PRODUCER_ID) values (" + nextIdExpression
+            + ", ?, ?, ?)")) {
+            int batchCount = 0;
+            for (String filename : filenames) {
+                if (existingFilenames.contains(filename)) {
+                    continue;
+                }
+                insert.setString(1, type.name());
+                insert.setString(2, filename);
+                insert.setLong(3, producerId);
+                insert.addBatch();
+                if (++batchCount == BATCH_SIZE) {
+                    insert.executeBatch();
+                    batchCount = 0;
+                }
+            }
+            if (batchCount > 0) {
+                insert.executeBatch();
+            }
+        }
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    private static void setStrings(PreparedStatement statement, int firstIndex,
+        List<String> values) throws SQLException {
+        int index = firstIndex;
+        for (String value : values) {
+            statement.setString(index++, value);
+        }
+    }
+}
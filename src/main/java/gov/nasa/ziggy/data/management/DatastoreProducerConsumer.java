@@ -3,6 +3,8 @@ package gov.nasa.ziggy.data.management;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
@@ -19,9 +21,13 @@ import javax.persistence.JoinTable;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Type;
+
 import gov.nasa.ziggy.pipeline.definition.ModelRegistry;
 import gov.nasa.ziggy.pipeline.definition.PipelineInstance;
 import gov.nasa.ziggy.pipeline.definition.PipelineTask;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
 
 /**
  * Database table that tracks the producer task ID for each file in the datastore, and also the IDs
@@ -35,6 +41,9 @@ import gov.nasa.ziggy.pipeline.definition.PipelineTask;
  * {@link ModelRegistry} of the current versions of all models that is provided to a
  * {@link PipelineInstance} when the instance is created, and which can be exposed by the instance
  * report.
+ * <p>
+ * The consumers can be stored in either of two ways, as selected by the
+ * {@link PropertyNames#DATASTORE_CONSUMER_STORAGE_PROP_NAME} property; see {@link ConsumerStorage}.
  *
  * @author PT
  */
@@ -47,6 +56,39 @@ public class DatastoreProducerConsumer {
         DATA, MODEL;
     }
 
+    /**
+     * Storage modes for the consumers of a datastore file.
+     */
+    public enum ConsumerStorage {
+
+        /** One row in the PI_DATASTORE_CONSUMERS table per file and consumer. */
+        TABLE,
+
+        /** A {@link ConsumerSet} in the CONSUMER_SET column of each file's row. */
+        BLOB;
+
+        /**
+         * Returns the storage mode selected by the
+         * {@link PropertyNames#DATASTORE_CONSUMER_STORAGE_PROP_NAME} property.
+         */
+        public static ConsumerStorage configured() {
+            return valueOf(ZiggyConfiguration.getInstance()
+                .getString(PropertyNames.DATASTORE_CONSUMER_STORAGE_PROP_NAME, TABLE.name())
+                .toUpperCase());
+        }
+    }
+
+    /**
+     * DDL for an index on the consumer IDs in the {@link ConsumerStorage#TABLE} representation,
+     * which supports finding the files consumed by a given set of tasks. Annotations can't declare
+     * an index on the element column of a collection table, so the index is added to the schema
+     * as an auxiliary database object.
+     */
+    public static final String CONSUMERS_INDEX_DDL = "create index PI_DATASTORE_CONSUMERS_IDX"
+        + " on PI_DATASTORE_CONSUMERS (CONSUMERS)";
+    public static final String CONSUMERS_INDEX_DROP_DDL = "drop index if exists"
+        + " PI_DATASTORE_CONSUMERS_IDX";
+
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sg")
     @SequenceGenerator(name = "sg", initialValue = 1, sequenceName = "PI_PROD_CONS_SEQ",
@@ -66,6 +108,14 @@ public class DatastoreProducerConsumer {
     @JoinTable(name = "PI_DATASTORE_CONSUMERS")
     private Set<Long> consumers = new TreeSet<>();
 
+    // The length is only used for schema generation, and matches the filename column.
+    @Type(type = "gov.nasa.ziggy.data.management.ConsumerSetUserType")
+    @Column(length = 1000000)
+    private ConsumerSet consumerSet = ConsumerSet.EMPTY;
+
+    // Not stored in the database; read from the configuration on first use.
+    private transient ConsumerStorage consumerStorage;
+
     // Needed by Hibernate.
     public DatastoreProducerConsumer() {
 
@@ -109,22 +159,82 @@ public class DatastoreProducerConsumer {
         this.dataReceiptFileType = dataReceiptFileType;
     }
 
+    /**
+     * Returns the consumers of the file. If the consumers are in the {@link ConsumerStorage#BLOB}
+     * representation, or the {@link ConsumerStorage#BLOB} mode is configured, the returned
+     * {@link Set} is a copy, so use {@link #addConsumer(long)} or {@link #setConsumers(Set)} to
+     * modify the consumers.
+     */
     public Set<Long> getConsumers() {
-        return consumers;
+        if (!consumerSet.isEmpty()) {
+            return consumerSet.toSet();
+        }
+        return consumersInBlob() ? new TreeSet<>(consumers) : consumers;
     }
 
     // Use this method to get both the consumers that produced results and the
     // consumers that produced no results but did complete processing.
     public Set<Long> getAllConsumers() {
-        return consumers.stream().map(Math::abs).collect(Collectors.toSet());
+        return getConsumers().stream().map(Math::abs).collect(Collectors.toSet());
     }
 
     public void setConsumers(Set<Long> consumers) {
-        this.consumers.addAll(consumers);
+        if (consumersInBlob()) {
+            migrateConsumersToBlob();
+            consumerSet = consumerSet.withAll(consumers);
+        } else {
+            this.consumers.addAll(consumers);
+        }
     }
 
     public void addConsumer(long consumer) {
-        consumers.add(consumer);
+        if (consumersInBlob()) {
+            migrateConsumersToBlob();
+            consumerSet = consumerSet.with(consumer);
+        } else {
+            consumers.add(consumer);
+        }
+    }
+
+    /**
+     * Determines whether any of a collection of task IDs is a consumer of the file. If the
+     * consumers are in the {@link ConsumerStorage#BLOB} representation, the test is performed
+     * without expanding them into a collection.
+     */
+    public boolean hasAnyConsumer(Collection<Long> consumerIds) {
+        if (!consumerSet.isEmpty()) {
+            return consumerSet.containsAny(consumerIds);
+        }
+        return !Collections.disjoint(consumers, consumerIds);
+    }
+
+    /**
+     * Determines the representation that holds the consumers. Only one representation is
+     * populated for any record, so a record whose consumers are already in the
+     * {@link ConsumerStorage#BLOB} representation stays in it; otherwise the configured mode
+     * decides, so that the first consumer of a record in {@link ConsumerStorage#BLOB} mode is not
+     * written to the table. Reads use whichever representation is populated.
+     */
+    private boolean consumersInBlob() {
+        if (!consumerSet.isEmpty()) {
+            return true;
+        }
+        if (consumerStorage == null) {
+            consumerStorage = ConsumerStorage.configured();
+        }
+        return consumerStorage == ConsumerStorage.BLOB;
+    }
+
+    /**
+     * Moves any consumers that are still in the {@link ConsumerStorage#TABLE} representation into
+     * the {@link ConsumerStorage#BLOB} representation, as {@link DatastoreLineageWriter} does for
+     * records that it updates.
+     */
+    private void migrateConsumersToBlob() {
+        if (consumerSet.isEmpty() && !consumers.isEmpty()) {
+            consumerSet = ConsumerSet.of(consumers);
+            consumers.clear();
+        }
     }
 
     @Override
@@ -1,6 +1,7 @@
 package gov.nasa.ziggy.data.management;
 
 import java.nio.file.Path;
+import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -9,13 +10,18 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.hibernate.Criteria;
+import org.hibernate.SQLQuery;
 import org.hibernate.criterion.CriteriaSpecification;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 
 import gov.nasa.ziggy.crud.AbstractCrud;
+import gov.nasa.ziggy.data.management.DatastoreProducerConsumer.ConsumerStorage;
 import gov.nasa.ziggy.data.management.DatastoreProducerConsumer.DataReceiptFileType;
 import gov.nasa.ziggy.pipeline.definition.ModelRegistry;
+import gov.nasa.ziggy.pipeline.definition.PipelineDefinitionNode;
 import gov.nasa.ziggy.pipeline.definition.PipelineInstance;
 import gov.nasa.ziggy.pipeline.definition.PipelineTask;
 import gov.nasa.ziggy.pipeline.definition.crud.PipelineTaskCrud;
@@ -61,7 +67,9 @@ public class DatastoreProducerConsumerCrud extends AbstractCrud {
     }
 
     /**
-     * Create or update a set of files with the their PipelineTask ID as producer.
+     * Create or update a set of files with the their PipelineTask ID as producer. The records are
+     * written in bulk via JDBC, so the number of database round trips grows with the number of
+     * chunks of files rather than with the number of files.
      *
      * @param datastoreFiles
      * @param pipelineTask
@@ -71,12 +79,9 @@ public class DatastoreProducerConsumerCrud extends AbstractCrud {
         if (datastoreFiles == null || datastoreFiles.isEmpty()) {
             return;
         }
-        List<DatastoreProducerConsumer> datastoreProducerConsumers = retrieveOrCreate(pipelineTask,
-            datastoreNames(datastoreFiles), type);
-        for (DatastoreProducerConsumer datastoreProducerConsumer : datastoreProducerConsumers) {
-            datastoreProducerConsumer.setProducer(pipelineTask.getId());
-            super.createOrUpdate(datastoreProducerConsumer);
-        }
+        long producerId = pipelineTask.getId();
+        Set<String> datastoreNames = datastoreNames(datastoreFiles);
+        writeLineage(writer -> writer.setProducer(producerId, datastoreNames, type));
     }
 
     public List<DatastoreProducerConsumer> retrieveByFilename(Set<Path> datastoreFiles) {
@@ -84,15 +89,180 @@ public class DatastoreProducerConsumerCrud extends AbstractCrud {
     }
 
     /**
-     * Retrieves the set of names of datastore files consumed by a specified pipeline task.
+     * Retrieves the names of the datastore files, out of a set of candidate files, that were
+     * consumed by a specified pipeline task. Only the candidates' rows are examined, so the cost
+     * does not grow with the size of the datastore.
+     */
+    public Set<String> retrieveFilesConsumedByTask(long taskId, Set<Path> datastoreFiles) {
+        return retrieveFilesConsumedByAny(datastoreFiles, Collections.singleton(taskId));
+    }
+
+    /**
+     * Retrieves the names of the datastore files that have any of a collection of consumers.
+     *
+     * @param datastoreFiles Files to be checked; if null, all files are checked. Note that in
+     * {@link ConsumerStorage#BLOB} mode this reads and decodes the consumers of every file.
+     * @param consumerIds IDs of consumers. Note that a non-producing consumer is matched only by
+     * the negative of its task ID.
      */
-    public Set<String> retrieveFilesConsumedByTask(long taskId) {
+    public Set<String> retrieveFilesConsumedByAny(Set<Path> datastoreFiles,
+        Collection<Long> consumerIds) {
+        if (consumerIds.isEmpty() || datastoreFiles != null && datastoreFiles.isEmpty()) {
+            return new HashSet<>();
+        }
+
+        // In BLOB mode, each file's consumer set is tested without expanding it.
+        if (ConsumerStorage.configured() == ConsumerStorage.BLOB) {
+            Criteria criteria = createCriteria(DatastoreProducerConsumer.class);
+            if (datastoreFiles != null) {
+                criteria.add(restrictionPropertyIn(DatastoreProducerConsumer.class, "filename",
+                    datastoreNames(datastoreFiles)));
+            }
+            criteria.setProjection(Projections.projectionList()
+                .add(Projections.property("filename"))
+                .add(Projections.property("consumerSet")));
+            long[] sortedIds = consumerIds.stream().mapToLong(Long::longValue).sorted().toArray();
+            List<Object[]> rows = list(criteria);
+            return rows.stream()
+                .filter(row -> ((ConsumerSet) row[1]).containsAny(sortedIds))
+                .map(row -> (String) row[0])
+                .collect(Collectors.toSet());
+        }
+
+        // In TABLE mode, the consumer IDs are compared directly with the indexed CONSUMERS
+        // column. Both lists are bound as parameters using the database's InListStrategy, so a
+        // single query is performed.
+        SqlInList consumerRestriction = sqlInList("c.CONSUMERS", consumerIds);
+        SqlInList filenameRestriction = datastoreFiles != null
+            ? sqlInList("p.FILENAME", datastoreNames(datastoreFiles))
+            : null;
+        SQLQuery query = createSQLQuery("select distinct p.FILENAME"
+            + " from PI_DATASTORE_PRODUCER_CONSUMER p"
+            + " join PI_DATASTORE_CONSUMERS c on c.DATASTORE_PRODUCER_CONSUMER_ID = p.ID"
+            + " where " + consumerRestriction.getSql()
+            + (filenameRestriction != null ? " and " + filenameRestriction.getSql() : ""));
+        int position = consumerRestriction.bind(query, 0);
+        if (filenameRestriction != null) {
+            filenameRestriction.bind(query, position);
+        }
+        return new HashSet<>(list(query));
+    }
 
+    /**
+     * Retrieves the datastore files that have not been consumed by any task on a given
+     * {@link PipelineDefinitionNode}, whether or not the consuming task produced results. Files
+     * that have no database entry are treated as unconsumed.
+     */
+    public Set<Path> retrieveFilesNotConsumedByNode(Set<Path> datastoreFiles,
+        PipelineDefinitionNode pipelineDefinitionNode) {
+        return filesNotConsumedOnNode(datastoreFiles, null, pipelineDefinitionNode);
+    }
+
+    /**
+     * Retrieves the datastore files that have not been consumed by any of a collection of tasks on
+     * a given {@link PipelineDefinitionNode}. Only consumers that produced results are considered.
+     * Files that have no database entry are treated as unconsumed.
+     */
+    public Set<Path> retrieveFilesNotConsumedByTasks(Set<Path> datastoreFiles,
+        Collection<Long> taskIds, PipelineDefinitionNode pipelineDefinitionNode) {
+        if (taskIds.isEmpty()) {
+            return new HashSet<>(datastoreFiles);
+        }
+        return filesNotConsumedOnNode(datastoreFiles, taskIds, pipelineDefinitionNode);
+    }
+
+    /**
+     * Retrieves the datastore files that have not been consumed by a task on a given
+     * {@link PipelineDefinitionNode}.
+     *
+     * @param taskIds if null, all tasks on the node are considered, and both producing and
+     * non-producing consumers are matched; otherwise only the given tasks are considered, and only
+     * producing consumers are matched.
+     */
+    private Set<Path> filesNotConsumedOnNode(Set<Path> datastoreFiles, Collection<Long> taskIds,
+        PipelineDefinitionNode pipelineDefinitionNode) {
+        if (datastoreFiles.isEmpty()) {
+            return new HashSet<>();
+        }
+        Set<String> consumedNames = ConsumerStorage.configured() == ConsumerStorage.BLOB
+            ? blobFilesConsumedOnNode(datastoreFiles, taskIds, pipelineDefinitionNode)
+            : tableFilesConsumedOnNode(datastoreFiles, taskIds, pipelineDefinitionNode);
+        return datastoreFiles.stream()
+            .filter(path -> !consumedNames.contains(path.toString()))
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * In TABLE mode, the consumers of the files are joined with the tasks on the node in a single
+     * query, so the task IDs are never loaded into memory. A non-producing consumer is stored as
+     * the negative of its task ID, so both signs are matched when non-producing consumers are
+     * included.
+     */
+    private Set<String> tableFilesConsumedOnNode(Set<Path> datastoreFiles,
+        Collection<Long> taskIds, PipelineDefinitionNode pipelineDefinitionNode) {
+        SqlInList filenameRestriction = sqlInList("p.FILENAME", datastoreNames(datastoreFiles));
+        SqlInList taskRestriction = taskIds != null ? sqlInList("t.ID", taskIds) : null;
+        SQLQuery query = createSQLQuery("select distinct p.FILENAME"
+            + " from PI_DATASTORE_PRODUCER_CONSUMER p"
+            + " join PI_DATASTORE_CONSUMERS c on c.DATASTORE_PRODUCER_CONSUMER_ID = p.ID"
+            + " join PI_PIPELINE_TASK t on "
+            + (taskIds != null ? "t.ID = c.CONSUMERS"
+                : "(t.ID = c.CONSUMERS or t.ID = -c.CONSUMERS)")
+            + " join PI_PIPELINE_INST_NODE n on n.ID = t.PI_PIPELINE_INST_NODE_ID"
+            + " where n.PI_PIPELINE_DEF_NODE_ID = ?"
+            + " and " + filenameRestriction.getSql()
+            + (taskRestriction != null ? " and " + taskRestriction.getSql() : ""));
+        query.setLong(0, pipelineDefinitionNode.getId());
+        int position = filenameRestriction.bind(query, 1);
+        if (taskRestriction != null) {
+            taskRestriction.bind(query, position);
+        }
+        return new HashSet<>(list(query));
+    }
+
+    /**
+     * In BLOB mode, the consumers can't be compared in the database, so the consumer sets of the
+     * files are retrieved, and the tasks on the node are looked up among their consumers only.
+     * The number of task IDs retrieved is therefore bounded by the consumers of the files rather
+     * than by the number of tasks that have run on the node.
+     */
+    private Set<String> blobFilesConsumedOnNode(Set<Path> datastoreFiles,
+        Collection<Long> taskIds, PipelineDefinitionNode pipelineDefinitionNode) {
         Criteria criteria = createCriteria(DatastoreProducerConsumer.class);
-        criteria.setProjection(Projections.property("filename"));
-        criteria.createAlias("consumers", "consumers");
-        criteria.add(Restrictions.in("consumers.elements", Collections.singleton(taskId)));
-        return new HashSet<>(list(criteria));
+        criteria.add(restrictionPropertyIn(DatastoreProducerConsumer.class, "filename",
+            datastoreNames(datastoreFiles)));
+        criteria.setProjection(Projections.projectionList()
+            .add(Projections.property("filename"))
+            .add(Projections.property("consumerSet")));
+        List<Object[]> rows = list(criteria);
+
+        Set<Long> taskIdSet = taskIds != null ? new HashSet<>(taskIds) : null;
+        Set<Long> candidateTaskIds = new HashSet<>();
+        for (Object[] row : rows) {
+            for (long consumer : ((ConsumerSet) row[1]).toArray()) {
+                if (taskIdSet == null) {
+                    candidateTaskIds.add(Math.abs(consumer));
+                } else if (taskIdSet.contains(consumer)) {
+                    candidateTaskIds.add(consumer);
+                }
+            }
+        }
+        if (candidateTaskIds.isEmpty()) {
+            return new HashSet<>();
+        }
+        Set<Long> consumerIds = new HashSet<>();
+        for (long taskId : new PipelineTaskCrud()
+            .retrieveIdsForPipelineDefinitionNode(candidateTaskIds, pipelineDefinitionNode)) {
+            consumerIds.add(taskId);
+            if (taskIds == null) {
+                consumerIds.add(-taskId);
+            }
+        }
+        long[] sortedIds = consumerIds.stream().mapToLong(Long::longValue).sorted().toArray();
+        return rows.stream()
+            .filter(row -> ((ConsumerSet) row[1]).containsAny(sortedIds))
+            .map(row -> (String) row[0])
+            .collect(Collectors.toSet());
     }
 
     /**
@@ -117,9 +287,8 @@ public class DatastoreProducerConsumerCrud extends AbstractCrud {
         if (datastoreNames == null || datastoreNames.isEmpty()) {
             return;
         }
-        List<DatastoreProducerConsumer> dpcs = retrieveOrCreate(null, datastoreNames,
-            DataReceiptFileType.DATA);
-        dpcs.stream().forEach(s -> addConsumer(s, pipelineTask.getId()));
+        long consumerId = pipelineTask.getId();
+        writeLineage(writer -> writer.addConsumer(consumerId, datastoreNames));
     }
 
     /**
@@ -131,19 +300,42 @@ public class DatastoreProducerConsumerCrud extends AbstractCrud {
         if (datastoreNames == null || datastoreNames.isEmpty()) {
             return;
         }
-        List<DatastoreProducerConsumer> datastoreProducerConsumers = retrieveOrCreate(null,
-            datastoreNames, DataReceiptFileType.DATA);
-        datastoreProducerConsumers.stream().forEach(dpc -> addConsumer(dpc, -pipelineTask.getId()));
+        long consumerId = -pipelineTask.getId();
+        writeLineage(writer -> writer.addConsumer(consumerId, datastoreNames));
     }
 
     /**
-     * Adds a consumer ID and updates or creates a {@link DatastoreProducerConsumer} instance.
-     * Implemented as a private method so that a stream forEach operation can apply it.
+     * Performs a bulk write with a {@link DatastoreLineageWriter}. Because the writer bypasses the
+     * Hibernate session, any pending changes are flushed to the database first, and any
+     * {@link DatastoreProducerConsumer} instances in the session are evicted so that subsequent
+     * retrievals see the new values.
      */
-    private void addConsumer(DatastoreProducerConsumer datastoreProducerConsumer,
-        long pipelineTaskId) {
-        datastoreProducerConsumer.addConsumer(pipelineTaskId);
-        super.createOrUpdate(datastoreProducerConsumer);
+    private void writeLineage(LineageWork work) {
+        flush();
+        evictAll(DatastoreProducerConsumer.class);
+        Dialect dialect = ((SessionFactoryImplementor) getSession().getSessionFactory())
+            .getDialect();
+        ConsumerStorage consumerStorage = ConsumerStorage.configured();
+        getSession().doWork(connection -> work.write(new DatastoreLineageWriter(connection,
+            dialect::getSelectSequenceNextValString, consumerStorage)));
+    }
+
+    /**
+     * Migrates the consumers of all datastore files from the {@link ConsumerStorage#TABLE} to the
+     * {@link ConsumerStorage#BLOB} representation. The migration can be repeated safely; consumers
+     * that are already in the BLOB representation are retained.
+     *
+     * @return the number of files whose consumers were migrated.
+     */
+    public int migrateConsumersToBlobs() {
+        int[] fileCount = new int[1];
+        writeLineage(writer -> fileCount[0] = writer.migrateConsumerTable());
+        return fileCount[0];
+    }
+
+    @FunctionalInterface
+    private interface LineageWork {
+        void write(DatastoreLineageWriter writer) throws SQLException;
     }
 
     private Set<String> datastoreNames(Collection<Path> datastoreFiles) {
@@ -167,7 +359,7 @@ public class DatastoreProducerConsumerCrud extends AbstractCrud {
 
         // Start by finding all the files that already have entries
         Criteria q = createCriteria(DatastoreProducerConsumer.class);
-        q.add(restrictionPropertyIn("filename", filenames));
+        q.add(restrictionPropertyIn(DatastoreProducerConsumer.class, "filename", filenames));
         List<DatastoreProducerConsumer> datastoreProducerConsumers = list(q);
         List<String> locatedFilenames = datastoreProducerConsumers.stream()
             .map(DatastoreProducerConsumer::getFilename)
@@ -87,6 +87,7 @@ public class DefaultDataImporter extends DataImporter {
     @Override
     public Set<Path> importFiles(Map<Path, Path> dataFiles) {
         Set<Path> importedFiles = new HashSet<>();
+        Set<Path> importedDatastoreFiles = new HashSet<>();
         Set<Path> datastoreDirectories = new HashSet<>();
         for (Path destPath : dataFiles.values()) {
             datastoreDirectories.add(destPath.getParent());
@@ -100,10 +101,14 @@ public class DefaultDataImporter extends DataImporter {
             try {
                 moveOrSymlink(fullSourcePath, fullDestPath);
                 importedFiles.add(sourceFile);
+                importedDatastoreFiles.add(dataFiles.get(sourceFile));
             } catch (IOException e) {
                 log.error("Unable to import data file " + sourceFile.toString(), e);
             }
         }
+        if (DatastoreCatalog.isEnabled()) {
+            DatastoreCatalog.forDatastore(datastoreRoot).add(importedDatastoreFiles);
+        }
         return importedFiles;
     }
 
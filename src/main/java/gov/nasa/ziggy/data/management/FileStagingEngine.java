@@ -0,0 +1,360 @@
+package gov.nasa.ziggy.data.management;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import gov.nasa.ziggy.metrics.ValueMetric;
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+
+/**
+ * Performs a set of file staging operations (copies, moves, or symlinks) on a bounded pool of
+ * threads. On parallel file systems the latency of each individual file operation, rather than the
+ * bandwidth, limits the rate at which files can be staged, so performing several operations at
+ * once substantially reduces the time needed to stage a large number of files.
+ * <p>
+ * Staging is performed in three phases:
+ * <ol>
+ * <li>The parent directories of all destination files are created. Each distinct directory is
+ * created once, regardless of the number of files that it will contain.
+ * <li>The file operations are performed in parallel.
+ * <li>The permissions of the destination files are set in parallel.
+ * </ol>
+ * The staging is all-or-nothing in the same sense as serial staging: the first failure causes all
+ * operations that have not yet started to be abandoned, and a {@link PipelineException} is thrown
+ * once the operations already in progress have completed.
+ * <p>
+ * At the completion of a staging operation, the number of files and bytes staged, and the rates
+ * at which they were staged, are recorded as {@link ValueMetric}s.
+ *
+ * @author PT
+ */
+class FileStagingEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(FileStagingEngine.class);
+
+    static final int DEFAULT_THREAD_COUNT = 8;
+
+    static final String FILE_COUNT_METRIC = "pipeline.module.fileStaging.fileCount";
+    static final String BYTE_COUNT_METRIC = "pipeline.module.fileStaging.byteCount";
+    static final String EXEC_TIME_METRIC = "pipeline.module.fileStaging.execTimeMillis";
+    static final String FILES_PER_SECOND_METRIC = "pipeline.module.fileStaging.filesPerSecond";
+    static final String BYTES_PER_SECOND_METRIC = "pipeline.module.fileStaging.bytesPerSecond";
+
+    /**
+     * A single kind of file staging operation.
+     */
+    interface StagingOperation {
+
+        /**
+         * Stages a file or directory from a source location to a destination location whose
+         * parent directory already exists. Returns the number of bytes written.
+         */
+        long transfer(Path src, Path dest) throws IOException;
+
+        /**
+         * Stages a group of files whose destinations all have the same parent directory, which
+         * already exists. Returns the number of bytes written. Operations with a large fixed cost
+         * per call (for example, an external process) can override this to stage the whole group
+         * at once; by default, each file is transferred individually.
+         */
+        default long transfer(Path destDir, List<Map.Entry<Path, Path>> sourcesAndDestinations)
+            throws IOException {
+            long bytes = 0;
+            for (Map.Entry<Path, Path> entry : sourcesAndDestinations) {
+                bytes += transfer(entry.getKey(), entry.getValue());
+            }
+            return bytes;
+        }
+
+        /**
+         * Maximum number of files passed to a single call of {@link #transfer(Path, List)}. The
+         * default of 1 means that files are not grouped.
+         */
+        default int batchSize() {
+            return 1;
+        }
+
+        /**
+         * Sets the permissions of a destination file after transfer.
+         */
+        void setPermissions(Path dest) throws IOException;
+
+        /**
+         * Message for the {@link PipelineException} that is thrown when a transfer fails.
+         */
+        String failureMessage(Path src, Path dest);
+    }
+
+    private final StagingOperation operation;
+    private final int threadCount;
+
+    private long fileCount;
+    private long byteCount;
+    private long elapsedMillis;
+
+    public FileStagingEngine(StagingOperation operation) {
+        this(operation, configuredThreadCount());
+    }
+
+    public FileStagingEngine(StagingOperation operation, int threadCount) {
+        this.operation = operation;
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Number of threads used for staging, as set by the
+     * {@link PropertyNames#DATASTORE_STAGING_THREADS_PROP_NAME} property.
+     */
+    public static int configuredThreadCount() {
+        return ZiggyConfiguration.getInstance()
+            .getInt(PropertyNames.DATASTORE_STAGING_THREADS_PROP_NAME, DEFAULT_THREAD_COUNT);
+    }
+
+    /**
+     * Stages files.
+     *
+     * @param sourceToDestination {@link Map} from the source path of each file to its destination
+     * path.
+     */
+    public void stage(Map<Path, Path> sourceToDestination) {
+        stage(sourceToDestination.entrySet());
+    }
+
+    /**
+     * Stages files, some of which may be staged to more than one destination.
+     *
+     * @param sourcesAndDestinations the source path and destination path of each file.
+     */
+    public void stage(Collection<Map.Entry<Path, Path>> sourcesAndDestinations) {
+
+        if (sourcesAndDestinations.isEmpty()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        List<Path> destinations = new ArrayList<>(sourcesAndDestinations.size());
+        for (Map.Entry<Path, Path> entry : sourcesAndDestinations) {
+            destinations.add(entry.getValue());
+        }
+        createParentDirectories(destinations);
+
+        List<Callable<Long>> transfers = operation.batchSize() > 1
+            ? batchTransfers(sourcesAndDestinations)
+            : singleTransfers(sourcesAndDestinations);
+        List<Callable<Long>> permissionSettings = new ArrayList<>(destinations.size());
+        for (Path dest : destinations) {
+            permissionSettings.add(() -> {
+                try {
+                    operation.setPermissions(dest);
+                } catch (IOException e) {
+                    throw new PipelineException("Unable to set permissions on " + dest.toString(),
+                        e);
+                }
+                return 0L;
+            });
+        }
+
+        int poolSize = Math.min(threadCount, destinations.size());
+        ExecutorService threadPool = poolSize > 1 ? Executors.newFixedThreadPool(poolSize,
+            new ThreadFactoryBuilder().setNameFormat("FileStaging[%d]").setDaemon(true).build())
+            : null;
+        try {
+            byteCount = runAll(transfers, threadPool);
+            runAll(permissionSettings, threadPool);
+        } finally {
+            if (threadPool != null) {
+                threadPool.shutdownNow();
+            }
+        }
+        fileCount = destinations.size();
+        elapsedMillis = System.currentTimeMillis() - startTime;
+        recordMetrics();
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    private List<Callable<Long>> singleTransfers(
+        Collection<Map.Entry<Path, Path>> sourcesAndDestinations) {
+        List<Callable<Long>> transfers = new ArrayList<>(sourcesAndDestinations.size());
+        for (Map.Entry<Path, Path> entry : sourcesAndDestinations) {
+            Path src = entry.getKey();
+            Path dest = entry.getValue();
+            transfers.add(() -> {
+                try {
+                    return operation.transfer(src, dest);
+                } catch (IOException e) {
+                    throw new PipelineException(operation.failureMessage(src, dest), e);
+                }
+            });
+        }
+        return transfers;
+    }
+
+    /**
+     * Groups the transfers by destination directory, with at most {@link
+     * StagingOperation#batchSize()} files in each group.
+     */
+    private List<Callable<Long>> batchTransfers(
+        Collection<Map.Entry<Path, Path>> sourcesAndDestinations) {
+        Map<Path, List<Map.Entry<Path, Path>>> entriesByDestDir = new LinkedHashMap<>();
+        for (Map.Entry<Path, Path> entry : sourcesAndDestinations) {
+            Path destDir = entry.getValue().toAbsolutePath().getParent();
+            entriesByDestDir.computeIfAbsent(destDir, d -> new ArrayList<>()).add(entry);
+        }
+        List<Callable<Long>> transfers = new ArrayList<>();
+        for (Map.Entry<Path, List<Map.Entry<Path, Path>>> group : entriesByDestDir.entrySet()) {
+            Path destDir = group.getKey();
+            List<Map.Entry<Path, Path>> entries = group.getValue();
+            for (int start = 0; start < entries.size(); start += operation.batchSize()) {
+                List<Map.Entry<Path, Path>> batch = entries.subList(start,
+                    Math.min(entries.size(), start + operation.batchSize()));
+                transfers.add(() -> {
+                    try {
+                        return operation.transfer(destDir, batch);
+                    } catch (IOException e) {
+                        throw new PipelineException(
+                            operation.failureMessage(batch.get(0).getKey(), destDir), e);
+                    }
+                });
+            }
+        }
+        return transfers;
+    }
+
+    private void createParentDirectories(Iterable<Path> destinations) {
+        Set<Path> parentDirectories = new LinkedHashSet<>();
+        for (Path dest : destinations) {
+            if (dest.getParent() != null) {
+                parentDirectories.add(dest.getParent());
+            }
+        }
+        for (Path directory : parentDirectories) {
+            if (Files.isDirectory(directory)) {
+                continue;
+            }
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new PipelineException("Unable to create directory " + directory.toString(),
+                    e);
+            }
+        }
+    }
+
+    /**
+     * Executes a collection of tasks and returns the sum of their return values. If any task
+     * fails, the tasks that have not yet started are abandoned and the exception from the first
+     * failed task is rethrown after the tasks in progress have finished.
+     */
+    private long runAll(List<Callable<Long>> tasks, ExecutorService threadPool) {
+
+        long sum = 0;
+        if (threadPool == null) {
+            for (Callable<Long> task : tasks) {
+                sum += call(task);
+            }
+            return sum;
+        }
+
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<Long>> futures = new ArrayList<>(tasks.size());
+        for (Callable<Long> task : tasks) {
+            futures.add(threadPool.submit(() -> failed.get() ? 0L : task.call()));
+        }
+        RuntimeException failure = null;
+        for (Future<Long> future : futures) {
+            try {
+                sum += future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failed.set(true);
+                    failure = e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause()
+                        : new PipelineException("File staging failed", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.set(true);
+                if (failure == null) {
+                    failure = new PipelineException("Interrupted during file staging", e);
+                }
+                break;
+            }
+        }
+        if (failure != null) {
+            awaitCompletion(futures);
+            throw failure;
+        }
+        return sum;
+    }
+
+    private long call(Callable<Long> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new PipelineException("File staging failed", e);
+        }
+    }
+
+    /**
+     * Waits for any tasks that are in progress to complete, so that no file operations are still
+     * running when the caller receives the exception.
+     */
+    private void awaitCompletion(List<Future<Long>> futures) {
+        for (Future<Long> future : futures) {
+            try {
+                future.get(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ignored) {
+                // The first failure has already been captured.
+            }
+        }
+    }
+
+    private void recordMetrics() {
+        ValueMetric.addValue(FILE_COUNT_METRIC, fileCount);
+        ValueMetric.addValue(BYTE_COUNT_METRIC, byteCount);
+        ValueMetric.addValue(EXEC_TIME_METRIC, elapsedMillis);
+        if (elapsedMillis > 0) {
+            ValueMetric.addValue(FILES_PER_SECOND_METRIC, fileCount * 1000 / elapsedMillis);
+            ValueMetric.addValue(BYTES_PER_SECOND_METRIC, byteCount * 1000 / elapsedMillis);
+        }
+        log.info("Staged " + fileCount + " files (" + byteCount + " bytes) in " + elapsedMillis
+            + " msec using " + Math.min(threadCount, Math.max(1, fileCount)) + " threads");
+    }
+}
@@ -0,0 +1,218 @@
+package gov.nasa.ziggy.data.management;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.nasa.ziggy.services.process.ExternalProcess;
+
+/**
+ * Determines which file operations can be used to stage files from one directory to another. Hard
+ * links and reflinks (i.e., copy-on-write clones) are only possible when both directories are on
+ * the same file store; in that case, the capabilities are determined by a probe that attempts to
+ * hard-link and to reflink a small file within a temporary directory that is created under the
+ * destination directory and deleted afterwards. Nothing is written to the source directory, which
+ * is usually the datastore. Probe results are cached for each pair of file stores, so the probe is
+ * performed once per pair in a given JVM.
+ *
+ * @author PT
+ */
+public class FileSystemCapabilities {
+
+    private static final Logger log = LoggerFactory.getLogger(FileSystemCapabilities.class);
+
+    private static final String PROBE_FILE_PREFIX = ".ziggy-probe-";
+
+    private static final Map<FileStorePair, FileSystemCapabilities> capabilitiesByFileStores = new ConcurrentHashMap<>();
+
+    private final boolean sameFileStore;
+    private final boolean hardLinksSupported;
+    private final boolean reflinksSupported;
+
+    FileSystemCapabilities(boolean sameFileStore, boolean hardLinksSupported,
+        boolean reflinksSupported) {
+        this.sameFileStore = sameFileStore;
+        this.hardLinksSupported = hardLinksSupported;
+        this.reflinksSupported = reflinksSupported;
+    }
+
+    /**
+     * Returns the capabilities for staging files from a source directory to a destination
+     * directory. If the destination directory does not yet exist, its nearest existing ancestor is
+     * used.
+     */
+    public static FileSystemCapabilities forDirectories(Path sourceDir, Path destDir) {
+        Path existingDestDir = destDir.toAbsolutePath();
+        while (existingDestDir != null && !Files.isDirectory(existingDestDir)) {
+            existingDestDir = existingDestDir.getParent();
+        }
+        if (!Files.isDirectory(sourceDir) || existingDestDir == null) {
+            return new FileSystemCapabilities(false, false, false);
+        }
+        FileStorePair fileStores;
+        try {
+            fileStores = new FileStorePair(Files.getFileStore(sourceDir),
+                Files.getFileStore(existingDestDir));
+        } catch (IOException e) {
+            log.warn("Unable to determine file stores for " + sourceDir + " and " + destDir, e);
+            return new FileSystemCapabilities(false, false, false);
+        }
+        Path probeDestDir = existingDestDir;
+        return capabilitiesByFileStores.computeIfAbsent(fileStores,
+            f -> probe(sourceDir, probeDestDir, f.isSameFileStore()));
+    }
+
+    /**
+     * Attempts to create a copy-on-write clone of a file, using cp --reflink=always. Returns true
+     * if the clone was created.
+     */
+    public static boolean reflink(Path src, Path dest) {
+        CommandLine commandLine = new CommandLine("cp");
+        commandLine.addArgument("-R", false);
+        commandLine.addArgument("--reflink=always", false);
+        commandLine.addArgument(src.toString(), false);
+        commandLine.addArgument(dest.toString(), false);
+        return execute(commandLine);
+    }
+
+    /**
+     * Attempts to create copy-on-write clones of a group of files in a destination directory, using
+     * a single cp --reflink=always process. Each clone has the same name as its source. Returns
+     * true if all the clones were created; if false is returned, some of the clones may have been
+     * created.
+     */
+    public static boolean reflink(Collection<Path> sources, Path destDir) {
+        CommandLine commandLine = new CommandLine("cp");
+        commandLine.addArgument("-R", false);
+        commandLine.addArgument("--reflink=always", false);
+        for (Path src : sources) {
+            commandLine.addArgument(src.toString(), false);
+        }
+        commandLine.addArgument(destDir.toString() + File.separator, false);
+        return execute(commandLine);
+    }
+
+    private static boolean execute(CommandLine commandLine) {
+        try {
+            return ExternalProcess.simpleExternalProcess(commandLine).execute() == 0;
+        } catch (RuntimeException e) {
+            log.debug("Unable to execute cp", e);
+            return false;
+        }
+    }
+
+    /**
+     * Indicates whether the source and destination directories are on the same file store.
+     */
+    public boolean isSameFileStore() {
+        return sameFileStore;
+    }
+
+    public boolean hardLinksSupported() {
+        return hardLinksSupported;
+    }
+
+    public boolean reflinksSupported() {
+        return reflinksSupported;
+    }
+
+    /**
+     * Discards cached probe results. For testing only.
+     */
+    static void reset() {
+        capabilitiesByFileStores.clear();
+    }
+
+    private static FileSystemCapabilities probe(Path sourceDir, Path destDir,
+        boolean sameFileStore) {
+        if (!sameFileStore) {
+            log.info("File system capabilities for " + sourceDir + " to " + destDir
+                + ": different stores, copies only");
+            return new FileSystemCapabilities(false, false, false);
+        }
+        boolean hardLinksSupported = false;
+        boolean reflinksSupported = false;
+        Path probeDir = null;
+        try {
+            probeDir = Files.createTempDirectory(destDir, PROBE_FILE_PREFIX);
+            Path probeSource = probeDir.resolve("source");
+            Path probeDest = probeDir.resolve("dest");
+            Files.write(probeSource, new byte[] { 0 });
+            try {
+                Files.createLink(probeDest, probeSource);
+                hardLinksSupported = true;
+                Files.delete(probeDest);
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("Hard link in " + destDir + " failed", e);
+            }
+            reflinksSupported = reflink(probeSource, probeDest);
+        } catch (IOException e) {
+            log.warn("Unable to probe file system capabilities for " + sourceDir + " and "
+                + destDir, e);
+        } finally {
+            deleteQuietly(probeDir);
+        }
+        log.info("File system capabilities for " + sourceDir + " to " + destDir + ": same store "
+            + sameFileStore + ", hard links " + hardLinksSupported + ", reflinks "
+            + reflinksSupported);
+        return new FileSystemCapabilities(sameFileStore, hardLinksSupported, reflinksSupported);
+    }
+
+    private static void deleteQuietly(Path probeDir) {
+        if (probeDir == null) {
+            return;
+        }
+        try {
+            FileUtils.deleteDirectory(probeDir.toFile());
+        } catch (IOException e) {
+            log.warn("Unable to delete probe directory " + probeDir, e);
+        }
+    }
+
+    /**
+     * Key for the cache of probe results.
+     */
+    private static class FileStorePair {
+
+        private final FileStore source;
+        private final FileStore destination;
+
+        public FileStorePair(FileStore source, FileStore destination) {
+            this.source = source;
+            this.destination = destination;
+        }
+
+        public boolean isSameFileStore() {
+            return source.equals(destination);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, destination);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            FileStorePair other = (FileStorePair) obj;
+            return Objects.equals(source, other.source)
+                && Objects.equals(destination, other.destination);
+        }
+    }
+}
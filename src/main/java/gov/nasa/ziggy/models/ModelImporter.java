@@ -7,6 +7,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -21,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gov.nasa.ziggy.data.management.DataFileManager;
+import gov.nasa.ziggy.data.management.DatastoreCatalog;
 import gov.nasa.ziggy.module.PipelineException;
 import gov.nasa.ziggy.pipeline.definition.ModelMetadata;
 import gov.nasa.ziggy.pipeline.definition.ModelRegistry;
@@ -239,6 +241,11 @@ public class ModelImporter {
             return;
         }
 
+        if (DatastoreCatalog.isEnabled()) {
+            DatastoreCatalog.forDatastore(datastoreRoot)
+                .add(Collections.singleton(destinationFile));
+        }
+
         // If all that worked, then we can update the model registry
         modelCrud().create(modelMetadata);
         modelRegistry.updateModelMetadata(modelMetadata);
@@ -2,15 +2,15 @@ package gov.nasa.ziggy.module;
 
 import static gov.nasa.ziggy.services.database.DatabaseTransactionFactory.performTransaction;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -35,8 +35,14 @@ import gov.nasa.ziggy.services.database.DatabaseTransactionFactory;
  * Monitors algorithm processing by monitoring state files.
  * <p>
  * Two instances are used: one for local tasks and the other for remote execution jobs (on HPC
- * and/or cloud systems). Each one checks at regular intervals for updates to the {@link StateFile}
- * for the specific task. The intervals are managed by a {@link ScheduledThreadPoolExecutor}.
+ * and/or cloud systems). Each one checks for updates to the {@link StateFile} for the specific task
+ * as soon as a {@link StateFileWatcher} reports a change to the state file directory, and also at
+ * regular intervals. The intervals are managed by a {@link ScheduledThreadPoolExecutor}.
+ * <p>
+ * The state files are looked up in the watcher's index rather than in a listing of the state file
+ * directory. The directory is only listed at each interval if the watcher doesn't receive events,
+ * or by the remote monitor, since network file systems don't deliver events for changes made by
+ * remote hosts; otherwise it is listed every {@link #FULL_RESCAN_INTERVAL_MILLIS} as a safeguard.
  *
  * @author Todd Klaus
  * @author PT
@@ -46,6 +52,7 @@ public class AlgorithmMonitor implements Runnable {
 
     private static final long SSH_POLL_INTERVAL_MILLIS = 10 * 1000; // 10 secs
     private static final long LOCAL_POLL_INTERVAL_MILLIS = 2 * 1000; // 2 seconds
+    static final long FULL_RESCAN_INTERVAL_MILLIS = 60 * 1000; // 1 minute
 
     private static AlgorithmMonitor localMonitoringInstance = null;
     private static AlgorithmMonitor remoteMonitoringInstance = null;
@@ -55,6 +62,8 @@ public class AlgorithmMonitor implements Runnable {
     private List<String> corruptedStateFileNames = new ArrayList<>();
     private boolean startLogMessageWritten = false;
     private boolean monitorRemoteJobs;
+    private StateFileWatcher stateFileWatcher;
+    private long lastRescanMillis;
 
     JobMonitor jobMonitor = null;
 
@@ -182,6 +191,7 @@ public class AlgorithmMonitor implements Runnable {
      * Start the monitoring thread for a given monitor.
      */
     void startMonitoringThread() {
+        stateFileWatcher().addListener(this::stateFilesChanged);
         if (pollingIntervalMillis() > 0) {
             threadPool.scheduleWithFixedDelay(this, 0, pollingIntervalMillis(),
                 TimeUnit.MILLISECONDS);
@@ -236,32 +246,31 @@ public class AlgorithmMonitor implements Runnable {
         jobMonitor().addToMonitoring(task);
     }
 
-    private List<File> stateFiles() {
-
-        List<File> stateDirListing = new LinkedList<>();
+    /**
+     * Returns the current names of the state files for the monitored tasks, excluding any that are
+     * on the corrupted list.
+     */
+    private List<String> stateFileNames() {
+        StateFileWatcher watcher = stateFileWatcher();
+        return state.keySet()
+            .stream()
+            .map(watcher::stateFileName)
+            .filter(Objects::nonNull)
+            .filter(s -> !corruptedStateFileNames.contains(s))
+            .collect(Collectors.toList());
+    }
 
-        // get the raw list, excluding directories
-        File stateDirFile = new File(stateFileDirPath);
-        List<File> allFiles = new ArrayList<>();
-        if (stateDirFile != null) {
-            File[] files = stateDirFile.listFiles();
-            if (files != null) {
-                allFiles.addAll(Arrays.asList(files));
-            }
-            stateDirListing = allFiles.stream()
-                .filter(s -> !s.isDirectory())
-                .collect(Collectors.toList());
+    /**
+     * Rebuilds the state file index from a directory listing if the index can't be relied upon to
+     * be current.
+     */
+    private void rescanIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (monitorRemoteJobs || !stateFileWatcher().isEventDriven()
+            || now - lastRescanMillis >= FULL_RESCAN_INTERVAL_MILLIS) {
+            stateFileWatcher().rescan();
+            lastRescanMillis = now;
         }
-
-        // throw away everything that doesn't have the correct prefix, and everything
-        // that is on the corrupted list
-        List<File> filteredFiles = stateDirListing.stream()
-            .filter(s -> s.getName().startsWith(StateFile.PREFIX))
-            .filter(s -> !corruptedStateFileNames.contains(s.getName()))
-            .collect(Collectors.toList());
-        List<File> finalResult = new LinkedList<>();
-        finalResult.addAll(filteredFiles);
-        return finalResult;
     }
 
     private void performStateFileChecks(StateFile oldState, StateFile remoteState)
@@ -325,7 +334,7 @@ public class AlgorithmMonitor implements Runnable {
     }
 
     @Override
-    public void run() {
+    public synchronized void run() {
 
         if (!startLogMessageWritten) {
             log.info("Algorithm monitor started...");
@@ -334,12 +343,8 @@ public class AlgorithmMonitor implements Runnable {
         try {
             if (!state.isEmpty()) {
                 jobMonitor().update();
-
-                List<File> stateDirListing = stateFiles();
-                if (log.isDebugEnabled()) {
-                    dumpRemoteState(stateDirListing);
-                }
-                performStateFileLoop(stateDirListing);
+                rescanIfNeeded();
+                checkStateFiles();
             } // end non-empty state map
 
         } catch (Exception e) {
@@ -348,16 +353,47 @@ public class AlgorithmMonitor implements Runnable {
     }
 
     /**
-     * Loops over all files in the stateDirListing and, if they are in the monitoring list, performs
-     * state file checks on the cached and file states. Any state file name that cannot be parsed
-     * into a new StateFile object is added to a registry of corrupted names and subsequently
-     * ignored.
+     * Called by the {@link StateFileWatcher} when the state file directory changes. The checks run
+     * on the monitor's thread pool so that the watcher can continue to process events.
+     */
+    private void stateFilesChanged() {
+        if (state.isEmpty()) {
+            return;
+        }
+        try {
+            threadPool.execute(() -> {
+                synchronized (this) {
+                    try {
+                        if (!state.isEmpty()) {
+                            checkStateFiles();
+                        }
+                    } catch (Exception e) {
+                        log.warn("State file checks failed, e=" + e, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The thread pool has been shut down.
+        }
+    }
+
+    private void checkStateFiles() {
+        List<String> stateFileNames = stateFileNames();
+        if (log.isDebugEnabled()) {
+            dumpRemoteState(stateFileNames);
+        }
+        performStateFileLoop(stateFileNames);
+    }
+
+    /**
+     * Loops over the state file names of the monitored tasks and performs state file checks on the
+     * cached and file states. Any state file name that cannot be parsed into a new StateFile object
+     * is added to a registry of corrupted names and subsequently ignored.
      *
-     * @param stateDirListing
+     * @param stateFileNames
      */
-    private void performStateFileLoop(List<File> stateDirListing) {
-        for (File remoteFile : stateDirListing) {
-            String name = remoteFile.getName();
+    private void performStateFileLoop(List<String> stateFileNames) {
+        for (String name : stateFileNames) {
             try {
                 StateFile remoteState = new StateFile(name);
                 StateFile oldState = state.get(remoteState.invariantPart());
@@ -530,10 +566,10 @@ public class AlgorithmMonitor implements Runnable {
         return Disposition.FAIL;
     }
 
-    private void dumpRemoteState(List<File> remoteState) {
-        log.debug("Remote state dir:");
-        for (File file : remoteState) {
-            log.debug(file.toString());
+    private void dumpRemoteState(List<String> remoteState) {
+        log.debug("Remote state files:");
+        for (String name : remoteState) {
+            log.debug(name);
         }
     }
 
@@ -596,12 +632,14 @@ public class AlgorithmMonitor implements Runnable {
     }
 
     /**
-     * Stops the thread pool and replaces it. For testing only.
+     * Stops the thread pool and the state file watchers, and replaces the thread pool. For testing
+     * only.
      */
     static void resetThreadPool() {
         if (threadPool != null) {
             threadPool.shutdownNow();
         }
+        StateFileWatcher.shutdown();
         threadPool = new ScheduledThreadPoolExecutor(2);
     }
 
@@ -612,6 +650,13 @@ public class AlgorithmMonitor implements Runnable {
         return state.get(stateFile.invariantPart());
     }
 
+    private StateFileWatcher stateFileWatcher() {
+        if (stateFileWatcher == null) {
+            stateFileWatcher = StateFileWatcher.getInstance(Paths.get(stateFileDirPath));
+        }
+        return stateFileWatcher;
+    }
+
     private void initializeJobMonitor() {
         jobMonitor = JobMonitor.newInstance(username(), monitorRemoteJobs);
     }
@@ -8,11 +8,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gov.nasa.ziggy.module.AlgorithmStateFiles.SubtaskState;
+import gov.nasa.ziggy.module.AlgorithmStateFiles.SubtaskStateCounts;
 import gov.nasa.ziggy.module.StateFile.State;
 
 /**
  * This class updates the task {@link StateFile} files based on a roll up of the sub-task
- * {@link AlgorithmStateFiles}s.
+ * {@link AlgorithmStateFiles}s. For tasks with a {@link SubtaskStateJournal}, the roll up is read
+ * from the journal rather than from the subtask directories.
  * <p>
  * This file-based mechanism is used to communicate state between the worker process and a remote
  * CPU cluster.
@@ -70,12 +72,16 @@ public class AlgorithmStateFileMonitor implements Runnable {
         for (StateFile stateFile : runningTasks) {
             String taskDirName = stateFile.taskDirName();
             File taskDir = new File(taskRootDir, taskDirName);
-            File[] subTaskDirs = taskDir.listFiles();
             int numTotal = stateFile.getNumTotal();
             int numComplete = 0;
             int numFailed = 0;
 
-            if (subTaskDirs != null) {
+            SubtaskStateCounts journalCounts = AlgorithmStateFiles.journalStateCounts(taskDir);
+            File[] subTaskDirs = journalCounts == null ? taskDir.listFiles() : null;
+            if (journalCounts != null) {
+                numComplete = journalCounts.getCompletedSubtasks();
+                numFailed = journalCounts.getFailedSubtasks();
+            } else if (subTaskDirs != null) {
                 for (File subTaskDir : subTaskDirs) {
                     AlgorithmStateFiles currentSubTaskStateFile = new AlgorithmStateFiles(
                         subTaskDir);
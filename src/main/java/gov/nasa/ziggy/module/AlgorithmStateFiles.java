@@ -2,15 +2,30 @@ package gov.nasa.ziggy.module;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.io.Files;
 
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+
 /**
- * This class manages zero-length files whose names are used to represent the state of an executing
- * algorithm. These files are stored in the subtask working directory.
+ * This class manages the state of an executing algorithm in a subtask working directory. States are
+ * recorded in the task's {@link SubtaskStateJournal}. If the
+ * {@link PropertyNames#SUBTASK_STATE_FLAG_FILES_PROP_NAME} property is set, states are also
+ * recorded in zero-length files in the subtask working directory whose names represent the state,
+ * and are read from those files; otherwise, the files are only read for task directories that
+ * have no journal.
+ * <p>
+ * Whether the subtask produced results is always indicated by a zero-length file in the subtask
+ * working directory, since it is set by the outputs processing; when the subtask completes, its
+ * presence is copied to the journal, so that the file only needs to be checked for subtasks whose
+ * journal record does not show results.
  *
  * @author Todd Klaus
  * @author PT
@@ -20,6 +35,18 @@ public class AlgorithmStateFiles {
 
     private static final String HAS_RESULTS = "HAS_RESULTS";
 
+    /**
+     * Suffix of the directory in which a speculative attempt at a subtask is executed. The state of
+     * the attempt is recorded under the name of that directory.
+     */
+    public static final String SPECULATIVE_ATTEMPT_SUFFIX = ".speculative";
+
+    /**
+     * Suffix of the name under which the outcome of the original attempt at a subtask is recorded
+     * when a speculative attempt was also made.
+     */
+    public static final String ORIGINAL_ATTEMPT_SUFFIX = ".original";
+
     public enum SubtaskState {
         // State in which no AlgorithmStateFile is present. Rather than return an actual
         // null, when queried about the subtask state we can return SubtaskState.NULL .
@@ -51,12 +78,16 @@ public class AlgorithmStateFiles {
         public abstract void updateStateCounts(SubtaskStateCounts stateCounts);
     }
 
+    private final File taskDir;
+    private final String subtaskDirName;
     private final File processingFlag;
     private final File completeFlag;
     private final File failedFlag;
     private final File resultsFlag;
 
     public AlgorithmStateFiles(File workingDir) {
+        taskDir = workingDir.getAbsoluteFile().getParentFile();
+        subtaskDirName = workingDir.getName();
         processingFlag = new File(workingDir, "." + SubtaskState.PROCESSING.toString());
         completeFlag = new File(workingDir, "." + SubtaskState.COMPLETE.toString());
         failedFlag = new File(workingDir, "." + SubtaskState.FAILED.toString());
@@ -68,10 +99,97 @@ public class AlgorithmStateFiles {
     }
 
     public static boolean hasResults(File workingDir) {
-        return new AlgorithmStateFiles(workingDir).resultsFlag.exists();
+        return new AlgorithmStateFiles(workingDir).hasResults();
+    }
+
+    /**
+     * Returns the directory in which a speculative attempt at a subtask is executed.
+     */
+    public static File speculativeAttemptDirectory(File subtaskDir) {
+        return new File(subtaskDir.getParentFile(),
+            subtaskDir.getName() + SPECULATIVE_ATTEMPT_SUFFIX);
+    }
+
+    /**
+     * Indicates whether a name in the subtask state journal is that of an attempt at a subtask
+     * rather than of the subtask itself. Attempts are not counted as subtasks.
+     */
+    static boolean isAttemptName(String name) {
+        return name.endsWith(SPECULATIVE_ATTEMPT_SUFFIX) || name.endsWith(ORIGINAL_ATTEMPT_SUFFIX);
+    }
+
+    /**
+     * Records the outcome of one of the attempts at a subtask that was executed speculatively. The
+     * state of the subtask itself is not affected.
+     *
+     * @param speculative true for the speculative attempt, false for the original attempt.
+     */
+    public static void recordAttemptOutcome(File subtaskDir, boolean speculative,
+        SubtaskState outcome) {
+        File attemptDir = new File(subtaskDir.getParentFile(), subtaskDir.getName()
+            + (speculative ? SPECULATIVE_ATTEMPT_SUFFIX : ORIGINAL_ATTEMPT_SUFFIX));
+        new AlgorithmStateFiles(attemptDir).appendToJournal(outcome, false);
+    }
+
+    /**
+     * Returns the recorded outcome of an attempt at a subtask, or NULL if there is none.
+     */
+    public static SubtaskState attemptOutcome(File subtaskDir, boolean speculative) {
+        SubtaskStateJournal.Reader reader = SubtaskStateJournal
+            .reader(subtaskDir.getAbsoluteFile().getParentFile());
+        try {
+            if (!reader.update()) {
+                return SubtaskState.NULL;
+            }
+        } catch (IOException e) {
+            throw new PipelineException("Unable to read subtask state journal", e);
+        }
+        return reader.state(subtaskDir.getName()
+            + (speculative ? SPECULATIVE_ATTEMPT_SUFFIX : ORIGINAL_ATTEMPT_SUFFIX));
+    }
+
+    /**
+     * Indicates whether subtask states are recorded in, and read from, flag files in the subtask
+     * directories.
+     */
+    public static boolean flagFilesEnabled() {
+        return ZiggyConfiguration.getInstance()
+            .getBoolean(PropertyNames.SUBTASK_STATE_FLAG_FILES_PROP_NAME, false);
+    }
+
+    /**
+     * Returns the journal reader for a task directory, updated with the latest journal records, or
+     * null if states are read from flag files.
+     */
+    private static SubtaskStateJournal.Reader journalReader(File taskDir) {
+        if (flagFilesEnabled()) {
+            return null;
+        }
+        SubtaskStateJournal.Reader reader = SubtaskStateJournal.reader(taskDir);
+        try {
+            return reader.update() ? reader : null;
+        } catch (IOException e) {
+            throw new PipelineException("Unable to read subtask state journal in " + taskDir, e);
+        }
+    }
+
+    private void appendToJournal(SubtaskState state, boolean hasResults) {
+        try {
+            SubtaskStateJournal.record(taskDir, subtaskDirName, state, hasResults);
+        } catch (IOException e) {
+            throw new PipelineException("Unable to update subtask state journal in " + taskDir,
+                e);
+        }
     }
 
     public void clearState() {
+        if (flagFilesEnabled()) {
+            clearFlags();
+        }
+        appendToJournal(SubtaskState.NULL, false);
+    }
+
+    private void clearFlags() {
         processingFlag.delete();
         completeFlag.delete();
         failedFlag.delete();
@@ -89,32 +207,93 @@ public class AlgorithmStateFiles {
      * the preceding run.
      */
     public void clearStaleState() {
-        if (!currentSubtaskState().equals(SubtaskState.COMPLETE)) {
+        SubtaskState state = currentSubtaskState();
+        if (state != SubtaskState.COMPLETE) {
             resultsFlag.delete();
         }
-        processingFlag.delete();
-        failedFlag.delete();
+        if (flagFilesEnabled()) {
+            processingFlag.delete();
+            failedFlag.delete();
+        }
+        if (state != SubtaskState.COMPLETE && state != SubtaskState.NULL) {
+            appendToJournal(SubtaskState.NULL, false);
+        }
+    }
+
+    /**
+     * Removes stale states for all the subtasks in a task; see {@link #clearStaleState()}. The
+     * journal is read once and all the stale states are cleared with a single journal update.
+     * <p>
+     * If the task directory has no journal, one is created, and the COMPLETE states recorded in
+     * flag files by an earlier processing attempt are copied into it.
+     */
+    public static void clearStaleStates(File taskDir, List<File> subtaskDirs) {
+        try {
+            SubtaskStateJournal.Reader reader = new SubtaskStateJournal.Reader(taskDir);
+            boolean journalExists = reader.update();
+            boolean flagFilesEnabled = flagFilesEnabled();
+            List<SubtaskStateJournal.Record> records = new ArrayList<>();
+            for (File subtaskDir : subtaskDirs) {
+                AlgorithmStateFiles stateFiles = new AlgorithmStateFiles(subtaskDir);
+                if (flagFilesEnabled) {
+                    if (!stateFiles.isComplete()) {
+                        stateFiles.resultsFlag.delete();
+                    }
+                    stateFiles.processingFlag.delete();
+                    stateFiles.failedFlag.delete();
+                }
+                if (!journalExists) {
+                    if (stateFiles.robustExists(stateFiles.completeFlag)) {
+                        records.add(new SubtaskStateJournal.Record(subtaskDir.getName(),
+                            SubtaskState.COMPLETE, stateFiles.resultsFlag.exists()));
+                    }
+                    continue;
+                }
+                SubtaskState state = reader.state(subtaskDir.getName());
+                if (state != SubtaskState.COMPLETE && state != SubtaskState.NULL) {
+                    records.add(new SubtaskStateJournal.Record(subtaskDir.getName(),
+                        SubtaskState.NULL, false));
+                }
+            }
+            try (SubtaskStateJournal journal = new SubtaskStateJournal(taskDir)) {
+                journal.append(records);
+            }
+        } catch (IOException e) {
+            throw new PipelineException("Unable to update subtask state journal in " + taskDir,
+                e);
+        }
     }
 
     public void updateCurrentState(SubtaskState newState) throws IOException {
-        clearState();
+        if (newState == SubtaskState.NULL) {
+            throw new IllegalStateException("Unknown state: " + newState);
+        }
+
+        // Any results flag left by an earlier attempt is stale once the subtask starts again.
+        if (newState == SubtaskState.PROCESSING) {
+            resultsFlag.delete();
+        }
 
-        switch (newState) {
-            case COMPLETE:
-                completeFlag.createNewFile();
-                break;
+        if (flagFilesEnabled()) {
+            clearFlags();
+            switch (newState) {
+                case COMPLETE:
+                    completeFlag.createNewFile();
+                    break;
 
-            case PROCESSING:
-                processingFlag.createNewFile();
-                break;
+                case PROCESSING:
+                    processingFlag.createNewFile();
+                    break;
 
-            case FAILED:
-                failedFlag.createNewFile();
-                break;
+                case FAILED:
+                    failedFlag.createNewFile();
+                    break;
 
-            default:
-                throw new IllegalStateException("Unknown state: " + newState);
+                default:
+                    throw new IllegalStateException("Unknown state: " + newState);
+            }
         }
+        appendToJournal(newState, newState == SubtaskState.COMPLETE && resultsFlag.exists());
     }
 
     public void setResultsFlag() throws IOException {
@@ -122,6 +301,22 @@ public class AlgorithmStateFiles {
     }
 
     public SubtaskState currentSubtaskState() {
+        SubtaskStateJournal.Reader reader = journalReader(taskDir);
+        if (reader != null) {
+            return reader.state(subtaskDirName);
+        }
+        return flagFileState();
+    }
+
+    public boolean hasResults() {
+        SubtaskStateJournal.Reader reader = journalReader(taskDir);
+        if (reader != null && reader.hasResults(subtaskDirName)) {
+            return true;
+        }
+        return resultsFlag.exists();
+    }
+
+    private SubtaskState flagFileState() {
         SubtaskState current = SubtaskState.NULL;
 
         if (robustExists(processingFlag)) {
@@ -151,6 +346,10 @@ public class AlgorithmStateFiles {
      * @return
      */
     public boolean subtaskStateExists() {
+        SubtaskStateJournal.Reader reader = journalReader(taskDir);
+        if (reader != null) {
+            return reader.state(subtaskDirName) != SubtaskState.NULL;
+        }
         return robustExists(completeFlag) || robustExists(processingFlag)
             || robustExists(failedFlag);
     }
@@ -171,6 +370,35 @@ public class AlgorithmStateFiles {
         }
     }
 
+    /**
+     * Returns the numbers of completed and failed subtasks recorded in the journal of a task
+     * directory, or null if the states must be read from flag files.
+     */
+    public static SubtaskStateCounts journalStateCounts(File taskDir) {
+        SubtaskStateJournal.Reader reader = journalReader(taskDir);
+        return reader != null ? reader.counts() : null;
+    }
+
+    /**
+     * Returns the COMPLETE subtask directories of a task that did, or did not, produce results.
+     */
+    public static List<File> completedSubtaskDirectories(File taskDir, List<File> subtaskDirs,
+        boolean withResults) {
+        SubtaskStateJournal.Reader reader = journalReader(taskDir);
+        if (reader == null) {
+            return subtaskDirs.stream().filter(subtaskDir -> {
+                AlgorithmStateFiles stateFiles = new AlgorithmStateFiles(subtaskDir);
+                return stateFiles.flagFileState() == SubtaskState.COMPLETE
+                    && stateFiles.resultsFlag.exists() == withResults;
+            }).collect(Collectors.toList());
+        }
+        return subtaskDirs.stream()
+            .filter(subtaskDir -> reader.state(subtaskDir.getName()) == SubtaskState.COMPLETE
+                && (reader.hasResults(subtaskDir.getName())
+                    || new AlgorithmStateFiles(subtaskDir).resultsFlag.exists()) == withResults)
+            .collect(Collectors.toList());
+    }
+
     public boolean isProcessing() {
         return currentSubtaskState() == SubtaskState.PROCESSING;
     }
@@ -194,6 +422,14 @@ public class AlgorithmStateFiles {
         private int failedSubtasks = 0;
         private int completedSubtasks = 0;
 
+        public SubtaskStateCounts() {
+        }
+
+        public SubtaskStateCounts(int completedSubtasks, int failedSubtasks) {
+            this.completedSubtasks = completedSubtasks;
+            this.failedSubtasks = failedSubtasks;
+        }
+
         public void incrementFailedSubtasks() {
             failedSubtasks++;
         }
@@ -53,6 +53,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import gov.nasa.ziggy.metrics.Metric;
 import gov.nasa.ziggy.module.remote.TimestampFile;
 import gov.nasa.ziggy.services.logging.TaskLog;
 import gov.nasa.ziggy.util.TimeFormatter;
@@ -96,6 +97,12 @@ public class ComputeNodeMaster implements Runnable {
     private TaskMonitor monitor;
 
     private Semaphore subtaskMasters;
+    private int subtaskMasterCount;
+    private SubtaskAdmissionController admissionController;
+    private SubtaskSpeculator speculator;
+    private SubtaskRuntimeHistory runtimeHistory;
+    private long[] predictedRuntimeMillis;
+    private int[] subtaskOrder;
     private CountDownLatch monitoringLatch = new CountDownLatch(1);
     private ExecutorService threadPool;
 
@@ -168,7 +175,6 @@ public class ComputeNodeMaster implements Runnable {
         createTimestamps();
         setNodeName();
 
-        log.info("Starting " + coresPerNode + " subtask masters");
         startSubtaskMasters();
     }
 
@@ -216,12 +222,25 @@ public class ComputeNodeMaster implements Runnable {
     }
 
     /**
-     * Starts the {@link SubtaskServer}.
+     * Starts the {@link SubtaskServer}. If subtasks are to be offered longest-first, the order is
+     * determined from the {@link SubtaskRuntimeHistory} of the pipeline module.
      *
      * @throws InterruptedException if the server is interrupted during initialization.
      */
     private void startSubtaskServer() throws InterruptedException {
-        SubtaskServer subtaskServer = new SubtaskServer(nodeFullName, getInputsHandler());
+        if (SubtaskRuntimeHistory.longestFirstEnabled()) {
+            try {
+                runtimeHistory = SubtaskRuntimeHistory.load(stateFile.getModuleName());
+                predictedRuntimeMillis = runtimeHistory.runtimeMillis(getInputsHandler());
+                subtaskOrder = SubtaskRuntimeHistory.longestFirstOrder(predictedRuntimeMillis);
+                log.info("Offering subtasks longest-first");
+            } catch (IOException e) {
+                log.warn("Unable to read subtask runtime history, offering subtasks in order",
+                    e);
+            }
+        }
+        SubtaskServer subtaskServer = new SubtaskServer(nodeFullName, getInputsHandler(),
+            SubtaskServer.configuredLeaseMillis(), subtaskOrder);
         subtaskServer.startSubtaskServer();
         subtaskServerPort = subtaskServer.getServerPort();
     }
@@ -241,6 +260,12 @@ public class ComputeNodeMaster implements Runnable {
      * Starts the {@link SubtaskMaster} instances in the threads of a thread pool, one thread per
      * active cores on this node. A {@link Semaphore} is used to track the number of
      * {@link SubtaskMaster} instances currently running.
+     * <p>
+     * If subtask admission control is enabled, the maximum number of {@link SubtaskMaster}s
+     * permitted by the {@link SubtaskAdmissionController} are started instead, and the controller
+     * determines how many of them may run subtasks at any given time. If speculative execution is
+     * enabled, the {@link SubtaskSpeculator} may use idle cores for second attempts at stragglers,
+     * subject to the same admission control.
      *
      * @throws InterruptedException if the semaphore acquire method is interrupted.
      */
@@ -248,15 +273,36 @@ public class ComputeNodeMaster implements Runnable {
 
         int timeoutSecs = (int) TimeFormatter
             .timeStringHhMmSsToTimeInSeconds(stateFile.getRequestedWallTime());
-        subtaskMasters = new Semaphore(coresPerNode);
-        threadPool = Executors.newFixedThreadPool(coresPerNode);
+        subtaskMasterCount = coresPerNode;
+        if (SubtaskAdmissionController.enabled()) {
+            admissionController = SubtaskAdmissionController.newInstance(coresPerNode,
+                stateFile.getGigsPerSubtask());
+            admissionController.start();
+            subtaskMasterCount = admissionController.maxSubtasks();
+        }
+        if (SubtaskSpeculator.enabled()) {
+            speculator = SubtaskSpeculator.newInstance(subtaskMasterCount, admissionController,
+                (subtaskIndex, attemptDir, outputsGate) -> SubtaskSpeculator
+                    .execution(new SubtaskExecutor.Builder().taskDir(new File(workingDir))
+                        .binaryName(stateFile.getModuleName())
+                        .subtaskIndex(subtaskIndex)
+                        .timeoutSecs(timeoutSecs)
+                        .pipelineConfigPath(pipelineConfigPath)
+                        .pipelineHomeDir(homeDir)
+                        .workingDir(attemptDir)
+                        .outputsGate(outputsGate)
+                        .build()));
+        }
+        log.info("Starting " + subtaskMasterCount + " subtask masters");
+        subtaskMasters = new Semaphore(subtaskMasterCount);
+        threadPool = Executors.newFixedThreadPool(subtaskMasterCount);
         ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("SubtaskMaster[%d]")
             .build();
-        for (int i = 0; i < coresPerNode; i++) {
+        for (int i = 0; i < subtaskMasterCount; i++) {
             subtaskMasters.acquire();
             threadPool.submit(new SubtaskMaster(i, nodeName, nodeFullName, subtaskMasters,
                 stateFile.getModuleName(), workingDir, timeoutSecs, homeDir, pipelineConfigPath,
-                subtaskServerPort), threadFactory);
+                subtaskServerPort, admissionController, speculator), threadFactory);
         }
     }
 
@@ -325,10 +371,16 @@ public class ComputeNodeMaster implements Runnable {
         }
 
         // If all RemoteSubtaskMasters are done we can exit monitoring
-        if (subtaskMasters.availablePermits() == coresPerNode) {
+        if (subtaskMasters.availablePermits() == subtaskMasterCount) {
             endMonitoring();
             return;
         }
+
+        // Near the end of the task, start second attempts at any stragglers.
+        if (speculator != null) {
+            speculator.check(stateFile.getNumTotal(),
+                stateFile.getNumTotal() - stateFile.getNumComplete() - stateFile.getNumFailed());
+        }
     }
 
     /**
@@ -354,9 +406,40 @@ public class ComputeNodeMaster implements Runnable {
         if (monitor.allSubtasksProcessed()) {
             monitor.markStateFileDone();
         }
+        if (admissionController != null) {
+            admissionController.stop();
+            Metric.log();
+        }
+        if (subtaskOrder != null) {
+            updateRuntimeHistory();
+        }
         log.info("ComputeNodeMaster: Done");
     }
 
+    /**
+     * Records the runtimes of the completed subtasks in the {@link SubtaskRuntimeHistory}, and
+     * writes a {@link SubtaskMakespanReport} to the task directory.
+     */
+    private void updateRuntimeHistory() {
+        int workers = subtaskMasterCount * Math.max(stateFile.getRequestedNodeCount(), 1);
+        SubtaskMakespanReport report = SubtaskMakespanReport.create(taskDir,
+            predictedRuntimeMillis, subtaskOrder, workers);
+        log.info("Subtask makespan:\n" + report.report());
+        try {
+            report.write(taskDir);
+            for (int i = 0; i < predictedRuntimeMillis.length; i++) {
+                long runtimeMillis = report.actualRuntimeMillis(i);
+                if (runtimeMillis >= 0 && new AlgorithmStateFiles(
+                    TaskConfigurationManager.subtaskDirectory(taskDir, i)).isComplete()) {
+                    runtimeHistory.record(getInputsHandler().filesForSubtask(i), runtimeMillis);
+                }
+            }
+            runtimeHistory.save();
+        } catch (IOException e) {
+            log.warn("Unable to update subtask runtime history", e);
+        }
+    }
+
     public static void setSocketException(SocketException socketException) {
         ComputeNodeMaster.socketException = socketException;
     }
@@ -366,13 +449,22 @@ public class ComputeNodeMaster implements Runnable {
     }
 
     /**
-     * Final cleanup from job execution. The {@link SubtaskMaster} thread pool is shut down and
-     * logging is terminated.
+     * Final cleanup from job execution. The {@link SubtaskMaster} thread pool and any
+     * {@link TaskFileManagerPool} helpers are shut down, any {@link SubtaskStateJournal} writers
+     * left open by subtasks that did not finish are closed, and logging is terminated.
      */
     public void cleanup() {
+        if (admissionController != null) {
+            admissionController.stop();
+        }
+        if (speculator != null) {
+            speculator.shutdown();
+        }
         if (threadPool != null) {
             threadPool.shutdownNow();
         }
+        TaskFileManagerPool.shutdown();
+        SubtaskStateJournal.closeAll();
         algorithmLog.endLogging();
     }
 
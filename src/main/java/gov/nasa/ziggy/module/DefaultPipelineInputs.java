@@ -2,6 +2,7 @@ package gov.nasa.ziggy.module;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -32,6 +33,8 @@ import gov.nasa.ziggy.pipeline.definition.ParameterSet;
 import gov.nasa.ziggy.pipeline.definition.PipelineTask;
 import gov.nasa.ziggy.services.alert.AlertService;
 import gov.nasa.ziggy.services.config.DirectoryProperties;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
 import gov.nasa.ziggy.uow.DatastoreDirectoryUnitOfWorkGenerator;
 import gov.nasa.ziggy.uow.DirectoryUnitOfWorkGenerator;
 import gov.nasa.ziggy.uow.TaskConfigurationParameters;
@@ -62,6 +65,14 @@ public class DefaultPipelineInputs extends PipelineInputs {
     @ProxyIgnore
     private static final Logger log = LoggerFactory.getLogger(DefaultPipelineInputs.class);
 
+    /**
+     * Written to the task directory once
+     * {@link #populateSubtaskDirectories(TaskConfigurationManager, Path)} has staged the files of
+     * all the subtasks.
+     */
+    @ProxyIgnore
+    static final String SUBTASK_DIRECTORIES_POPULATED_FILE_NAME = ".subtask-directories-populated";
+
     private List<String> dataFilenames = new ArrayList<>();
     private List<String> modelFilenames = new ArrayList<>();
     private ModuleParameters moduleParameters = new ModuleParameters();
@@ -306,12 +317,16 @@ public class DefaultPipelineInputs extends PipelineInputs {
             null);
         log.info(dataFilenames.size() + " filenames added to UOW");
         log.info("Copying inputs files into subtask directory");
-        dataFileManager.copyFilesByNameFromTaskDirToWorkingDir(dataFilenames);
+        boolean populated = Files
+            .exists(taskDir.resolve(SUBTASK_DIRECTORIES_POPULATED_FILE_NAME));
+        dataFileManager.copyFilesByNameFromTaskDirToWorkingDir(
+            populated ? filesNotInWorkingDir(dataFilenames) : dataFilenames);
 
         // now copy the models from the task directory to the working directory
         if (!modelFilenames.isEmpty()) {
             log.info("Copying " + modelFilenames.size() + " model files into subtask directory");
-            dataFileManager.copyFilesByNameFromTaskDirToWorkingDir(modelFilenames);
+            dataFileManager.copyFilesByNameFromTaskDirToWorkingDir(
+                populated ? filesNotInWorkingDir(modelFilenames) : modelFilenames);
         }
         log.info("Persisting inputs information to subtask directory");
         writeSubTaskInputs(0);
@@ -319,6 +334,44 @@ public class DefaultPipelineInputs extends PipelineInputs {
 
     }
 
+    /**
+     * Returns the files that are not yet in the working directory, for use when
+     * {@link #populateSubtaskDirectories(TaskConfigurationManager, Path)} has placed files there
+     * that need not be staged again.
+     */
+    private static List<String> filesNotInWorkingDir(List<String> filenames) {
+        Path workingDir = DirectoryProperties.workingDir();
+        return filenames.stream()
+            .filter(filename -> !Files.exists(workingDir.resolve(filename),
+                LinkOption.NOFOLLOW_LINKS))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Stages the data files of each subtask, and the models, into all of the subtask directories
+     * at once, unless disabled by the {@link PropertyNames#BULK_SUBTASK_POPULATION_PROP_NAME}
+     * property. Once the files are staged, {@link #SUBTASK_DIRECTORIES_POPULATED_FILE_NAME} is
+     * written to the task directory, so that {@link #populateSubTaskInputs()} only stages the files
+     * that are missing.
+     */
+    @Override
+    public void populateSubtaskDirectories(TaskConfigurationManager taskConfigurationManager,
+        Path taskDirectory) {
+        Path populatedFile = taskDirectory.resolve(SUBTASK_DIRECTORIES_POPULATED_FILE_NAME);
+        try {
+            Files.deleteIfExists(populatedFile);
+            if (!ZiggyConfiguration.getInstance()
+                .getBoolean(PropertyNames.BULK_SUBTASK_POPULATION_PROP_NAME, true)) {
+                return;
+            }
+            new DataFileManager(DirectoryProperties.datastoreRootDir(), taskDirectory, null)
+                .populateSubtaskDirectories(taskConfigurationManager, modelFilenames);
+            Files.createFile(populatedFile);
+        } catch (IOException e) {
+            throw new PipelineException("Unable to record population of subtask directories", e);
+        }
+    }
+
     /**
      * Deletes the copies of datastore files used as inputs. This method is run by the
      * ExternalProcessPipelineModule after the module processing has completed successfully.
@@ -15,6 +15,7 @@ import static gov.nasa.ziggy.module.PipelineMetrics.STORE_OUTPUTS_METRIC;
 import static gov.nasa.ziggy.services.database.DatabaseTransactionFactory.performTransaction;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -214,6 +215,16 @@ public class ExternalProcessPipelineModule extends PipelineModule
 
         if (!taskConfigurationManager().isEmpty()) {
             taskConfigurationManager().persist(taskDir);
+            pipelineInputs.populateSubtaskDirectories(taskConfigurationManager(),
+                taskDir.toPath());
+            if (SubtaskResultCache.enabled()) {
+                try {
+                    SubtaskResultCache.writeTaskKey(taskDir, pipelineTask);
+                } catch (IOException e) {
+                    throw new PipelineException("Unable to write result cache key", e);
+                }
+                SubtaskResultCache.evict();
+            }
 
             checkHaltRequest(ProcessingState.MARSHALING);
             // Set the next state, whatever it might be
@@ -370,10 +381,11 @@ public class ExternalProcessPipelineModule extends PipelineModule
             .map(Path::toString)
             .collect(Collectors.toSet());
 
-        // Get the names of the files successfully consumed by this task
+        // Get the names of the input files successfully consumed by this task
         @SuppressWarnings("unchecked")
         Set<String> consumedFiles = (Set<String>) performTransaction(
-            () -> datastoreProducerConsumerCrud().retrieveFilesConsumedByTask(taskId()));
+            () -> datastoreProducerConsumerCrud().retrieveFilesConsumedByTask(taskId(),
+                inputPaths));
 
         // Remove the latter set from the former
         inputFiles.removeAll(consumedFiles);
@@ -20,6 +20,7 @@ import gov.nasa.ziggy.data.management.DataFileInfo;
 import gov.nasa.ziggy.data.management.DataFileManager;
 import gov.nasa.ziggy.data.management.DatastorePathLocator;
 import gov.nasa.ziggy.module.hdf5.Hdf5ModuleInterface;
+import gov.nasa.ziggy.module.hdf5.Hdf5StorageProfile;
 import gov.nasa.ziggy.module.io.ModuleInterfaceUtils;
 import gov.nasa.ziggy.module.io.Persistable;
 import gov.nasa.ziggy.module.io.ProxyIgnore;
@@ -67,9 +68,6 @@ public abstract class PipelineInputs implements Persistable {
 
     private static final Logger log = LoggerFactory.getLogger(PipelineInputs.class);
 
-    @ProxyIgnore
-    private Hdf5ModuleInterface hdf5ModuleInterface = new Hdf5ModuleInterface();
-
     @ProxyIgnore
     private Integer subTaskIndex = null;
 
@@ -105,6 +103,20 @@ public abstract class PipelineInputs implements Persistable {
         TaskConfigurationManager taskConfigurationManager, PipelineTask pipelineTask,
         Path taskDirectory);
 
+    /**
+     * Used by {@link ExternalProcessPipelineModule}, or its subclasses, to populate all of the
+     * subtask directories with the files that they need from the task directory once the subtasks
+     * have been defined, before the task is submitted. Files that are already in a subtask
+     * directory need not be staged again by {@link #populateSubTaskInputs()}. The default
+     * implementation does nothing.
+     *
+     * @param taskConfigurationManager TaskConfigurationManager for this task.
+     * @param taskDirectory task directory for this task.
+     */
+    public void populateSubtaskDirectories(TaskConfigurationManager taskConfigurationManager,
+        Path taskDirectory) {
+    }
+
     /**
      * Used by {@link ExternalProcessPipelineModule}, or its subclasses, to identify the files in
      * the datastore that are provided to the current task as inputs.
@@ -155,7 +167,7 @@ public abstract class PipelineInputs implements Persistable {
         String filename = ModuleInterfaceUtils.inputsFileName(pipelineTask.getModuleName());
         log.info("Writing partial inputs to file " + filename + " in task dir");
         File inputInTaskDir = new File(taskDir, filename);
-        hdf5ModuleInterface.writeFile(inputInTaskDir, this, true);
+        hdf5ModuleInterface(pipelineTask.getModuleName()).writeFile(inputInTaskDir, this, true);
     }
 
     /**
@@ -167,7 +179,14 @@ public abstract class PipelineInputs implements Persistable {
         String filename = ModuleInterfaceUtils.inputsFileName(moduleName());
         log.info("Populating inputs object from file " + filename + " in task dir");
         File inputInTaskDir = taskDir().resolve(filename).toFile();
-        hdf5ModuleInterface.readFile(inputInTaskDir, this, true);
+        hdf5ModuleInterface(moduleName()).readFile(inputInTaskDir, this, true);
+    }
+
+    /**
+     * Returns an HDF5 interface that uses the storage profile of the given pipeline module.
+     */
+    private static Hdf5ModuleInterface hdf5ModuleInterface(String moduleName) {
+        return new Hdf5ModuleInterface(Hdf5StorageProfile.forModule(moduleName));
     }
 
     /**
@@ -180,13 +199,14 @@ public abstract class PipelineInputs implements Persistable {
     }
 
     /**
-     * Returns the sub-task index. Assumes that the working directory is the sub-task directory.
+     * Returns the sub-task index. Assumes that the working directory is the sub-task directory, or
+     * an attempt directory of the sub-task, such as a speculative attempt directory.
      *
      * @return
      */
     public int subtaskIndex() {
         if (subTaskIndex == null) {
-            String regex = "st-(\\d+)";
+            String regex = "st-(\\d+)(\\..+)?";
             Pattern pattern = Pattern.compile(regex);
             File userDir = DirectoryProperties.workingDir().toFile();
             String subTaskDirName = userDir.getName();
@@ -242,8 +262,8 @@ public abstract class PipelineInputs implements Persistable {
     public <S extends DataFileInfo, T extends PipelineResults> void readResultsFile(S dataFileInfo,
         T resultsInstance) {
         log.info("Reading data file " + dataFileInfo.getName().toString());
-        hdf5ModuleInterface.readFile(taskDir().resolve(dataFileInfo.getName()).toFile(),
-            resultsInstance, true);
+        hdf5ModuleInterface(moduleName())
+            .readFile(taskDir().resolve(dataFileInfo.getName()).toFile(), resultsInstance, true);
     }
 
     /**
@@ -255,7 +275,7 @@ public abstract class PipelineInputs implements Persistable {
         String moduleName = moduleName();
         String filename = ModuleInterfaceUtils.inputsFileName(moduleName, seqNum);
         log.info("Writing file " + filename + " to sub-task directory");
-        hdf5ModuleInterface.writeFile(DirectoryProperties.workingDir()
+        hdf5ModuleInterface(moduleName).writeFile(DirectoryProperties.workingDir()
             .resolve(ModuleInterfaceUtils.inputsFileName(moduleName, seqNum))
             .toFile(), this, true);
 //        hdf5ModuleInterface.writeFile(
@@ -21,6 +21,7 @@ import gov.nasa.ziggy.data.management.DataFileManager;
 import gov.nasa.ziggy.data.management.DatastorePathLocator;
 import gov.nasa.ziggy.data.management.DatastoreProducerConsumerCrud;
 import gov.nasa.ziggy.module.hdf5.Hdf5ModuleInterface;
+import gov.nasa.ziggy.module.hdf5.Hdf5StorageProfile;
 import gov.nasa.ziggy.module.io.ModuleInterfaceUtils;
 import gov.nasa.ziggy.module.io.Persistable;
 import gov.nasa.ziggy.module.io.ProxyIgnore;
@@ -141,7 +142,14 @@ public abstract class PipelineOutputs implements Persistable {
      */
     public void readSubTaskOutputs(File file) {
         log.info("Reading file " + file.getName() + " into memory");
-        hdf5ModuleInterface.readFile(file, this, true);
+        hdf5ModuleInterface(moduleName()).readFile(file, this, true);
+    }
+
+    /**
+     * Returns an HDF5 interface that uses the storage profile of the given pipeline module.
+     */
+    private static Hdf5ModuleInterface hdf5ModuleInterface(String moduleName) {
+        return new Hdf5ModuleInterface(Hdf5StorageProfile.forModule(moduleName));
     }
 
     /**
@@ -187,6 +195,7 @@ public abstract class PipelineOutputs implements Persistable {
      */
     public void saveResultsToTaskDir(Map<DataFileInfo, PipelineResults> resultsMap) {
 
+        Hdf5ModuleInterface hdf5ModuleInterface = hdf5ModuleInterface(moduleName());
         for (DataFileInfo dataFileInfo : resultsMap.keySet()) {
             PipelineResults result = resultsMap.get(dataFileInfo);
             result.setOriginator(originator());
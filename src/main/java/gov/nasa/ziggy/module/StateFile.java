@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -101,6 +102,9 @@ public class StateFile implements Comparable<StateFile> {
 
     public static final String LOCK_FILE_NAME = ".state-file.lock";
 
+    /** Subdirectory of the state file directory that holds state files from earlier attempts. */
+    public static final String OLD_STATE_FILE_DIR_NAME = "old";
+
     private static final String FORMAT = PREFIX + "PIID.PTID.MODNAME.STATE_TOTAL-COMPLETE-FAILED";
 
     private static final String REMOTE_NODE_ARCHITECTURE_PROP_NAME = "remoteNodeArchitecture";
@@ -336,26 +340,36 @@ public class StateFile implements Comparable<StateFile> {
                 "Specified directory does not exist or is not a directory: " + directory);
         }
 
+        // If the directory is watched and the index contains the state file that this one
+        // replaces, the directory need not be listed; the index is consulted before the new
+        // file is written and indexed. Otherwise, the directory is listed.
+        List<File> oldStateFiles = StateFileWatcher.indexedStateFiles(directory, invariantPart());
         File file = new File(directory, name());
         try (FileWriter fw = new FileWriter(file)) {
             props.save(fw);
 
             // Also, move any old state files that are for the same instance and
             // task as this one.
-            moveOldStateFiles(directory);
+            moveOldStateFiles(directory, oldStateFiles);
         }
         return file;
     }
 
-    private void moveOldStateFiles(File stateFileDir) throws IOException {
+    private void moveOldStateFiles(File stateFileDir, List<File> oldStateFiles)
+        throws IOException {
 
         String stateFileName = name();
-        FileFilter fileFilter = new WildcardFileFilter(invariantPart() + "*");
-        File[] matches = stateFileDir.listFiles(fileFilter);
+        File[] matches;
+        if (oldStateFiles != null) {
+            matches = oldStateFiles.toArray(new File[0]);
+        } else {
+            FileFilter fileFilter = new WildcardFileFilter(invariantPart() + "*");
+            matches = stateFileDir.listFiles(fileFilter);
 
-        if (matches == null || matches.length == 0) {
-            throw new IOException(
-                "State file \"" + stateFileName + "\" does not exist or there was an I/O error.");
+            if (matches == null || matches.length == 0) {
+                throw new IOException("State file \"" + stateFileName
+                    + "\" does not exist or there was an I/O error.");
+            }
         }
 
         String iso8601Date = Iso8601Formatter.dateTimeLocalFormatter().format(new Date());
@@ -363,14 +377,18 @@ public class StateFile implements Comparable<StateFile> {
 
         // For all the matched files that are NOT the current state file, rename
         // the old ones to a new name that removes the "ziggy" at the beginning
-        // (replacing it with "old"), and appends a datestamp and index #.
+        // (replacing it with "old"), and appends a datestamp and index #. The old
+        // files are moved to a subdirectory so that they don't slow down listings of
+        // the state file directory.
 
+        File oldStateFileDir = new File(stateFileDir, OLD_STATE_FILE_DIR_NAME);
         for (File match : matches) {
             if (!match.getName().equals(stateFileName)) {
                 String nameSansPrefix = match.getName().substring(PREFIX.length());
                 String newName = "old." + nameSansPrefix + "." + iso8601Date + "."
                     + Integer.valueOf(fileCounter).toString();
-                File newFile = new File(stateFileDir, newName);
+                Files.createDirectories(oldStateFileDir.toPath());
+                File newFile = new File(oldStateFileDir, newName);
                 match.renameTo(newFile);
                 log.warn("File " + match.getName() + " in directory " + stateFileDir
                     + " renamed to " + newFile.getName());
@@ -546,6 +564,12 @@ public class StateFile implements Comparable<StateFile> {
                 "Specified directory does not exist or is not a directory: " + directory);
         }
 
+        List<File> indexedStateFiles = StateFileWatcher.indexedStateFiles(directory,
+            invariantPart);
+        if (indexedStateFiles != null) {
+            return indexedStateFiles.get(0);
+        }
+
         FileFilter fileFilter = new WildcardFileFilter(invariantPart + "*");
         File[] matches = directory.listFiles(fileFilter);
         if (matches == null) {
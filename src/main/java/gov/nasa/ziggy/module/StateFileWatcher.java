@@ -0,0 +1,250 @@
+package gov.nasa.ziggy.module;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains an in-memory index of the {@link StateFile}s in a directory, keyed by the invariant
+ * part of the state file name.
+ * <p>
+ * The index is kept up to date by a {@link WatchService}, so that listeners are notified within
+ * milliseconds when a state file is created or renamed. Not all file systems deliver events: some
+ * JVMs implement the watch service by polling, and network file systems don't report changes made
+ * by other hosts. Callers therefore use {@link #isEventDriven()} to determine whether they need to
+ * {@link #rescan()} the directory, which rebuilds the index from a directory listing.
+ * <p>
+ * One watcher is shared by all users of a directory within a JVM.
+ *
+ * @author PT
+ */
+public class StateFileWatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(StateFileWatcher.class);
+
+    // Class used by JVMs that emulate file system events by polling.
+    private static final String POLLING_WATCH_SERVICE = "sun.nio.fs.PollingWatchService";
+
+    private static final Map<Path, StateFileWatcher> instances = new HashMap<>();
+
+    private final Path directory;
+    private final Map<String, String> stateFileNames = new ConcurrentHashMap<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private volatile WatchKey watchKey;
+    private Thread watchThread;
+
+    StateFileWatcher(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the watcher for a directory, starting it if necessary.
+     */
+    public static synchronized StateFileWatcher getInstance(Path directory) {
+        Path key = directory.toAbsolutePath().normalize();
+        StateFileWatcher watcher = instances.get(key);
+        if (watcher == null) {
+            watcher = new StateFileWatcher(key);
+            watcher.start();
+            instances.put(key, watcher);
+        }
+        return watcher;
+    }
+
+    /**
+     * Returns the watcher for a directory, or null if no watcher has been started for it.
+     */
+    public static synchronized StateFileWatcher existingInstance(Path directory) {
+        return instances.get(directory.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Stops all watchers. For testing only.
+     */
+    static synchronized void shutdown() {
+        for (StateFileWatcher watcher : instances.values()) {
+            watcher.stop();
+        }
+        instances.clear();
+    }
+
+    void start() {
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Unable to watch " + directory + ", state files will be polled", e);
+        }
+        if (watchService != null) {
+            watchThread = new Thread(this::processEvents,
+                "StateFileWatcher-" + directory.getFileName());
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+        rescan();
+    }
+
+    void stop() {
+        listeners.clear();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.warn("Unable to close watch service for " + directory, e);
+            }
+        }
+    }
+
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the name of the state file with the specified invariant part, or null if the index
+     * contains no such state file.
+     */
+    public String stateFileName(String invariantPart) {
+        return stateFileNames.get(invariantPart);
+    }
+
+    /**
+     * Indicates whether changes to the directory are delivered as events. If not, the index is
+     * only updated by {@link #rescan()}.
+     */
+    public boolean isEventDriven() {
+        WatchKey key = watchKey;
+        return key != null && key.isValid()
+            && !watchService.getClass().getName().equals(POLLING_WATCH_SERVICE);
+    }
+
+    /**
+     * Rebuilds the index from a listing of the directory. If the directory is not being watched,
+     * for example because it didn't exist when the watcher started, an attempt is made to watch it.
+     * A state file is briefly listed under both its old and new names while it is persisted; in
+     * that case the name that is already indexed is kept, since the most recent event set it.
+     */
+    public synchronized void rescan() {
+        if (watchService != null && (watchKey == null || !watchKey.isValid())
+            && directory.toFile().isDirectory()) {
+            try {
+                watchKey = directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+            } catch (IOException | ClosedWatchServiceException e) {
+                log.warn("Unable to watch " + directory, e);
+            }
+        }
+        Map<String, String> names = new HashMap<>();
+        String[] fileNames = directory.toFile().list();
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                String invariantPart = invariantPart(fileName);
+                if (invariantPart == null) {
+                    continue;
+                }
+                String listedName = names.get(invariantPart);
+                if (listedName == null || !listedName.equals(stateFileNames.get(invariantPart))) {
+                    names.put(invariantPart, fileName);
+                }
+            }
+        }
+        stateFileNames.keySet().retainAll(names.keySet());
+        stateFileNames.putAll(names);
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            applyEvents(key.pollEvents());
+            if (!key.reset()) {
+                log.warn("Watch of " + directory + " was cancelled, state files will be polled");
+            }
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Applies a set of events to the index. The events are applied while holding the same lock as
+     * {@link #rescan()}, so that the index can't be left with a name that the listing saw but that
+     * an event applied during the rescan has since removed.
+     */
+    private synchronized void applyEvents(List<WatchEvent<?>> events) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            String fileName = event.context().toString();
+            String invariantPart = invariantPart(fileName);
+            if (invariantPart == null) {
+                continue;
+            }
+            if (event.kind() == ENTRY_CREATE) {
+                stateFileNames.put(invariantPart, fileName);
+            } else {
+                stateFileNames.remove(invariantPart, fileName);
+            }
+        }
+        if (overflow) {
+            rescan();
+        }
+    }
+
+    /**
+     * Returns the invariant part of a state file name, or null if the name is not that of a state
+     * file. The invariant part is everything before the final period, which separates it from the
+     * state and subtask counts.
+     */
+    static String invariantPart(String fileName) {
+        if (!fileName.startsWith(StateFile.PREFIX)) {
+            return null;
+        }
+        int lastPeriod = fileName.lastIndexOf('.');
+        return lastPeriod > StateFile.PREFIX.length() ? fileName.substring(0, lastPeriod) : null;
+    }
+
+    /**
+     * Returns the state files with the specified invariant part according to the index of an
+     * event-driven watcher of the directory, or null if the caller must search the directory. The
+     * caller must search if there is no event-driven watcher, if the index contains no state file
+     * with the invariant part, or if the indexed state file no longer exists because it was
+     * renamed by another host. An index miss does not show that there is no such state file: events
+     * are delivered asynchronously, so a state file that was just created may not be indexed yet,
+     * and a network file system never delivers the creation of a file by another host.
+     */
+    static List<File> indexedStateFiles(File directory, String invariantPart) {
+        StateFileWatcher watcher = existingInstance(directory.toPath());
+        if (watcher == null || !watcher.isEventDriven()) {
+            return null;
+        }
+        String name = watcher.stateFileName(invariantPart);
+        if (name == null) {
+            return null;
+        }
+        File stateFile = new File(directory, name);
+        return stateFile.exists() ? Collections.singletonList(stateFile) : null;
+    }
+}
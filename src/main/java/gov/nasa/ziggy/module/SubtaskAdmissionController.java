@@ -0,0 +1,230 @@
+package gov.nasa.ziggy.module;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import gov.nasa.ziggy.metrics.CounterMetric;
+import gov.nasa.ziggy.metrics.ValueMetric;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+import gov.nasa.ziggy.util.os.LinuxMemInfo;
+
+/**
+ * Limits the number of subtasks that run concurrently on a compute node according to the memory
+ * that is available on the node.
+ * <p>
+ * Without admission control, the {@link ComputeNodeMaster} runs one {@link SubtaskMaster} per
+ * active core, and the number of active cores is computed before the job starts from the
+ * gigsPerSubtask remote parameter. When admission control is enabled, the
+ * {@link ComputeNodeMaster} starts {@link #maxSubtasks()} {@link SubtaskMaster}s instead, and each
+ * of them {@link #acquire()}s admission before it requests its next subtask; speculative attempts
+ * started by the {@link SubtaskSpeculator} are admitted with {@link #tryAcquire()}. The controller
+ * periodically samples the node's available memory via {@link LinuxMemInfo} and sets the limit on
+ * the number of running subtasks to the number that the available memory can support, within the
+ * configured minimum and maximum.
+ * <p>
+ * The memory used by each subtask is estimated from the growth in the node's memory use since the
+ * last time no subtasks were running, divided by the number of running subtasks. The largest such
+ * estimate is retained; until one is available, the gigsPerSubtask parameter is used. The limit
+ * decreases as soon as a sample shows that memory is short, but increases by at most one subtask
+ * per sample, so that newly started subtasks can reach their working size before more are
+ * admitted. Subtasks that are already running are never stopped: a decrease only holds
+ * {@link SubtaskMaster}s that are waiting for admission.
+ * <p>
+ * Each sample records the limit, the number of running subtasks, the available memory, and the
+ * per-subtask estimate as {@link ValueMetric}s, and each admission that has to wait is counted by a
+ * {@link CounterMetric}.
+ *
+ * @author PT
+ */
+public class SubtaskAdmissionController {
+
+    private static final Logger log = LoggerFactory.getLogger(SubtaskAdmissionController.class);
+
+    static final String LIMIT_METRIC = "pipeline.module.computeNode.admission.limit";
+    static final String RUNNING_METRIC = "pipeline.module.computeNode.admission.running";
+    static final String AVAILABLE_MEMORY_METRIC = "pipeline.module.computeNode.admission.availableMemoryKB";
+    static final String SUBTASK_MEMORY_METRIC = "pipeline.module.computeNode.admission.subtaskMemoryKB";
+    static final String HELD_METRIC = "pipeline.module.computeNode.admission.heldCount";
+
+    private static final int DEFAULT_SAMPLE_SECONDS = 5;
+    private static final double DEFAULT_RESERVE_GIGS = 1.0;
+    private static final long KB_PER_GIG = 1024L * 1024L;
+
+    /**
+     * Source of memory samples; replaced in unit tests.
+     */
+    @FunctionalInterface
+    interface MemorySampler {
+        LinuxMemInfo sample() throws IOException;
+    }
+
+    private final int minSubtasks;
+    private final int maxSubtasks;
+    private final long reserveKB;
+    private final long defaultSubtaskKB;
+    private final MemorySampler sampler;
+    private ScheduledExecutorService sampleExecutor;
+
+    private int limit;
+    private int running;
+    private long baselineUsedKB = -1;
+    private long observedSubtaskKB;
+
+    SubtaskAdmissionController(int minSubtasks, int maxSubtasks, int initialLimit, long reserveKB,
+        long defaultSubtaskKB, MemorySampler sampler) {
+        this.minSubtasks = Math.max(1, minSubtasks);
+        this.maxSubtasks = Math.max(this.minSubtasks, maxSubtasks);
+        this.reserveKB = reserveKB;
+        this.defaultSubtaskKB = defaultSubtaskKB;
+        this.sampler = sampler;
+        limit = clamp(initialLimit);
+    }
+
+    /**
+     * Indicates whether memory-aware admission of subtasks is enabled.
+     */
+    public static boolean enabled() {
+        return ZiggyConfiguration.getInstance()
+            .getBoolean(PropertyNames.SUBTASK_ADMISSION_ENABLED_PROP_NAME, false);
+    }
+
+    /**
+     * Creates a controller from the pipeline configuration. The initial limit is the number of
+     * active cores per node that was computed when the job was submitted.
+     */
+    public static SubtaskAdmissionController newInstance(int activeCoresPerNode,
+        double gigsPerSubtask) {
+        int minSubtasks = ZiggyConfiguration.getInstance()
+            .getInt(PropertyNames.SUBTASK_ADMISSION_MIN_SUBTASKS_PROP_NAME, 1);
+        int maxSubtasks = ZiggyConfiguration.getInstance()
+            .getInt(PropertyNames.SUBTASK_ADMISSION_MAX_SUBTASKS_PROP_NAME,
+                Runtime.getRuntime().availableProcessors());
+        double reserveGigs = ZiggyConfiguration.getInstance()
+            .getDouble(PropertyNames.SUBTASK_ADMISSION_RESERVE_GIGS_PROP_NAME,
+                DEFAULT_RESERVE_GIGS);
+        return new SubtaskAdmissionController(minSubtasks, maxSubtasks, activeCoresPerNode,
+            (long) (reserveGigs * KB_PER_GIG), (long) (gigsPerSubtask * KB_PER_GIG),
+            LinuxMemInfo::fromProcMeminfo);
+    }
+
+    /**
+     * Takes an initial sample, which establishes the memory use of the node with no subtasks
+     * running, and starts periodic sampling.
+     */
+    public void start() {
+        sample();
+        int sampleSeconds = ZiggyConfiguration.getInstance()
+            .getInt(PropertyNames.SUBTASK_ADMISSION_SAMPLE_SECONDS_PROP_NAME,
+                DEFAULT_SAMPLE_SECONDS);
+        sampleExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("SubtaskAdmission").setDaemon(true).build());
+        sampleExecutor.scheduleWithFixedDelay(this::sample, sampleSeconds, sampleSeconds,
+            TimeUnit.SECONDS);
+        log.info("Subtask admission limit " + limit + " (min " + minSubtasks + ", max "
+            + maxSubtasks + ")");
+    }
+
+    public void stop() {
+        if (sampleExecutor != null) {
+            sampleExecutor.shutdownNow();
+        }
+    }
+
+    public int maxSubtasks() {
+        return maxSubtasks;
+    }
+
+    public synchronized int limit() {
+        return limit;
+    }
+
+    public synchronized int running() {
+        return running;
+    }
+
+    /**
+     * Waits until another subtask may run on this node. Each successful call must be followed by a
+     * call to {@link #release()}.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        if (running >= limit) {
+            CounterMetric.increment(HELD_METRIC);
+            log.debug("Holding subtask admission, " + running + " subtasks running, limit "
+                + limit);
+            while (running >= limit) {
+                wait();
+            }
+        }
+        running++;
+    }
+
+    /**
+     * Admits another subtask if one may run on this node now, without waiting. Each call that
+     * returns true must be followed by a call to {@link #release()}.
+     */
+    public synchronized boolean tryAcquire() {
+        if (running >= limit) {
+            return false;
+        }
+        running++;
+        return true;
+    }
+
+    public synchronized void release() {
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * Samples the node's memory and updates the limit on the number of running subtasks.
+     */
+    synchronized void sample() {
+        LinuxMemInfo memInfo;
+        try {
+            memInfo = sampler.sample();
+        } catch (IOException e) {
+            log.warn("Unable to sample memory, subtask admission limit unchanged", e);
+            return;
+        }
+        long availableKB = memInfo.getAvailableMemoryKB();
+        long usedKB = memInfo.getTotalMemoryKB() - availableKB;
+        if (running == 0 || baselineUsedKB < 0) {
+            baselineUsedKB = usedKB;
+        } else {
+            observedSubtaskKB = Math.max(observedSubtaskKB,
+                Math.max(0L, usedKB - baselineUsedKB) / running);
+        }
+        long subtaskKB = Math.max(1L,
+            observedSubtaskKB > 0 ? observedSubtaskKB : defaultSubtaskKB);
+        long additionalSubtasks = Math.max(0L, availableKB - reserveKB) / subtaskKB;
+        int target = clamp((int) Math.min(maxSubtasks, running + additionalSubtasks));
+
+        int previousLimit = limit;
+        limit = target > limit ? limit + 1 : target;
+        if (limit != previousLimit) {
+            log.info("Subtask admission limit " + previousLimit + " -> " + limit + " ("
+                + running + " running, " + availableKB + " KB available, " + subtaskKB
+                + " KB per subtask)");
+            notifyAll();
+        }
+
+        ValueMetric.addValue(LIMIT_METRIC, limit);
+        ValueMetric.addValue(RUNNING_METRIC, running);
+        ValueMetric.addValue(AVAILABLE_MEMORY_METRIC, availableKB);
+        ValueMetric.addValue(SUBTASK_MEMORY_METRIC, subtaskKB);
+    }
+
+    private int clamp(int value) {
+        return Math.max(minSubtasks, Math.min(maxSubtasks, value));
+    }
+}
@@ -1,26 +1,45 @@
 package gov.nasa.ziggy.module;
 
+import java.util.Arrays;
+
 import gov.nasa.ziggy.module.SubtaskServer.ResponseType;
 
 public class SubtaskAllocation {
+    private static final int[] NO_SUBTASKS = new int[0];
+
     private SubtaskServer.ResponseType status = SubtaskServer.ResponseType.OK;
-    private int subtaskIndex = -1;
+    private int[] subtaskIndices = NO_SUBTASKS;
 
     public SubtaskAllocation(ResponseType status, int subtaskIndex) {
         this.status = status;
-        this.subtaskIndex = subtaskIndex;
+        if (subtaskIndex >= 0) {
+            subtaskIndices = new int[] { subtaskIndex };
+        }
+    }
+
+    public SubtaskAllocation(ResponseType status, int[] subtaskIndices) {
+        this.status = status;
+        this.subtaskIndices = subtaskIndices;
     }
 
     public SubtaskServer.ResponseType getStatus() {
         return status;
     }
 
+    /**
+     * Returns the first allocated subtask, or -1 if no subtasks were allocated.
+     */
     public int getSubtaskIndex() {
-        return subtaskIndex;
+        return subtaskIndices.length > 0 ? subtaskIndices[0] : -1;
+    }
+
+    public int[] getSubtaskIndices() {
+        return subtaskIndices;
     }
 
     @Override
     public String toString() {
-        return "SubtaskAllocation [response=" + status + ", subtaskIndex=" + subtaskIndex + "]";
+        return "SubtaskAllocation [response=" + status + ", subtaskIndices="
+            + Arrays.toString(subtaskIndices) + "]";
     }
 }
@@ -1,14 +1,26 @@
 package gov.nasa.ziggy.module;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.LongSupplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Allocates subtasks to clients that execute them in the order specified by an
- * {@link TaskConfigurationManager} instance.
+ * {@link TaskConfigurationManager} instance, or in an explicit offer order, for example the
+ * longest-first order computed from a {@link SubtaskRuntimeHistory}.
+ * <p>
+ * Subtasks are allocated as leases, and a client can lease several subtasks at once. A lease ends
+ * when its subtask is marked complete or locked, or when it expires because it was not renewed
+ * within the lease duration; a subtask whose lease expired or that was locked by another job is
+ * offered again once all of the subtasks have been offered once. This allows the subtasks held by
+ * a client that has died to be processed by other clients.
+ * <p>
+ * All operations take constant time per subtask, apart from expired leases, which are reclaimed in
+ * order of expiration.
  * <p>
  * This class is typically accessed over a socket using {@link SubtaskServer} and
  * {@link SubtaskClient}
@@ -18,48 +30,136 @@ import org.slf4j.LoggerFactory;
 public class SubtaskAllocator {
     private static final Logger log = LoggerFactory.getLogger(SubtaskAllocator.class);
 
-    LinkedList<Integer> currentPoolWaiting = new LinkedList<>();
-    List<Integer> currentPoolProcessing = new LinkedList<>();
-    boolean[] subtaskCompleted;
+    /** Default lease duration. */
+    public static final long DEFAULT_LEASE_MILLIS = 300_000L;
+
+    private final int subtaskCount;
+    private final BitSet subtaskCompleted;
+    private final BitSet subtaskLeased;
+    private final BitSet subtaskRequeued;
+    private final long[] leaseExpirationMillis;
+    private final Object[] leaseHolders;
+    private final ArrayDeque<Integer> requeuedSubtasks = new ArrayDeque<>();
+    private final ArrayDeque<Lease> leasesByExpiration = new ArrayDeque<>();
+    private final long leaseMillis;
+    private final LongSupplier clock;
+    private final int[] offerOrder;
+    private int nextUnofferedSubtask;
+    private int completedCount;
 
     @Override
     public String toString() {
-        return "ag:[currentPoolWaiting=" + currentPoolWaiting + ", currentPoolProcessing="
-            + currentPoolProcessing + "]";
+        return "ag:[nextUnofferedSubtask=" + nextUnofferedSubtask + ", requeued="
+            + requeuedSubtasks + ", leased=" + subtaskLeased + "]";
     }
 
     public SubtaskAllocator(TaskConfigurationManager inputsHandler) {
-        if (inputsHandler.numSubTasks() > 0) {
-            subtaskCompleted = new boolean[inputsHandler.numSubTasks()];
-            populateWaitingPool();
+        this(inputsHandler, DEFAULT_LEASE_MILLIS);
+    }
+
+    public SubtaskAllocator(TaskConfigurationManager inputsHandler, long leaseMillis) {
+        this(inputsHandler, leaseMillis, (int[]) null);
+    }
+
+    /**
+     * Creates an allocator that first offers the subtasks in the specified order. If the order is
+     * null, subtasks are first offered in index order.
+     */
+    public SubtaskAllocator(TaskConfigurationManager inputsHandler, long leaseMillis,
+        int[] offerOrder) {
+        this(inputsHandler, leaseMillis, offerOrder, System::currentTimeMillis);
+    }
+
+    SubtaskAllocator(TaskConfigurationManager inputsHandler, long leaseMillis,
+        LongSupplier clock) {
+        this(inputsHandler, leaseMillis, null, clock);
+    }
+
+    SubtaskAllocator(TaskConfigurationManager inputsHandler, long leaseMillis, int[] offerOrder,
+        LongSupplier clock) {
+        subtaskCount = Math.max(inputsHandler.numSubTasks(), 0);
+        subtaskCompleted = new BitSet(subtaskCount);
+        subtaskLeased = new BitSet(subtaskCount);
+        subtaskRequeued = new BitSet(subtaskCount);
+        leaseExpirationMillis = new long[subtaskCount];
+        leaseHolders = new Object[subtaskCount];
+        this.leaseMillis = leaseMillis;
+        this.clock = clock;
+        if (offerOrder != null && offerOrder.length != subtaskCount) {
+            throw new PipelineException("Subtask order has " + offerOrder.length
+                + " elements, but there are " + subtaskCount + " subtasks");
         }
+        this.offerOrder = offerOrder;
     }
 
     public boolean markSubtaskComplete(int subTaskIndex) {
         boolean found = markSubtaskNeedsNoFurtherProcessing(subTaskIndex);
-        subtaskCompleted[subTaskIndex] = true;
+        if (!subtaskCompleted.get(subTaskIndex)) {
+            subtaskCompleted.set(subTaskIndex);
+            completedCount++;
+        }
         return found;
     }
 
     public boolean markSubtaskLocked(int subTaskIndex) {
-        return markSubtaskNeedsNoFurtherProcessing(subTaskIndex);
+        boolean found = markSubtaskNeedsNoFurtherProcessing(subTaskIndex);
+        requeue(subTaskIndex);
+        return found;
     }
 
     private boolean markSubtaskNeedsNoFurtherProcessing(int subTaskIndex) {
-        boolean found = false;
-        for (int i = 0; i < currentPoolProcessing.size(); i++) {
-            if (currentPoolProcessing.get(i) == subTaskIndex) {
-                found = true;
-                currentPoolProcessing.remove(i);
-                log.debug("removing subtaskIndex: " + subTaskIndex);
+        if (!subtaskLeased.get(subTaskIndex)) {
+            log.warn("failed to remove subtaskIndex: " + subTaskIndex);
+            return false;
+        }
+        subtaskLeased.clear(subTaskIndex);
+        log.debug("removing subtaskIndex: " + subTaskIndex);
+        return true;
+    }
+
+    /**
+     * Extends the leases held by the specified holder on the specified subtasks by the lease
+     * duration. Subtasks that are no longer leased by the holder are ignored.
+     */
+    public void renewLeases(int[] subtaskIndices, Object holder) {
+        long expirationMillis = clock.getAsLong() + leaseMillis;
+        for (int subtaskIndex : subtaskIndices) {
+            if (isLeasedBy(subtaskIndex, holder)) {
+                lease(subtaskIndex, expirationMillis, holder);
             }
         }
-        if (!found) {
-            log.warn("failed to remove subtaskIndex: " + subTaskIndex);
+    }
+
+    /**
+     * Ends the leases held by the specified holder on the specified subtasks, which are offered
+     * again after all other subtasks have been offered. Used when the holder has gone away.
+     */
+    public void releaseLeases(int[] subtaskIndices, Object holder) {
+        for (int subtaskIndex : subtaskIndices) {
+            if (isLeasedBy(subtaskIndex, holder)) {
+                subtaskLeased.clear(subtaskIndex);
+                requeue(subtaskIndex);
+            }
+        }
+    }
+
+    /**
+     * Leases the specified subtask to the specified holder, provided that it is neither complete
+     * nor leased to another holder. Used by a client that lost its connection to re-register a
+     * subtask that it is still processing. Returns true if the holder now leases the subtask.
+     */
+    public boolean claim(int subtaskIndex, Object holder) {
+        reclaimExpiredLeases();
+        if (subtaskIndex < 0 || subtaskIndex >= subtaskCount
+            || subtaskCompleted.get(subtaskIndex)
+            || subtaskLeased.get(subtaskIndex) && leaseHolders[subtaskIndex] != holder) {
             return false;
-        } else {
-            return true;
         }
+
+        // If the subtask is still waiting to be offered, it is skipped when its turn comes
+        // because it is leased.
+        lease(subtaskIndex, clock.getAsLong() + leaseMillis, holder);
+        return true;
     }
 
     /**
@@ -68,84 +168,119 @@ public class SubtaskAllocator {
      * @return
      */
     public SubtaskAllocation nextSubtask() {
+        return nextSubtasks(1, null);
+    }
 
-        // If the last subtask is processing or complete, see whether it's necessary
-        // to go through the subtasks again looking for orphans
-        handleEndOfSubtasks();
-
-        // If no orphans, we can signal that this job is done
-        if (lastSubtaskProcessingOrComplete()) {
+    /**
+     * Leases up to the specified number of subtasks to the specified holder. If no subtasks are
+     * available, the status of the returned allocation is NO_MORE if all subtasks are complete, or
+     * TRY_AGAIN if some are still leased.
+     */
+    public SubtaskAllocation nextSubtasks(int maxCount, Object holder) {
+        reclaimExpiredLeases();
+        if (completedCount == subtaskCount) {
             return new SubtaskAllocation(SubtaskServer.ResponseType.NO_MORE, -1);
         }
 
-        // Otherwise, get the next available subtask from waiting and move to processing
-        int subtaskIndex = -1;
-        boolean doneLookingForNextSubtask = false;
-        while (!doneLookingForNextSubtask) {
-            subtaskIndex = currentPoolWaiting.remove();
-            doneLookingForNextSubtask = !subtaskCompleted[subtaskIndex]
-                && !currentPoolProcessing.contains(subtaskIndex);
-            if (!doneLookingForNextSubtask && currentPoolWaiting.isEmpty()) {
-                // If we got this far, then all the remaining subtasks that are not yet
-                // complete are currently processing in this job. In that case we can
-                // tell the subtask server that it should check in again when either the
-                // subtasks are completed or we know that they're locked by another job.
-                return new SubtaskAllocation(SubtaskServer.ResponseType.TRY_AGAIN, -1);
+        // Subtasks are offered in the offer order the first time; after that, subtasks that were
+        // locked by another job or whose leases expired are offered in the order they were
+        // requeued.
+        int[] subtaskIndices = new int[Math.max(maxCount, 1)];
+        int count = 0;
+        long expirationMillis = clock.getAsLong() + leaseMillis;
+        while (count < subtaskIndices.length) {
+            int subtaskIndex = nextAvailableSubtask();
+            if (subtaskIndex < 0) {
+                break;
             }
+            lease(subtaskIndex, expirationMillis, holder);
+            subtaskIndices[count++] = subtaskIndex;
         }
-        currentPoolProcessing.add(subtaskIndex);
-        return new SubtaskAllocation(SubtaskServer.ResponseType.OK, subtaskIndex);
+        if (count == 0) {
+
+            // If we got this far, then all the remaining subtasks that are not yet
+            // complete are currently leased. In that case we can tell the subtask server
+            // that it should check in again when either the subtasks are completed or we
+            // know that they're locked by another job.
+            return new SubtaskAllocation(SubtaskServer.ResponseType.TRY_AGAIN, -1);
+        }
+        return new SubtaskAllocation(SubtaskServer.ResponseType.OK,
+            Arrays.copyOf(subtaskIndices, count));
     }
 
-    private boolean lastSubtaskProcessingOrComplete() {
-        return currentPoolWaiting.isEmpty();
+    /**
+     * Returns the number of subtasks that can be leased immediately, not counting any whose leases
+     * have expired but not yet been reclaimed.
+     */
+    public int availableCount() {
+        return subtaskCount - nextUnofferedSubtask + requeuedSubtasks.size();
     }
 
-    private void handleEndOfSubtasks() {
-        // we only need to do anything if the last subtask is processing or even completed, and
-        // there are subtasks that were found to be locked when offered for processing
-        if (!lastSubtaskProcessingOrComplete()) {
-            return;
-        }
-        boolean allSubtasksComplete = true;
-        for (boolean subtaskComplete : subtaskCompleted) {
-            allSubtasksComplete = allSubtasksComplete && subtaskComplete;
+    private int nextAvailableSubtask() {
+        while (nextUnofferedSubtask < subtaskCount) {
+            int subtaskIndex = offerOrder != null ? offerOrder[nextUnofferedSubtask++]
+                : nextUnofferedSubtask++;
+            if (!subtaskCompleted.get(subtaskIndex) && !subtaskLeased.get(subtaskIndex)) {
+                return subtaskIndex;
+            }
         }
-        if (allSubtasksComplete) {
-            return;
+        while (!requeuedSubtasks.isEmpty()) {
+            int subtaskIndex = requeuedSubtasks.poll();
+            subtaskRequeued.clear(subtaskIndex);
+            if (!subtaskCompleted.get(subtaskIndex) && !subtaskLeased.get(subtaskIndex)) {
+                return subtaskIndex;
+            }
         }
+        return -1;
+    }
 
-        // If there are subtasks that were locked, they might not have gotten processed because
-        // the job that was processing them might have timed out while subtasks were still
-        // running. In that case we need to go back to the beginning and process any subtasks
-        // that are not currently locked but are shown as processing (these are the subtasks
-        // that got stranded when a job timed out).
-        populateWaitingPool();
+    private boolean isLeasedBy(int subtaskIndex, Object holder) {
+        return subtaskLeased.get(subtaskIndex) && leaseHolders[subtaskIndex] == holder;
+    }
 
-        // Anything that's already in the processing pool can go out of the waiting pool
-        removeProcessingPoolFromWaitingPool();
+    private void lease(int subtaskIndex, long expirationMillis, Object holder) {
+        subtaskLeased.set(subtaskIndex);
+        leaseExpirationMillis[subtaskIndex] = expirationMillis;
+        leaseHolders[subtaskIndex] = holder;
+        leasesByExpiration.add(new Lease(subtaskIndex, expirationMillis));
     }
 
-    private void removeProcessingPoolFromWaitingPool() {
-        if (currentPoolProcessing.isEmpty()) {
-            return;
-        }
-        for (int subtaskIndex : currentPoolProcessing) {
-            int locationInWaitingPool = currentPoolWaiting.indexOf(subtaskIndex);
-            if (locationInWaitingPool > -1) {
-                currentPoolWaiting.remove(locationInWaitingPool);
-            }
+    private void requeue(int subtaskIndex) {
+        if (!subtaskCompleted.get(subtaskIndex) && !subtaskRequeued.get(subtaskIndex)) {
+            subtaskRequeued.set(subtaskIndex);
+            requeuedSubtasks.add(subtaskIndex);
         }
     }
 
-    private void populateWaitingPool() {
-        for (int i = 0; i < subtaskCompleted.length; i++) {
-            currentPoolWaiting.add(i);
+    /**
+     * Requeues the subtasks whose leases have expired. Each lease and renewal adds an entry to
+     * {@link #leasesByExpiration}, so entries for leases that have since been renewed or ended
+     * are discarded here.
+     */
+    private void reclaimExpiredLeases() {
+        long now = clock.getAsLong();
+        while (!leasesByExpiration.isEmpty() && leasesByExpiration.peek().expirationMillis <= now) {
+            Lease lease = leasesByExpiration.poll();
+            if (subtaskLeased.get(lease.subtaskIndex)
+                && leaseExpirationMillis[lease.subtaskIndex] == lease.expirationMillis) {
+                log.warn("Lease on subtask " + lease.subtaskIndex + " expired, requeueing");
+                subtaskLeased.clear(lease.subtaskIndex);
+                requeue(lease.subtaskIndex);
+            }
         }
     }
 
     public boolean isEmpty() {
-        return subtaskCompleted == null || subtaskCompleted.length == 0;
+        return subtaskCount == 0;
     }
 
+    private static class Lease {
+        private final int subtaskIndex;
+        private final long expirationMillis;
+
+        public Lease(int subtaskIndex, long expirationMillis) {
+            this.subtaskIndex = subtaskIndex;
+            this.expirationMillis = expirationMillis;
+        }
+    }
 }
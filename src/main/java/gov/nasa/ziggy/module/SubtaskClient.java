@@ -1,15 +1,25 @@
 package gov.nasa.ziggy.module;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import gov.nasa.ziggy.module.SubtaskServer.Request;
 import gov.nasa.ziggy.module.SubtaskServer.RequestType;
 import gov.nasa.ziggy.module.SubtaskServer.Response;
@@ -21,46 +31,99 @@ import gov.nasa.ziggy.module.SubtaskServer.ResponseType;
  * no further subtasks remain to be processed, or notify the {@link SubtaskServer} that a subtask
  * processed in this thread has completed or is locked by another job.
  * <p>
+ * The client opens a single connection to the server on its first request and keeps it open until
+ * {@link #close()} is called; if the connection fails, a new one is opened on the next attempt.
+ * <p>
+ * The client can lease a batch of subtasks from the server in a single request, in which case the
+ * subtasks are returned one at a time by {@link #nextSubtask()}. While the client holds leases, it
+ * renews them periodically from a background thread, so that the server can tell a live client
+ * from one that has died.
+ * <p>
+ * The server releases a connection's leases when the connection fails. When the client
+ * reconnects, it therefore abandons the leased subtasks that it has not yet started, and claims the
+ * subtasks that it is still processing again. A subtask that was leased to another client in the
+ * meantime cannot be claimed; the lock on its subtask directory keeps the two clients from
+ * processing it at the same time.
+ * <p>
  * All of the methods in this class can throw the following exceptions:
  * <ol>
  * <li>If this thread is unable to communicate with the {@link SubtaskServer} after several retries,
  * it indicates that the server has failed, in which case a {@link SocketException} is thrown.
  * <li>If another thread determines that the server has failed the {@link ComputeNodeMaster} will
  * end processing on all threads, resulting in an {@link InterruptedException}.
- * <li>If the class of the response from the server cannot be instantiated, a
- * {@link ClassNotFoundException} will be thrown.
  * </ol>
  *
  * @author PT
  */
-public class SubtaskClient {
+public class SubtaskClient implements AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(SubtaskClient.class);
 
-    private static final long SLEEP_TIME_MILLIS = 10000;
-    private static final int MAX_ATTEMPTS = 6;
+    // Requests that fail with an i/o error are retried after a delay that starts short, so that a
+    // dropped connection is re-established quickly, and doubles up to a cap, so that a server that
+    // is briefly unreachable is given about half a minute to come back.
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 100;
+    private static final long MAX_RETRY_DELAY_MILLIS = 10000;
+    private static final int MAX_ATTEMPTS = 10;
+
+    private static ScheduledExecutorService leaseRenewalExecutor;
 
     private final String host;
     private final int serverPort;
+    private final int batchSize;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    // Guards the connection and the leases, which are used by the lease renewal thread.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Integer> pendingSubtasks = new ArrayDeque<>();
+    private final BitSet leasedSubtasks = new BitSet();
+    private ScheduledFuture<?> leaseRenewal;
+
+    // Set when the connection fails, so that the leases are re-registered on reconnection.
+    private boolean connectionLost;
 
     public SubtaskClient(String host, int serverPort) {
+        this(host, serverPort, 1, 0);
+    }
+
+    /**
+     * @param batchSize maximum number of subtasks to lease in a single request.
+     * @param leaseRenewalMillis interval between lease renewals, or zero to not renew leases.
+     */
+    public SubtaskClient(String host, int serverPort, int batchSize, long leaseRenewalMillis) {
         log.debug("Starting new SubtaskClient host " + host + " server port " + serverPort);
         this.host = host;
         this.serverPort = serverPort;
+        this.batchSize = Math.max(batchSize, 1);
+        if (leaseRenewalMillis > 0) {
+            leaseRenewal = leaseRenewalExecutor().scheduleWithFixedDelay(this::renewLeases,
+                leaseRenewalMillis, leaseRenewalMillis, TimeUnit.MILLISECONDS);
+        }
         log.debug("New SubtaskClient started");
     }
 
+    private static synchronized ScheduledExecutorService leaseRenewalExecutor() {
+        if (leaseRenewalExecutor == null) {
+            leaseRenewalExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("SubtaskClient-lease-renewal")
+                    .setDaemon(true)
+                    .build());
+        }
+        return leaseRenewalExecutor;
+    }
+
     /**
      * Client method to report that a sub-task has completed
      *
      * @throws InterruptedException if the thread was interrupted because a different thread was
      * unable to reach the subtask server.
-     * @throws ClassNotFoundException if the response from the server could not be instantiated.
      * @throws SocketException if all attempts to reach the server have failed, which indicates that
      * the server itself has failed.
      */
     public Response reportSubTaskComplete(int subTaskIndex)
-        throws ClassNotFoundException, SocketException, InterruptedException {
-        return request(RequestType.REPORT_DONE, subTaskIndex);
+        throws SocketException, InterruptedException {
+        return report(RequestType.REPORT_DONE, subTaskIndex);
     }
 
     /**
@@ -68,13 +131,12 @@ public class SubtaskClient {
      *
      * @throws InterruptedException if the thread was interrupted because a different thread was
      * unable to reach the subtask server.
-     * @throws ClassNotFoundException if the response from the server could not be instantiated.
      * @throws SocketException if all attempts to reach the server have failed, which indicates that
      * the server itself has failed.
      */
     public Response reportSubTaskLocked(int subTaskIndex)
-        throws ClassNotFoundException, SocketException, InterruptedException {
-        return request(RequestType.REPORT_LOCKED, subTaskIndex);
+        throws SocketException, InterruptedException {
+        return report(RequestType.REPORT_LOCKED, subTaskIndex);
     }
 
     /**
@@ -82,63 +144,138 @@ public class SubtaskClient {
      *
      * @throws InterruptedException if the thread was interrupted because a different thread was
      * unable to reach the subtask server.
-     * @throws ClassNotFoundException if the response from the server could not be instantiated.
      * @throws SocketException if all attempts to reach the server have failed, which indicates that
      * the server itself has failed.
      * @return non-null.
      */
-    public Response nextSubtask()
-        throws InterruptedException, ClassNotFoundException, SocketException {
-        Response response = null;
+    public Response nextSubtask() throws InterruptedException, SocketException {
+        lock.lockInterruptibly();
+        try {
+            if (pendingSubtasks.isEmpty()) {
+                requestSubtasks();
+            }
+            Response response = pendingSubtasks.isEmpty() ? new Response(ResponseType.NO_MORE)
+                : new Response(ResponseType.OK, pendingSubtasks.poll());
+            log.debug("getNextSubTask: Got a response: " + response);
+            return response;
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    private void requestSubtasks() throws InterruptedException, SocketException {
+
+        // The server holds a GET_NEXT request until a subtask is available or its long-poll
+        // timeout expires, so there is no need to wait before asking again.
         while (true) {
-            response = request(RequestType.GET_NEXT);
+            Response response = request(RequestType.GET_NEXT, Request.NONE, batchSize);
+            if (response.status == ResponseType.NO_MORE) {
+                return;
+            }
             if (response.status != ResponseType.TRY_AGAIN) {
-                break;
+                for (int subtaskIndex : response.subtaskIndices) {
+                    pendingSubtasks.add(subtaskIndex);
+                    leasedSubtasks.set(subtaskIndex);
+                }
+                return;
             }
-            try {
-                Thread.sleep(SLEEP_TIME_MILLIS);
-            } catch (InterruptedException e) {
-                throw e;
+        }
+    }
+
+    /**
+     * Renews the leases on the subtasks held by this client. The renewal is skipped if the client
+     * holds no leases, or if another request is in progress.
+     */
+    private void renewLeases() {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (!leasedSubtasks.isEmpty()) {
+                attemptRequest(RequestType.RENEW, Request.NONE, 1);
             }
+        } catch (IOException | InterruptedException e) {
+            log.warn("Unable to renew subtask leases", e);
+        } finally {
+            lock.unlock();
         }
-        log.debug("getNextSubTask: Got a response: " + response);
-        return response;
     }
 
-    private Socket connect() throws UnknownHostException, IOException {
-        log.debug("Connecting to subtask server at: " + host);
-        return new Socket(host, serverPort);
+    /**
+     * Closes the connection to the server, if any. Leases on subtasks that have not been returned
+     * by {@link #nextSubtask()} or reported are released by the server when the connection closes.
+     */
+    @Override
+    public void close() {
+        if (leaseRenewal != null) {
+            leaseRenewal.cancel(false);
+        }
+        lock.lock();
+        try {
+            disconnect();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private void send(ObjectOutputStream out, RequestType command, int subTaskIndex)
-        throws IOException {
-        log.debug("Connected to subtask server at: " + host + ", sending request");
-        Request request = new Request(command, subTaskIndex);
-        out.writeObject(request);
-        out.flush();
+    private void connect() throws IOException {
+        log.debug("Connecting to subtask server at: " + host);
+        socket = new Socket(host, serverPort);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (connectionLost) {
+            reclaimLeases();
+            connectionLost = false;
+        }
     }
 
-    private Response receive(ObjectInputStream in) throws IOException, ClassNotFoundException {
-        return (Response) in.readObject();
+    /**
+     * Re-registers the leases that the server released when the previous connection failed.
+     * Subtasks that have not been returned by {@link #nextSubtask()} are abandoned, and will be
+     * offered again by the server; subtasks that are in progress are claimed by the new connection.
+     */
+    private void reclaimLeases() throws IOException {
+        for (int subtaskIndex : pendingSubtasks) {
+            leasedSubtasks.clear(subtaskIndex);
+        }
+        pendingSubtasks.clear();
+        for (int subtaskIndex : leasedSubtasks.stream().toArray()) {
+            new Request(RequestType.CLAIM, subtaskIndex, 1).write(out);
+            out.flush();
+            if (Response.read(in).status != ResponseType.OK) {
+                log.warn("Subtask " + subtaskIndex
+                    + " was leased to another client while the connection was down");
+                leasedSubtasks.clear(subtaskIndex);
+            }
+        }
     }
 
-    private void disconnect(Socket socket) throws IOException {
-        socket.close();
+    private void disconnect() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("Unable to close connection to subtask server", e);
+        }
+        socket = null;
+        in = null;
+        out = null;
     }
 
     /**
-     * Performs a single attempt to make a request to the {@link SubtaskServer}.
+     * Performs a single attempt to make a request to the {@link SubtaskServer}. The connection to
+     * the server is opened if necessary, and closed if the attempt fails.
      *
      * @return Response to request.
-     * @throws IOException if any of the (connect, send, receive, disconnect) steps experiences an
-     * i/o error.
-     * @throws ClassNotFoundException if the class of the response cannot be found.
+     * @throws IOException if any of the (connect, send, receive) steps experiences an i/o error.
      * @throws InterruptedException if the thread has been interrupted.
      * @return non-null.
      */
-    private Response attemptRequest(RequestType command, int subTaskIndex)
-        throws IOException, ClassNotFoundException, InterruptedException {
+    private Response attemptRequest(RequestType command, int subTaskIndex, int subtaskCount)
+        throws IOException, InterruptedException {
 
         // If another thread has detected that the server has failed, then there will be
         // an attempt to interrupt this thread; if so, detect it and then don't even bother
@@ -146,19 +283,32 @@ public class SubtaskClient {
         if (Thread.interrupted()) {
             throw new InterruptedException();
         }
-        Socket socket = connect();
-        try (ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-            ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
-            send(out, command, subTaskIndex);
-            Response response = receive(in);
-            disconnect(socket);
-            return response;
+        try {
+            if (socket == null) {
+                connect();
+            }
+            new Request(command, subTaskIndex, subtaskCount).write(out);
+            out.flush();
+            return Response.read(in);
+        } catch (IOException e) {
+            disconnect();
+            connectionLost = true;
+            throw e;
         }
     }
 
-    private Response request(RequestType command)
-        throws ClassNotFoundException, SocketException, InterruptedException {
-        return request(command, -1);
+    /**
+     * Sends a report on a subtask, which ends this client's lease on it.
+     */
+    private Response report(RequestType command, int subtaskIndex)
+        throws SocketException, InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            leasedSubtasks.clear(subtaskIndex);
+            return request(command, subtaskIndex, 1);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -167,32 +317,30 @@ public class SubtaskClient {
      *
      * @throws InterruptedException if the thread is interrupted (indicates that the
      * {@link RemoteJobMaster} has interrupted all algorithm threads).
-     * @throws ClassNotFoundException if the response from the server cannot be instantiated.
      * @throws SocketException if all attempts to reach the server have failed, which indicates that
      * the server itself has failed.
      * @return non-null.
      */
-    private Response request(RequestType command, int subtaskIndex)
-        throws InterruptedException, ClassNotFoundException, SocketException {
+    private Response request(RequestType command, int subtaskIndex, int subtaskCount)
+        throws InterruptedException, SocketException {
 
         log.debug("Sending request " + command + " with subtaskIndex " + subtaskIndex);
         Response response = null;
+        long retryDelayMillis = INITIAL_RETRY_DELAY_MILLIS;
         for (int iAttempt = 0; iAttempt < MAX_ATTEMPTS; iAttempt++) {
             try {
-                response = attemptRequest(command, subtaskIndex);
+                response = attemptRequest(command, subtaskIndex, subtaskCount);
                 break;
             } catch (IOException ioException) {
                 // swallow this exception, since we'll retry in this case
-            } catch (InterruptedException interruptedException) {
-                // Rethrow so the caller sees the InterruptedException
-                throw interruptedException;
+                log.debug("Request " + command + " failed on attempt " + (iAttempt + 1),
+                    ioException);
             }
 
             // pause before the next attempt to get a response
-            try {
-                Thread.sleep(SLEEP_TIME_MILLIS);
-            } catch (InterruptedException e1) {
-                throw e1;
+            if (iAttempt < MAX_ATTEMPTS - 1) {
+                Thread.sleep(retryDelayMillis);
+                retryDelayMillis = Math.min(2 * retryDelayMillis, MAX_RETRY_DELAY_MILLIS);
             }
         }
 
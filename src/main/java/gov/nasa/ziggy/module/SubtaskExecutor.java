@@ -9,10 +9,13 @@ import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.exec.CommandLine;
@@ -56,12 +59,16 @@ public class SubtaskExecutor {
 
     private final String binaryName;
     private final File taskDir;
+    private final int subtaskIndex;
     private final File workingDir;
     private final int timeoutSecs;
     private final String pipelineHomeDir;
     private final String pipelineConfigPath;
+    private final BooleanSupplier outputsGate;
 
     private CommandLine commandLine;
+    private ExternalProcess currentProcess;
+    private volatile boolean cancelled;
     private Map<String, String> environment = new HashMap<>();
 
     private OperatingSystemType osType = OperatingSystemType.getInstance();
@@ -71,10 +78,14 @@ public class SubtaskExecutor {
     private File binaryDir;
 
     // Constructor is private, use the builder instead.
-    private SubtaskExecutor(File taskDir, int subtaskIndex, String binaryName, int timeoutSecs,
-        String pipelineHomeDir, String pipelineConfigPath) {
+    private SubtaskExecutor(File taskDir, int subtaskIndex, File workingDir, String binaryName,
+        int timeoutSecs, String pipelineHomeDir, String pipelineConfigPath,
+        BooleanSupplier outputsGate) {
         this.taskDir = taskDir;
-        workingDir = TaskConfigurationManager.subtaskDirectory(taskDir, subtaskIndex);
+        this.subtaskIndex = subtaskIndex;
+        this.workingDir = workingDir != null ? workingDir
+            : TaskConfigurationManager.subtaskDirectory(taskDir, subtaskIndex);
+        this.outputsGate = outputsGate;
         this.pipelineHomeDir = pipelineHomeDir;
         this.pipelineConfigPath = pipelineConfigPath;
         this.timeoutSecs = timeoutSecs;
@@ -260,6 +271,11 @@ public class SubtaskExecutor {
             }
             retCode = execAlgorithmInternal(0);
 
+            if (cancelled) {
+                log.info("Execution in " + workingDir.getName() + " cancelled");
+                return retCode;
+            }
+
             if (retCode != 0) {
                 log.warn("Marking subtask as failed because retCode = " + retCode);
                 markSubtaskFailed(workingDir);
@@ -270,12 +286,36 @@ public class SubtaskExecutor {
                 markSubtaskFailed(workingDir);
             }
         } catch (Exception e) {
+            if (cancelled) {
+                log.info("Execution in " + workingDir.getName() + " cancelled", e);
+                return retCode;
+            }
             log.warn("Marking subtask as failed because a Java-side exception occurred", e);
             markSubtaskFailed(workingDir);
         }
         return retCode;
     }
 
+    /**
+     * Cancels execution: the running external process, if any, is killed, no further steps are
+     * started, and the subtask state is not updated. Used to stop the losing attempt when a subtask
+     * is executed speculatively.
+     */
+    public void cancel() {
+        ExternalProcess process;
+        synchronized (this) {
+            cancelled = true;
+            process = currentProcess;
+        }
+        if (process != null && process.getWatchdog() != null) {
+            process.getWatchdog().destroyProcess();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
     /**
      * @throws PipelineException when an exception occurs during Java-side execution (not when the
      * algorithm errors or generation of inputs or results errors).
@@ -303,10 +343,19 @@ public class SubtaskExecutor {
                 retCode = runInputsOutputsCommand(inputsClass);
                 if (retCode == 0) {
                     inputsProcessingSucceeded = true;
-                    retCode = runCommandline(commandLineArgs, binaryName, "" + sequenceNum);
+                    retCode = runAlgorithmOrRestoreResults(taskConfigurationManager,
+                        commandLineArgs, sequenceNum);
                 }
                 if (retCode == 0) {
                     algorithmProcessingSucceeded = true;
+
+                    // Only one attempt at a speculatively executed subtask may copy its
+                    // outputs to the task directory.
+                    if (outputsGate != null && !outputsGate.getAsBoolean()) {
+                        cancelled = true;
+                    }
+                }
+                if (retCode == 0 && !cancelled) {
                     Class<? extends PipelineOutputs> outputsClass = taskConfigurationManager
                         .getOutputsClass();
                     retCode = runInputsOutputsCommand(outputsClass);
@@ -314,6 +363,9 @@ public class SubtaskExecutor {
             } finally {
                 IntervalMetric.stop(MATLAB_PROCESS_EXEC_METRIC, key);
             }
+            if (cancelled) {
+                return -1;
+            }
 
             File errorFile = ModuleInterfaceUtils.errorFile(workingDir, binaryName, sequenceNum);
 
@@ -356,6 +408,44 @@ public class SubtaskExecutor {
         }
     }
 
+    /**
+     * Runs the algorithm, unless the {@link SubtaskResultCache} has the results of a subtask with
+     * the same inputs, in which case those results are restored to the working directory instead.
+     * The results of a successful algorithm run are added to the cache. Errors in caching are
+     * logged and otherwise ignored.
+     */
+    private int runAlgorithmOrRestoreResults(TaskConfigurationManager taskConfigurationManager,
+        List<String> commandLineArgs, int sequenceNum) throws Exception {
+        SubtaskResultCache resultCache = null;
+        String subtaskKey = null;
+        Map<Path, String> snapshot = null;
+        try {
+            resultCache = SubtaskResultCache.forTask(workingDir.getParentFile());
+            if (resultCache != null) {
+                subtaskKey = resultCache.subtaskKey(workingDir.getParentFile(),
+                    taskConfigurationManager.filesForSubtask(subtaskIndex));
+                if (resultCache.restore(subtaskKey, workingDir)) {
+                    return 0;
+                }
+                snapshot = SubtaskResultCache.snapshot(workingDir);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to use subtask result cache", e);
+            resultCache = null;
+        }
+
+        int retCode = runCommandline(commandLineArgs, binaryName, "" + sequenceNum);
+        if (resultCache != null && retCode == 0 && !cancelled
+            && !ModuleInterfaceUtils.errorFile(workingDir, binaryName, sequenceNum).exists()) {
+            try {
+                resultCache.store(subtaskKey, workingDir, snapshot);
+            } catch (IOException e) {
+                log.warn("Unable to add results of " + workingDir.getName() + " to cache", e);
+            }
+        }
+        return retCode;
+    }
+
     /**
      * Run an arbitrary process with caller-specified arguments. No {@link AlgorithmStateFiles} is
      * created and a default logSuffix of "0" is used.
@@ -383,6 +473,10 @@ public class SubtaskExecutor {
      * input and output processing can execute in parallel even in cases in which the processing
      * uses non-concurrent libraries. Running a bunch of instances of {@link TaskFileManager} in
      * separate threads within a common JVM would not permit this.
+     * <p>
+     * If the {@link PropertyNames#TASK_FILE_MANAGER_HELPERS_PROP_NAME} property is greater than
+     * zero, the request is instead sent to a {@link TaskFileManagerPool}, whose helpers are
+     * separate processes that each run one request at a time but are reused for many subtasks.
      *
      * @param inputsOutputsClass Class to be used as argument to TaskFileManager.
      * @return exit code from runjava, or -1 if an IOException occurs during the command.
@@ -392,29 +486,35 @@ public class SubtaskExecutor {
 
         int retCode = -1;
 
-        // Locate the runjava executable, which can be someplace other than the bin directories for
-        // the pipeline.
-        String runjavaCommand = DirectoryProperties.ziggyBinDir() + "/runjava";
-
-        // Build the string that sets up that location as the Java library path
-        String javaLibPathArg = "-Djava.library.path=" + DirectoryProperties.ziggyLibDir();
-
-        // Build the string that sets up the Log4j config file location
-        String log4jConfig = "-Dlog4j2.configurationFile=" + DirectoryProperties.ziggyHomeDir()
-            + "/etc/log4j2.xml";
-
-        // Construct the class arguments for runjava.
-        String taskFileManagerClassName = TaskFileManager.class.getCanonicalName();
         String inputsOutputsClassName = inputsOutputsClass.getCanonicalName();
 
+        int helperCount = ZiggyConfiguration.getInstance()
+            .getInt(PropertyNames.TASK_FILE_MANAGER_HELPERS_PROP_NAME, 0);
+        if (helperCount > 0) {
+            long timeoutMillis = TimeUnit.SECONDS.toMillis(ZiggyConfiguration.getInstance()
+                .getLong(PropertyNames.TASK_FILE_MANAGER_TIMEOUT_PROP_NAME,
+                    TaskFileManagerPool.DEFAULT_TIMEOUT_SECONDS));
+            log.info("Executing " + inputsOutputsClassName + " in TaskFileManager helper");
+            try {
+                return TaskFileManagerPool
+                    .getInstance(taskFileManagerCommand(TaskFileManager.SERVE_OPTION),
+                        mergeWithEnvironment(EnvironmentUtils.getProcEnvironment()), helperCount,
+                        timeoutMillis)
+                    .execute(workingDir, inputsOutputsClass);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PipelineException("Interrupted while waiting for TaskFileManager helper",
+                    e);
+            }
+        }
+
         // Put it all together.
-        commandLine = new CommandLine(runjavaCommand);
+        List<String> command = taskFileManagerCommand(inputsOutputsClassName);
+        commandLine = new CommandLine(command.get(0));
         commandLine.addArgument("--verbose");
-        commandLine.addArgument(javaLibPathArg);
-        commandLine.addArgument(log4jConfig);
-
-        commandLine.addArgument(taskFileManagerClassName);
-        commandLine.addArgument(inputsOutputsClassName);
+        for (String argument : command.subList(1, command.size())) {
+            commandLine.addArgument(argument);
+        }
 
         // Run the command and return the exit code.
         ExternalProcess externalProcess = externalProcess(null, null);
@@ -424,10 +524,32 @@ public class SubtaskExecutor {
         externalProcess.setEnvironment(mergeWithEnvironment(EnvironmentUtils.getProcEnvironment()));
 
         log.info("Executing command: " + commandLine.toString());
-        retCode = externalProcess.execute();
+        retCode = execute(externalProcess);
         return retCode;
     }
 
+    /**
+     * Returns the runjava command that runs {@link TaskFileManager} with the specified argument,
+     * which is either the name of an inputs or outputs class or
+     * {@link TaskFileManager#SERVE_OPTION}.
+     */
+    static List<String> taskFileManagerCommand(String argument) {
+
+        // Locate the runjava executable, which can be someplace other than the bin directories for
+        // the pipeline.
+        String runjavaCommand = DirectoryProperties.ziggyBinDir() + "/runjava";
+
+        // Build the string that sets up that location as the Java library path
+        String javaLibPathArg = "-Djava.library.path=" + DirectoryProperties.ziggyLibDir();
+
+        // Build the string that sets up the Log4j config file location
+        String log4jConfig = "-Dlog4j2.configurationFile=" + DirectoryProperties.ziggyHomeDir()
+            + "/etc/log4j2.xml";
+
+        return Arrays.asList(runjavaCommand, javaLibPathArg, log4jConfig,
+            TaskFileManager.class.getCanonicalName(), argument);
+    }
+
     int runCommandline(List<String> commandline, String logPrefix, String logSuffix)
         throws Exception {
         try (
@@ -495,7 +617,7 @@ public class SubtaskExecutor {
                 externalProcess.setCommandLine(commandLine);
 
                 log.info("env = " + env);
-                retCode = externalProcess.execute();
+                retCode = execute(externalProcess);
             } finally {
                 IntervalMetric.stop("pipeline.module.externalProcess." + binaryName + ".execTime",
                     key);
@@ -505,6 +627,26 @@ public class SubtaskExecutor {
         }
     }
 
+    /**
+     * Executes an external process, unless execution has been cancelled, in which case -1 is
+     * returned. The process is recorded so that it can be killed by {@link #cancel()}.
+     */
+    private int execute(ExternalProcess externalProcess) {
+        synchronized (this) {
+            if (cancelled) {
+                return -1;
+            }
+            currentProcess = externalProcess;
+        }
+        try {
+            return externalProcess.execute();
+        } finally {
+            synchronized (this) {
+                currentProcess = null;
+            }
+        }
+    }
+
     private Map<String, String> mergeWithEnvironment(Map<String, String> additionalEnvironment) {
         Map<String, String> fullEnvironment = new HashMap<>();
         fullEnvironment.putAll(additionalEnvironment);
@@ -566,6 +708,8 @@ public class SubtaskExecutor {
         private String pipelineHomeDir;
         private String pipelineConfigPath;
         private String binaryName;
+        private File workingDir;
+        private BooleanSupplier outputsGate;
 
         public Builder() {
         }
@@ -600,6 +744,24 @@ public class SubtaskExecutor {
             return this;
         }
 
+        /**
+         * Sets the directory in which the subtask is executed, if not its subtask directory. Used
+         * for speculative attempts at a subtask.
+         */
+        public Builder workingDir(File workingDir) {
+            this.workingDir = workingDir;
+            return this;
+        }
+
+        /**
+         * Sets a gate that is consulted when the algorithm has succeeded. If the gate returns
+         * false, the outputs are not copied to the task directory and execution is cancelled.
+         */
+        public Builder outputsGate(BooleanSupplier outputsGate) {
+            this.outputsGate = outputsGate;
+            return this;
+        }
+
         public SubtaskExecutor build() throws IOException {
             StringBuilder sb = new StringBuilder();
             if (taskDir == null) {
@@ -625,8 +787,9 @@ public class SubtaskExecutor {
                 throw new PipelineException(
                     "Unable to build SubtaskExecutor, bad fields: " + sb.toString());
             }
-            SubtaskExecutor subtaskExecutor = new SubtaskExecutor(taskDir, subtaskIndex, binaryName,
-                timeoutSecs, pipelineHomeDir, pipelineConfigPath);
+            SubtaskExecutor subtaskExecutor = new SubtaskExecutor(taskDir, subtaskIndex,
+                workingDir, binaryName, timeoutSecs, pipelineHomeDir, pipelineConfigPath,
+                outputsGate);
             subtaskExecutor.initialize();
             return subtaskExecutor;
         }
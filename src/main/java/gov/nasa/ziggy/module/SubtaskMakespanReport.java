@@ -0,0 +1,180 @@
+package gov.nasa.ziggy.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+import gov.nasa.ziggy.module.remote.TimestampFile;
+import gov.nasa.ziggy.util.TimeFormatter;
+
+/**
+ * Compares the makespan of a task's subtasks, from the start of the first subtask to the end of the
+ * last, with the makespans predicted from the {@link SubtaskRuntimeHistory} for the order in which
+ * the subtasks were offered and for index order.
+ * <p>
+ * A predicted makespan is computed by assigning each subtask, in order, to the worker that becomes
+ * free first. The actual runtimes and makespan are taken from the {@link TimestampFile}s that each
+ * {@link SubtaskMaster} writes in the subtask directories.
+ *
+ * @author PT
+ */
+public class SubtaskMakespanReport {
+
+    public static final String REPORT_FILE_NAME = "subtask-makespan-report.txt";
+
+    private static final String START_PREFIX = TimestampFile.Event.SUB_TASK_START + ".";
+    private static final String FINISH_PREFIX = TimestampFile.Event.SUB_TASK_FINISH + ".";
+
+    private final int workers;
+    private final long[] predictedRuntimeMillis;
+    private final int[] subtaskOrder;
+    private final long[] startMillis;
+    private final long[] finishMillis;
+
+    SubtaskMakespanReport(long[] predictedRuntimeMillis, int[] subtaskOrder, int workers,
+        long[] startMillis, long[] finishMillis) {
+        this.predictedRuntimeMillis = predictedRuntimeMillis;
+        this.subtaskOrder = subtaskOrder;
+        this.workers = workers;
+        this.startMillis = startMillis;
+        this.finishMillis = finishMillis;
+    }
+
+    /**
+     * Creates a report for a task.
+     *
+     * @param predictedRuntimeMillis the recorded runtime of each subtask, or -1 if there was none.
+     * @param subtaskOrder the order in which the subtasks were offered.
+     * @param workers the number of subtasks that could run at once.
+     */
+    public static SubtaskMakespanReport create(File taskDir, long[] predictedRuntimeMillis,
+        int[] subtaskOrder, int workers) {
+        int subtaskCount = predictedRuntimeMillis.length;
+        long[] startMillis = new long[subtaskCount];
+        long[] finishMillis = new long[subtaskCount];
+        for (int i = 0; i < subtaskCount; i++) {
+            startMillis[i] = -1L;
+            finishMillis[i] = -1L;
+            String[] fileNames = TaskConfigurationManager.subtaskDirectory(taskDir, i).list();
+            if (fileNames == null) {
+                continue;
+            }
+            for (String fileName : fileNames) {
+                if (fileName.startsWith(START_PREFIX)) {
+                    startMillis[i] = timestamp(fileName, START_PREFIX);
+                } else if (fileName.startsWith(FINISH_PREFIX)) {
+                    finishMillis[i] = timestamp(fileName, FINISH_PREFIX);
+                }
+            }
+        }
+        return new SubtaskMakespanReport(predictedRuntimeMillis, subtaskOrder, workers,
+            startMillis, finishMillis);
+    }
+
+    private static long timestamp(String fileName, String prefix) {
+        try {
+            return Long.parseLong(fileName.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Returns the runtime of a subtask in this task, or -1 if it has not run to completion.
+     */
+    public long actualRuntimeMillis(int subtaskIndex) {
+        if (startMillis[subtaskIndex] < 0
+            || finishMillis[subtaskIndex] < startMillis[subtaskIndex]) {
+            return -1L;
+        }
+        return finishMillis[subtaskIndex] - startMillis[subtaskIndex];
+    }
+
+    /**
+     * Returns the time from the start of the first subtask to the finish of the last, or -1 if no
+     * subtask has run.
+     */
+    public long actualMakespanMillis() {
+        long start = Long.MAX_VALUE;
+        long finish = -1L;
+        for (int i = 0; i < startMillis.length; i++) {
+            if (actualRuntimeMillis(i) >= 0) {
+                start = Math.min(start, startMillis[i]);
+                finish = Math.max(finish, finishMillis[i]);
+            }
+        }
+        return finish >= 0 ? finish - start : -1L;
+    }
+
+    public long predictedMakespanMillis() {
+        return predictedMakespanMillis(
+            SubtaskRuntimeHistory.estimatedRuntimes(predictedRuntimeMillis), subtaskOrder,
+            workers);
+    }
+
+    public long predictedIndexOrderMakespanMillis() {
+        return predictedMakespanMillis(
+            SubtaskRuntimeHistory.estimatedRuntimes(predictedRuntimeMillis),
+            IntStream.range(0, predictedRuntimeMillis.length).toArray(), workers);
+    }
+
+    /**
+     * Returns the makespan of a list schedule, in which the subtasks are assigned in the specified
+     * order to whichever worker becomes free first.
+     */
+    static long predictedMakespanMillis(long[] runtimeMillis, int[] order, int workers) {
+        PriorityQueue<Long> freeMillis = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(workers, 1); i++) {
+            freeMillis.add(0L);
+        }
+        long makespan = 0L;
+        for (int subtaskIndex : order) {
+            long finish = freeMillis.poll() + runtimeMillis[subtaskIndex];
+            makespan = Math.max(makespan, finish);
+            freeMillis.add(finish);
+        }
+        return makespan;
+    }
+
+    public String report() {
+        long predictedCount = IntStream.range(0, predictedRuntimeMillis.length)
+            .filter(i -> predictedRuntimeMillis[i] >= 0)
+            .count();
+        long actualCount = IntStream.range(0, startMillis.length)
+            .filter(i -> actualRuntimeMillis(i) >= 0)
+            .count();
+        StringBuilder report = new StringBuilder();
+        report.append("Subtasks: ")
+            .append(predictedRuntimeMillis.length)
+            .append(" (")
+            .append(predictedCount)
+            .append(" with recorded runtimes, ")
+            .append(actualCount)
+            .append(" run)\n");
+        report.append("Workers: ").append(workers).append("\n");
+        report.append("Predicted makespan, index order: ")
+            .append(format(predictedIndexOrderMakespanMillis()))
+            .append("\n");
+        report.append("Predicted makespan, order used: ")
+            .append(format(predictedMakespanMillis()))
+            .append("\n");
+        report.append("Actual makespan: ").append(format(actualMakespanMillis())).append("\n");
+        return report.toString();
+    }
+
+    private static String format(long millis) {
+        return millis >= 0 ? TimeFormatter.timeInSecondsToStringHhMmSs((int) (millis / 1000))
+            : "n/a";
+    }
+
+    /**
+     * Writes the report to {@link #REPORT_FILE_NAME} in the task directory.
+     */
+    public void write(File taskDir) throws IOException {
+        Files.write(new File(taskDir, REPORT_FILE_NAME).toPath(),
+            report().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -10,6 +10,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gov.nasa.ziggy.module.remote.TimestampFile;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
 import gov.nasa.ziggy.util.io.LockManager;
 
 /**
@@ -46,11 +48,29 @@ public class SubtaskMaster implements Runnable {
     private final int serverPort;
     private final String jobId;
     private final String jobName;
+    private final SubtaskAdmissionController admissionController;
+    private final SubtaskSpeculator speculator;
 
     public SubtaskMaster(int threadNumber, String node, String headNode, Semaphore complete,
         String binaryName, String taskDir, int timeoutSecs, String homeDir,
         String pipelineConfigPath, int serverPort) {
+        this(threadNumber, node, headNode, complete, binaryName, taskDir, timeoutSecs, homeDir,
+            pipelineConfigPath, serverPort, null, null);
+    }
+
+    /**
+     * Creates a {@link SubtaskMaster} that obtains admission from a
+     * {@link SubtaskAdmissionController} before it starts each subtask. If the controller is null,
+     * subtasks are started without admission control. Subtasks are registered with the
+     * {@link SubtaskSpeculator}, if any, so that stragglers can be executed a second time.
+     */
+    public SubtaskMaster(int threadNumber, String node, String headNode, Semaphore complete,
+        String binaryName, String taskDir, int timeoutSecs, String homeDir,
+        String pipelineConfigPath, int serverPort, SubtaskAdmissionController admissionController,
+        SubtaskSpeculator speculator) {
         this.threadNumber = threadNumber;
+        this.admissionController = admissionController;
+        this.speculator = speculator;
         this.node = node;
         this.headNode = headNode;
         this.complete = complete;
@@ -97,13 +117,31 @@ public class SubtaskMaster implements Runnable {
      * @throws InterruptedException if the thread is interrupted.
      */
     private void processSubtasks() throws InterruptedException, SocketException {
+        int batchSize = ZiggyConfiguration.getInstance()
+            .getInt(PropertyNames.REMOTE_SUBTASK_BATCH_SIZE_PROP_NAME, 1);
+        long leaseRenewalMillis = SubtaskServer.configuredLeaseMillis() / 3;
+        try (SubtaskClient subtaskClient = new SubtaskClient(headNode, serverPort, batchSize,
+            leaseRenewalMillis)) {
+            processSubtasks(subtaskClient);
+        }
+    }
+
+    /**
+     * Gets subtasks from the {@link SubtaskServer} and processes them, using a single connection
+     * to the server for all requests.
+     */
+    private void processSubtasks(SubtaskClient subtaskClient)
+        throws InterruptedException, SocketException {
 
-        SubtaskClient subtaskClient = null;
         SubtaskServer.Response response = null;
         while (true) {
-            try {
-                subtaskClient = new SubtaskClient(headNode, serverPort);
 
+            // Under admission control, wait until the node has memory for another subtask
+            // before requesting one, so that the subtask isn't leased while this thread waits.
+            if (admissionController != null) {
+                admissionController.acquire();
+            }
+            try {
                 response = subtaskClient.nextSubtask();
 
                 if (!response.successful()) {
@@ -121,19 +159,25 @@ public class SubtaskMaster implements Runnable {
                         SubtaskUtils.putLogStreamIdentifier(subtaskDir);
                         if (!checkSubtaskState(subtaskDir)) {
                             executeSubtask(subtaskDir, threadNumber, subtaskIndex);
-                            subtaskClient.reportSubTaskComplete(subtaskIndex);
                         }
+
+                        // Subtasks that were already complete or failed are reported as well, so
+                        // that the server doesn't offer them again when their leases end.
+                        subtaskClient.reportSubTaskComplete(subtaskIndex);
                     } catch (Exception e) {
                         log.error("Error occurred during subtask processing ", e);
                     } finally {
                         SubtaskUtils.putLogStreamIdentifier((String) null);
                         LockManager.releaseWriteLock(lockFile);
+                        if (speculator != null) {
+                            SubtaskSpeculator.deleteReplacedDirectory(subtaskDir);
+                        }
                     }
                 } else {
                     subtaskClient.reportSubTaskLocked(subtaskIndex);
                 }
 
-            } catch (ModuleFatalProcessingException | IOException | ClassNotFoundException e) {
+            } catch (ModuleFatalProcessingException | IOException e) {
 
                 // If one of the above-named exceptions has occurred, it's possible that
                 // only the current subtask has failed and that other subtasks can still be
@@ -146,6 +190,10 @@ public class SubtaskMaster implements Runnable {
                     throw (SocketException) e;
                 }
 
+            } finally {
+                if (admissionController != null) {
+                    admissionController.release();
+                }
             }
         }
     }
@@ -206,9 +254,12 @@ public class SubtaskMaster implements Runnable {
      * @throws ModuleFatalProcessingException if the external process returns nonzero status.
      */
     private void executeSubtask(File subtaskDir, int threadNumber, int subtaskIndex)
-        throws ModuleFatalProcessingException, IOException {
+        throws ModuleFatalProcessingException, IOException, InterruptedException {
 
         int retCode = 0;
+        SubtaskSpeculator.Race race = speculator != null
+            ? speculator.originalStarting(subtaskIndex, subtaskDir)
+            : null;
 
         try {
 
@@ -225,10 +276,17 @@ public class SubtaskMaster implements Runnable {
                 .timeoutSecs(timeoutSecs)
                 .pipelineConfigPath(pipelineConfigPath)
                 .pipelineHomeDir(homeDir)
+                .outputsGate(race != null ? race::claimOutputsForOriginal : null)
                 .build();
+            if (race != null) {
+                race.setOriginal(SubtaskSpeculator.execution(subtaskExecutor));
+            }
 
             log.info("START subtask: " + subtaskIndex + " on " + node + "[" + threadNumber + "]");
             retCode = subtaskExecutor.execAlgorithm();
+            if (race != null) {
+                retCode = speculator.originalFinished(race, retCode);
+            }
             log.info("FINISH subtask " + subtaskIndex + " on " + node + ", rc: " + retCode);
 
         } finally {
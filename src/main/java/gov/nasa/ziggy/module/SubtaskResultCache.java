@@ -0,0 +1,386 @@
+package gov.nasa.ziggy.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.nasa.ziggy.data.management.ChecksumType;
+import gov.nasa.ziggy.metrics.CounterMetric;
+import gov.nasa.ziggy.metrics.ValueMetric;
+import gov.nasa.ziggy.module.remote.TimestampFile;
+import gov.nasa.ziggy.pipeline.definition.ModelMetadata;
+import gov.nasa.ziggy.pipeline.definition.ModelRegistry;
+import gov.nasa.ziggy.pipeline.definition.ParameterSet;
+import gov.nasa.ziggy.pipeline.definition.PipelineTask;
+import gov.nasa.ziggy.services.config.DirectoryProperties;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+
+/**
+ * Cache of the algorithm outputs of successful subtasks, so that a subtask that is run again with
+ * identical inputs, models, parameters, and software doesn't need to run its algorithm.
+ * <p>
+ * Each task has a task key, a hash of the module name, the module software revision, the versions
+ * of the models in the pipeline instance's {@link ModelRegistry}, and the versions of the pipeline
+ * and module parameter sets. The task key is computed by the worker when it marshals the task, and
+ * is written to {@link #TASK_KEY_FILE_NAME} in the task directory, since the compute nodes have no
+ * database access. The key of a subtask is a hash of the task key and the SHA-256 checksums of the
+ * subtask's input files in the task directory. One cache is shared by all the subtasks of a task
+ * that run in the same JVM, so input files that several subtasks share, such as models, are only
+ * read once.
+ * <p>
+ * When a subtask's algorithm succeeds, the files that it created or modified in the subtask
+ * directory are copied into a cache entry in the
+ * {@link DirectoryProperties#subtaskResultCacheDir()} named for the subtask key, and made
+ * read-only; the entry is populated in a temporary directory and renamed into place, so it's
+ * never seen incomplete. When a subtask has an entry, its files are copied into the subtask
+ * directory instead of running the algorithm, and the outputs are then collected as usual. Entries
+ * never share files with subtask directories, so nothing that is done to the outputs of a subtask
+ * can change an entry. Cache hits, misses, and the bytes restored from the cache are recorded as
+ * metrics.
+ * <p>
+ * Each restore marks its entry as used. When a task is marshaled, entries that haven't been used
+ * for {@link PropertyNames#SUBTASK_RESULT_CACHE_MAX_AGE_DAYS_PROP_NAME} days are evicted, followed
+ * by the least recently used entries if the cache is larger than
+ * {@link PropertyNames#SUBTASK_RESULT_CACHE_MAX_GIGS_PROP_NAME}.
+ *
+ * @author PT
+ */
+public class SubtaskResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SubtaskResultCache.class);
+
+    public static final String TASK_KEY_FILE_NAME = "result-cache-task-key.txt";
+
+    static final String HIT_METRIC = "pipeline.module.subtask.resultCache.hitCount";
+    static final String MISS_METRIC = "pipeline.module.subtask.resultCache.missCount";
+    static final String BYTES_SAVED_METRIC = "pipeline.module.subtask.resultCache.bytesSaved";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String EVICTED_SUFFIX = ".evicted";
+
+    private static final int DEFAULT_MAX_AGE_DAYS = 30;
+    private static final long BYTES_PER_GIG = 1024L * 1024L * 1024L;
+
+    private static final Map<File, SubtaskResultCache> cachesByTaskDir = new ConcurrentHashMap<>();
+
+    private final Path cacheDir;
+    private final String taskKey;
+    private final Map<String, String> checksums = new ConcurrentHashMap<>();
+
+    SubtaskResultCache(Path cacheDir, String taskKey) {
+        this.cacheDir = cacheDir;
+        this.taskKey = taskKey;
+    }
+
+    /**
+     * Indicates whether subtask results are cached.
+     */
+    public static boolean enabled() {
+        return ZiggyConfiguration.getInstance()
+            .getBoolean(PropertyNames.SUBTASK_RESULT_CACHE_ENABLED_PROP_NAME, false);
+    }
+
+    /**
+     * Returns the key of a pipeline task, which identifies the module, software, models, and
+     * parameters that it uses.
+     */
+    public static String taskKey(PipelineTask pipelineTask) {
+        List<String> lines = new ArrayList<>();
+        lines.add("module=" + pipelineTask.getModuleName());
+        lines.add("software=" + pipelineTask.getSoftwareRevision());
+        ModelRegistry modelRegistry = pipelineTask.getPipelineInstance().getModelRegistry();
+        Set<String> models = new TreeSet<>();
+        if (modelRegistry != null) {
+            for (ModelMetadata model : modelRegistry.getModels().values()) {
+                models.add("model=" + model.getModelType().getType() + ":"
+                    + model.getModelRevision() + ":" + model.getDatastoreFileName());
+            }
+        }
+        lines.addAll(models);
+        lines.addAll(parameterSets("pipelineParameters=",
+            pipelineTask.getPipelineParameterSets().values()));
+        lines.addAll(parameterSets("moduleParameters=",
+            pipelineTask.getModuleParameterSets().values()));
+        return DigestUtils.sha256Hex(String.join("\n", lines));
+    }
+
+    private static Set<String> parameterSets(String prefix, Iterable<ParameterSet> parameterSets) {
+        Set<String> lines = new TreeSet<>();
+        for (ParameterSet parameterSet : parameterSets) {
+            lines.add(prefix + parameterSet + ":" + parameterSet.getVersion());
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the task key of a pipeline task to its task directory.
+     */
+    public static void writeTaskKey(File taskDir, PipelineTask pipelineTask) throws IOException {
+        Files.write(new File(taskDir, TASK_KEY_FILE_NAME).toPath(),
+            taskKey(pipelineTask).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the result cache for a task, or null if caching is disabled or the task has no task
+     * key.
+     */
+    public static SubtaskResultCache forTask(File taskDir) throws IOException {
+        if (!enabled()) {
+            return null;
+        }
+        return forTask(taskDir, DirectoryProperties.subtaskResultCacheDir());
+    }
+
+    /**
+     * Returns the result cache for a task, which is the same instance on every call unless the
+     * task key has changed, or null if the task has no task key.
+     */
+    static SubtaskResultCache forTask(File taskDir, Path cacheDir) throws IOException {
+        Path taskKeyFile = new File(taskDir, TASK_KEY_FILE_NAME).toPath();
+        if (!Files.exists(taskKeyFile)) {
+            return null;
+        }
+        String taskKey = new String(Files.readAllBytes(taskKeyFile), StandardCharsets.UTF_8)
+            .trim();
+        return cachesByTaskDir.compute(taskDir.getAbsoluteFile(),
+            (dir, cache) -> cache != null && cache.taskKey.equals(taskKey)
+                && cache.cacheDir.equals(cacheDir) ? cache
+                    : new SubtaskResultCache(cacheDir, taskKey));
+    }
+
+    /**
+     * Returns the key of a subtask with the specified input files in the task directory.
+     */
+    public String subtaskKey(File taskDir, Set<String> files) throws IOException {
+        StringBuilder key = new StringBuilder(taskKey);
+        for (String file : new TreeSet<>(files)) {
+            key.append("\n").append(file).append("=").append(checksum(taskDir.toPath(), file));
+        }
+        return DigestUtils.sha256Hex(key.toString());
+    }
+
+    /**
+     * Returns the checksum of a file in the task directory. Input files that several subtasks
+     * share, such as models, are only read once.
+     */
+    private String checksum(Path taskDir, String file) throws IOException {
+        String checksum = checksums.get(file);
+        if (checksum == null) {
+            Path path = taskDir.resolve(file);
+            checksum = Files.isRegularFile(path) ? ChecksumType.SHA256.checksum(path) : "";
+            checksums.putIfAbsent(file, checksum);
+        }
+        return checksum;
+    }
+
+    private Path entry(String subtaskKey) {
+        return cacheDir.resolve(subtaskKey.substring(0, 2)).resolve(subtaskKey);
+    }
+
+    /**
+     * Restores the cached outputs of a subtask into its subtask directory.
+     *
+     * @return true if the subtask had a cache entry.
+     */
+    public boolean restore(String subtaskKey, File subtaskDir) throws IOException {
+        Path entry = entry(subtaskKey);
+        if (!Files.isDirectory(entry)) {
+            CounterMetric.increment(MISS_METRIC);
+            return false;
+        }
+        long bytes = 0;
+        for (Path file : regularFiles(entry)) {
+            Path destination = subtaskDir.toPath().resolve(entry.relativize(file));
+            Files.createDirectories(destination.getParent());
+            Files.copy(file, destination, StandardCopyOption.REPLACE_EXISTING);
+            destination.toFile().setWritable(true);
+            bytes += Files.size(file);
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug("Unable to mark " + entry + " as used", e);
+        }
+        log.info("Restored " + bytes + " bytes of cached results into " + subtaskDir.getName());
+        CounterMetric.increment(HIT_METRIC);
+        ValueMetric.addValue(BYTES_SAVED_METRIC, bytes);
+        return true;
+    }
+
+    /**
+     * Returns the modification times and sizes of the files in a subtask directory, so that the
+     * files that an algorithm writes can be identified afterwards.
+     */
+    public static Map<Path, String> snapshot(File subtaskDir) throws IOException {
+        Map<Path, String> snapshot = new HashMap<>();
+        for (Path file : regularFiles(subtaskDir.toPath())) {
+            snapshot.put(subtaskDir.toPath().relativize(file), fingerprint(file));
+        }
+        return snapshot;
+    }
+
+    private static String fingerprint(Path file) throws IOException {
+        return Files.getLastModifiedTime(file).toMillis() + ":" + Files.size(file);
+    }
+
+    /**
+     * Adds the files that were created or modified in a subtask directory since the snapshot was
+     * taken to the cache. Hidden files, such as the subtask lock and state files, and timestamp
+     * files are not cached.
+     */
+    public void store(String subtaskKey, File subtaskDir, Map<Path, String> snapshot)
+        throws IOException {
+        Path entry = entry(subtaskKey);
+        if (Files.exists(entry)) {
+            return;
+        }
+        Files.createDirectories(entry.getParent());
+        Path tempDir = Files.createTempDirectory(entry.getParent(), subtaskKey + TEMP_SUFFIX);
+        try {
+            for (Path file : regularFiles(subtaskDir.toPath())) {
+                Path relativePath = subtaskDir.toPath().relativize(file);
+                if (!isCacheable(relativePath)
+                    || fingerprint(file).equals(snapshot.get(relativePath))) {
+                    continue;
+                }
+                Path destination = tempDir.resolve(relativePath);
+                Files.createDirectories(destination.getParent());
+                Files.copy(file, destination, StandardCopyOption.COPY_ATTRIBUTES);
+                destination.toFile().setWritable(false, false);
+            }
+            Files.move(tempDir, entry, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+
+            // Another attempt at the same subtask stored its results first.
+        } finally {
+            if (Files.exists(tempDir)) {
+                FileUtils.deleteDirectory(tempDir.toFile());
+            }
+        }
+    }
+
+    private static boolean isCacheable(Path relativePath) {
+        String topLevelName = relativePath.getName(0).toString();
+        if (topLevelName.startsWith(".")) {
+            return false;
+        }
+        for (TimestampFile.Event event : TimestampFile.Event.values()) {
+            if (topLevelName.startsWith(event.name() + ".")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Path> regularFiles(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Evicts the entries of the cache that are older, or in excess of the size, permitted by the
+     * pipeline configuration. Errors are logged and otherwise ignored.
+     */
+    public static void evict() {
+        int maxAgeDays = ZiggyConfiguration.getInstance()
+            .getInt(PropertyNames.SUBTASK_RESULT_CACHE_MAX_AGE_DAYS_PROP_NAME,
+                DEFAULT_MAX_AGE_DAYS);
+        double maxGigs = ZiggyConfiguration.getInstance()
+            .getDouble(PropertyNames.SUBTASK_RESULT_CACHE_MAX_GIGS_PROP_NAME, 0);
+        Path cacheDir = DirectoryProperties.subtaskResultCacheDir();
+        try {
+            evict(cacheDir, TimeUnit.DAYS.toMillis(maxAgeDays), (long) (maxGigs * BYTES_PER_GIG),
+                System.currentTimeMillis());
+        } catch (IOException e) {
+            log.warn("Unable to evict entries from " + cacheDir, e);
+        }
+    }
+
+    /**
+     * Evicts the entries that were last used more than maxAgeMillis before now, and then, if
+     * maxBytes is positive, the least recently used entries until the remaining entries take up
+     * no more than maxBytes. Temporary directories that were left behind are evicted like entries.
+     */
+    static void evict(Path cacheDir, long maxAgeMillis, long maxBytes, long now)
+        throws IOException {
+        if (!Files.isDirectory(cacheDir)) {
+            return;
+        }
+        List<Path> entries = new ArrayList<>();
+        Map<Path, Long> lastUsedMillis = new HashMap<>();
+        for (Path shard : subdirectories(cacheDir)) {
+            for (Path entry : subdirectories(shard)) {
+                long lastUsed = Files.getLastModifiedTime(entry).toMillis();
+                if (now - lastUsed > maxAgeMillis) {
+                    delete(entry);
+                } else {
+                    entries.add(entry);
+                    lastUsedMillis.put(entry, lastUsed);
+                }
+            }
+        }
+        if (maxBytes <= 0) {
+            return;
+        }
+        entries.sort(Comparator.comparing(lastUsedMillis::get));
+        Map<Path, Long> sizes = new HashMap<>();
+        long totalBytes = 0;
+        for (Path entry : entries) {
+            sizes.put(entry, FileUtils.sizeOfDirectory(entry.toFile()));
+            totalBytes += sizes.get(entry);
+        }
+        for (Path entry : entries) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            delete(entry);
+            totalBytes -= sizes.get(entry);
+        }
+    }
+
+    private static List<Path> subdirectories(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Deletes an entry. It is first renamed, so that no subtask finds it while it is only partly
+     * deleted; if the rename fails, another worker is evicting it.
+     */
+    private static void delete(Path entry) throws IOException {
+        Path evicted = entry.resolveSibling(entry.getFileName() + EVICTED_SUFFIX);
+        try {
+            Files.move(entry, evicted, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.debug("Unable to evict " + entry, e);
+            return;
+        }
+        log.debug("Evicting " + entry);
+        FileUtils.deleteDirectory(evicted.toFile());
+    }
+}
@@ -0,0 +1,206 @@
+package gov.nasa.ziggy.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.nasa.ziggy.services.config.DirectoryProperties;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+import gov.nasa.ziggy.util.io.LockManager;
+
+/**
+ * Runtimes of the subtasks of previous runs of a pipeline module, keyed by the base names of the
+ * subtasks' input files. A subtask in a new task that has the same input base names as one in an
+ * earlier task is assumed to take about as long as it did before.
+ * <p>
+ * The history is used to offer the subtasks of a task longest-first, so that the longest subtasks
+ * don't start last and set the task's wall time. The order is selected with the
+ * {@link PropertyNames#REMOTE_SUBTASK_ORDER_PROP_NAME} property.
+ * <p>
+ * Each module's history is a text file in the {@link DirectoryProperties#subtaskRuntimesDir()},
+ * with one line per input key that contains the key and the most recent runtime in milliseconds,
+ * separated by a tab. The key is the sorted base names of the subtask's input files, separated by
+ * slashes, which can't occur in a base name. Updates are merged into the file under a lock, so the
+ * jobs of concurrent tasks of the same module don't lose each other's runtimes.
+ *
+ * @author PT
+ */
+public class SubtaskRuntimeHistory {
+
+    private static final Logger log = LoggerFactory.getLogger(SubtaskRuntimeHistory.class);
+
+    public static final String INDEX_ORDER = "index";
+    public static final String LONGEST_FIRST_ORDER = "longestFirst";
+
+    static final String FILE_SUFFIX = ".runtimes";
+    private static final String SEPARATOR = "\t";
+    private static final String KEY_SEPARATOR = "/";
+
+    private final Path historyFile;
+    private final Map<String, Long> runtimes = new HashMap<>();
+    private final Map<String, Long> updates = new HashMap<>();
+
+    SubtaskRuntimeHistory(Path historyFile) throws IOException {
+        this.historyFile = historyFile;
+        read(runtimes);
+    }
+
+    /**
+     * Loads the history of a pipeline module. A module that has no history yet has an empty one.
+     */
+    public static SubtaskRuntimeHistory load(String moduleName) throws IOException {
+        return new SubtaskRuntimeHistory(
+            DirectoryProperties.subtaskRuntimesDir().resolve(moduleName + FILE_SUFFIX));
+    }
+
+    /**
+     * Indicates whether subtasks are to be offered longest-first according to their runtime
+     * history, rather than in index order.
+     */
+    public static boolean longestFirstEnabled() {
+        String order = ZiggyConfiguration.getInstance()
+            .getString(PropertyNames.REMOTE_SUBTASK_ORDER_PROP_NAME, INDEX_ORDER);
+        if (order.equalsIgnoreCase(LONGEST_FIRST_ORDER)) {
+            return true;
+        }
+        if (!order.equalsIgnoreCase(INDEX_ORDER)) {
+            log.warn("Unknown subtask order " + order + ", using " + INDEX_ORDER);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the key for a subtask with the specified input files.
+     */
+    static String key(Set<String> files) {
+        Set<String> baseNames = new TreeSet<>();
+        for (String file : files) {
+            baseNames.add(Paths.get(file).getFileName().toString());
+        }
+        return String.join(KEY_SEPARATOR, baseNames);
+    }
+
+    /**
+     * Returns the recorded runtime of a subtask with the specified input files, or -1 if there is
+     * none.
+     */
+    public synchronized long runtimeMillis(Set<String> files) {
+        Long runtime = runtimes.get(key(files));
+        return runtime != null ? runtime : -1L;
+    }
+
+    public synchronized void record(Set<String> files, long runtimeMillis) {
+        String key = key(files);
+        runtimes.put(key, runtimeMillis);
+        updates.put(key, runtimeMillis);
+    }
+
+    /**
+     * Returns the recorded runtime of each of the subtasks of a task, or -1 for the subtasks that
+     * have none.
+     */
+    public long[] runtimeMillis(TaskConfigurationManager inputsHandler) {
+        long[] runtimes = new long[inputsHandler.numSubTasks()];
+        for (int i = 0; i < runtimes.length; i++) {
+            runtimes[i] = runtimeMillis(inputsHandler.filesForSubtask(i));
+        }
+        return runtimes;
+    }
+
+    /**
+     * Returns the subtask indices in decreasing order of runtime. Subtasks that have no recorded
+     * runtime are assumed to take the mean of the recorded runtimes. Subtasks with equal runtimes
+     * stay in index order.
+     */
+    public static int[] longestFirstOrder(long[] runtimeMillis) {
+        long[] estimates = estimatedRuntimes(runtimeMillis);
+        return IntStream.range(0, estimates.length)
+            .boxed()
+            .sorted(Comparator.comparingLong((Integer i) -> estimates[i]).reversed())
+            .mapToInt(Integer::intValue)
+            .toArray();
+    }
+
+    /**
+     * Returns the recorded runtimes with the missing ones replaced by the mean of the others. If
+     * none were recorded, all are zero.
+     */
+    static long[] estimatedRuntimes(long[] runtimeMillis) {
+        long sum = 0;
+        int count = 0;
+        for (long runtime : runtimeMillis) {
+            if (runtime >= 0) {
+                sum += runtime;
+                count++;
+            }
+        }
+        long mean = count > 0 ? sum / count : 0L;
+        long[] estimates = new long[runtimeMillis.length];
+        for (int i = 0; i < estimates.length; i++) {
+            estimates[i] = runtimeMillis[i] >= 0 ? runtimeMillis[i] : mean;
+        }
+        return estimates;
+    }
+
+    /**
+     * Merges the runtimes recorded since the history was loaded into the history file.
+     */
+    public synchronized void save() throws IOException {
+        if (updates.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(historyFile.getParent());
+        File lockFile = new File(historyFile.toString() + ".lock");
+        LockManager.getWriteLockOrBlock(lockFile);
+        try {
+            Map<String, Long> merged = new HashMap<>();
+            read(merged);
+            merged.putAll(updates);
+            List<String> lines = new ArrayList<>(merged.size());
+            for (Map.Entry<String, Long> entry : merged.entrySet()) {
+                lines.add(entry.getKey() + SEPARATOR + entry.getValue());
+            }
+            Path tempFile = historyFile.resolveSibling(historyFile.getFileName() + ".tmp");
+            Files.write(tempFile, lines, StandardCharsets.UTF_8);
+            Files.move(tempFile, historyFile, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            updates.clear();
+        } finally {
+            LockManager.releaseWriteLock(lockFile);
+        }
+    }
+
+    private void read(Map<String, Long> runtimes) throws IOException {
+        if (!Files.exists(historyFile)) {
+            return;
+        }
+        for (String line : Files.readAllLines(historyFile, StandardCharsets.UTF_8)) {
+            int separator = line.lastIndexOf(SEPARATOR);
+            if (separator < 0) {
+                continue;
+            }
+            try {
+                runtimes.put(line.substring(0, separator),
+                    Long.parseLong(line.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring malformed line in " + historyFile + ": " + line);
+            }
+        }
+    }
+}
@@ -1,19 +1,41 @@
 package gov.nasa.ziggy.module;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+
 /**
  * Serves sub-tasks to clients using {@link SubtaskAllocator}. Clients should use
  * {@link SubtaskClient} to communicate with an instance of this class.
+ * <p>
+ * Each client holds a persistent connection to the server, which is served by its own thread. A
+ * GET_NEXT request that cannot be satisfied because all remaining subtasks are being processed is
+ * held by the server (a long poll) until another client reports a subtask complete or locked, so
+ * that the waiting client is given work as soon as there is any.
+ * <p>
+ * A GET_NEXT request can ask for several subtasks at once. The server grants at most an equal
+ * share of the subtasks that are available among the open connections, so that batches shrink as
+ * the task nears its end. The subtasks are leased to the connection: the client renews its leases
+ * with RENEW requests, and the leases end when the subtasks are reported, when the connection is
+ * closed, or when the lease duration passes without a renewal. A client that reconnects after its
+ * connection failed re-registers the subtasks it is still processing with CLAIM requests, which
+ * succeed only if the subtask has not been leased to another client in the meantime.
  *
  * @author Todd Klaus
  * @author PT
@@ -23,18 +45,39 @@ public class SubtaskServer implements Runnable {
 
     private static final int MAX_EXCEPTIONS = 100;
 
+    /**
+     * Maximum time a GET_NEXT request is held by the server while it waits for a subtask to become
+     * available.
+     */
+    static final long LONG_POLL_TIMEOUT_MILLIS = 10000;
+
     private final String host;
     private ServerSocket serverSocket;
     private SubtaskAllocator subtaskAllocator = null;
     private final CountDownLatch serverThreadReady = new CountDownLatch(1);
-    private boolean shuttingDown = false;
+    private volatile boolean shuttingDown = false;
     private int serverPort;
     private TaskConfigurationManager inputsHandler;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionCount = new AtomicInteger();
 
     public SubtaskServer(String host, TaskConfigurationManager inputsHandler) {
+        this(host, inputsHandler, SubtaskAllocator.DEFAULT_LEASE_MILLIS);
+    }
+
+    public SubtaskServer(String host, TaskConfigurationManager inputsHandler, long leaseMillis) {
+        this(host, inputsHandler, leaseMillis, null);
+    }
+
+    /**
+     * Creates a server that first offers the subtasks in the specified order, or in index order if
+     * the order is null.
+     */
+    public SubtaskServer(String host, TaskConfigurationManager inputsHandler, long leaseMillis,
+        int[] subtaskOrder) {
         this.host = host;
         this.inputsHandler = inputsHandler;
-        subtaskAllocator = new SubtaskAllocator(inputsHandler);
+        subtaskAllocator = new SubtaskAllocator(inputsHandler, leaseMillis, subtaskOrder);
 
         if (subtaskAllocator.isEmpty()) {
             throw new PipelineException("InputsHandler contains no elements!");
@@ -42,6 +85,17 @@ public class SubtaskServer implements Runnable {
 
     }
 
+    /**
+     * Returns the lease duration specified by the
+     * {@link PropertyNames#REMOTE_SUBTASK_LEASE_SECONDS_PROP_NAME} property.
+     */
+    public static long configuredLeaseMillis() {
+        return ZiggyConfiguration.getInstance()
+            .getLong(PropertyNames.REMOTE_SUBTASK_LEASE_SECONDS_PROP_NAME,
+                SubtaskAllocator.DEFAULT_LEASE_MILLIS / 1000)
+            * 1000;
+    }
+
     public void startSubtaskServer() throws InterruptedException {
         log.info("Starting SubtaskServer for inputs: " + inputsHandler);
 
@@ -58,16 +112,36 @@ public class SubtaskServer implements Runnable {
         return serverPort;
     }
 
+    /**
+     * Returns the number of client connections accepted since the server started.
+     */
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
     public void shutdownServer() throws Exception {
         shuttingDown = true;
+        synchronized (subtaskAllocator) {
+            subtaskAllocator.notifyAll();
+        }
         if (serverSocket != null) {
             serverSocket.close();
         }
+        closeConnections();
+    }
+
+    /**
+     * Closes all of the open client connections, which releases the leases that they hold.
+     */
+    void closeConnections() throws IOException {
+        for (Socket connection : connections) {
+            connection.close();
+        }
     }
 
     // request commands
     public enum RequestType {
-        NOOP, GET_NEXT, REPORT_DONE, REPORT_LOCKED;
+        NOOP, GET_NEXT, REPORT_DONE, REPORT_LOCKED, RENEW, CLAIM;
     }
 
     // request commands
@@ -75,19 +149,44 @@ public class SubtaskServer implements Runnable {
         OK, TRY_AGAIN, NO_MORE;
     }
 
-    public static final class Request implements Serializable {
-        private static final long serialVersionUID = -3336544526225919889L;
+    /**
+     * Request from a {@link SubtaskClient}. On the wire, a request is the ordinal of its type as
+     * one byte, followed by the subtask index and the subtask count as four-byte ints. The subtask
+     * count is the maximum number of subtasks to lease, and is used only by GET_NEXT.
+     */
+    public static final class Request {
 
         public static final int NONE = -1;
 
         public RequestType type;
         public int subtaskIndex;
+        public int subtaskCount = 1;
 
         public Request(RequestType type, int subTaskIndex) {
             this.type = type;
             subtaskIndex = subTaskIndex;
         }
 
+        public Request(RequestType type, int subTaskIndex, int subtaskCount) {
+            this(type, subTaskIndex);
+            this.subtaskCount = subtaskCount;
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeByte(type.ordinal());
+            out.writeInt(subtaskIndex);
+            out.writeInt(subtaskCount);
+        }
+
+        public static Request read(DataInputStream in) throws IOException {
+            RequestType[] types = RequestType.values();
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= types.length) {
+                throw new IOException("Unknown request type " + ordinal);
+            }
+            return new Request(types[ordinal], in.readInt(), in.readInt());
+        }
+
         @Override
         public String toString() {
             StringBuffer sb = new StringBuffer();
@@ -95,17 +194,25 @@ public class SubtaskServer implements Runnable {
             sb.append(type);
             sb.append(", subtaskIndex=");
             sb.append(subtaskIndex);
+            sb.append(", subtaskCount=");
+            sb.append(subtaskCount);
             sb.append("]");
 
             return sb.toString();
         }
     }
 
-    public static final class Response implements Serializable {
-        private static final long serialVersionUID = 4517789890439531336L;
+    /**
+     * Response from the server. On the wire, a response is the ordinal of its status as one byte,
+     * followed by the number of subtasks allocated and their indices as four-byte ints.
+     */
+    public static final class Response {
+
+        private static final int[] NO_SUBTASKS = new int[0];
 
         public ResponseType status;
         public int subtaskIndex = -1;
+        public int[] subtaskIndices = NO_SUBTASKS;
 
         public Response(ResponseType status) {
             this.status = status;
@@ -114,12 +221,42 @@ public class SubtaskServer implements Runnable {
         public Response(ResponseType status, int subTaskIndex) {
             this.status = status;
             subtaskIndex = subTaskIndex;
+            if (subTaskIndex >= 0) {
+                subtaskIndices = new int[] { subTaskIndex };
+            }
+        }
+
+        public Response(ResponseType status, int[] subtaskIndices) {
+            this.status = status;
+            this.subtaskIndices = subtaskIndices;
+            subtaskIndex = subtaskIndices.length > 0 ? subtaskIndices[0] : -1;
         }
 
         public boolean successful() {
             return status == ResponseType.OK;
         }
 
+        public void write(DataOutputStream out) throws IOException {
+            out.writeByte(status.ordinal());
+            out.writeInt(subtaskIndices.length);
+            for (int index : subtaskIndices) {
+                out.writeInt(index);
+            }
+        }
+
+        public static Response read(DataInputStream in) throws IOException {
+            ResponseType[] types = ResponseType.values();
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= types.length) {
+                throw new IOException("Unknown response type " + ordinal);
+            }
+            int[] subtaskIndices = new int[in.readInt()];
+            for (int i = 0; i < subtaskIndices.length; i++) {
+                subtaskIndices[i] = in.readInt();
+            }
+            return new Response(types[ordinal], subtaskIndices);
+        }
+
         @Override
         public String toString() {
             StringBuffer sb = new StringBuffer();
@@ -155,45 +292,15 @@ public class SubtaskServer implements Runnable {
         int exceptionCount = 0;
 
         while (true) {
-            try (Socket clientSocket = serverSocket.accept();
-                ObjectOutputStream out = new ObjectOutputStream(clientSocket.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream())) {
-                log.debug("Accepted new connection: " + clientSocket.toString());
-
-                Request request = (Request) in.readObject();
-
-                log.debug("listen[server,before]: request: " + request);
-
-                Response response = null;
-
-                RequestType type = request.type;
-
-                if (type == RequestType.GET_NEXT) {
-                    SubtaskAllocation nextSubtask = subtaskAllocator.nextSubtask();
-
-                    log.debug("Allocated: " + nextSubtask);
-
-                    ResponseType status = nextSubtask.getStatus();
-                    int subtaskIndex = nextSubtask.getSubtaskIndex();
-
-                    response = new Response(status, subtaskIndex);
-                } else if (type == RequestType.REPORT_DONE) {
-                    subtaskAllocator.markSubtaskComplete(request.subtaskIndex);
-                    response = new Response(ResponseType.OK);
-                } else if (type == RequestType.NOOP) {
-                    log.debug("Got a NO-OP");
-                    response = new Response(ResponseType.OK);
-                } else if (type == RequestType.REPORT_LOCKED) {
-                    subtaskAllocator.markSubtaskLocked(request.subtaskIndex);
-                    response = new Response(ResponseType.OK);
-                } else {
-                    log.error("Unknown command: " + type);
-                }
-
-                log.debug("listen[server,after], response: " + response);
-
-                out.writeObject(response);
-            } catch (IOException | ClassNotFoundException e) {
+            try {
+                Socket clientSocket = serverSocket.accept();
+                clientSocket.setTcpNoDelay(true);
+                connections.add(clientSocket);
+                Thread handler = new Thread(() -> serveConnection(clientSocket),
+                    "SubtaskServer-connection-" + connectionCount.incrementAndGet());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
                 if (shuttingDown) {
                     log.info("Got shutdown signal, exiting server thread");
                     return;
@@ -208,4 +315,121 @@ public class SubtaskServer implements Runnable {
             }
         }
     }
+
+    /**
+     * Serves the requests from one client until the client closes its connection.
+     */
+    private void serveConnection(Socket clientSocket) {
+        log.debug("Accepted new connection: " + clientSocket.toString());
+        BitSet leases = new BitSet();
+        try (Socket socket = clientSocket;
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()))) {
+            while (!shuttingDown) {
+                Request request;
+                try {
+                    request = Request.read(in);
+                } catch (EOFException e) {
+                    log.debug("Connection closed by client: " + socket.toString());
+                    break;
+                }
+
+                log.debug("listen[server,before]: request: " + request);
+                Response response = response(request, leases);
+                log.debug("listen[server,after], response: " + response);
+
+                response.write(out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!shuttingDown) {
+                log.error("Connection " + clientSocket.toString() + " failed, caught e = " + e,
+                    e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connections.remove(clientSocket);
+            synchronized (subtaskAllocator) {
+                subtaskAllocator.releaseLeases(leases.stream().toArray(), leases);
+                subtaskAllocator.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Serves a single request.
+     *
+     * @param leases subtasks leased to the connection that sent the request.
+     */
+    private Response response(Request request, BitSet leases)
+        throws IOException, InterruptedException {
+        switch (request.type) {
+            case GET_NEXT:
+                Response response = nextSubtasks(request.subtaskCount, leases);
+                for (int subtaskIndex : response.subtaskIndices) {
+                    leases.set(subtaskIndex);
+                }
+                return response;
+            case REPORT_DONE:
+                synchronized (subtaskAllocator) {
+                    subtaskAllocator.markSubtaskComplete(request.subtaskIndex);
+                    subtaskAllocator.notifyAll();
+                }
+                leases.clear(request.subtaskIndex);
+                return new Response(ResponseType.OK);
+            case REPORT_LOCKED:
+                synchronized (subtaskAllocator) {
+                    subtaskAllocator.markSubtaskLocked(request.subtaskIndex);
+                    subtaskAllocator.notifyAll();
+                }
+                leases.clear(request.subtaskIndex);
+                return new Response(ResponseType.OK);
+            case RENEW:
+                synchronized (subtaskAllocator) {
+                    subtaskAllocator.renewLeases(leases.stream().toArray(), leases);
+                }
+                return new Response(ResponseType.OK);
+            case CLAIM:
+                synchronized (subtaskAllocator) {
+                    if (!subtaskAllocator.claim(request.subtaskIndex, leases)) {
+                        return new Response(ResponseType.NO_MORE);
+                    }
+                }
+                leases.set(request.subtaskIndex);
+                return new Response(ResponseType.OK);
+            case NOOP:
+                log.debug("Got a NO-OP");
+                return new Response(ResponseType.OK);
+            default:
+                throw new IOException("Unknown command: " + request.type);
+        }
+    }
+
+    /**
+     * Allocates up to the requested number of subtasks, but no more than an equal share of the
+     * available subtasks among the open connections. If all of the remaining subtasks are being
+     * processed, the request is held until one of them is reported complete or locked, or until
+     * {@link #LONG_POLL_TIMEOUT_MILLIS} has elapsed, after which TRY_AGAIN is returned.
+     */
+    private Response nextSubtasks(int maxCount, Object holder) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + LONG_POLL_TIMEOUT_MILLIS;
+        synchronized (subtaskAllocator) {
+            while (true) {
+                int share = subtaskAllocator.availableCount() / Math.max(connections.size(), 1);
+                SubtaskAllocation nextSubtasks = subtaskAllocator
+                    .nextSubtasks(Math.min(maxCount, Math.max(share, 1)), holder);
+                log.debug("Allocated: " + nextSubtasks);
+                long remainingMillis = deadline - System.currentTimeMillis();
+                if (nextSubtasks.getStatus() != ResponseType.TRY_AGAIN || remainingMillis <= 0
+                    || shuttingDown) {
+                    return new Response(nextSubtasks.getStatus(),
+                        nextSubtasks.getSubtaskIndices());
+                }
+                subtaskAllocator.wait(remainingMillis);
+            }
+        }
+    }
 }
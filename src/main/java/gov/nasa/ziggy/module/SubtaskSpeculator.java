@@ -0,0 +1,540 @@
+package gov.nasa.ziggy.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import gov.nasa.ziggy.metrics.CounterMetric;
+import gov.nasa.ziggy.module.AlgorithmStateFiles.SubtaskState;
+import gov.nasa.ziggy.module.remote.TimestampFile;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+import gov.nasa.ziggy.util.io.LockManager;
+
+/**
+ * Starts duplicate attempts at straggling subtasks on a compute node.
+ * <p>
+ * Each {@link SubtaskMaster} registers the subtasks it executes. When the {@link ComputeNodeMaster}
+ * finds that the subtasks that remain are no more than a configured fraction of the total, any
+ * subtask that has run for longer than a configured multiple of the median runtime of the subtasks
+ * completed on this node is executed a second time, in a speculative attempt directory next to the
+ * subtask directory (see {@link AlgorithmStateFiles#speculativeAttemptDirectory(File)}), provided
+ * that fewer subtasks are executing than there are {@link SubtaskMaster}s and, if subtask admission
+ * control is enabled, that the {@link SubtaskAdmissionController} admits another subtask. The
+ * attempt directory is populated with hard links to the files that were in the subtask directory
+ * when the original attempt started, or with copies where links aren't supported.
+ * <p>
+ * The first attempt whose algorithm succeeds wins: it alone copies its outputs to the task
+ * directory, and the other attempt is cancelled, which kills its process. If the speculative
+ * attempt wins, the SubtaskMaster of the original attempt promotes it by moving the subtask
+ * directory aside and moving the attempt directory into its place. Java has no atomic exchange of
+ * directories, so the subtask directory is briefly absent; the subtask stays locked throughout.
+ * The old subtask directory contains the lock file that the SubtaskMaster holds, so it is only
+ * deleted, by {@link #deleteReplacedDirectory(File)}, once that lock has been released. The outcome
+ * of each attempt is recorded with
+ * {@link AlgorithmStateFiles#recordAttemptOutcome(File, boolean, SubtaskState)}.
+ *
+ * @author PT
+ */
+public class SubtaskSpeculator {
+
+    private static final Logger log = LoggerFactory.getLogger(SubtaskSpeculator.class);
+
+    static final String LAUNCHED_METRIC = "pipeline.module.computeNode.speculation.launchedCount";
+    static final String SPECULATIVE_WINS_METRIC = "pipeline.module.computeNode.speculation.speculativeWinCount";
+    static final String ORIGINAL_WINS_METRIC = "pipeline.module.computeNode.speculation.originalWinCount";
+
+    private static final double DEFAULT_REMAINING_FRACTION = 0.1;
+    private static final double DEFAULT_RUNTIME_MULTIPLE = 2.0;
+    private static final int DEFAULT_MIN_COMPLETED = 3;
+
+    private static final String REPLACED_SUFFIX = ".replaced";
+
+    /**
+     * An execution of a subtask that can be cancelled, such as a {@link SubtaskExecutor}.
+     */
+    public interface Execution {
+        int execute();
+
+        void cancel();
+    }
+
+    /**
+     * Returns an {@link Execution} that runs a {@link SubtaskExecutor}.
+     */
+    public static Execution execution(SubtaskExecutor executor) {
+        return new Execution() {
+            @Override
+            public int execute() {
+                return executor.execAlgorithm();
+            }
+
+            @Override
+            public void cancel() {
+                executor.cancel();
+            }
+        };
+    }
+
+    /**
+     * Creates the execution of a speculative attempt at a subtask; replaced in unit tests.
+     */
+    @FunctionalInterface
+    public interface ExecutionFactory {
+        Execution create(int subtaskIndex, File workingDir, BooleanSupplier outputsGate)
+            throws IOException;
+    }
+
+    private enum Winner {
+        NONE, ORIGINAL, SPECULATIVE;
+    }
+
+    private final double remainingFraction;
+    private final double runtimeMultiple;
+    private final int minCompleted;
+    private final int slots;
+    private final SubtaskAdmissionController admissionController;
+    private final ExecutionFactory executionFactory;
+    private final LongSupplier clock;
+    private final ExecutorService attemptThreads;
+
+    private final Map<Integer, Race> races = new HashMap<>();
+    private final List<Long> runtimes = new ArrayList<>();
+
+    SubtaskSpeculator(double remainingFraction, double runtimeMultiple, int minCompleted,
+        int slots, SubtaskAdmissionController admissionController,
+        ExecutionFactory executionFactory, LongSupplier clock) {
+        this.remainingFraction = remainingFraction;
+        this.runtimeMultiple = runtimeMultiple;
+        this.minCompleted = Math.max(minCompleted, 1);
+        this.slots = slots;
+        this.admissionController = admissionController;
+        this.executionFactory = executionFactory;
+        this.clock = clock;
+        attemptThreads = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("SpeculativeAttempt[%d]")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Indicates whether speculative execution of straggling subtasks is enabled.
+     */
+    public static boolean enabled() {
+        return ZiggyConfiguration.getInstance()
+            .getBoolean(PropertyNames.SPECULATION_ENABLED_PROP_NAME, false);
+    }
+
+    /**
+     * Creates a speculator from the pipeline configuration.
+     *
+     * @param slots the number of subtasks that may execute at once on this node.
+     * @param admissionController the node's {@link SubtaskAdmissionController}, or null if
+     * admission control is disabled.
+     */
+    public static SubtaskSpeculator newInstance(int slots,
+        SubtaskAdmissionController admissionController, ExecutionFactory executionFactory) {
+        return new SubtaskSpeculator(
+            ZiggyConfiguration.getInstance()
+                .getDouble(PropertyNames.SPECULATION_REMAINING_FRACTION_PROP_NAME,
+                    DEFAULT_REMAINING_FRACTION),
+            ZiggyConfiguration.getInstance()
+                .getDouble(PropertyNames.SPECULATION_RUNTIME_MULTIPLE_PROP_NAME,
+                    DEFAULT_RUNTIME_MULTIPLE),
+            ZiggyConfiguration.getInstance()
+                .getInt(PropertyNames.SPECULATION_MIN_COMPLETED_PROP_NAME,
+                    DEFAULT_MIN_COMPLETED),
+            slots, admissionController, executionFactory, System::currentTimeMillis);
+    }
+
+    public void shutdown() {
+        attemptThreads.shutdownNow();
+    }
+
+    /**
+     * Registers the original attempt at a subtask, before any files are written to the subtask
+     * directory. The returned {@link Race} supplies the outputs gate for the original attempt's
+     * {@link SubtaskExecutor}, and must be passed to {@link #originalFinished(Race, int)} when the
+     * original attempt has ended.
+     */
+    public synchronized Race originalStarting(int subtaskIndex, File subtaskDir) {
+        String[] fileNames = subtaskDir.list();
+        Race race = new Race(subtaskIndex, subtaskDir,
+            fileNames != null ? Arrays.asList(fileNames) : Collections.<String> emptyList(),
+            clock.getAsLong());
+        races.put(subtaskIndex, race);
+        return race;
+    }
+
+    /**
+     * Starts speculative attempts at stragglers if the remaining subtasks are few enough.
+     *
+     * @param totalSubtasks the number of subtasks in the task.
+     * @param remainingSubtasks the number of subtasks that are neither complete nor failed.
+     */
+    public void check(int totalSubtasks, int remainingSubtasks) {
+        List<Race> stragglers = new ArrayList<>();
+        synchronized (this) {
+            if (remainingSubtasks > remainingFraction * totalSubtasks
+                || runtimes.size() < minCompleted) {
+                return;
+            }
+            long thresholdMillis = (long) (runtimeMultiple * median(runtimes));
+            int busy = races.size();
+            for (Race race : races.values()) {
+                if (race.speculative != null) {
+                    busy++;
+                }
+            }
+            long now = clock.getAsLong();
+            for (Race race : races.values()) {
+                if (busy >= slots) {
+                    break;
+                }
+                if (race.speculative == null && !race.originalDone
+                    && now - race.startMillis > thresholdMillis) {
+                    stragglers.add(race);
+                    busy++;
+                }
+            }
+        }
+        for (Race race : stragglers) {
+            launch(race);
+        }
+    }
+
+    /**
+     * Starts a speculative attempt at a straggler. Under admission control, the attempt is only
+     * started if the {@link SubtaskAdmissionController} admits it without waiting, since the
+     * original attempt's SubtaskMaster holds its own admission until the race ends; a straggler
+     * that isn't admitted is considered again at the next check.
+     */
+    private void launch(Race race) {
+        if (admissionController != null && !admissionController.tryAcquire()) {
+            log.debug("Speculative attempt at " + race.subtaskDir.getName() + " not admitted");
+            return;
+        }
+        boolean started = false;
+        try {
+            File attemptDir = AlgorithmStateFiles.speculativeAttemptDirectory(race.subtaskDir);
+            Execution execution;
+            try {
+                populateAttemptDirectory(race, attemptDir);
+                execution = executionFactory.create(race.subtaskIndex, attemptDir,
+                    () -> race.claimOutputs(Winner.SPECULATIVE));
+            } catch (IOException e) {
+                log.warn("Unable to start speculative attempt at " + race.subtaskDir.getName(),
+                    e);
+                return;
+            }
+            synchronized (race) {
+                if (race.originalDone) {
+                    return;
+                }
+                race.speculative = execution;
+            }
+            log.info("Starting speculative attempt at " + race.subtaskDir.getName() + " after "
+                + (clock.getAsLong() - race.startMillis) / 1000 + " seconds");
+            CounterMetric.increment(LAUNCHED_METRIC);
+            attemptThreads.submit(() -> runSpeculativeAttempt(race, attemptDir));
+            started = true;
+        } finally {
+            if (!started && admissionController != null) {
+                admissionController.release();
+            }
+        }
+    }
+
+    /**
+     * Links the files that were in the subtask directory when the original attempt started into
+     * the attempt directory. Regular files are hard-linked where the file system allows it, and
+     * copied otherwise; directories are recreated, and their contents linked in the same way.
+     * Symbolic links are copied as links. Hidden files, such as the subtask lock, and timestamp
+     * files are not linked.
+     */
+    private static void populateAttemptDirectory(Race race, File attemptDir) throws IOException {
+        if (attemptDir.exists()) {
+            FileUtils.deleteDirectory(attemptDir);
+        }
+        Files.createDirectories(attemptDir.toPath());
+        for (String fileName : race.initialFileNames) {
+            if (fileName.startsWith(".") || isTimestampFile(fileName)) {
+                continue;
+            }
+            Path source = race.subtaskDir.toPath().resolve(fileName);
+            Path destination = attemptDir.toPath().resolve(fileName);
+            if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+                linkDirectory(source, destination);
+            } else if (Files.exists(source, LinkOption.NOFOLLOW_LINKS)) {
+                link(source, destination);
+            }
+        }
+    }
+
+    private static boolean isTimestampFile(String fileName) {
+        for (TimestampFile.Event event : TimestampFile.Event.values()) {
+            if (fileName.startsWith(event.name() + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void linkDirectory(Path source, Path destination) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                throws IOException {
+                Files.createDirectories(destination.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException {
+                link(file, destination.resolve(source.relativize(file)));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void link(Path source, Path destination) throws IOException {
+        if (!Files.isSymbolicLink(source)) {
+            try {
+                Files.createLink(destination, source);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("Unable to link " + source + ", copying it", e);
+            }
+        }
+        Files.copy(source, destination, LinkOption.NOFOLLOW_LINKS,
+            StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    private void runSpeculativeAttempt(Race race, File attemptDir) {
+        int retCode = -1;
+        try {
+            retCode = race.speculative.execute();
+        } catch (RuntimeException e) {
+            log.error("Speculative attempt at " + race.subtaskDir.getName() + " failed", e);
+        } finally {
+            if (admissionController != null) {
+                admissionController.release();
+            }
+        }
+        boolean won;
+        synchronized (race) {
+            won = race.winner == Winner.SPECULATIVE && retCode == 0;
+        }
+
+        // A losing attempt is cleaned up before the original attempt's SubtaskMaster is released.
+        if (!won) {
+            AlgorithmStateFiles.recordAttemptOutcome(race.subtaskDir, true, SubtaskState.FAILED);
+            try {
+                FileUtils.deleteDirectory(attemptDir);
+            } catch (IOException e) {
+                log.warn("Unable to delete " + attemptDir, e);
+            }
+        }
+        synchronized (race) {
+            race.speculativeRetCode = retCode;
+            race.speculativeDone = true;
+            race.notifyAll();
+        }
+    }
+
+    /**
+     * Ends the race for a subtask when its original attempt has ended. If a speculative attempt
+     * was started, this waits for it to end, and promotes it if it won.
+     *
+     * @param retCode the return code of the original attempt.
+     * @return the return code of the winning attempt, or of the original attempt if neither
+     * succeeded.
+     */
+    public int originalFinished(Race race, int retCode) throws InterruptedException {
+        long runtimeMillis = clock.getAsLong() - race.startMillis;
+        Execution speculative;
+        synchronized (race) {
+            race.originalDone = true;
+            speculative = race.speculative;
+        }
+        synchronized (this) {
+            races.remove(race.subtaskIndex);
+            if (speculative == null && retCode == 0) {
+                runtimes.add(runtimeMillis);
+            }
+        }
+        if (speculative == null) {
+            return retCode;
+        }
+
+        synchronized (race) {
+            while (!race.speculativeDone) {
+                race.wait();
+            }
+        }
+        if (race.winner == Winner.SPECULATIVE && race.speculativeRetCode == 0) {
+            try {
+                promote(race);
+            } catch (IOException e) {
+                throw new PipelineException(
+                    "Unable to promote speculative attempt at " + race.subtaskDir.getName(), e);
+            }
+            AlgorithmStateFiles.recordAttemptOutcome(race.subtaskDir, true, SubtaskState.COMPLETE);
+            AlgorithmStateFiles.recordAttemptOutcome(race.subtaskDir, false, SubtaskState.FAILED);
+            CounterMetric.increment(SPECULATIVE_WINS_METRIC);
+            log.info("Speculative attempt at " + race.subtaskDir.getName() + " finished first");
+            return 0;
+        }
+        if (race.winner == Winner.SPECULATIVE) {
+
+            // The speculative attempt's outputs failed after the original was cancelled.
+            try {
+                new AlgorithmStateFiles(race.subtaskDir).updateCurrentState(SubtaskState.FAILED);
+            } catch (IOException e) {
+                log.error("Unable to mark " + race.subtaskDir.getName() + " failed", e);
+            }
+            AlgorithmStateFiles.recordAttemptOutcome(race.subtaskDir, false, SubtaskState.FAILED);
+            return race.speculativeRetCode;
+        }
+        AlgorithmStateFiles.recordAttemptOutcome(race.subtaskDir, false,
+            retCode == 0 ? SubtaskState.COMPLETE : SubtaskState.FAILED);
+        if (race.winner == Winner.ORIGINAL) {
+            CounterMetric.increment(ORIGINAL_WINS_METRIC);
+        }
+        return retCode;
+    }
+
+    /**
+     * Replaces the subtask directory with the speculative attempt directory, and records the
+     * subtask as COMPLETE. The attempt directory's lock file is locked before the swap and released
+     * after the state is recorded, so that no other SubtaskMaster can take up the subtask while its
+     * state is unrecorded. The old subtask directory is left in place for
+     * {@link #deleteReplacedDirectory(File)}.
+     */
+    private static void promote(Race race) throws IOException {
+        Path subtaskDir = race.subtaskDir.toPath();
+        File attemptDir = AlgorithmStateFiles.speculativeAttemptDirectory(race.subtaskDir);
+        File attemptLockFile = new File(attemptDir, TaskConfigurationManager.LOCK_FILE_NAME);
+        File replacedDir = replacedDirectory(race.subtaskDir);
+        deleteReplacedDirectory(race.subtaskDir);
+        LockManager.getWriteLockOrBlock(attemptLockFile);
+        try {
+            Files.move(subtaskDir, replacedDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Files.move(attemptDir.toPath(), subtaskDir, StandardCopyOption.ATOMIC_MOVE);
+            new AlgorithmStateFiles(race.subtaskDir).updateCurrentState(SubtaskState.COMPLETE);
+            TimestampFile.create(race.subtaskDir, TimestampFile.Event.SUB_TASK_START,
+                race.startMillis);
+        } finally {
+            LockManager.releaseWriteLock(attemptLockFile);
+        }
+    }
+
+    /**
+     * Deletes the directory that a subtask directory replaced when a speculative attempt at the
+     * subtask was promoted, if there is one. This must only be called once the SubtaskMaster has
+     * released its lock on the subtask, since the lock file is in the replaced directory. A
+     * directory that can't be deleted is logged and left in the task directory.
+     */
+    public static void deleteReplacedDirectory(File subtaskDir) {
+        File replacedDir = replacedDirectory(subtaskDir);
+        if (!replacedDir.exists()) {
+            return;
+        }
+        try {
+            FileUtils.deleteDirectory(replacedDir);
+        } catch (IOException e) {
+            log.warn("Unable to delete " + replacedDir, e);
+        }
+    }
+
+    private static File replacedDirectory(File subtaskDir) {
+        return new File(subtaskDir.getParentFile(), subtaskDir.getName() + REPLACED_SUFFIX);
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    /**
+     * The attempts at one subtask.
+     */
+    public static class Race {
+
+        private final int subtaskIndex;
+        private final File subtaskDir;
+        private final List<String> initialFileNames;
+        private final long startMillis;
+        private Execution original;
+        private Execution speculative;
+        private Winner winner = Winner.NONE;
+        private boolean originalDone;
+        private boolean speculativeDone;
+        private int speculativeRetCode = -1;
+
+        private Race(int subtaskIndex, File subtaskDir, List<String> initialFileNames,
+            long startMillis) {
+            this.subtaskIndex = subtaskIndex;
+            this.subtaskDir = subtaskDir;
+            this.initialFileNames = initialFileNames;
+            this.startMillis = startMillis;
+        }
+
+        /**
+         * Sets the original attempt, so that it can be cancelled if the speculative attempt wins.
+         */
+        public synchronized void setOriginal(Execution original) {
+            this.original = original;
+        }
+
+        /**
+         * Outputs gate for the original attempt's {@link SubtaskExecutor}.
+         */
+        public boolean claimOutputsForOriginal() {
+            return claimOutputs(Winner.ORIGINAL);
+        }
+
+        /**
+         * Claims the right to copy outputs to the task directory for an attempt whose algorithm
+         * has succeeded. The first attempt to claim it wins, and the other attempt is cancelled.
+         */
+        private boolean claimOutputs(Winner claimant) {
+            Execution loser;
+            synchronized (this) {
+                if (winner != Winner.NONE) {
+                    return winner == claimant;
+                }
+                winner = claimant;
+                loser = claimant == Winner.SPECULATIVE ? original : speculative;
+            }
+            if (loser != null) {
+                loser.cancel();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package gov.nasa.ziggy.module;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.nasa.ziggy.module.AlgorithmStateFiles.SubtaskState;
+import gov.nasa.ziggy.module.AlgorithmStateFiles.SubtaskStateCounts;
+
+/**
+ * Append-only journal of the subtask state changes for a task. The journal is a single file in
+ * the task directory; each state change appends one line that contains the name of the subtask
+ * directory, the new {@link SubtaskState}, and, for COMPLETE subtasks, whether the subtask produced
+ * results. The last record for a subtask determines its state. The outcomes of the attempts at a
+ * speculatively executed subtask are recorded under the attempt names, see
+ * {@link AlgorithmStateFiles#recordAttemptOutcome(File, boolean, SubtaskState)}, and are not
+ * included in the counts.
+ * <p>
+ * Each record is written with a single write under an exclusive lock on the journal file, so
+ * records from the SubtaskMasters on different compute nodes never interleave. Readers use a
+ * {@link Reader}, which remembers how far into the journal it has read and only parses the records
+ * that have been appended since its last update. This replaces the scan of per-subtask flag files
+ * that the monitors previously performed on every poll, which costs several metadata operations
+ * per subtask on a shared file system.
+ * <p>
+ * The writers shared by the subtasks in a JVM, which are used through
+ * {@link #record(File, String, SubtaskState, boolean)}, keep the journal open only while one of
+ * the subtasks that they recorded as PROCESSING has not yet reached another state, so that a
+ * long-lived JVM that processes many tasks does not accumulate open journals.
+ *
+ * @author PT
+ */
+public class SubtaskStateJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SubtaskStateJournal.class);
+
+    public static final String JOURNAL_FILE_NAME = ".subtask-state-journal";
+
+    private static final String SEPARATOR = "\t";
+    private static final String RESULTS = "RESULTS";
+    private static final int MAX_CACHED_READERS = 16;
+
+    // Writers and readers shared by all the subtasks in a JVM.
+    private static final Map<File, SubtaskStateJournal> writers = new HashMap<>();
+    private static final Map<File, Reader> readers = new LinkedHashMap<File, Reader>(16, 0.75F,
+        true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Reader> eldest) {
+            return size() > MAX_CACHED_READERS;
+        }
+    };
+
+    private final File journalFile;
+    private FileChannel channel;
+    private Object fileKey;
+
+    // Subtasks recorded as PROCESSING by a shared writer that have not yet changed state.
+    private final Set<String> processingSubtasks = new HashSet<>();
+
+    public SubtaskStateJournal(File taskDir) {
+        journalFile = journalFile(taskDir);
+    }
+
+    public static File journalFile(File taskDir) {
+        return new File(taskDir, JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Appends a record to the journal of a task directory using the writer for that directory that
+     * is shared by all users in this JVM. The writer is closed once none of the subtasks that it
+     * recorded as PROCESSING is still processing; otherwise, it is closed by {@link #closeAll()}.
+     */
+    public static synchronized void record(File taskDir, String subtaskDirName,
+        SubtaskState state, boolean hasResults) throws IOException {
+        File key = taskDir.getAbsoluteFile();
+        SubtaskStateJournal writer = writers.computeIfAbsent(key, SubtaskStateJournal::new);
+        try {
+            writer.append(subtaskDirName, state, hasResults);
+        } finally {
+            if (state == SubtaskState.PROCESSING) {
+                writer.processingSubtasks.add(subtaskDirName);
+            } else {
+                writer.processingSubtasks.remove(subtaskDirName);
+            }
+            if (writer.processingSubtasks.isEmpty()) {
+                writers.remove(key);
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of shared writers that are open. For testing only.
+     */
+    static synchronized int openWriterCount() {
+        return writers.size();
+    }
+
+    /**
+     * Returns the journal reader for a task directory that is shared by all users in this JVM.
+     * Callers must {@link Reader#update()} the reader before querying it.
+     */
+    public static Reader reader(File taskDir) {
+        synchronized (readers) {
+            return readers.computeIfAbsent(taskDir.getAbsoluteFile(), Reader::new);
+        }
+    }
+
+    /**
+     * Closes all shared writers and discards all shared readers.
+     */
+    public static synchronized void closeAll() {
+        for (SubtaskStateJournal writer : writers.values()) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.warn("Unable to close " + writer.journalFile, e);
+            }
+        }
+        writers.clear();
+        synchronized (readers) {
+            readers.clear();
+        }
+    }
+
+    public void append(String subtaskDirName, SubtaskState state, boolean hasResults)
+        throws IOException {
+        append(Collections.singletonList(new Record(subtaskDirName, state, hasResults)));
+    }
+
+    /**
+     * Appends a collection of records to the journal under a single lock. The journal file is
+     * created if it does not exist, so this method may be called with an empty collection to create
+     * the journal.
+     */
+    public synchronized void append(Collection<Record> records) throws IOException {
+        // Reopen the journal if the task directory was deleted or replaced since it was opened.
+        Object currentFileKey = null;
+        try {
+            currentFileKey = Files
+                .readAttributes(journalFile.toPath(), BasicFileAttributes.class)
+                .fileKey();
+        } catch (NoSuchFileException e) {
+            close();
+        }
+        if (channel != null && currentFileKey != null && !currentFileKey.equals(fileKey)) {
+            close();
+        }
+        if (channel == null) {
+            channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            fileKey = Files.readAttributes(journalFile.toPath(), BasicFileAttributes.class)
+                .fileKey();
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (Record record : records) {
+            lines.append(record.toLine()).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        FileLock lock = channel.lock();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            lock.release();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * A single subtask state change.
+     */
+    public static class Record {
+
+        private final String subtaskDirName;
+        private final SubtaskState state;
+        private final boolean hasResults;
+
+        public Record(String subtaskDirName, SubtaskState state, boolean hasResults) {
+            this.subtaskDirName = subtaskDirName;
+            this.state = state;
+            this.hasResults = hasResults;
+        }
+
+        private String toLine() {
+            return subtaskDirName + SEPARATOR + state.name()
+                + (hasResults ? SEPARATOR + RESULTS : "");
+        }
+
+        private static Record fromLine(String line) {
+            String[] fields = line.split(SEPARATOR);
+            if (fields.length < 2) {
+                return null;
+            }
+            try {
+                return new Record(fields[0], SubtaskState.valueOf(fields[1]),
+                    fields.length > 2 && fields[2].equals(RESULTS));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        public String getSubtaskDirName() {
+            return subtaskDirName;
+        }
+
+        public SubtaskState getState() {
+            return state;
+        }
+
+        public boolean hasResults() {
+            return hasResults;
+        }
+    }
+
+    /**
+     * Incremental reader of a subtask state journal. Each {@link #update()} reopens the journal, so
+     * that an NFS client revalidates its cached copy, and reads only the complete records that
+     * follow the ones already read.
+     */
+    public static class Reader {
+
+        private final File journalFile;
+        private final Map<String, Record> records = new HashMap<>();
+        private Object fileKey;
+        private long offset;
+        private int completedSubtasks;
+        private int failedSubtasks;
+
+        public Reader(File taskDir) {
+            journalFile = journalFile(taskDir);
+        }
+
+        /**
+         * Reads any records appended since the last update.
+         *
+         * @return true if the journal exists, false otherwise.
+         */
+        public synchronized boolean update() throws IOException {
+            try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.READ)) {
+                // A journal that was replaced, for example because the task directory was deleted
+                // and recreated, is read from the beginning.
+                Object fileKey = Files
+                    .readAttributes(journalFile.toPath(), BasicFileAttributes.class)
+                    .fileKey();
+                long size = channel.size();
+                if (size < offset || fileKey != null && !fileKey.equals(this.fileKey)) {
+                    clear();
+                    this.fileKey = fileKey;
+                }
+                if (size == offset) {
+                    return true;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate((int) (size - offset));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+
+                // Only consume complete lines; a partial line is reread on the next update.
+                byte[] bytes = buffer.array();
+                int end = buffer.position();
+                while (end > 0 && bytes[end - 1] != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    return true;
+                }
+                for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8)
+                    .split("\n")) {
+                    Record record = Record.fromLine(line);
+                    if (record == null) {
+                        log.warn("Ignoring malformed record in " + journalFile + ": " + line);
+                        continue;
+                    }
+                    apply(record);
+                }
+                offset += end;
+                return true;
+            } catch (NoSuchFileException e) {
+                clear();
+                return false;
+            }
+        }
+
+        private void apply(Record record) {
+            Record previous = record.state == SubtaskState.NULL
+                ? records.remove(record.subtaskDirName)
+                : records.put(record.subtaskDirName, record);
+
+            // Attempts at speculatively executed subtasks are not counted as subtasks.
+            if (AlgorithmStateFiles.isAttemptName(record.subtaskDirName)) {
+                return;
+            }
+            if (previous != null) {
+                count(previous.state, -1);
+            }
+            count(record.state, 1);
+        }
+
+        private void count(SubtaskState state, int increment) {
+            if (state == SubtaskState.COMPLETE) {
+                completedSubtasks += increment;
+            } else if (state == SubtaskState.FAILED) {
+                failedSubtasks += increment;
+            }
+        }
+
+        private void clear() {
+            records.clear();
+            offset = 0;
+            completedSubtasks = 0;
+            failedSubtasks = 0;
+        }
+
+        public synchronized SubtaskState state(String subtaskDirName) {
+            Record record = records.get(subtaskDirName);
+            return record != null ? record.state : SubtaskState.NULL;
+        }
+
+        public synchronized boolean hasResults(String subtaskDirName) {
+            Record record = records.get(subtaskDirName);
+            return record != null && record.hasResults;
+        }
+
+        public synchronized SubtaskStateCounts counts() {
+            return new SubtaskStateCounts(completedSubtasks, failedSubtasks);
+        }
+
+        /**
+         * Returns the names of the subtask directories whose current state is the specified state.
+         */
+        public synchronized List<String> subtaskDirNames(SubtaskState state) {
+            List<String> names = new ArrayList<>();
+            for (Record record : records.values()) {
+                if (record.state == state) {
+                    names.add(record.subtaskDirName);
+                }
+            }
+            return names;
+        }
+    }
+}
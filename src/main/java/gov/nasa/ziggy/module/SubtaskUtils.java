@@ -1,6 +1,8 @@
 package gov.nasa.ziggy.module;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,10 +46,11 @@ public class SubtaskUtils {
     public static void clearStaleAlgorithmStates(File taskDir) {
         log.info("Finding and clearing stale PROCESSING or FAILED subtask states");
         SubtaskDirectoryIterator it = new SubtaskDirectoryIterator(taskDir);
+        List<File> subtaskDirs = new ArrayList<>();
         while (it.hasNext()) {
-            File subtaskDir = it.next().getSubtaskDir();
-            new AlgorithmStateFiles(subtaskDir).clearStaleState();
+            subtaskDirs.add(it.next().getSubtaskDir());
         }
+        AlgorithmStateFiles.clearStaleStates(taskDir, subtaskDirs);
     }
 
 }
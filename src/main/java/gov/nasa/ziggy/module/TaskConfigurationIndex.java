@@ -0,0 +1,196 @@
+package gov.nasa.ziggy.module;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact, indexed binary representation of the contents of a {@link TaskConfigurationManager}.
+ * <p>
+ * The file consists of a header, an offset table with one entry per subtask, an offset table with
+ * one entry per distinct file name, the subtask blocks, and the file name strings. Each subtask
+ * block is an array of indices into the file name strings, so a name that is used by many subtasks
+ * is stored only once. All offsets are absolute positions in the file, and the end of each block or
+ * string is the offset of the next one, so the file set for one subtask can be read from a memory
+ * mapping of the file without reading any of the other subtasks.
+ *
+ * <pre>
+ * int     MAGIC
+ * int     VERSION
+ * int     subtask count (S)
+ * int     file name count (N)
+ * int     length of the inputs class name, followed by its UTF-8 bytes
+ * int     length of the outputs class name, followed by its UTF-8 bytes
+ * int[S+1] subtask block offsets
+ * int[N+1] file name offsets
+ * subtask blocks: int[] file name indices
+ * file names: UTF-8 bytes
+ * </pre>
+ *
+ * @author PT
+ */
+class TaskConfigurationIndex {
+
+    static final int MAGIC = 0x5A54434D; // "ZTCM"
+    static final int VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final int subtaskCount;
+    private final int fileNameCount;
+    private final String inputsClassName;
+    private final String outputsClassName;
+    private final int subtaskOffsetsPosition;
+    private final int fileNameOffsetsPosition;
+
+    private TaskConfigurationIndex(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a task configuration index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported task configuration index version "
+                + buffer.getInt(4) + " in " + file);
+        }
+        subtaskCount = buffer.getInt(8);
+        fileNameCount = buffer.getInt(12);
+        int position = 16;
+        inputsClassName = string(position + 4, buffer.getInt(position));
+        position += 4 + buffer.getInt(position);
+        outputsClassName = string(position + 4, buffer.getInt(position));
+        position += 4 + buffer.getInt(position);
+        subtaskOffsetsPosition = position;
+        fileNameOffsetsPosition = subtaskOffsetsPosition + 4 * (subtaskCount + 1);
+    }
+
+    static TaskConfigurationIndex open(File file) throws IOException {
+        return new TaskConfigurationIndex(file);
+    }
+
+    int subtaskCount() {
+        return subtaskCount;
+    }
+
+    String inputsClassName() {
+        return inputsClassName;
+    }
+
+    String outputsClassName() {
+        return outputsClassName;
+    }
+
+    /**
+     * Returns the file names for one subtask, in the order in which they were written.
+     */
+    Set<String> filesForSubtask(int subtaskIndex) {
+        if (subtaskIndex < 0 || subtaskIndex >= subtaskCount) {
+            throw new IndexOutOfBoundsException(
+                "Subtask " + subtaskIndex + " not in range [0, " + subtaskCount + ")");
+        }
+        int start = buffer.getInt(subtaskOffsetsPosition + 4 * subtaskIndex);
+        int end = buffer.getInt(subtaskOffsetsPosition + 4 * (subtaskIndex + 1));
+        Set<String> files = new LinkedHashSet<>();
+        for (int position = start; position < end; position += 4) {
+            files.add(fileName(buffer.getInt(position)));
+        }
+        return files;
+    }
+
+    private String fileName(int index) {
+        int start = buffer.getInt(fileNameOffsetsPosition + 4 * index);
+        int end = buffer.getInt(fileNameOffsetsPosition + 4 * (index + 1));
+        return string(start, end - start);
+    }
+
+    private String string(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes an index file. The file is written under a temporary name and then moved into place, so
+     * readers never see a partially written index.
+     */
+    static void write(File file, List<Set<String>> filesForSubtasks, String inputsClassName,
+        String outputsClassName) throws IOException {
+
+        // Assign each distinct file name an index.
+        Map<String, Integer> fileNameIndices = new LinkedHashMap<>();
+        for (Set<String> files : filesForSubtasks) {
+            for (String fileName : files) {
+                fileNameIndices.putIfAbsent(fileName, fileNameIndices.size());
+            }
+        }
+        List<byte[]> fileNames = new ArrayList<>(fileNameIndices.size());
+        for (String fileName : fileNameIndices.keySet()) {
+            fileNames.add(fileName.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] inputsClassBytes = inputsClassName.getBytes(StandardCharsets.UTF_8);
+        byte[] outputsClassBytes = outputsClassName.getBytes(StandardCharsets.UTF_8);
+
+        int subtaskCount = filesForSubtasks.size();
+        int fileNameCount = fileNames.size();
+        long position = 16L + 4 + inputsClassBytes.length + 4 + outputsClassBytes.length
+            + 4L * (subtaskCount + 1) + 4L * (fileNameCount + 1);
+
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(subtaskCount);
+            output.writeInt(fileNameCount);
+            output.writeInt(inputsClassBytes.length);
+            output.write(inputsClassBytes);
+            output.writeInt(outputsClassBytes.length);
+            output.write(outputsClassBytes);
+
+            for (Set<String> files : filesForSubtasks) {
+                output.writeInt(checkedOffset(position, file));
+                position += 4L * files.size();
+            }
+            output.writeInt(checkedOffset(position, file));
+            for (byte[] fileName : fileNames) {
+                output.writeInt(checkedOffset(position, file));
+                position += fileName.length;
+            }
+            output.writeInt(checkedOffset(position, file));
+
+            for (Set<String> files : filesForSubtasks) {
+                for (String fileName : files) {
+                    output.writeInt(fileNameIndices.get(fileName));
+                }
+            }
+            for (byte[] fileName : fileNames) {
+                output.write(fileName);
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int checkedOffset(long offset, File file) {
+        if (offset > Integer.MAX_VALUE) {
+            throw new PipelineException("Task configuration index " + file + " exceeds 2 GB");
+        }
+        return (int) offset;
+    }
+}
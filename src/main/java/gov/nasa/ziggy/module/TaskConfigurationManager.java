@@ -2,11 +2,11 @@ package gov.nasa.ziggy.module;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -34,6 +34,11 @@ import gov.nasa.ziggy.pipeline.definition.PipelineModule;
  * doesn't implement hashCode() or equals(). Consequently the getCanonicalName() method is used to
  * extract something from the Class instance that can be compared via the String hashCode() and
  * equals() methods.
+ * <p>
+ * The manager is persisted in the compact format defined by {@link TaskConfigurationIndex}. When a
+ * manager is restored from that format, the files for each subtask are read from the index on
+ * demand, so a process that only needs one subtask's files doesn't read the others. Task
+ * directories that were persisted with Java serialization can still be restored.
  *
  * @author Todd Klaus
  * @author PT
@@ -41,11 +46,15 @@ import gov.nasa.ziggy.pipeline.definition.PipelineModule;
 public class TaskConfigurationManager implements Serializable {
     private static final Logger log = LoggerFactory.getLogger(TaskConfigurationManager.class);
     private static final long serialVersionUID = 20220817L;
-    private static final String PERSISTED_FILE_NAME = ".task-configuration.ser";
+    private static final String PERSISTED_FILE_NAME = ".task-configuration.idx";
+    private static final String SERIALIZED_FILE_NAME = ".task-configuration.ser";
     public static final String LOCK_FILE_NAME = ".lock";
 
     private transient File taskDir = null;
 
+    // Index from which the files for each subtask are read, if restored from one.
+    private transient TaskConfigurationIndex index = null;
+
     private final List<Set<String>> filesForSubtasks = new ArrayList<>();
     private Class<? extends PipelineInputs> inputsClass;
     private Class<? extends PipelineOutputs> outputsClass;
@@ -65,6 +74,7 @@ public class TaskConfigurationManager implements Serializable {
      */
     public void addFilesForSubtask(Set<String> files) {
 
+        loadFilesForSubtasks();
         File subTaskDirectory = subtaskDirectory(taskDir, subtaskCount);
         filesForSubtasks.add(files);
         try {
@@ -139,9 +149,13 @@ public class TaskConfigurationManager implements Serializable {
 
     public void persist(File dir) {
         File dest = persistedFile(dir);
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(dest))) {
+        try {
             log.info("Persisting inputs metadata to: " + dest);
-            oos.writeObject(this);
+            TaskConfigurationIndex.write(dest, loadFilesForSubtasks(), className(inputsClass),
+                className(outputsClass));
+
+            // Remove any serialized copy, which would otherwise be out of date.
+            Files.deleteIfExists(serializedFile(dir).toPath());
         } catch (Exception e) {
             throw new IllegalArgumentException("Unable to persist to: " + dir + ", caught: " + e,
                 e);
@@ -150,6 +164,29 @@ public class TaskConfigurationManager implements Serializable {
 
     public static TaskConfigurationManager restore(File taskDir) {
         File src = persistedFile(taskDir);
+        if (!src.exists()) {
+            return restoreSerialized(taskDir);
+        }
+        try {
+            log.info("Restoring outputs metadata from: " + src);
+            TaskConfigurationIndex index = TaskConfigurationIndex.open(src);
+            TaskConfigurationManager s = new TaskConfigurationManager(taskDir);
+            s.index = index;
+            s.subtaskCount = index.subtaskCount();
+            s.inputsClass = classForName(index.inputsClassName());
+            s.outputsClass = classForName(index.outputsClassName());
+            return s;
+        } catch (Exception e) {
+            throw new IllegalArgumentException(
+                "Unable to read persisted object from: " + taskDir + ", caught: " + e, e);
+        }
+    }
+
+    /**
+     * Restores a manager that was persisted with Java serialization.
+     */
+    private static TaskConfigurationManager restoreSerialized(File taskDir) {
+        File src = serializedFile(taskDir);
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(src))) {
             log.info("Restoring outputs metadata from: " + src);
 
@@ -164,17 +201,63 @@ public class TaskConfigurationManager implements Serializable {
     }
 
     public static Set<String> restoreAndRetrieveFilesForSubtask(File taskDir, int subtaskIndex) {
-        return TaskConfigurationManager.restore(taskDir).filesForSubtask(subtaskIndex);
+        File src = persistedFile(taskDir);
+        if (!src.exists()) {
+            return restoreSerialized(taskDir).filesForSubtask(subtaskIndex);
+        }
+        try {
+            return TaskConfigurationIndex.open(src).filesForSubtask(subtaskIndex);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                "Unable to read persisted object from: " + taskDir + ", caught: " + e, e);
+        }
     }
 
     public static boolean isPersistedInputsHandlerPresent(File taskDir) {
-        return persistedFile(taskDir).exists();
+        return persistedFile(taskDir).exists() || serializedFile(taskDir).exists();
     }
 
     public static File persistedFile(File taskDir) {
         return new File(taskDir, PERSISTED_FILE_NAME);
     }
 
+    private static File serializedFile(File taskDir) {
+        return new File(taskDir, SERIALIZED_FILE_NAME);
+    }
+
+    private static String className(Class<?> clazz) {
+        return clazz == null ? "" : clazz.getName();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Class<? extends T> classForName(String className)
+        throws ClassNotFoundException {
+        if (className.isEmpty()) {
+            return null;
+        }
+        return (Class<? extends T>) Class.forName(className, true,
+            Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Reads the files for all subtasks from the index, if the manager was restored from one and
+     * they have not already been read.
+     */
+    private synchronized List<Set<String>> loadFilesForSubtasks() {
+        if (index != null) {
+            for (int subtaskIndex = 0; subtaskIndex < subtaskCount; subtaskIndex++) {
+                filesForSubtasks.add(index.filesForSubtask(subtaskIndex));
+            }
+            index = null;
+        }
+        return filesForSubtasks;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        loadFilesForSubtasks();
+        out.defaultWriteObject();
+    }
+
     /**
      * Return a collection of all sub-task directories for this InputsHandler
      *
@@ -214,7 +297,10 @@ public class TaskConfigurationManager implements Serializable {
         }
     }
 
-    public Set<String> filesForSubtask(int subtaskNumber) {
+    public synchronized Set<String> filesForSubtask(int subtaskNumber) {
+        if (index != null) {
+            return index.filesForSubtask(subtaskNumber);
+        }
         return filesForSubtasks.get(subtaskNumber);
     }
 
@@ -223,7 +309,7 @@ public class TaskConfigurationManager implements Serializable {
         final int prime = 31;
         int result = 1;
         result = prime * result + subtaskCount;
-        result = prime * result + (filesForSubtasks == null ? 0 : filesForSubtasks.hashCode());
+        result = prime * result + loadFilesForSubtasks().hashCode();
         result = prime * result
             + (inputsClass == null ? 0 : inputsClass.getCanonicalName().hashCode());
         result = prime * result
@@ -243,7 +329,7 @@ public class TaskConfigurationManager implements Serializable {
         if (subtaskCount != other.subtaskCount) {
             return false;
         }
-        if (!Objects.equals(filesForSubtasks, other.filesForSubtasks)) {
+        if (!Objects.equals(loadFilesForSubtasks(), other.loadFilesForSubtasks())) {
             return false;
         }
         if (inputsClass == null) {
@@ -34,6 +34,14 @@
 
 package gov.nasa.ziggy.module;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import gov.nasa.ziggy.services.config.PropertyNames;
+
 /**
  * Manages the movement of data files between the task directory and the subtask directories.
  * <p>
@@ -46,16 +54,37 @@ package gov.nasa.ziggy.module;
  * {@link PipelineOutputs#setResultsState()} are called. The former method moves any results files
  * from the subtask directory to the task directory; the latter determines whether any results were
  * produced and sets an appropriate status.
+ * <p>
+ * The class is normally run with the name of the inputs or outputs class as its argument, in
+ * which case it processes the subtask in its working directory and exits. When run with the
+ * {@link #SERVE_OPTION} argument, it instead serves requests from a {@link TaskFileManagerPool}
+ * until its standard input is closed. Each request is a line that contains the subtask directory
+ * and the name of the inputs or outputs class, separated by a tab. When the request has been
+ * processed, a line that contains {@link #STATUS_PREFIX} and the exit status that the class would
+ * have returned is written to standard output; all other output goes to standard error.
  *
  * @author PT
  */
 public final class TaskFileManager {
 
+    public static final String SERVE_OPTION = "--serve";
+    public static final String STATUS_PREFIX = "TaskFileManager-status: ";
+
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals(SERVE_OPTION)) {
+            System.exit(serve());
+        }
+        System.exit(run(args[0]));
+    }
 
-        try {
-            String fullyQualifiedClassName = args[0];
+    /**
+     * Runs an inputs or outputs class in the current working directory.
+     *
+     * @return 0 if successful, 1 otherwise.
+     */
+    private static int run(String fullyQualifiedClassName) {
 
+        try {
             Class<?> pipelineInputsOutputsClass = Class.forName(fullyQualifiedClassName);
             if (PipelineInputs.class.isAssignableFrom(pipelineInputsOutputsClass)) {
                 PipelineInputs p = (PipelineInputs) pipelineInputsOutputsClass.newInstance();
@@ -69,12 +98,41 @@ public final class TaskFileManager {
                 throw new ModuleFatalProcessingException("Class " + fullyQualifiedClassName
                     + " does not implement PipelineInputsOutputs");
             }
-            System.exit(0);
+            return 0;
         } catch (Throwable t) {
             System.out.println("ERROR: TaskFileManager execution failed, stack trace follows");
             t.printStackTrace();
-            System.exit(1);
+            return 1;
         }
     }
 
+    /**
+     * Serves requests from standard input until it is closed. The working directory for each
+     * request is set via the user.dir property, which is what
+     * {@link gov.nasa.ziggy.services.config.DirectoryProperties#workingDir()} uses. Setting the
+     * property does not change the directory against which the JVM resolves relative paths, so
+     * the inputs and outputs classes resolve all of their files against
+     * {@link gov.nasa.ziggy.services.config.DirectoryProperties#workingDir()}.
+     */
+    private static int serve() {
+
+        // Standard output is reserved for status lines.
+        PrintStream statusStream = System.out;
+        System.setOut(System.err);
+        try (BufferedReader requests = new BufferedReader(
+            new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+            String request;
+            while ((request = requests.readLine()) != null) {
+                String[] fields = request.split("\t");
+                System.setProperty(PropertyNames.CURRENT_DIR_PROP_NAME, fields[0]);
+                int status = run(fields[1]);
+                statusStream.println(STATUS_PREFIX + status);
+                statusStream.flush();
+            }
+            return 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
 }
@@ -0,0 +1,319 @@
+package gov.nasa.ziggy.module;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.nasa.ziggy.services.config.DirectoryProperties;
+
+/**
+ * Pool of long-lived helper processes that run {@link TaskFileManager} requests.
+ * <p>
+ * Starting a JVM for each subtask's inputs and outputs processing keeps libraries that do not
+ * support concurrency, such as HDF5, isolated in their own processes, but the startup and class
+ * loading costs are paid twice per subtask. The helpers in this pool preserve the isolation: each
+ * helper is a separate JVM that processes one request at a time, but a helper processes many
+ * requests, so the startup costs are paid once per helper.
+ * <p>
+ * Helpers are started when first needed. A helper that exits while processing a request, or that
+ * does not complete a request within the timeout, is reported as a failure of that request; a
+ * helper that timed out is killed. In either case a new helper is started in its place for the next
+ * request.
+ * <p>
+ * A helper process keeps the working directory that it was started in, so the inputs and outputs
+ * classes must resolve their files against {@link DirectoryProperties#workingDir()}, which is set to
+ * the subtask directory for each request, rather than use relative paths.
+ *
+ * @author PT
+ */
+public class TaskFileManagerPool {
+    private static final Logger log = LoggerFactory.getLogger(TaskFileManagerPool.class);
+
+    /** Status returned for a request whose helper exited before completing it. */
+    public static final int HELPER_FAILED = -1;
+
+    /** Default maximum time for a single request. */
+    public static final long DEFAULT_TIMEOUT_SECONDS = 3600;
+
+    private static final long SHUTDOWN_WAIT_MILLIS = 5000;
+
+    // Marks the end of a helper's standard output in its queue of output lines.
+    private static final String END_OF_OUTPUT = new String("end of output");
+
+    private static TaskFileManagerPool instance;
+
+    private final List<String> command;
+    private final Map<String, String> environment;
+    private final long timeoutMillis;
+    private final BlockingQueue<Helper> idleHelpers;
+    private final List<Helper> helpers = new ArrayList<>();
+    private final AtomicInteger startCount = new AtomicInteger();
+
+    /**
+     * @param command command that starts a helper, i.e., one that runs
+     * {@link TaskFileManager#main(String[])} with the {@link TaskFileManager#SERVE_OPTION}
+     * argument.
+     * @param environment environment for the helpers.
+     * @param size number of helpers.
+     */
+    TaskFileManagerPool(List<String> command, Map<String, String> environment, int size) {
+        this(command, environment, size, TimeUnit.SECONDS.toMillis(DEFAULT_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * @param timeoutMillis maximum time for a single request, after which the helper is killed.
+     */
+    TaskFileManagerPool(List<String> command, Map<String, String> environment, int size,
+        long timeoutMillis) {
+        this.command = command;
+        this.environment = environment;
+        this.timeoutMillis = timeoutMillis;
+        idleHelpers = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            Helper helper = new Helper(i);
+            helpers.add(helper);
+            idleHelpers.add(helper);
+        }
+    }
+
+    /**
+     * Returns the pool for this JVM, creating it with the specified arguments if necessary. All
+     * subtasks in a JVM belong to the same task, so the pool can be shared by all of them.
+     */
+    static synchronized TaskFileManagerPool getInstance(List<String> command,
+        Map<String, String> environment, int size, long timeoutMillis) {
+        if (instance == null) {
+            log.info("Starting pool of " + size + " TaskFileManager helpers");
+            instance = new TaskFileManagerPool(command, environment, size, timeoutMillis);
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the helpers in the pool for this JVM, if there is one.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Runs an inputs or outputs class in a subtask directory, waiting for a helper to become
+     * available if necessary.
+     *
+     * @return the exit status that {@link TaskFileManager} would have returned, or
+     * {@link #HELPER_FAILED} if the helper exited or timed out before completing the request.
+     */
+    public int execute(File workingDir, Class<?> inputsOutputsClass) throws InterruptedException {
+        Helper helper = idleHelpers.take();
+        try {
+            return helper.execute(workingDir, inputsOutputsClass.getName());
+        } finally {
+            idleHelpers.add(helper);
+        }
+    }
+
+    /**
+     * Returns the number of helper processes started since the pool was created.
+     */
+    public int getStartCount() {
+        return startCount.get();
+    }
+
+    /**
+     * Stops all helpers. Each helper exits when its standard input is closed; any that have not
+     * exited after a short wait are killed.
+     */
+    public void close() {
+        for (Helper helper : helpers) {
+            helper.stop();
+        }
+    }
+
+    /**
+     * A single helper process. Requests are written to the helper's standard input, and status
+     * lines are read from its standard output; all other output is logged. The standard output is
+     * read by a separate thread, so that a request can be abandoned when its deadline passes.
+     */
+    private class Helper {
+
+        private final int helperNumber;
+        private Process process;
+        private Writer requests;
+        private BlockingQueue<String> responses;
+        private volatile String logStreamIdentifier;
+
+        public Helper(int helperNumber) {
+            this.helperNumber = helperNumber;
+        }
+
+        public synchronized int execute(File workingDir, String className)
+            throws InterruptedException {
+            logStreamIdentifier = workingDir.getName();
+            String request = workingDir.getAbsolutePath() + "\t" + className + "\n";
+            try {
+
+                // A helper that has exited since its last request has not started this one, so
+                // it can be replaced and the request sent to its replacement.
+                if (process == null || !process.isAlive()) {
+                    start();
+                }
+                requests.write(request);
+                requests.flush();
+            } catch (IOException e) {
+                log.warn("Unable to send request to TaskFileManager helper " + helperNumber
+                    + ", restarting", e);
+                try {
+                    start();
+                    requests.write(request);
+                    requests.flush();
+                } catch (IOException e1) {
+                    log.error("Unable to start TaskFileManager helper " + helperNumber, e1);
+                    stop();
+                    return HELPER_FAILED;
+                }
+            }
+
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            try {
+                String response;
+                while ((response = nextResponse(deadline)) != END_OF_OUTPUT) {
+                    if (response == null) {
+                        log.error("TaskFileManager helper " + helperNumber + " did not complete "
+                            + className + " in " + workingDir + " within " + timeoutMillis
+                            + " ms, killing it");
+                        kill();
+                        return HELPER_FAILED;
+                    }
+                    if (response.startsWith(TaskFileManager.STATUS_PREFIX)) {
+                        return Integer.parseInt(
+                            response.substring(TaskFileManager.STATUS_PREFIX.length()).trim());
+                    }
+                    logOutput(response);
+                }
+            } catch (NumberFormatException e) {
+                log.error("Unable to read response from TaskFileManager helper " + helperNumber,
+                    e);
+            } catch (InterruptedException e) {
+
+                // The state of the request is unknown, so the helper can't be reused.
+                kill();
+                throw e;
+            }
+            log.error("TaskFileManager helper " + helperNumber + " exited while processing "
+                + className + " in " + workingDir);
+            stop();
+            return HELPER_FAILED;
+        }
+
+        /**
+         * Returns the next line of the helper's standard output, {@link #END_OF_OUTPUT} if the
+         * output has been closed, or null if the deadline passes first.
+         */
+        private String nextResponse(long deadline) throws InterruptedException {
+            long remainingMillis = deadline - System.currentTimeMillis();
+            return remainingMillis > 0 ? responses.poll(remainingMillis, TimeUnit.MILLISECONDS)
+                : responses.poll();
+        }
+
+        private void start() throws IOException {
+            stop();
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.environment().putAll(environment);
+            process = processBuilder.start();
+            startCount.incrementAndGet();
+            log.info("Started TaskFileManager helper " + helperNumber);
+            requests = new OutputStreamWriter(process.getOutputStream(),
+                StandardCharsets.UTF_8);
+            BlockingQueue<String> outputLines = new LinkedBlockingQueue<>();
+            responses = outputLines;
+            InputStream outputStream = process.getInputStream();
+            Thread outputReader = new Thread(() -> readOutputStream(outputStream, outputLines),
+                "TaskFileManager-helper-output-" + helperNumber);
+            outputReader.setDaemon(true);
+            outputReader.start();
+            Thread errorLogger = new Thread(() -> logErrorStream(process.getErrorStream()),
+                "TaskFileManager-helper-" + helperNumber);
+            errorLogger.setDaemon(true);
+            errorLogger.start();
+        }
+
+        private void readOutputStream(InputStream outputStream, BlockingQueue<String> outputLines) {
+            try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(outputStream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    outputLines.add(line);
+                }
+            } catch (IOException e) {
+                log.debug("Output stream of TaskFileManager helper closed", e);
+            } finally {
+                outputLines.add(END_OF_OUTPUT);
+            }
+        }
+
+        private void logErrorStream(InputStream errorStream) {
+            try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(errorStream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    logOutput(line);
+                }
+            } catch (IOException e) {
+                log.debug("Error stream of TaskFileManager helper closed", e);
+            }
+        }
+
+        private void logOutput(String line) {
+            SubtaskUtils.putLogStreamIdentifier(logStreamIdentifier);
+            log.info(line);
+        }
+
+        private void stop() {
+            if (process == null) {
+                return;
+            }
+            try {
+                requests.close();
+                if (!process.waitFor(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (IOException e) {
+                process.destroyForcibly();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+            process = null;
+        }
+
+        /**
+         * Kills the helper without waiting for it to finish its current request.
+         */
+        private void kill() {
+            if (process == null) {
+                return;
+            }
+            process.destroyForcibly();
+            process = null;
+        }
+    }
+}
@@ -49,6 +49,11 @@ public class TaskMonitor {
     }
 
     private SubtaskStateCounts countSubtaskStates() {
+        SubtaskStateCounts journalCounts = AlgorithmStateFiles.journalStateCounts(taskDir);
+        if (journalCounts != null) {
+            return journalCounts;
+        }
+
         SubtaskStateCounts stateCounts = new SubtaskStateCounts();
         if (subtaskDirectories.isEmpty()) {
             log.warn("No subtask directories found in: " + taskDir);
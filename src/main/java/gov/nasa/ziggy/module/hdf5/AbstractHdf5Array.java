@@ -6,7 +6,6 @@ import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_PERSISTABLE;
 import static gov.nasa.ziggy.collections.ZiggyDataType.get1dArrayMember;
 import static gov.nasa.ziggy.collections.ZiggyDataType.getDataType;
 import static gov.nasa.ziggy.collections.ZiggyDataType.set1dArrayMember;
-import static gov.nasa.ziggy.collections.ZiggyDataType.truncateClassName;
 import static hdf.hdf5lib.HDF5Constants.H5P_DEFAULT;
 
 import java.lang.reflect.Field;
@@ -21,6 +20,7 @@ import java.util.List;
 import gov.nasa.ziggy.collections.ZiggyArrayUtils;
 import gov.nasa.ziggy.collections.ZiggyDataType;
 import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.module.hdf5.PersistableSchema.FieldSchema;
 import gov.nasa.ziggy.parameters.ModuleParameters;
 import hdf.hdf5lib.H5;
 import hdf.hdf5lib.HDF5Constants;
@@ -47,6 +47,39 @@ public abstract class AbstractHdf5Array {
     protected boolean scalar;
     protected ReturnAs returnAs = ReturnAs.UNKNOWN;
     protected String fieldName = null;
+    protected Hdf5StorageProfile defaultStorageProfile = Hdf5StorageProfile.DEFAULT;
+
+    /**
+     * Factory method that returns a correct, instantiated object for the object provided as an
+     * argument, which uses the given storage profile (see {@link #withStorageProfile}).
+     */
+    static AbstractHdf5Array newInstance(Object object, Hdf5StorageProfile storageProfile) {
+        return withStorageProfile(newInstance(object), storageProfile);
+    }
+
+    /**
+     * Sets the storage profile used to write and read an array, and the arrays that it creates for
+     * its fields and elements, other than those with an {@link Hdf5Storage} annotation.
+     *
+     * @return the array, or null if the array is null.
+     */
+    static <T extends AbstractHdf5Array> T withStorageProfile(T array,
+        Hdf5StorageProfile storageProfile) {
+        if (array != null) {
+            array.defaultStorageProfile = storageProfile;
+        }
+        return array;
+    }
+
+    /**
+     * Gives an array that this array has created for one of its fields or elements this array's
+     * storage profile.
+     *
+     * @return the member array, or null if it is null.
+     */
+    <T extends AbstractHdf5Array> T member(T array) {
+        return withStorageProfile(array, defaultStorageProfile);
+    }
 
     /**
      * Factory method that returns a correct, instantiated object for the object provided as an
@@ -77,15 +110,22 @@ public abstract class AbstractHdf5Array {
      * correctly for the argument field.
      */
     static AbstractHdf5Array getFieldInstance(Field field) {
+        return getFieldInstance(new FieldSchema(field));
+    }
+
+    /**
+     * Factory method that returns a correct Hdf5Array object provided with the schema of the field
+     * that will eventually be used to store the data in the array.
+     */
+    static AbstractHdf5Array getFieldInstance(FieldSchema fieldSchema) {
         AbstractHdf5Array returnObject = null;
-        ZiggyDataType hdf5Type = getDataType(field);
 
-        if (field.getType().equals(ModuleParameters.class)) {
-            returnObject = new ModuleParametersHdf5Array(field);
-        } else if (hdf5Type.equals(ZIGGY_PERSISTABLE)) {
-            returnObject = new PersistableHdf5Array(field);
+        if (fieldSchema.getField().getType().equals(ModuleParameters.class)) {
+            returnObject = new ModuleParametersHdf5Array(fieldSchema.getField());
+        } else if (fieldSchema.getDataType().equals(ZIGGY_PERSISTABLE)) {
+            returnObject = new PersistableHdf5Array(fieldSchema);
         } else {
-            returnObject = new PrimitiveHdf5Array(field);
+            returnObject = new PrimitiveHdf5Array(fieldSchema);
         }
         return returnObject;
     }
@@ -227,7 +267,7 @@ public abstract class AbstractHdf5Array {
      * @param arrayObject Array of objects that extend Enum or implement Persistable.
      * @return The specific class of object that is present in the array.
      */
-    Class<?> getClassForEnumOrPersistable(Object arrayObject) {
+    static Class<?> getClassForEnumOrPersistable(Object arrayObject) {
         return getClassForEnumOrPersistable(arrayObject.getClass());
     }
 
@@ -239,7 +279,7 @@ public abstract class AbstractHdf5Array {
      * @param field Field from a Persistable object that will ultimately contain the data.
      * @return The class of the data type that the field is designed to contain.
      */
-    Class<?> getClassForEnumOrPersistable(Field field) {
+    static Class<?> getClassForEnumOrPersistable(Field field) {
         Class<?> clazz = field.getType();
         String typeName;
         if (List.class.isAssignableFrom(clazz)) {
@@ -261,14 +301,12 @@ public abstract class AbstractHdf5Array {
      * @param clazz Class of the object or field
      * @return Specific Enum or Persistable class
      */
-    Class<?> getClassForEnumOrPersistable(Class<?> clazz) {
-        String className = clazz.getName();
-        try {
-            return Class.forName(truncateClassName(className));
-        } catch (ClassNotFoundException e) {
-            throw new PipelineException(
-                "Unable to determine data class for object of class: " + className);
+    static Class<?> getClassForEnumOrPersistable(Class<?> clazz) {
+        Class<?> elementClass = clazz;
+        while (elementClass.isArray()) {
+            elementClass = elementClass.getComponentType();
         }
+        return elementClass;
     }
 
     /**
@@ -0,0 +1,537 @@
+package gov.nasa.ziggy.module.hdf5;
+
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_PERSISTABLE;
+import static hdf.hdf5lib.HDF5Constants.H5P_DEFAULT;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import gov.nasa.ziggy.collections.ZiggyNdArray;
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.module.hdf5.AbstractHdf5Array.ReturnAs;
+import gov.nasa.ziggy.module.hdf5.PersistableSchema.FieldSchema;
+import gov.nasa.ziggy.module.io.Persistable;
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+
+/**
+ * Reads the contents of an HDF5 file written by {@link Hdf5ModuleInterface} on demand, rather than
+ * all at once: a single field of the top-level object, a hyper-rectangular region of an array
+ * field, or the elements of an array of Persistable objects one at a time. Only the data that is
+ * requested is read from the file. Instances are obtained from
+ * {@link Hdf5ModuleInterface#openFile(File, boolean)}, and must be closed when they are no longer
+ * needed.
+ * <p>
+ * Fields are identified by paths of field names separated by "/", starting from the top-level
+ * object: for example, {@code "results/flux"} is the flux field of the object in the results field
+ * of the top-level object.
+ *
+ * @author PT
+ */
+public class Hdf5FileReader implements AutoCloseable {
+
+    /**
+     * Number of elements of each field that are read at once when iterating over an array of
+     * Persistable objects that is stored as parallel arrays.
+     */
+    static final long PARALLEL_ARRAY_BLOCK_ELEMENTS = 65536;
+
+    private final File file;
+    private final long fileId;
+    private final boolean allowMissingFields;
+    private final Hdf5StorageProfile storageProfile;
+
+    // groups held open by iterators that have not been exhausted
+    private final Set<Long> iteratorGroupIds = new HashSet<>();
+
+    Hdf5FileReader(File file, boolean allowMissingFields, Hdf5StorageProfile storageProfile) {
+        this.file = file;
+        this.allowMissingFields = allowMissingFields;
+        this.storageProfile = storageProfile;
+        try {
+            fileId = H5.H5Fopen(file.getAbsolutePath(), HDF5Constants.H5F_ACC_RDONLY, H5P_DEFAULT);
+        } catch (HDF5Exception | NullPointerException e) {
+            throw new PipelineException("Unable to open HDF5 file " + file.getName()
+                + " in directory " + file.getParent() + " for reading", e);
+        }
+    }
+
+    /**
+     * Indicates whether the file contains a field.
+     */
+    public boolean hasField(String fieldPath) {
+        StringBuilder path = new StringBuilder();
+        for (String fieldName : fieldNames(fieldPath)) {
+            if (path.length() > 0) {
+                path.append("/");
+            }
+            path.append(fieldName);
+            if (!H5.H5Lexists(fileId, path.toString(), H5P_DEFAULT)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the dimensions of a field that holds an array of primitive values, or of an array of
+     * Persistable objects that is stored with a group per object.
+     */
+    public long[] getDimensions(String fieldPath) {
+        long groupId = openGroup(fieldPath);
+        try {
+            if (H5.H5Aexists(groupId, Hdf5ModuleInterface.OBJECT_ARRAY_DIMS_ATT_NAME)) {
+                return PersistableHdf5Array.readObjectArrayDims(groupId);
+            }
+            String fieldName = fieldName(fieldPath);
+            if (H5.H5Lexists(groupId, fieldName, H5P_DEFAULT)) {
+                return datasetDimensions(groupId, fieldName);
+            }
+            throw new PipelineException(
+                "Unable to determine dimensions of field " + fieldPath + " in " + file.getName());
+        } catch (HDF5Exception e) {
+            throw new PipelineException(
+                "Unable to determine dimensions of field " + fieldPath + " in " + file.getName(),
+                e);
+        } finally {
+            H5.H5Gclose(groupId);
+        }
+    }
+
+    /**
+     * Reads a field into an object of the class that was written to the file. Only the field is
+     * read; the object's other fields are left unchanged, except that any objects on the path to
+     * the field that are null are constructed.
+     *
+     * @param dataObject object of the class of the top-level object in the file.
+     * @param fieldPath path to the field.
+     * @return the object.
+     */
+    public <T extends Persistable> T readField(T dataObject, String fieldPath) {
+        setReadState();
+        String[] fieldNames = fieldNames(fieldPath);
+        Deque<Long> groupIds = new ArrayDeque<>();
+        try {
+            Object object = dataObject;
+            long parentGroupId = fileId;
+            for (int i = 0; i < fieldNames.length; i++) {
+                FieldSchema field = fieldSchema(object.getClass(), fieldNames[i], fieldPath);
+                long groupId = openGroup(parentGroupId, fieldNames[i], fieldPath);
+                groupIds.push(groupId);
+                if (i == fieldNames.length - 1) {
+                    AbstractHdf5Array hdf5Array = withStorageProfile(
+                        AbstractHdf5Array.getFieldInstance(field));
+                    hdf5Array.read(groupId);
+                    field.set(object, hdf5Array.toJava());
+                    break;
+                }
+                if (field.getDataType() != ZIGGY_PERSISTABLE || !field.isScalar()) {
+                    throw new PipelineException("Field " + field.getName() + " in path "
+                        + fieldPath + " does not hold a Persistable object");
+                }
+                Object member = field.get(object);
+                if (member == null) {
+                    member = PersistableSchema.of(field.getField().getType()).newInstance();
+                    field.set(object, member);
+                }
+                object = member;
+                parentGroupId = groupId;
+            }
+        } finally {
+            while (!groupIds.isEmpty()) {
+                H5.H5Gclose(groupIds.pop());
+            }
+        }
+        return dataObject;
+    }
+
+    /**
+     * Reads a field that holds an array of primitive values. The array is returned with the data
+     * type in which it was stored, so fields of boxed values, lists, and scalars are returned as
+     * arrays of primitives, and fields of Enums are returned as arrays of Strings.
+     *
+     * @return the array, or null if the field was written without any contents.
+     */
+    public Object readArray(String fieldPath) {
+        return readArray(fieldPath, null, null);
+    }
+
+    /**
+     * Reads a hyper-rectangular region of a field that holds an array of primitive values. The
+     * region is returned as an array of the size of the region, with the data type in which it was
+     * stored, as in {@link #readArray(String)}.
+     *
+     * @param fieldPath path to the field.
+     * @param offset location of the first element of the region in the array.
+     * @param size size of the region.
+     */
+    public Object readHyperslab(String fieldPath, long[] offset, long[] size) {
+        return readArray(fieldPath, offset, size);
+    }
+
+    /**
+     * Reads a field that holds an array of numeric or boolean values into a {@link ZiggyNdArray},
+     * which must have the dimensions of the field. Values are cast to the data type of the
+     * ZiggyNdArray. Since no nested array is constructed, this allows arrays that are larger than
+     * the Java heap to be read into memory-mapped ZiggyNdArrays.
+     */
+    public void readArray(String fieldPath, ZiggyNdArray destination) {
+        readArray(fieldPath, null, null, destination);
+    }
+
+    /**
+     * Reads a hyper-rectangular region of a field that holds an array of numeric or boolean
+     * values into a {@link ZiggyNdArray}, whose dimensions are the size of the region. Values are
+     * cast to the data type of the ZiggyNdArray.
+     *
+     * @param fieldPath path to the field.
+     * @param offset location of the first element of the region in the array.
+     * @param destination array into which the region is read.
+     */
+    public void readHyperslab(String fieldPath, long[] offset, ZiggyNdArray destination) {
+        readArray(fieldPath, offset, destination.getDimensions(), destination);
+    }
+
+    private Object readArray(String fieldPath, long[] offset, long[] size) {
+        return readArray(fieldPath, offset, size, null);
+    }
+
+    private Object readArray(String fieldPath, long[] offset, long[] size,
+        ZiggyNdArray destination) {
+        setReadState();
+        long groupId = openGroup(fieldPath);
+        try {
+            if (H5.H5Aexists(groupId, Hdf5ModuleInterface.EMPTY_FIELD_ATT_NAME)) {
+                if (destination != null) {
+                    throw new PipelineException(
+                        "Field " + fieldPath + " in " + file.getName() + " has no contents");
+                }
+                return null;
+            }
+            PrimitiveHdf5Array hdf5Array = withStorageProfile(
+                PrimitiveHdf5Array.forReadingArray(groupId, fieldName(fieldPath)));
+            if (offset != null) {
+                hdf5Array.setReadRegion(offset, size);
+            }
+            if (destination != null) {
+                hdf5Array.setReadDestination(destination);
+                hdf5Array.read(groupId);
+                return destination;
+            }
+            hdf5Array.read(groupId);
+            return hdf5Array.toJava();
+        } finally {
+            H5.H5Gclose(groupId);
+        }
+    }
+
+    /**
+     * Returns an iterator over the elements of a field that holds an array or list of Persistable
+     * objects. The elements are returned in row-major order, and each is read from the file when
+     * it is returned, so that only one element, or one block of elements for arrays that are
+     * stored as parallel arrays, is held in memory at a time.
+     *
+     * @param fieldPath path to the field.
+     * @param elementClass class of the elements.
+     */
+    public <T extends Persistable> Iterator<T> elementIterator(String fieldPath,
+        Class<T> elementClass) {
+        setReadState();
+        long groupId = openGroup(fieldPath);
+        try {
+            if (H5.H5Aexists(groupId, Hdf5ModuleInterface.EMPTY_FIELD_ATT_NAME)) {
+                H5.H5Gclose(groupId);
+                return Collections.emptyIterator();
+            }
+            if (H5.H5Aexists(groupId, Hdf5ModuleInterface.PARALLEL_ARRAY_ATT_NAME)) {
+                return new ParallelArrayIterator<>(groupId, fieldPath, elementClass);
+            }
+            if (H5.H5Aexists(groupId, Hdf5ModuleInterface.OBJECT_ARRAY_DIMS_ATT_NAME)) {
+                return new ObjectGroupIterator<>(groupId, fieldPath, elementClass,
+                    PersistableHdf5Array.readObjectArrayDims(groupId));
+            }
+        } catch (HDF5Exception e) {
+            H5.H5Gclose(groupId);
+            throw new PipelineException(
+                "Unable to read field " + fieldPath + " in " + file.getName(), e);
+        }
+        H5.H5Gclose(groupId);
+        throw new PipelineException("Field " + fieldPath + " in " + file.getName()
+            + " does not hold an array of Persistable objects");
+    }
+
+    @Override
+    public void close() {
+        for (long groupId : iteratorGroupIds) {
+            H5.H5Gclose(groupId);
+        }
+        iteratorGroupIds.clear();
+        Hdf5ModuleInterface.testForUnclosedHdf5Objects(fileId);
+        H5.H5Fclose(fileId);
+    }
+
+    /**
+     * Sets the state that {@link Hdf5ModuleInterface} shares with the HDF5 array classes for
+     * reads. The storage profile is not shared; it is given to each array that the reader creates.
+     */
+    private void setReadState() {
+        synchronized (Hdf5ModuleInterface.class) {
+            Hdf5ModuleInterface.allowMissingFields = allowMissingFields;
+        }
+    }
+
+    private <T extends AbstractHdf5Array> T withStorageProfile(T array) {
+        return AbstractHdf5Array.withStorageProfile(array, storageProfile);
+    }
+
+    private static String[] fieldNames(String fieldPath) {
+        String[] fieldNames = fieldPath.split("/");
+        for (String fieldName : fieldNames) {
+            if (fieldName.isEmpty()) {
+                throw new PipelineException("Invalid field path " + fieldPath);
+            }
+        }
+        return fieldNames;
+    }
+
+    private static String fieldName(String fieldPath) {
+        String[] fieldNames = fieldNames(fieldPath);
+        return fieldNames[fieldNames.length - 1];
+    }
+
+    private static FieldSchema fieldSchema(Class<?> clazz, String fieldName, String fieldPath) {
+        for (FieldSchema field : PersistableSchema.of(clazz).fields()) {
+            if (field.getName().equals(fieldName)) {
+                return field;
+            }
+        }
+        throw new PipelineException("Class " + clazz.getName() + " has no field " + fieldName
+            + " in path " + fieldPath);
+    }
+
+    private long openGroup(String fieldPath) {
+        if (!hasField(fieldPath)) {
+            throw new PipelineException("No field " + fieldPath + " in " + file.getName());
+        }
+        return H5.H5Gopen(fileId, fieldPath, H5P_DEFAULT);
+    }
+
+    private long openGroup(long parentGroupId, String groupName, String fieldPath) {
+        if (!H5.H5Lexists(parentGroupId, groupName, H5P_DEFAULT)) {
+            throw new PipelineException("No field " + fieldPath + " in " + file.getName());
+        }
+        return H5.H5Gopen(parentGroupId, groupName, H5P_DEFAULT);
+    }
+
+    private static long[] datasetDimensions(long groupId, String datasetName) {
+        long dataSetId = H5.H5Dopen(groupId, datasetName, H5P_DEFAULT);
+        long dataSpaceId = H5.H5Dget_space(dataSetId);
+        int nDims = H5.H5Sget_simple_extent_ndims(dataSpaceId);
+        long[] dimensions = new long[nDims];
+        long[] maxDimensions = new long[nDims];
+        H5.H5Sget_simple_extent_dims(dataSpaceId, dimensions, maxDimensions);
+        H5.H5Sclose(dataSpaceId);
+        H5.H5Dclose(dataSetId);
+        return dimensions;
+    }
+
+    private static long elementCount(long[] dimensions) {
+        long elementCount = 1;
+        for (long dimension : dimensions) {
+            elementCount *= dimension;
+        }
+        return elementCount;
+    }
+
+    /**
+     * Iterator over the locations of an array of Persistable objects, in row-major order. The
+     * group of the array is held open until the iterator is exhausted or the reader is closed.
+     */
+    private abstract class ElementIterator<T extends Persistable> implements Iterator<T> {
+
+        final long groupId;
+        final String fieldPath;
+        final long[] dimensions;
+        final PersistableSchema schema;
+        final Class<T> elementClass;
+        private long[] location;
+
+        ElementIterator(long groupId, String fieldPath, Class<T> elementClass,
+            long[] dimensions) {
+            this.groupId = groupId;
+            this.fieldPath = fieldPath;
+            this.elementClass = elementClass;
+            this.dimensions = dimensions;
+            schema = PersistableSchema.of(elementClass);
+            iteratorGroupIds.add(groupId);
+            if (elementCount(dimensions) > 0) {
+                location = new long[dimensions.length];
+            } else {
+                closeGroup();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return location != null;
+        }
+
+        @Override
+        public T next() {
+            if (location == null) {
+                throw new NoSuchElementException();
+            }
+            setReadState();
+            T element = elementClass.cast(readElement(location));
+            advance();
+            return element;
+        }
+
+        /**
+         * Reads the element at a location. The location must not be retained.
+         */
+        abstract Object readElement(long[] location);
+
+        private void advance() {
+            for (int i = location.length - 1; i >= 0; i--) {
+                if (++location[i] < dimensions[i]) {
+                    return;
+                }
+                location[i] = 0;
+            }
+            location = null;
+            closeGroup();
+        }
+
+        private void closeGroup() {
+            if (iteratorGroupIds.remove(groupId)) {
+                H5.H5Gclose(groupId);
+            }
+        }
+    }
+
+    /**
+     * Iterator over an array of Persistable objects that is stored with a group per object.
+     */
+    private class ObjectGroupIterator<T extends Persistable> extends ElementIterator<T> {
+
+        private final String fieldName;
+
+        ObjectGroupIterator(long groupId, String fieldPath, Class<T> elementClass,
+            long[] dimensions) {
+            super(groupId, fieldPath, elementClass, dimensions);
+            fieldName = fieldName(fieldPath);
+        }
+
+        @Override
+        Object readElement(long[] location) {
+            String elementGroupName = Hdf5ModuleInterface.getFieldName(fieldName, location);
+            long elementGroupId = openGroup(groupId, elementGroupName, fieldPath);
+            try {
+                Object element = schema.newInstance();
+                withStorageProfile(new PersistableHdf5Array(element))
+                    .readPersistableScalarObject(elementGroupId);
+                return element;
+            } finally {
+                H5.H5Gclose(elementGroupId);
+            }
+        }
+    }
+
+    /**
+     * Iterator over an array of Persistable objects that is stored as parallel arrays, one per
+     * field. The parallel arrays are read in blocks of {@link #PARALLEL_ARRAY_BLOCK_ELEMENTS}
+     * elements, or of one row if a row has more elements than that.
+     */
+    private class ParallelArrayIterator<T extends Persistable> extends ElementIterator<T> {
+
+        private final List<FieldSchema> fields;
+        private final Object[] blockArrays;
+        private long blockStart;
+        private long blockRows;
+
+        ParallelArrayIterator(long groupId, String fieldPath, Class<T> elementClass) {
+            super(groupId, fieldPath, elementClass, parallelArrayDimensions(groupId, elementClass));
+            fields = schema.fields();
+            blockArrays = new Object[fields.size()];
+        }
+
+        @Override
+        Object readElement(long[] location) {
+            if (blockRows == 0 || location[0] >= blockStart + blockRows) {
+                readBlock(location[0]);
+            }
+            long[] blockLocation = location.clone();
+            blockLocation[0] -= blockStart;
+            Object element = schema.newInstance();
+            for (int i = 0; i < fields.size(); i++) {
+                if (blockArrays[i] != null) {
+                    fields.get(i)
+                        .set(element, AbstractHdf5Array.getArrayMember(blockArrays[i],
+                            blockLocation));
+                }
+            }
+            return element;
+        }
+
+        private void readBlock(long start) {
+            long rowElements = elementCount(dimensions) / dimensions[0];
+            blockRows = Math.min(dimensions[0] - start,
+                Math.max(1, PARALLEL_ARRAY_BLOCK_ELEMENTS / rowElements));
+            blockStart = start;
+            long[] offset = new long[dimensions.length];
+            offset[0] = start;
+            long[] size = dimensions.clone();
+            size[0] = blockRows;
+            for (int i = 0; i < fields.size(); i++) {
+                FieldSchema field = fields.get(i);
+                blockArrays[i] = null;
+                if (!H5.H5Lexists(groupId, field.getName(), H5P_DEFAULT)) {
+                    if (!allowMissingFields) {
+                        throw new PipelineException("No field " + fieldPath + "/"
+                            + field.getName() + " in " + file.getName());
+                    }
+                    continue;
+                }
+                long fieldGroupId = H5.H5Gopen(groupId, field.getName(), H5P_DEFAULT);
+                try {
+                    PrimitiveHdf5Array hdf5Array = withStorageProfile(
+                        new PrimitiveHdf5Array(field));
+                    hdf5Array.returnAs = ReturnAs.ARRAY;
+                    hdf5Array.setReadRegion(offset, size);
+                    hdf5Array.read(fieldGroupId);
+                    blockArrays[i] = hdf5Array.toJava();
+                } finally {
+                    H5.H5Gclose(fieldGroupId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the dimensions of an array of Persistable objects that is stored as parallel arrays,
+     * which are those of the parallel array of any of its fields.
+     */
+    private long[] parallelArrayDimensions(long groupId, Class<?> elementClass) {
+        for (FieldSchema field : PersistableSchema.of(elementClass).fields()) {
+            if (H5.H5Lexists(groupId, field.getName(), H5P_DEFAULT)) {
+                long fieldGroupId = H5.H5Gopen(groupId, field.getName(), H5P_DEFAULT);
+                try {
+                    return datasetDimensions(fieldGroupId, field.getName());
+                } finally {
+                    H5.H5Gclose(fieldGroupId);
+                }
+            }
+        }
+        throw new PipelineException("No fields of class " + elementClass.getName()
+            + " in parallel arrays in " + file.getName());
+    }
+}
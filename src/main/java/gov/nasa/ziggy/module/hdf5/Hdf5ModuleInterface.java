@@ -43,9 +43,6 @@ public class Hdf5ModuleInterface {
     // writing the methods as class methods, just in case it proves useful to have
     // configuration parameters that affect the way that files are written or read
 
-    private static final int COMPRESSION_LEVEL = 0;
-    private static final int MIN_COMPRESSION_ELEMENTS = 200;
-
     // max number of bytes that should be read or written in any HDF5 hyperslab
     // to avoid the 2^31 - 8 byte limit (yes, that's a byte limit, not an element
     // limit) -- set to 2 billion here
@@ -73,6 +70,32 @@ public class Hdf5ModuleInterface {
     static boolean missingFieldsDetected = false;
     static boolean createGroupsForMissingFields;
 
+    private Hdf5StorageProfile storageProfile;
+
+    public Hdf5ModuleInterface() {
+        this(Hdf5StorageProfile.DEFAULT);
+    }
+
+    /**
+     * Creates an interface that uses the specified storage profile for the files that it writes
+     * and reads.
+     */
+    public Hdf5ModuleInterface(Hdf5StorageProfile storageProfile) {
+        this.storageProfile = storageProfile;
+    }
+
+    /**
+     * Sets the storage profile used for the files written and read by this instance. Fields with
+     * an {@link Hdf5Storage} annotation use the profile given by the annotation instead.
+     */
+    public void setStorageProfile(Hdf5StorageProfile storageProfile) {
+        this.storageProfile = storageProfile;
+    }
+
+    public Hdf5StorageProfile getStorageProfile() {
+        return storageProfile;
+    }
+
     /**
      * Writes an object that implements the Persistable interface to an HDF5 file.
      *
@@ -96,7 +119,7 @@ public class Hdf5ModuleInterface {
             throw new PipelineException("Unable to create HDF5 file " + file.getName()
                 + " in directory " + file.getParent(), e);
         }
-        AbstractHdf5Array hdf5Array = AbstractHdf5Array.newInstance(dataObject);
+        AbstractHdf5Array hdf5Array = AbstractHdf5Array.newInstance(dataObject, storageProfile);
         hdf5Array.write(fileId, "/");
         try {
             testForUnclosedHdf5Objects(fileId);
@@ -141,28 +164,6 @@ public class Hdf5ModuleInterface {
         return allPrimitiveScalar;
     }
 
-    /**
-     * Construct an HDF5 property for deflation and chunking
-     *
-     * @param elementCount number of array elements, if > MIN_COMPRESSION_ELEMENTS then compression
-     * will be applied
-     * @param chunkSize size of the desired array chunks in HDF5, if null no chunking will be
-     * applied
-     * @return ID for the resulting HDF5 property
-     */
-    static long chunkAndDeflateProperty(long elementCount, long[] chunkSize) {
-        long deflateProperty;
-        // TODO Eliminate dead code, or make COMPRESSION_LEVEL a variable
-        if (elementCount > MIN_COMPRESSION_ELEMENTS && COMPRESSION_LEVEL > 0) {
-            deflateProperty = H5.H5Pcreate(HDF5Constants.H5P_DATASET_CREATE);
-            H5.H5Pset_chunk(deflateProperty, chunkSize.length, chunkSize);
-            H5.H5Pset_deflate(deflateProperty, COMPRESSION_LEVEL);
-        } else {
-            deflateProperty = H5.H5Pcopy(HDF5Constants.H5P_DEFAULT);
-        }
-        return deflateProperty;
-    }
-
     /**
      * Add an attribute to a group that contains the data type stored in the group
      *
@@ -216,7 +217,7 @@ public class Hdf5ModuleInterface {
             throw new PipelineException("Unable to open HDF5 file " + file.getName()
                 + " in directory " + file.getParent() + " for reading", e);
         }
-        AbstractHdf5Array hdf5Array = AbstractHdf5Array.newInstance(dataObject);
+        AbstractHdf5Array hdf5Array = AbstractHdf5Array.newInstance(dataObject, storageProfile);
         hdf5Array.read(fileId);
         try {
             testForUnclosedHdf5Objects(fileId);
@@ -229,6 +230,19 @@ public class Hdf5ModuleInterface {
         return missingFieldsDetected;
     }
 
+    /**
+     * Opens an HDF5 file for reading individual fields, regions of array fields, or elements of
+     * arrays of Persistable objects on demand, rather than reading the entire file at once with
+     * {@link #readFile(File, Persistable, boolean)}. The returned reader must be closed.
+     *
+     * @param file desired source file
+     * @param allowMissingFields if true, fields of Persistable objects that are missing from the
+     * file are left unchanged rather than causing an exception.
+     */
+    public Hdf5FileReader openFile(File file, boolean allowMissingFields) {
+        return new Hdf5FileReader(file, allowMissingFields, storageProfile);
+    }
+
     static ZiggyDataType readDataTypeAttribute(long fieldGroupId, String fieldName) {
         ZiggyDataType ziggyDataType = null;
         try {
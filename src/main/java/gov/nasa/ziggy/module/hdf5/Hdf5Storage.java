@@ -0,0 +1,42 @@
+package gov.nasa.ziggy.module.hdf5;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation sets how the annotated field of a Persistable class is stored in HDF5: the shape
+ * of its chunks, the filters applied to them, and the chunk cache used when it is written and read.
+ * It replaces the {@link Hdf5StorageProfile} of the {@link Hdf5ModuleInterface} for that field
+ * only. It applies to fields that hold numeric, boolean, String, or Enum values, including the
+ * fields of a Persistable class that are written as parallel arrays; it has no effect on fields
+ * that hold Persistable objects.
+ *
+ * @author PT
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+@Documented
+public @interface Hdf5Storage {
+
+    /**
+     * Shape of the chunks, which must have one element per dimension of the field. Dimensions of
+     * the chunk that are larger than those of the array are reduced to fit. If empty, the shape is
+     * chosen from the dimensions of the array.
+     */
+    long[] chunkShape() default {};
+
+    /** Level of deflate compression, from 1 to 9, or 0 for no compression. */
+    int deflateLevel() default 0;
+
+    /** Indicates whether the bytes of the values are shuffled before they are compressed. */
+    boolean shuffle() default false;
+
+    /** Indicates whether a Fletcher32 checksum is stored with each chunk. */
+    boolean fletcher32() default false;
+
+    /** Size in bytes of the raw data chunk cache, or 0 for the HDF5 default. */
+    long chunkCacheBytes() default 0;
+}
@@ -0,0 +1,315 @@
+package gov.nasa.ziggy.module.hdf5;
+
+import static hdf.hdf5lib.HDF5Constants.H5P_DEFAULT;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.apache.commons.configuration.Configuration;
+
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+
+/**
+ * Determines how arrays are stored in the datasets of an HDF5 file: whether they are stored
+ * contiguously or in chunks, the shape of the chunks, the filters (byte shuffle, deflate
+ * compression, and Fletcher32 checksums) applied to the chunks, and the size of the raw data chunk
+ * cache used when the datasets are written and read.
+ * <p>
+ * Arrays are chunked if a chunk shape is given or if any filter is used, unless they have no more
+ * than {@link #MIN_CHUNKED_ELEMENTS} elements, in which case they are always stored contiguously.
+ * If no chunk shape is given, the chunks keep the trailing dimensions of the array whole, as far as
+ * possible, and are no larger than the chunk size. The {@link #DEFAULT} profile stores all arrays
+ * contiguously and without filters.
+ * <p>
+ * The profile used for the files of a pipeline module is set by the pipeline properties described
+ * in {@link #forModule(String)}. The profile of an individual field of a Persistable class is set
+ * by the {@link Hdf5Storage} annotation.
+ *
+ * @author PT
+ */
+public final class Hdf5StorageProfile {
+
+    /** Arrays with no more elements than this are always stored contiguously. */
+    public static final long MIN_CHUNKED_ELEMENTS = 200;
+
+    /** Default size of chunks whose shape is chosen from the dimensions of the array. */
+    public static final long DEFAULT_CHUNK_BYTES = 1024 * 1024;
+
+    /** Size in the file of a reference to a variable-length String. */
+    static final int VARIABLE_LENGTH_ELEMENT_BYTES = 16;
+
+    private static final long MIN_CHUNK_CACHE_SLOTS = 521;
+    private static final long BYTES_PER_KILOBYTE = 1024;
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    /** Contiguous storage without filters. */
+    public static final Hdf5StorageProfile DEFAULT = new Builder().build();
+
+    private final long[] chunkShape;
+    private final long chunkBytes;
+    private final int deflateLevel;
+    private final boolean shuffle;
+    private final boolean fletcher32;
+    private final long chunkCacheBytes;
+
+    private Hdf5StorageProfile(Builder builder) {
+        chunkShape = builder.chunkShape;
+        chunkBytes = builder.chunkBytes;
+        deflateLevel = builder.deflateLevel;
+        shuffle = builder.shuffle;
+        fletcher32 = builder.fletcher32;
+        chunkCacheBytes = builder.chunkCacheBytes;
+    }
+
+    /**
+     * Returns the storage profile for the files of a pipeline module. The profile is set by the
+     * following pipeline properties, each of which can be overridden for a single module by a
+     * property with the module name appended, for example
+     * {@code hdf5.storage.deflateLevel.my-module}:
+     * <ul>
+     * <li>{@code hdf5.storage.deflateLevel}: deflate compression level, 0 (default) to 9;
+     * <li>{@code hdf5.storage.shuffle}: shuffle bytes before compression (default false);
+     * <li>{@code hdf5.storage.fletcher32}: store Fletcher32 checksums (default false);
+     * <li>{@code hdf5.storage.chunkKilobytes}: size of chunks (default 1024);
+     * <li>{@code hdf5.storage.chunkCacheMegabytes}: size of the raw data chunk cache, 0 (default)
+     * for the HDF5 default.
+     * </ul>
+     */
+    public static Hdf5StorageProfile forModule(String moduleName) {
+        Configuration config = ZiggyConfiguration.getInstance();
+        return new Builder()
+            .deflateLevel(config.getInt(
+                moduleProperty(config, PropertyNames.HDF5_DEFLATE_LEVEL_PROP_NAME, moduleName), 0))
+            .shuffle(config.getBoolean(
+                moduleProperty(config, PropertyNames.HDF5_SHUFFLE_PROP_NAME, moduleName), false))
+            .fletcher32(config.getBoolean(
+                moduleProperty(config, PropertyNames.HDF5_FLETCHER32_PROP_NAME, moduleName), false))
+            .chunkBytes(config.getLong(
+                moduleProperty(config, PropertyNames.HDF5_CHUNK_KILOBYTES_PROP_NAME, moduleName),
+                DEFAULT_CHUNK_BYTES / BYTES_PER_KILOBYTE) * BYTES_PER_KILOBYTE)
+            .chunkCacheBytes((long) (config.getDouble(
+                moduleProperty(config, PropertyNames.HDF5_CHUNK_CACHE_MEGABYTES_PROP_NAME,
+                    moduleName),
+                0) * BYTES_PER_MEGABYTE))
+            .build();
+    }
+
+    private static String moduleProperty(Configuration config, String propertyName,
+        String moduleName) {
+        String modulePropertyName = propertyName + "." + moduleName;
+        return config.containsKey(modulePropertyName) ? modulePropertyName : propertyName;
+    }
+
+    /**
+     * Returns the storage profile given by an {@link Hdf5Storage} annotation.
+     */
+    static Hdf5StorageProfile of(Hdf5Storage storage) {
+        Builder builder = new Builder().deflateLevel(storage.deflateLevel())
+            .shuffle(storage.shuffle())
+            .fletcher32(storage.fletcher32())
+            .chunkCacheBytes(storage.chunkCacheBytes());
+        if (storage.chunkShape().length > 0) {
+            builder.chunkShape(storage.chunkShape());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Indicates whether an array with the given number of elements is stored in chunks.
+     */
+    public boolean isChunked(long elementCount) {
+        return elementCount > MIN_CHUNKED_ELEMENTS
+            && (chunkShape != null || deflateLevel > 0 || shuffle || fletcher32);
+    }
+
+    /**
+     * Returns the shape of the chunks of an array.
+     *
+     * @param arraySize dimensions of the array.
+     * @param elementBytes size of each element of the array in the file.
+     */
+    public long[] chunkShape(long[] arraySize, int elementBytes) {
+        long[] shape = new long[arraySize.length];
+        if (chunkShape != null) {
+            if (chunkShape.length != arraySize.length) {
+                throw new PipelineException("Chunk shape " + Arrays.toString(chunkShape)
+                    + " does not match array size " + Arrays.toString(arraySize));
+            }
+            for (int i = 0; i < shape.length; i++) {
+                shape[i] = Math.max(1, Math.min(chunkShape[i], arraySize[i]));
+            }
+            return shape;
+        }
+
+        // Working from the last dimension, which varies fastest in the file, take as much of each
+        // dimension as fits in the chunk size.
+        long maxElements = Math.max(1, chunkBytes / Math.max(1, elementBytes));
+        long innerElements = 1;
+        for (int i = shape.length - 1; i >= 0; i--) {
+            shape[i] = Math.max(1, Math.min(arraySize[i], maxElements / innerElements));
+            innerElements *= shape[i];
+        }
+        return shape;
+    }
+
+    /**
+     * Returns a new HDF5 dataset creation property list for an array. The caller is responsible for
+     * closing it.
+     *
+     * @param arraySize dimensions of the array.
+     * @param elementBytes size of each element of the array in the file.
+     */
+    long datasetCreationProperty(long[] arraySize, int elementBytes) {
+        long elementCount = 1;
+        for (long size : arraySize) {
+            elementCount *= size;
+        }
+        if (!isChunked(elementCount)) {
+            return H5.H5Pcopy(H5P_DEFAULT);
+        }
+        long property = H5.H5Pcreate(HDF5Constants.H5P_DATASET_CREATE);
+        long[] shape = chunkShape(arraySize, elementBytes);
+        H5.H5Pset_chunk(property, shape.length, shape);
+
+        // Filters are applied in the order in which they are set: the shuffle must precede the
+        // compression, and the checksum is computed on the compressed chunk.
+        if (shuffle) {
+            H5.H5Pset_shuffle(property);
+        }
+        if (deflateLevel > 0) {
+            H5.H5Pset_deflate(property, deflateLevel);
+        }
+        if (fletcher32) {
+            H5.H5Pset_fletcher32(property);
+        }
+        return property;
+    }
+
+    /**
+     * Returns an HDF5 dataset access property list that sets the chunk cache size, or
+     * {@link HDF5Constants#H5P_DEFAULT} if the HDF5 default is used. The property list must be
+     * closed with {@link #closeProperty(long)}.
+     */
+    long datasetAccessProperty() {
+        if (chunkCacheBytes <= 0) {
+            return H5P_DEFAULT;
+        }
+        long property = H5.H5Pcreate(HDF5Constants.H5P_DATASET_ACCESS);
+        H5.H5Pset_chunk_cache(property, chunkCacheSlots(), chunkCacheBytes,
+            HDF5Constants.H5D_CHUNK_CACHE_W0_DEFAULT);
+        return property;
+    }
+
+    static void closeProperty(long property) {
+        if (property != H5P_DEFAULT) {
+            H5.H5Pclose(property);
+        }
+    }
+
+    /**
+     * Returns the number of hash table slots in the chunk cache. HDF5 recommends a prime number
+     * about 100 times the number of chunks that fit in the cache.
+     */
+    long chunkCacheSlots() {
+        long slots = Math.max(MIN_CHUNK_CACHE_SLOTS, 100 * (chunkCacheBytes / chunkBytes));
+        return BigInteger.valueOf(slots).nextProbablePrime().longValue();
+    }
+
+    public long[] getChunkShape() {
+        return chunkShape == null ? null : chunkShape.clone();
+    }
+
+    public long getChunkBytes() {
+        return chunkBytes;
+    }
+
+    public int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+    public boolean isShuffle() {
+        return shuffle;
+    }
+
+    public boolean isFletcher32() {
+        return fletcher32;
+    }
+
+    public long getChunkCacheBytes() {
+        return chunkCacheBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "chunkShape=" + (chunkShape == null ? "auto" : Arrays.toString(chunkShape))
+            + ", chunkBytes=" + chunkBytes + ", deflateLevel=" + deflateLevel + ", shuffle="
+            + shuffle + ", fletcher32=" + fletcher32 + ", chunkCacheBytes=" + chunkCacheBytes;
+    }
+
+    /**
+     * Builder for {@link Hdf5StorageProfile} instances. The defaults are those of
+     * {@link Hdf5StorageProfile#DEFAULT}.
+     */
+    public static class Builder {
+
+        private long[] chunkShape;
+        private long chunkBytes = DEFAULT_CHUNK_BYTES;
+        private int deflateLevel;
+        private boolean shuffle;
+        private boolean fletcher32;
+        private long chunkCacheBytes;
+
+        public Builder chunkShape(long[] chunkShape) {
+            for (long size : chunkShape) {
+                if (size <= 0) {
+                    throw new PipelineException(
+                        "Invalid chunk shape " + Arrays.toString(chunkShape));
+                }
+            }
+            this.chunkShape = chunkShape.clone();
+            return this;
+        }
+
+        public Builder chunkBytes(long chunkBytes) {
+            if (chunkBytes <= 0) {
+                throw new PipelineException("Invalid chunk size " + chunkBytes);
+            }
+            this.chunkBytes = chunkBytes;
+            return this;
+        }
+
+        public Builder deflateLevel(int deflateLevel) {
+            if (deflateLevel < 0 || deflateLevel > 9) {
+                throw new PipelineException("Invalid deflate level " + deflateLevel);
+            }
+            this.deflateLevel = deflateLevel;
+            return this;
+        }
+
+        public Builder shuffle(boolean shuffle) {
+            this.shuffle = shuffle;
+            return this;
+        }
+
+        public Builder fletcher32(boolean fletcher32) {
+            this.fletcher32 = fletcher32;
+            return this;
+        }
+
+        public Builder chunkCacheBytes(long chunkCacheBytes) {
+            if (chunkCacheBytes < 0) {
+                throw new PipelineException("Invalid chunk cache size " + chunkCacheBytes);
+            }
+            this.chunkCacheBytes = chunkCacheBytes;
+            return this;
+        }
+
+        public Hdf5StorageProfile build() {
+            return new Hdf5StorageProfile(this);
+        }
+    }
+}
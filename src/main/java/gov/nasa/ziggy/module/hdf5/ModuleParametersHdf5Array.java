@@ -110,7 +110,8 @@ public class ModuleParametersHdf5Array extends AbstractHdf5Array {
             // first the easy case: a classed Parameters instance, all that needs to happen
             // is that the field name needs to be changed to the Java class simple name
             if (!(parametersInstance instanceof DefaultParameters)) {
-                AbstractHdf5Array hdf5Array = AbstractHdf5Array.newInstance(parametersInstance);
+                AbstractHdf5Array hdf5Array = member(
+                    AbstractHdf5Array.newInstance(parametersInstance));
                 hdf5Array.setFieldName(parametersInstance.getClass().getSimpleName());
                 parametersInstanceGroupId = H5.H5Gcreate(fieldGroupId, hdf5Array.getFieldName(),
                     H5P_DEFAULT, H5P_DEFAULT, H5P_DEFAULT);
@@ -184,7 +185,7 @@ public class ModuleParametersHdf5Array extends AbstractHdf5Array {
         // whitespace replaced.
         String parName = typedProperty.getName().replace(" ", "_");
         Object parValue = typedProperty.getValueAsArray();
-        AbstractHdf5Array parArray = AbstractHdf5Array.newInstance(parValue);
+        AbstractHdf5Array parArray = member(AbstractHdf5Array.newInstance(parValue));
         parArray.setFieldName(parName);
         long typedParGroupId = H5.H5Gcreate(parametersInstanceGroupId, parName, H5P_DEFAULT,
             H5P_DEFAULT, H5P_DEFAULT);
@@ -230,8 +231,8 @@ public class ModuleParametersHdf5Array extends AbstractHdf5Array {
 
                 // We need to instantiate an HDF5 array, but we don't care about the class as long
                 // as it's a subclass of Parameters
-                PersistableHdf5Array persistableHdf5Array = PersistableHdf5Array
-                    .forReadingModuleParameterSet();
+                PersistableHdf5Array persistableHdf5Array = member(
+                    PersistableHdf5Array.forReadingModuleParameterSet());
                 persistableHdf5Array.read(parameterSetGroupId);
                 parameterSets.add((Parameters) persistableHdf5Array.toJava());
             } else {
@@ -245,8 +246,8 @@ public class ModuleParametersHdf5Array extends AbstractHdf5Array {
                 for (String parameterName : parameterNames) {
                     long parameterGroupId = H5.H5Gopen(parameterSetGroupId, parameterName,
                         H5P_DEFAULT);
-                    PrimitiveHdf5Array primitiveHdf5Array = PrimitiveHdf5Array
-                        .forReadingDefaultParameters(parameterGroupId, parameterName);
+                    PrimitiveHdf5Array primitiveHdf5Array = member(PrimitiveHdf5Array
+                        .forReadingDefaultParameters(parameterGroupId, parameterName));
                     primitiveHdf5Array.read(parameterGroupId);
                     boolean scalar = H5.H5Aexists(parameterGroupId,
                         Hdf5ModuleInterface.SCALAR_PARAMETER_ATT_NAME);
@@ -2,14 +2,10 @@ package gov.nasa.ziggy.module.hdf5;
 
 import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_BYTE;
 import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_LONG;
-import static gov.nasa.ziggy.collections.ZiggyDataType.getDataType;
 import static hdf.hdf5lib.HDF5Constants.H5P_DEFAULT;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -17,11 +13,10 @@ import java.util.List;
 import gov.nasa.ziggy.collections.ZiggyArrayUtils;
 import gov.nasa.ziggy.collections.ZiggyDataType;
 import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.module.hdf5.PersistableSchema.FieldSchema;
 import gov.nasa.ziggy.module.io.Persistable;
-import gov.nasa.ziggy.module.io.ProxyIgnore;
 import gov.nasa.ziggy.parameters.DefaultParameters;
 import gov.nasa.ziggy.parameters.Parameters;
-import gov.nasa.ziggy.util.ReflectionUtils;
 import hdf.hdf5lib.H5;
 import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.exceptions.HDF5Exception;
@@ -49,10 +44,18 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
      * constructor is package-private
      */
     PersistableHdf5Array(Field field) {
-        super(field);
+        this(new FieldSchema(field));
+    }
+
+    /**
+     * Instantiate an object for extraction of data from HDF5, given the schema of the field that
+     * will receive the data.
+     */
+    PersistableHdf5Array(FieldSchema fieldSchema) {
+        super(fieldSchema.getField());
 
         // capture the actual class of the Persistable field
-        auxiliaryClass = getClassForEnumOrPersistable(field);
+        auxiliaryClass = fieldSchema.getElementClass();
         detectPrimitiveScalarFields();
     }
 
@@ -86,12 +89,7 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
      * Persistable, but rather a primitive, String, or Enum object, or a boxed primitive."
      */
     void detectPrimitiveScalarFields() {
-        List<Field> fields = ReflectionUtils.getAllFields(auxiliaryClass, false);
-        if (!Parameters.class.isAssignableFrom(auxiliaryClass)) {
-            allFieldsPrimitiveScalar = Hdf5ModuleInterface.allFieldsParallelizable(fields);
-        } else {
-            allFieldsPrimitiveScalar = false;
-        }
+        allFieldsPrimitiveScalar = PersistableSchema.of(auxiliaryClass).allFieldsPrimitiveScalar();
     }
 
     /**
@@ -332,28 +330,25 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
         if (dataObject instanceof Parameters) {
             setParameterClassNameAttribute(fileId, clazz);
         }
-        List<Field> fields = ReflectionUtils.getAllFields(clazz, false);
 
         // loop over fields
         int iField = 0;
-        for (Field field : fields) {
-
-            if (field.getAnnotation(ProxyIgnore.class) != null
-                || Modifier.isStatic(field.getModifiers())) {
-                continue;
-            }
-            field.setAccessible(true);
+        for (FieldSchema field : PersistableSchema.of(clazz).fields()) {
 
             try {
                 // every field gets its own group, with a group order attribute
 
                 // convert the field's contents to an appropriate HDF5 array object
-                AbstractHdf5Array persistableField = AbstractHdf5Array
-                    .newInstance(field.get(dataObject));
+                AbstractHdf5Array persistableField = member(
+                    AbstractHdf5Array.newInstance(field.get(dataObject)));
                 if (!Hdf5ModuleInterface.createGroupsForMissingFields
                     && (persistableField == null || persistableField.getArrayObject() == null)) {
                     continue;
                 }
+                if (persistableField instanceof PrimitiveHdf5Array) {
+                    ((PrimitiveHdf5Array) persistableField).storageProfile = field
+                        .getStorageProfile();
+                }
 
                 long fieldGroupId = H5.H5Gcreate(fileId, field.getName(), H5P_DEFAULT, H5P_DEFAULT,
                     H5P_DEFAULT);
@@ -389,8 +384,7 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
                     groupIds.addAll(newGroupIds);
                 }
                 H5.H5Gclose(fieldGroupId);
-            } catch (NullPointerException | HDF5Exception | IllegalArgumentException
-                | IllegalAccessException e) {
+            } catch (NullPointerException | HDF5Exception | IllegalArgumentException e) {
                 throw new PipelineException(
                     "Unable to write Persistable scalar " + field.getName() + " to HDF5 group", e);
             }
@@ -498,8 +492,8 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
                 long subGroupId = H5.H5Gcreate(fieldGroupId, newFieldName, H5P_DEFAULT, H5P_DEFAULT,
                     H5P_DEFAULT);
                 subGroupIds.add(subGroupId);
-                PersistableHdf5Array persistableObject = new PersistableHdf5Array(
-                    getArrayMember(arrayLocation));
+                PersistableHdf5Array persistableObject = member(
+                    new PersistableHdf5Array(getArrayMember(arrayLocation)));
                 subGroupIds.addAll(persistableObject.write(subGroupId, newFieldName));
 
                 H5.H5Gclose(subGroupId);
@@ -538,14 +532,8 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
 
         Object[] dataArray = (Object[]) arrayObject;
         Object dataObject = dataArray[0];
-        List<Field> fields = ReflectionUtils.getAllFields(getAuxiliaryClass(), false);
-        for (Field field : fields) {
-
-            if (field.getAnnotation(ProxyIgnore.class) != null) {
-                continue;
-            }
+        for (FieldSchema field : PersistableSchema.of(getAuxiliaryClass()).fields()) {
 
-            field.setAccessible(true);
             long fieldGroupId;
 
             // If the field doesn't have a corresponding group in the HDF5
@@ -559,16 +547,12 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
 
             // Build an appropriate object to capture the data
 
-            AbstractHdf5Array persistableField = AbstractHdf5Array.newInstance(field);
+            AbstractHdf5Array persistableField = member(AbstractHdf5Array.getFieldInstance(field));
 
             // go get the data
 
             persistableField.read(fieldGroupId);
-            try {
-                field.set(dataObject, persistableField.toJava());
-            } catch (IllegalArgumentException | IllegalAccessException e1) {
-                throw new PipelineException("Unable to set field " + field.getName(), e1);
-            }
+            field.set(dataObject, persistableField.toJava());
             try {
                 H5.H5Gclose(fieldGroupId);
             } catch (HDF5LibraryException e) {
@@ -616,12 +600,12 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
         if (areAllFieldsPrimitiveScalar()
             && H5.H5Aexists(fieldGroupId, Hdf5ModuleInterface.PARALLEL_ARRAY_ATT_NAME)) {
 
-            List<Field> allFields = ReflectionUtils.getAllFields(getAuxiliaryClass(), false);
+            List<FieldSchema> allFields = PersistableSchema.of(getAuxiliaryClass()).fields();
 
             // load the primitive arrays from the file
             List<PrimitiveHdf5Array> primitiveHdf5Arrays = new ArrayList<>();
-            for (Field field : allFields) {
-                PrimitiveHdf5Array primitiveHdf5Array = new PrimitiveHdf5Array(field);
+            for (FieldSchema field : allFields) {
+                PrimitiveHdf5Array primitiveHdf5Array = member(new PrimitiveHdf5Array(field));
                 primitiveHdf5Array.returnAs = ReturnAs.ARRAY;
                 long primitiveGroupId = openGroupIfPresent(fieldGroupId, field.getName());
                 if (primitiveGroupId == -1) {
@@ -649,17 +633,7 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
 
             try {
                 // get the dimensions
-                long attributeId = H5.H5Aopen(fieldGroupId,
-                    Hdf5ModuleInterface.OBJECT_ARRAY_DIMS_ATT_NAME, H5P_DEFAULT);
-                long dataSpaceId = H5.H5Aget_space(attributeId);
-                int nDims = H5.H5Sget_simple_extent_ndims(dataSpaceId);
-                long[] dims = new long[nDims];
-                long[] maxDims = new long[nDims];
-                H5.H5Sget_simple_extent_dims(dataSpaceId, dims, maxDims);
-                long[] persistableDims = new long[(int) dims[0]];
-                H5.H5Aread(attributeId, ZIGGY_LONG.getHdf5Type(), persistableDims);
-                H5.H5Sclose(dataSpaceId);
-                H5.H5Aclose(attributeId);
+                long[] persistableDims = readObjectArrayDims(fieldGroupId);
 
                 // Note that the group can be present, but the contents can be
                 // null! This is the case if the writing application's equivalent
@@ -685,7 +659,7 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
                     } else {
                         newObject = newPersistableObject();
                     }
-                    PersistableHdf5Array newArray = new PersistableHdf5Array(newObject);
+                    PersistableHdf5Array newArray = member(new PersistableHdf5Array(newObject));
                     newArray.readPersistableScalarObject(subGroupId);
                     setArrayMember(newObject, location);
                     location = nextArrayLocation();
@@ -697,6 +671,27 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
         }
     }
 
+    /**
+     * Reads the dimensions of an array of Persistable objects that is stored with a group per
+     * object.
+     *
+     * @param fieldGroupId HDF5 group of the array.
+     */
+    static long[] readObjectArrayDims(long fieldGroupId) throws HDF5Exception {
+        long attributeId = H5.H5Aopen(fieldGroupId, Hdf5ModuleInterface.OBJECT_ARRAY_DIMS_ATT_NAME,
+            H5P_DEFAULT);
+        long dataSpaceId = H5.H5Aget_space(attributeId);
+        int nDims = H5.H5Sget_simple_extent_ndims(dataSpaceId);
+        long[] dims = new long[nDims];
+        long[] maxDims = new long[nDims];
+        H5.H5Sget_simple_extent_dims(dataSpaceId, dims, maxDims);
+        long[] persistableDims = new long[(int) dims[0]];
+        H5.H5Aread(attributeId, ZIGGY_LONG.getHdf5Type(), persistableDims);
+        H5.H5Sclose(dataSpaceId);
+        H5.H5Aclose(attributeId);
+        return persistableDims;
+    }
+
     String getParameterClassNameFromAttribute(long fieldGroupId) {
         return readStringAttribute(fieldGroupId, Hdf5ModuleInterface.PARAMETER_CLASS_NAME_ATT_NAME);
     }
@@ -708,7 +703,7 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
      * @return new object of the class in auxiliaryClass
      */
     Object newPersistableObject() {
-        return newPersistableObject(auxiliaryClass.getName());
+        return PersistableSchema.of(auxiliaryClass).newInstance();
     }
 
     /**
@@ -717,17 +712,11 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
      */
     Object newPersistableObject(String className) {
         try {
-            @SuppressWarnings("unchecked")
-            Constructor<?> constructor = Class.forName(className).getDeclaredConstructor();
-            constructor.setAccessible(true);
-            return constructor.newInstance();
-        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException
-            | SecurityException | IllegalArgumentException | InvocationTargetException
-            | ClassNotFoundException e) {
+            return PersistableSchema.of(Class.forName(className)).newInstance();
+        } catch (ClassNotFoundException e) {
             throw new PipelineException("Unable to instantiate new object of class " + className,
                 e);
         }
-
     }
 
     /**
@@ -747,15 +736,16 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
             throw new PipelineException("Cannot convert array of objects of class "
                 + auxiliaryClass.getName() + " to parallel arrays");
         }
-        List<Field> allFields = ReflectionUtils.getAllFields(auxiliaryClass, false);
+        List<FieldSchema> allFields = PersistableSchema.of(auxiliaryClass).fields();
         List<PrimitiveHdf5Array> primitiveArrays = new ArrayList<>();
 
         // construct the primitiveHdf5Array objects with the correct dimensions
-        for (Field field : allFields) {
+        for (FieldSchema field : allFields) {
             Object parallelArray = ZiggyArrayUtils.constructFullPrimitiveArray(dimensions,
-                getDataType(field));
-            PrimitiveHdf5Array primitiveArray = new PrimitiveHdf5Array(parallelArray);
+                field.getDataType());
+            PrimitiveHdf5Array primitiveArray = member(new PrimitiveHdf5Array(parallelArray));
             primitiveArray.setFieldName(field.getName());
+            primitiveArray.storageProfile = field.getStorageProfile();
             primitiveArrays.add(primitiveArray);
         }
 
@@ -767,46 +757,30 @@ public class PersistableHdf5Array extends AbstractHdf5Array {
 
             // loop over fields and set the values in the parallel arrays
             for (int i = 0; i < allFields.size(); i++) {
-                Field field = allFields.get(i);
-                PrimitiveHdf5Array primitiveArray = primitiveArrays.get(i);
-                try {
-                    primitiveArray.setArrayMember(field.get(arrayMember), location);
-                } catch (IllegalArgumentException | IllegalAccessException e) {
-                    throw new PipelineException("Unable to convert to parallel arrays", e);
-                }
+                primitiveArrays.get(i).setArrayMember(allFields.get(i).get(arrayMember), location);
             }
         }
 
         return primitiveArrays;
     }
 
-    void forParallelArrays(List<Field> allFields, List<PrimitiveHdf5Array> primitiveArrays) {
+    void forParallelArrays(List<FieldSchema> allFields,
+        List<PrimitiveHdf5Array> primitiveArrays) {
 
         // set dimensions
         setDimensions(primitiveArrays.get(0).getDimensions());
 
-        // make the fields accessible
-        for (Field field : allFields) {
-            field.setAccessible(true);
-        }
-
         // loop over object members
+        PersistableSchema schema = PersistableSchema.of(auxiliaryClass);
         resetArrayLocationCounter();
         long[] location;
         while (arrayIterator.hasNext()) {
             location = arrayIterator.next();
-            Object newObject = newPersistableObject();
+            Object newObject = schema.newInstance();
 
             // loop over fields and populate the object
             for (int i = 0; i < primitiveArrays.size(); i++) {
-                Field field = allFields.get(i);
-                Object value = primitiveArrays.get(i).getArrayMember(location);
-                try {
-                    field.set(newObject, value);
-                } catch (IllegalArgumentException | IllegalAccessException e) {
-                    throw new PipelineException(
-                        "Unable to set field " + field.getName() + " to value " + value, e);
-                }
+                allFields.get(i).set(newObject, primitiveArrays.get(i).getArrayMember(location));
             }
 
             // insert the object into the array
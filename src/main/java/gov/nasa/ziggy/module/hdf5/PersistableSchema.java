@@ -0,0 +1,253 @@
+package gov.nasa.ziggy.module.hdf5;
+
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_ENUM;
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_PERSISTABLE;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import gov.nasa.ziggy.collections.ZiggyArrayUtils;
+import gov.nasa.ziggy.collections.ZiggyDataType;
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.module.io.ProxyIgnore;
+import gov.nasa.ziggy.parameters.Parameters;
+import gov.nasa.ziggy.util.ReflectionUtils;
+
+/**
+ * Serialization schema of a class that is written to or read from HDF5: its persisted fields, in
+ * the order in which they are written, with method handles to get and set them, and a method
+ * handle for its no-argument constructor.
+ * <p>
+ * Schemas are built once per class and cached, so that the reflection needed to find the fields
+ * (including the filtering of static and {@link ProxyIgnore} fields), make them accessible, and
+ * determine their {@link ZiggyDataType}s isn't repeated for every object, or for every member of
+ * an array of objects. The data type of a field is resolved the first time that it's needed,
+ * since the fields of {@link Parameters} classes needn't have a {@link ZiggyDataType}.
+ *
+ * @author PT
+ */
+final class PersistableSchema {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class,
+        Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class,
+        Object.class);
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    private static final ClassValue<PersistableSchema> CACHE = new ClassValue<PersistableSchema>() {
+        @Override
+        protected PersistableSchema computeValue(Class<?> clazz) {
+            return new PersistableSchema(clazz);
+        }
+    };
+
+    private final Class<?> schemaClass;
+    private final List<FieldSchema> fields;
+    private final MethodHandle constructor;
+    private final boolean allFieldsPrimitiveScalar;
+
+    private PersistableSchema(Class<?> schemaClass) {
+        this.schemaClass = schemaClass;
+        List<FieldSchema> fields = new ArrayList<>();
+        for (Field field : ReflectionUtils.getAllFields(schemaClass, false)) {
+            fields.add(new FieldSchema(field));
+        }
+        this.fields = Collections.unmodifiableList(fields);
+        constructor = constructor(schemaClass);
+
+        // Parameters fields are never written as parallel arrays.
+        boolean allPrimitiveScalar = !Parameters.class.isAssignableFrom(schemaClass);
+        for (FieldSchema field : fields) {
+            if (!allPrimitiveScalar) {
+                break;
+            }
+            allPrimitiveScalar = field.getDataType() != ZIGGY_PERSISTABLE && field.isScalar();
+        }
+        allFieldsPrimitiveScalar = allPrimitiveScalar;
+    }
+
+    private static MethodHandle constructor(Class<?> clazz) {
+        if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+            return null;
+        }
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return MethodHandles.lookup()
+                .unreflectConstructor(constructor)
+                .asType(CONSTRUCTOR_TYPE);
+        } catch (ReflectiveOperationException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the schema of a class.
+     */
+    static PersistableSchema of(Class<?> clazz) {
+        return CACHE.get(clazz);
+    }
+
+    /**
+     * Returns the persisted fields of the class, in the order in which they are written.
+     */
+    List<FieldSchema> fields() {
+        return fields;
+    }
+
+    /**
+     * Indicates whether all the persisted fields of the class are primitive scalars, in which case
+     * an array of objects of the class can be written as parallel arrays.
+     */
+    boolean allFieldsPrimitiveScalar() {
+        return allFieldsPrimitiveScalar;
+    }
+
+    /**
+     * Returns a new instance of the class, made with its no-argument constructor.
+     */
+    Object newInstance() {
+        if (constructor == null) {
+            throw new PipelineException(
+                "Unable to instantiate new object of class " + schemaClass.getName());
+        }
+        try {
+            return constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new PipelineException(
+                "Unable to instantiate new object of class " + schemaClass.getName(), e);
+        }
+    }
+
+    /**
+     * Schema of a single persisted field.
+     */
+    static final class FieldSchema {
+
+        private final Field field;
+        private final MethodHandle getter;
+
+        // Null if the field is final and the runtime doesn't allow a setter for it, in which case
+        // the field is set by reflection.
+        private final MethodHandle setter;
+
+        // Null unless the field has an Hdf5Storage annotation.
+        private final Hdf5StorageProfile storageProfile;
+
+        // Resolved on first use; the values are immutable, so racing threads can only store the
+        // same values.
+        private ZiggyDataType dataType;
+        private Boolean boxed;
+        private Class<?> elementClass;
+
+        FieldSchema(Field field) {
+            this.field = field;
+            field.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+            } catch (IllegalAccessException e) {
+                throw new PipelineException("Unable to access field " + field.getName(), e);
+            }
+            setter = setter(lookup, field);
+            Hdf5Storage storage = field.getAnnotation(Hdf5Storage.class);
+            storageProfile = storage != null ? Hdf5StorageProfile.of(storage) : null;
+        }
+
+        private static MethodHandle setter(MethodHandles.Lookup lookup, Field field) {
+            try {
+                return lookup.unreflectSetter(field).asType(SETTER_TYPE);
+            } catch (IllegalAccessException e) {
+                if (!Modifier.isFinal(field.getModifiers())) {
+                    throw new PipelineException("Unable to access field " + field.getName(), e);
+                }
+                return null;
+            }
+        }
+
+        Field getField() {
+            return field;
+        }
+
+        String getName() {
+            return field.getName();
+        }
+
+        /**
+         * Returns the storage profile given by the field's {@link Hdf5Storage} annotation, or null
+         * if it has none.
+         */
+        Hdf5StorageProfile getStorageProfile() {
+            return storageProfile;
+        }
+
+        /**
+         * Indicates whether the field holds a single value rather than an array or list.
+         */
+        boolean isScalar() {
+            Class<?> clazz = field.getType();
+            return !clazz.isArray() && !List.class.isAssignableFrom(clazz);
+        }
+
+        ZiggyDataType getDataType() {
+            if (dataType == null) {
+                dataType = ZiggyDataType.getDataType(field);
+            }
+            return dataType;
+        }
+
+        /**
+         * Indicates whether the field holds boxed rather than primitive values.
+         */
+        boolean isBoxed() {
+            if (boxed == null) {
+                boxed = ZiggyArrayUtils.isBoxedPrimitive(field);
+            }
+            return boxed;
+        }
+
+        /**
+         * Returns the class of the values held by an {@link Enum} or Persistable field, its array
+         * elements, or its list elements.
+         */
+        Class<?> getElementClass() {
+            if (elementClass == null) {
+                ZiggyDataType dataType = getDataType();
+                if (dataType != ZIGGY_ENUM && dataType != ZIGGY_PERSISTABLE) {
+                    throw new PipelineException(
+                        "Field " + field.getName() + " holds neither Enums nor Persistables");
+                }
+                elementClass = AbstractHdf5Array.getClassForEnumOrPersistable(field);
+            }
+            return elementClass;
+        }
+
+        Object get(Object object) {
+            try {
+                return getter.invokeExact(object);
+            } catch (Throwable e) {
+                throw new PipelineException("Unable to get field " + field.getName(), e);
+            }
+        }
+
+        void set(Object object, Object value) {
+            try {
+                if (setter != null) {
+                    setter.invokeExact(object, value);
+                } else {
+                    field.set(object, value);
+                }
+            } catch (Throwable e) {
+                throw new PipelineException(
+                    "Unable to set field " + field.getName() + " to value " + value, e);
+            }
+        }
+    }
+}
@@ -23,7 +23,9 @@ import gov.nasa.ziggy.collections.HyperRectangle;
 import gov.nasa.ziggy.collections.HyperRectangleIterator;
 import gov.nasa.ziggy.collections.ZiggyArrayUtils;
 import gov.nasa.ziggy.collections.ZiggyDataType;
+import gov.nasa.ziggy.collections.ZiggyNdArray;
 import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.module.hdf5.PersistableSchema.FieldSchema;
 import hdf.hdf5lib.H5;
 import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.exceptions.HDF5Exception;
@@ -56,6 +58,22 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
         return p;
     }
 
+    /**
+     * Constructs a PrimitiveHdf5Array that reads an array with no field to receive it. The array is
+     * returned with the data type in which it was stored, except that arrays stored from booleans
+     * are returned as booleans.
+     *
+     * @param groupId HDF5 group of the array.
+     * @param fieldName Name of the HDF5 group.
+     */
+    static final PrimitiveHdf5Array forReadingArray(long groupId, String fieldName) {
+        PrimitiveHdf5Array p = forReadingDefaultParameters(groupId, fieldName);
+
+        // the array is assembled from the hyperslabs that are read
+        p.arrayObject = null;
+        return p;
+    }
+
     /**
      * indicates the data type of the return so that the toJava() method knows whether a cast is
      * needed.
@@ -79,6 +97,23 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
      */
     int nDimensionsToReturn = 0;
 
+    /**
+     * Storage profile of the field, if it has an {@link Hdf5Storage} annotation; otherwise the
+     * storage profile of the {@link Hdf5ModuleInterface} is used.
+     */
+    Hdf5StorageProfile storageProfile = null;
+
+    /**
+     * Offset and size of the region of the dataset to read, or null to read the whole dataset.
+     */
+    private long[] regionOffset = null;
+    private long[] regionSize = null;
+
+    /**
+     * Array into which numeric data is read, or null to read it into a new nested array.
+     */
+    private ZiggyNdArray readDestination = null;
+
     /**
      * Constructs an object from a data object. The type and size of the data is captured, scalars
      * and lists are converted to arrays, arrays are unboxed. All fields related to the storage of
@@ -110,14 +145,25 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
      * object.
      */
     PrimitiveHdf5Array(Field field) {
-        super(field);
+        this(new FieldSchema(field));
+    }
+
+    /**
+     * Construct an object from the schema of a field of a Persistable object. This is equivalent
+     * to constructing from the field itself, but uses the data type information that the schema
+     * has already resolved.
+     */
+    PrimitiveHdf5Array(FieldSchema fieldSchema) {
+        super(fieldSchema.getField());
+        Field field = fieldSchema.getField();
 
         // capture the Hdf5 data type of the return, since it may
         // be necessary to cast the array based on this
-        dataTypeOfReturn = getDataType(field);
+        dataTypeOfReturn = fieldSchema.getDataType();
 
         // determine whether the returned data type needs to be boxed
-        boxReturn = ZiggyArrayUtils.isBoxedPrimitive(field);
+        boxReturn = fieldSchema.isBoxed();
+        storageProfile = fieldSchema.getStorageProfile();
 
         // if we are to return Enums, capture the actual class
         if (dataTypeOfReturn.equals(ZIGGY_ENUM)) {
@@ -171,6 +217,23 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
         return hdf5StorageObject;
     }
 
+    /**
+     * Packages an array of primitives for HDF5 output as a 1-d array in row-major order, cast to
+     * the type that is stored. The HDF5 library can pass a 1-d primitive array straight to the
+     * native library, whereas a multi-dimensional array is converted a row at a time into an
+     * intermediate byte buffer of the full size of the array.
+     *
+     * @param array array to be packaged, must be of the same type as the arrayObject member.
+     * @return 1-d array ready to be stored in HDF5.
+     */
+    Object toHdf5Buffer(Object array) {
+        Object hdf5Buffer = ZiggyArrayUtils.flatten(array);
+        if (!hdf5DataType.equals(dataTypeToSave)) {
+            hdf5Buffer = ZiggyArrayUtils.castArray(hdf5Buffer, dataTypeToSave);
+        }
+        return hdf5Buffer;
+    }
+
     /**
      * Flattens an array of strings in column-major order for storage in HDF5.
      *
@@ -390,6 +453,38 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
         return dataTypeOfReturn;
     }
 
+    /**
+     * Restricts the read to a hyper-rectangular region of the dataset. The array that is read has
+     * the size of the region.
+     *
+     * @param offset location of the first element of the region in the dataset.
+     * @param size size of the region.
+     */
+    void setReadRegion(long[] offset, long[] size) {
+        if (offset.length != size.length) {
+            throw new PipelineException("Region offset " + Arrays.toString(offset)
+                + " and size " + Arrays.toString(size) + " have different lengths");
+        }
+        regionOffset = offset.clone();
+        regionSize = size.clone();
+    }
+
+    /**
+     * Sets an array into which numeric data is read, in place of a new nested array. The array
+     * must have the size of the dataset, or of the region set by
+     * {@link #setReadRegion(long[], long[])}, and values are cast to its data type.
+     */
+    void setReadDestination(ZiggyNdArray readDestination) {
+        this.readDestination = readDestination;
+    }
+
+    /**
+     * Returns the storage profile used to write and read the array.
+     */
+    Hdf5StorageProfile storageProfile() {
+        return storageProfile != null ? storageProfile : defaultStorageProfile;
+    }
+
     @Override
     public ZiggyDataType getDataTypeToSave() {
         return dataTypeToSave;
@@ -405,18 +500,14 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
         // determine array size
         long[] arraySize = getDimensions();
 
-        // determine total # of elements
-        long nElements = 1;
-        for (long iSize : arraySize) {
-            nElements *= iSize;
-        }
-
         try {
             // create data space
             long dataSpace = H5.H5Screate_simple(arraySize.length, arraySize, null);
 
-            // set up compression if desired
-            long deflateProperty;
+            // set up chunking and filters if desired
+            Hdf5StorageProfile profile = storageProfile();
+            long creationProperty;
+            long accessProperty = profile.datasetAccessProperty();
 
             // if the array was originally a boolean array, but is now logical,
             // we need to create an attribute that signals this to future users
@@ -453,9 +544,10 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
             // construct the dataset, write the data, close everything
             long dataset;
             if (getDataTypeToSave() == ZIGGY_STRING) {
-                deflateProperty = Hdf5ModuleInterface.chunkAndDeflateProperty(nElements, arraySize);
+                creationProperty = profile.datasetCreationProperty(arraySize,
+                    Hdf5StorageProfile.VARIABLE_LENGTH_ELEMENT_BYTES);
                 dataset = H5.H5Dcreate(fieldGroupId, fieldName, dataType, dataSpace, H5P_DEFAULT,
-                    deflateProperty, H5P_DEFAULT);
+                    creationProperty, accessProperty);
                 H5.H5Dwrite_VLStrings(dataset, dataType, HDF5Constants.H5S_ALL,
                     HDF5Constants.H5S_ALL, H5P_DEFAULT, (Object[]) toHdf5());
             } else {
@@ -463,10 +555,10 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
                 // here we need to iterate over hyperslabs to stay below the HDF5-Java limit of
                 // 2.2 GB per hyperslab
                 PrimitiveHdf5Array.HyperslabIterator hI = new HyperslabIterator();
-                deflateProperty = Hdf5ModuleInterface.chunkAndDeflateProperty(nElements,
-                    hI.chunkSize());
+                creationProperty = profile.datasetCreationProperty(arraySize,
+                    elementSizeBytes(getDataTypeToSave()));
                 dataset = H5.H5Dcreate(fieldGroupId, fieldName, dataType, dataSpace, H5P_DEFAULT,
-                    deflateProperty, H5P_DEFAULT);
+                    creationProperty, accessProperty);
                 while (hI.hasNext()) {
                     PrimitiveHdf5Array.Hyperslab h = hI.next();
                     H5.H5Sselect_hyperslab(dataSpace, HDF5Constants.H5S_SELECT_SET,
@@ -474,7 +566,7 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
                         h.hyperslabBlock());
                     long memSpace = H5.H5Screate_simple(arraySize.length, h.hyperslabBlock(), null);
                     H5.H5Dwrite(dataset, dataType, memSpace, dataSpace, H5P_DEFAULT,
-                        toHdf5(h.getHyperslab()));
+                        h.getHyperslabBuffer());
                     H5.H5Sclose(memSpace);
                 }
             }
@@ -482,7 +574,8 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
             if (dataType != getDataTypeToSave().getHdf5Type()) {
                 H5.H5Tclose(dataType);
             }
-            H5.H5Pclose(deflateProperty);
+            H5.H5Pclose(creationProperty);
+            Hdf5StorageProfile.closeProperty(accessProperty);
             H5.H5Sclose(dataSpace);
         } catch (NullPointerException | IllegalArgumentException | HDF5Exception e) {
             throw new PipelineException(
@@ -516,7 +609,9 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
         try {
             // get the dataset for the numeric array, which will have the same name as the group,
             // which in turn is the same as the name of the field
-            long dataSetId = H5.H5Dopen(fieldGroupId, getFieldName(), H5P_DEFAULT);
+            long accessProperty = storageProfile().datasetAccessProperty();
+            long dataSetId = H5.H5Dopen(fieldGroupId, getFieldName(), accessProperty);
+            Hdf5StorageProfile.closeProperty(accessProperty);
 
             // get the type and the dimensions of the HDF5 array
             long hdf5TypeInt = H5.H5Dget_type(dataSetId);
@@ -527,6 +622,23 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
             long[] maxDimensions = new long[nDims];
             H5.H5Sget_simple_extent_dims(dataSpaceId, dimensions, maxDimensions);
 
+            // if only a region of the dataset is to be read, the array that captures the data
+            // has the size of the region
+            long[] readOffset = new long[nDims];
+            long[] readSize = dimensions;
+            if (regionSize != null) {
+                if (!regionWithin(dimensions)) {
+                    H5.H5Sclose(dataSpaceId);
+                    H5.H5Dclose(dataSetId);
+                    throw new PipelineException("Region with offset "
+                        + Arrays.toString(regionOffset) + " and size "
+                        + Arrays.toString(regionSize) + " is not within field " + getFieldName()
+                        + " of size " + Arrays.toString(dimensions));
+                }
+                readOffset = regionOffset;
+                readSize = regionSize;
+            }
+
             // construct an array to capture the data in the dataset
 
             ZiggyDataType hType = Hdf5ModuleInterface.readDataTypeAttribute(fieldGroupId,
@@ -538,29 +650,60 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
                 dataTypeOfReturn = hType;
             }
 
+            if (readDestination != null && (hType == ZIGGY_STRING
+                || !Arrays.equals(readSize, readDestination.getDimensions()))) {
+                H5.H5Sclose(dataSpaceId);
+                H5.H5Dclose(dataSetId);
+                throw new PipelineException("Unable to read field " + getFieldName() + " of type "
+                    + hType.getJavaClassName() + " and size " + Arrays.toString(readSize)
+                    + " into " + readDestination);
+            }
+
             // get the values out of the dataspace
             if (hType == ZIGGY_STRING) {
-                Object dataArray = ZiggyArrayUtils.constructFullArray(dimensions, hType, false);
+                Object dataArray = ZiggyArrayUtils.constructFullArray(readSize, hType, false);
                 Object flattenedArray = flattenArray(dataArray);
                 long typeId = H5.H5Dget_type(dataSetId);
-                H5.H5Dread_VLStrings(dataSetId, typeId, HDF5Constants.H5S_ALL,
-                    HDF5Constants.H5S_ALL, H5P_DEFAULT, (Object[]) flattenedArray);
+                long memSpace = HDF5Constants.H5S_ALL;
+                long fileSpace = HDF5Constants.H5S_ALL;
+                if (regionSize != null) {
+                    long[] count = new long[nDims];
+                    Arrays.fill(count, 1);
+                    H5.H5Sselect_hyperslab(dataSpaceId, HDF5Constants.H5S_SELECT_SET, readOffset,
+                        null, count, readSize);
+                    memSpace = H5.H5Screate_simple(nDims, readSize, null);
+                    fileSpace = dataSpaceId;
+                }
+                H5.H5Dread_VLStrings(dataSetId, typeId, memSpace, fileSpace, H5P_DEFAULT,
+                    (Object[]) flattenedArray);
+                if (regionSize != null) {
+                    H5.H5Sclose(memSpace);
+                }
                 unflattenArray(flattenedArray, dataArray);
                 setArray(dataArray);
             } else {
-                PrimitiveHdf5Array.HyperslabIterator hI = new HyperslabIterator(dimensions, hType);
+                PrimitiveHdf5Array.HyperslabIterator hI = new HyperslabIterator(readSize, hType);
                 while (hI.hasNext()) {
                     PrimitiveHdf5Array.Hyperslab h = hI.next();
-                    H5.H5Sselect_hyperslab(dataSpaceId, HDF5Constants.H5S_SELECT_SET,
-                        h.hyperslabStart(), h.hyperslabStride(), h.hyperslabCount(),
-                        h.hyperslabBlock());
+                    long[] start = h.hyperslabStart();
+                    for (int i = 0; i < nDims; i++) {
+                        start[i] += readOffset[i];
+                    }
+                    H5.H5Sselect_hyperslab(dataSpaceId, HDF5Constants.H5S_SELECT_SET, start,
+                        h.hyperslabStride(), h.hyperslabCount(), h.hyperslabBlock());
                     long memSpace = H5.H5Screate_simple(dimensions.length, h.hyperslabBlock(),
                         null);
-                    Object dataArray = ZiggyArrayUtils.constructFullArray(h.hyperslabBlock(), hType,
-                        false);
+
+                    // read into a 1-d array, which HDF5 fills without any intermediate buffer
+                    Object dataBuffer = ZiggyArrayUtils.constructFullPrimitiveArray(
+                        new long[] { h.elementCount() }, hType);
                     H5.H5Dread(dataSetId, hdf5TypeInt, memSpace, dataSpaceId, H5P_DEFAULT,
-                        dataArray);
-                    h.putHyperslab(dataArray);
+                        dataBuffer);
+                    if (readDestination != null) {
+                        readDestination.slice(h).copyFrom(dataBuffer);
+                    } else {
+                        h.putHyperslab(ZiggyArrayUtils.unflatten(dataBuffer, h.hyperslabBlock()));
+                    }
                     H5.H5Sclose(memSpace);
                 }
             }
@@ -586,6 +729,19 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
 
     }
 
+    private boolean regionWithin(long[] dimensions) {
+        if (regionSize.length != dimensions.length) {
+            return false;
+        }
+        for (int i = 0; i < dimensions.length; i++) {
+            if (regionOffset[i] < 0 || regionSize[i] <= 0
+                || regionOffset[i] + regionSize[i] > dimensions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Class that provides management of hyperslabs (HDF5 word for hyper-rectangles). This class
      * allows the PrimitiveHdf5Class objects to read from and write to a sub-section of the object's
@@ -691,6 +847,26 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
                 getHyperslab(intToLong1d(getSize()), intToLong1d(getOffset()), arrayObject));
         }
 
+        /**
+         * Gets a section of the arrayObject as a 1-d array in row-major order, cast to the correct
+         * type for output to HDF5.
+         */
+        Object getHyperslabBuffer() {
+            return toHdf5Buffer(
+                getHyperslab(intToLong1d(getSize()), intToLong1d(getOffset()), arrayObject));
+        }
+
+        /**
+         * Returns the number of elements in the hyperslab.
+         */
+        long elementCount() {
+            long elementCount = 1;
+            for (int size : getSize()) {
+                elementCount *= size;
+            }
+            return elementCount;
+        }
+
         /**
          * Performs the main work of producing the hyperslab, including recursion over the array
          * dimensions.
@@ -898,10 +1074,6 @@ public class PrimitiveHdf5Array extends AbstractHdf5Array {
             return new Hyperslab(intToLong1d(hr.getSize()), intToLong1d(hr.getOffset()),
                 intToLong1d(hr.getFullArraySize()));
         }
-
-        public long[] chunkSize() {
-            return intToLong1d(getSize());
-        }
     }
 
 }
@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import gov.nasa.ziggy.module.PipelineException;
 import gov.nasa.ziggy.module.hdf5.Hdf5ModuleInterface;
 import gov.nasa.ziggy.module.io.matlab.MatlabErrorReturn;
+import gov.nasa.ziggy.services.config.DirectoryProperties;
 
 /**
  * Utilities for use in the interface between Ziggy and the processing modules. These tools relate
@@ -34,7 +35,9 @@ public class ModuleInterfaceUtils {
         if (!inputs.getClass().isAnnotationPresent(XmlRootElement.class)) {
             return;
         }
-        String companionXmlFile = xmlFileName(moduleName, seqNum);
+        File companionXmlFile = DirectoryProperties.workingDir()
+            .resolve(xmlFileName(moduleName, seqNum))
+            .toFile();
         log.info("Writing companion xml file \"" + companionXmlFile + "\".");
         StringBuilder validationErrors = new StringBuilder();
         try {
@@ -222,11 +222,12 @@ public class PipelineTaskCrud extends AbstractCrud {
     public List<PipelineTask> retrieveAll(Collection<Long> pipelineTaskIds) {
         List<PipelineTask> pipelineTasks = new ArrayList<>();
         if (!pipelineTaskIds.isEmpty()) {
-            Query query = createQuery(
-                "from PipelineTask where id in (:pipelineTaskIds) " + "order by id asc");
-            query.setParameterList("pipelineTaskIds", pipelineTaskIds);
+            Criteria criteria = createCriteria(PipelineTask.class);
+            criteria.add(restrictionPropertyIn(PipelineTask.class, "id", pipelineTaskIds));
+            criteria.addOrder(Order.asc("id"));
+            criteria.setResultTransformer(CriteriaSpecification.DISTINCT_ROOT_ENTITY);
 
-            pipelineTasks = list(query);
+            pipelineTasks = list(criteria);
         }
 
         return pipelineTasks;
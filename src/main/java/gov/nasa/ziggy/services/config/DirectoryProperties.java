@@ -26,6 +26,8 @@ public class DirectoryProperties {
     private static final String MANIFESTS_RELATIVE_PATH = "manifests";
     private static final String MEMDRONE_RELATIVE_PATH = "memdrone";
     private static final String REPORTS_DIR_RELATIVE_PATH = "reports";
+    private static final String SUBTASK_RUNTIMES_RELATIVE_PATH = "subtask-runtimes";
+    private static final String SUBTASK_RESULT_CACHE_RELATIVE_PATH = "subtask-result-cache";
 
     /**
      * Location of the bin directory relative to either
@@ -157,6 +159,14 @@ public class DirectoryProperties {
         return logDir().resolve(MEMDRONE_RELATIVE_PATH);
     }
 
+    public static Path subtaskRuntimesDir() {
+        return logDir().resolve(SUBTASK_RUNTIMES_RELATIVE_PATH);
+    }
+
+    public static Path subtaskResultCacheDir() {
+        return pipelineResultsDir().resolve(SUBTASK_RESULT_CACHE_RELATIVE_PATH);
+    }
+
     /**
      * Returns the root of the database directory ({@value PropertyNames#DATABASE_DIR_PROP_NAME}).
      *
@@ -34,6 +34,12 @@ public class PropertyNames {
     /** Host used by the relational database. */
     public static final String DATABASE_HOST_PROP_NAME = "database.host";
 
+    /**
+     * Strategy for queries on large collections of values: "auto" (default), "chunked",
+     * "temp_table", or "array". See {@link gov.nasa.ziggy.crud.InListStrategy}.
+     */
+    public static final String DATABASE_IN_LIST_STRATEGY_PROP_NAME = "database.inListStrategy";
+
     /** Name of the database. */
     public static final String DATABASE_NAME_PROP_NAME = "database.name";
 
@@ -43,9 +49,51 @@ public class PropertyNames {
     /** Name of relational database software package. */
     public static final String DATABASE_SOFTWARE_PROP_NAME = "database.software.name";
 
+    /** Determines whether datastore searches use the datastore catalog. */
+    public static final String DATASTORE_CATALOG_ENABLED_PROP_NAME = "datastore.catalog.enabled";
+
+    /**
+     * How the consumers of each datastore file are stored: "table" (default) or "blob". See
+     * {@link gov.nasa.ziggy.data.management.DatastoreProducerConsumer.ConsumerStorage}.
+     */
+    public static final String DATASTORE_CONSUMER_STORAGE_PROP_NAME = "datastore.consumer.storage";
+
     /** Top-level dictionary of the datastore. */
     public static final String DATASTORE_ROOT_DIR_PROP_NAME = "datastore.root.dir";
 
+    /** Number of threads used to copy, move, or symlink files to or from the datastore. */
+    public static final String DATASTORE_STAGING_THREADS_PROP_NAME = "datastore.staging.threads";
+
+    /**
+     * Size in megabytes of the raw data chunk cache used to write and read HDF5 datasets. May be
+     * overridden for a pipeline module by appending the module name.
+     */
+    public static final String HDF5_CHUNK_CACHE_MEGABYTES_PROP_NAME = "hdf5.storage.chunkCacheMegabytes";
+
+    /**
+     * Size in kilobytes of the chunks of chunked HDF5 datasets. May be overridden for a pipeline
+     * module by appending the module name.
+     */
+    public static final String HDF5_CHUNK_KILOBYTES_PROP_NAME = "hdf5.storage.chunkKilobytes";
+
+    /**
+     * Deflate compression level of HDF5 datasets. May be overridden for a pipeline module by
+     * appending the module name.
+     */
+    public static final String HDF5_DEFLATE_LEVEL_PROP_NAME = "hdf5.storage.deflateLevel";
+
+    /**
+     * Determines whether Fletcher32 checksums are stored with the chunks of HDF5 datasets. May be
+     * overridden for a pipeline module by appending the module name.
+     */
+    public static final String HDF5_FLETCHER32_PROP_NAME = "hdf5.storage.fletcher32";
+
+    /**
+     * Determines whether the bytes of HDF5 datasets are shuffled before compression. May be
+     * overridden for a pipeline module by appending the module name.
+     */
+    public static final String HDF5_SHUFFLE_PROP_NAME = "hdf5.storage.shuffle";
+
     /** Class used by Hibernate to manage the database connection. */
     public static final String HIBERNATE_DRIVER_PROP_NAME = "hibernate.connection.driver_class";
 
@@ -71,12 +119,86 @@ public class PropertyNames {
      */
     public static final String HIBERNATE_ID_NEW_GENERATOR_MAPPINGS_PROP_NAME = "hibernate.id.new_generator_mappings";
 
+    /**
+     * Determines whether the number of subtasks that run concurrently on a compute node is limited
+     * by the memory available on the node rather than fixed at the number of active cores.
+     */
+    public static final String SUBTASK_ADMISSION_ENABLED_PROP_NAME = "moduleExe.admission.enabled";
+
+    /** Maximum number of subtasks that run concurrently on a node under admission control. */
+    public static final String SUBTASK_ADMISSION_MAX_SUBTASKS_PROP_NAME = "moduleExe.admission.maxSubtasks";
+
+    /** Minimum number of subtasks that run concurrently on a node under admission control. */
+    public static final String SUBTASK_ADMISSION_MIN_SUBTASKS_PROP_NAME = "moduleExe.admission.minSubtasks";
+
+    /** Memory, in GB, that admission control keeps free on each node. */
+    public static final String SUBTASK_ADMISSION_RESERVE_GIGS_PROP_NAME = "moduleExe.admission.reserveGigs";
+
+    /** Interval between the memory samples taken by admission control. */
+    public static final String SUBTASK_ADMISSION_SAMPLE_SECONDS_PROP_NAME = "moduleExe.admission.sampleSeconds";
+
+    /**
+     * Determines whether the worker stages the input files of all subtasks into their subtask
+     * directories at once before a task is submitted. Defaults to true.
+     */
+    public static final String BULK_SUBTASK_POPULATION_PROP_NAME = "moduleExe.bulkSubtaskPopulation";
+
+    /**
+     * Selects how files are staged to task directories when symlinks are not used: copy (the
+     * default), hardlink, reflink, or auto.
+     */
+    public static final String COPY_MODE_PROP_NAME = "moduleExe.copyMode";
+
     /** Determines whether memdrone is enabled. */
     public static final String MEMDRONE_ENABLED_PROP_NAME = "moduleExe.memdrone.enabled";
 
     /** Determines the interval between memdrone samples. */
     public static final String MEMDRONE_SLEEP_PROP_NAME = "moduleExe.memdrone.sleepSeconds";
 
+    /**
+     * Determines whether the outputs of successful subtasks are cached, and restored for subtasks
+     * with the same inputs, models, parameters, and software instead of running the algorithm.
+     */
+    public static final String SUBTASK_RESULT_CACHE_ENABLED_PROP_NAME = "moduleExe.resultCache.enabled";
+
+    /** Number of days after which an unused entry is evicted from the subtask result cache. */
+    public static final String SUBTASK_RESULT_CACHE_MAX_AGE_DAYS_PROP_NAME = "moduleExe.resultCache.maxAgeDays";
+
+    /** Size of the subtask result cache beyond which least recently used entries are evicted. */
+    public static final String SUBTASK_RESULT_CACHE_MAX_GIGS_PROP_NAME = "moduleExe.resultCache.maxGigs";
+
+    /** Determines whether straggling subtasks are speculatively executed a second time. */
+    public static final String SPECULATION_ENABLED_PROP_NAME = "moduleExe.speculation.enabled";
+
+    /** Minimum number of subtasks completed on a node before any straggler is re-executed. */
+    public static final String SPECULATION_MIN_COMPLETED_PROP_NAME = "moduleExe.speculation.minCompleted";
+
+    /**
+     * Fraction of a task's subtasks that may remain unprocessed before stragglers are re-executed.
+     */
+    public static final String SPECULATION_REMAINING_FRACTION_PROP_NAME = "moduleExe.speculation.remainingFraction";
+
+    /** Multiple of the median subtask runtime after which a subtask is a straggler. */
+    public static final String SPECULATION_RUNTIME_MULTIPLE_PROP_NAME = "moduleExe.speculation.runtimeMultiple";
+
+    /**
+     * Determines whether subtask states are also recorded in per-subtask flag files, and read from
+     * them, rather than only in the task's subtask state journal.
+     */
+    public static final String SUBTASK_STATE_FLAG_FILES_PROP_NAME = "moduleExe.subtaskState.flagFiles";
+
+    /**
+     * Number of helper processes that run subtask inputs and outputs processing on each compute
+     * node. If zero (the default), a new process is started for each subtask's inputs and outputs.
+     */
+    public static final String TASK_FILE_MANAGER_HELPERS_PROP_NAME = "moduleExe.taskFileManager.helpers";
+
+    /**
+     * Maximum time, in seconds, that a helper process may take to process a single subtask's
+     * inputs or outputs before it is killed and replaced.
+     */
+    public static final String TASK_FILE_MANAGER_TIMEOUT_PROP_NAME = "moduleExe.taskFileManager.timeoutSeconds";
+
     /** Indicates whether to copy files to/from the working directory, or use symlinks. */
     public static final String USE_SYMLINKS_PROP_NAME = "moduleExe.useSymlinks";
 
@@ -133,6 +255,21 @@ public class PropertyNames {
     /** Remote cluster to use when submitting batch jobs. */
     public static final String CLUSTER_PROPERTY_NAME = "remote.cluster.name";
 
+    /** Maximum number of subtasks a compute node thread leases from the subtask server at once. */
+    public static final String REMOTE_SUBTASK_BATCH_SIZE_PROP_NAME = "remote.subtask.batchSize";
+
+    /**
+     * Time after which a subtask lease that has not been renewed expires, and the subtask is
+     * offered to another compute node thread.
+     */
+    public static final String REMOTE_SUBTASK_LEASE_SECONDS_PROP_NAME = "remote.subtask.leaseSeconds";
+
+    /**
+     * Order in which subtasks are first offered to the algorithm threads: index (the default), or
+     * longestFirst, which uses the runtimes of the same subtasks in earlier runs of the module.
+     */
+    public static final String REMOTE_SUBTASK_ORDER_PROP_NAME = "remote.subtask.order";
+
     /** System property name for architecture data model. */
     public static final String ARCH_DATA_MODEL_PROPERTY_NAME = "sun.arch.data.model";
 
@@ -154,6 +291,9 @@ public class PropertyNames {
     /** Log file for the wrapper executable. */
     public static final String WRAPPER_LOG_FILE_PROP_NAME = "wrapper.logfile";
 
+    /** Location of the class-data-sharing archive for Ziggy's JVMs. */
+    public static final String CDS_ARCHIVE_PROP_NAME = "ziggy.cds.archive";
+
     /** Location of the configuration properties for Ziggy. */
     public static final String ZIGGY_CONFIG_PROP_NAME = "ziggy.config.path";
 
@@ -6,14 +6,20 @@ import static gov.nasa.ziggy.services.config.PropertyNames.HIBERNATE_ID_NEW_GENE
 import static gov.nasa.ziggy.services.config.PropertyNames.HIBERNATE_URL_PROP_NAME;
 import static gov.nasa.ziggy.services.config.PropertyNames.HIBERNATE_USERNAME_PROP_NAME;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.Set;
 
 import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.HSQLDialect;
+import org.hibernate.mapping.SimpleAuxiliaryDatabaseObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import gov.nasa.ziggy.crud.AbstractCrud;
+import gov.nasa.ziggy.data.management.DatastoreProducerConsumer;
 import gov.nasa.ziggy.module.PipelineException;
 import gov.nasa.ziggy.services.config.ZiggyConfiguration;
 
@@ -130,6 +136,17 @@ public class ZiggyHibernateConfiguration {
             hibernateConfig.addAnnotatedClass(clazz);
         }
 
+        // The temporary table used for large IN lists is a schema object in HSQLDB; in
+        // PostgreSQL it is created in each session as needed.
+        hibernateConfig.addAuxiliaryDatabaseObject(new SimpleAuxiliaryDatabaseObject(
+            AbstractCrud.HSQLDB_IN_LIST_TABLE_DDL,
+            "drop table " + AbstractCrud.IN_LIST_TABLE + " if exists",
+            new HashSet<>(Collections.singleton(HSQLDialect.class.getName()))));
+
+        hibernateConfig.addAuxiliaryDatabaseObject(
+            new SimpleAuxiliaryDatabaseObject(DatastoreProducerConsumer.CONSUMERS_INDEX_DDL,
+                DatastoreProducerConsumer.CONSUMERS_INDEX_DROP_DDL));
+
         // Include Hibernate configuration that can't be handled by annotations.
         // Also uncomment associated line in copy-metadata build.xml target.
         // hibernateConfig.addResource("hbm.cfg.xml");
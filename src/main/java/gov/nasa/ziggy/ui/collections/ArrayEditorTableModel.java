@@ -8,9 +8,11 @@ import javax.swing.table.AbstractTableModel;
 
 import gov.nasa.ziggy.collections.ZiggyArrayUtils;
 import gov.nasa.ziggy.collections.ZiggyDataType;
+import gov.nasa.ziggy.collections.ZiggyNdArray;
 
 /**
- * Table model for editing an Object[]
+ * Table model for editing an Object[]. A {@link ZiggyNdArray} can also be edited, in which case its
+ * values are presented in row-major order.
  *
  * @author Todd Klaus
  */
@@ -21,15 +23,29 @@ public class ArrayEditorTableModel extends AbstractTableModel {
 
     private ZiggyDataType componentType;
 
+    // dimensions of the ZiggyNdArray being edited, or null for a Java array
+    private long[] ndArrayDimensions;
+
     public ArrayEditorTableModel(Object array) {
-        int length = Array.getLength(array);
+        Object elementArray = array;
+        if (array instanceof ZiggyNdArray) {
+            ZiggyNdArray ndArray = (ZiggyNdArray) array;
+            ndArrayDimensions = ndArray.getDimensions();
+            elementArray = ndArray.toFlatArray();
+        }
+        int length = Array.getLength(elementArray);
         for (int i = 0; i < length; i++) {
-            elements.add(Array.get(array, i));
+            elements.add(Array.get(elementArray, i));
         }
 
         componentType = ZiggyDataType.getDataType(array);
     }
 
+    /**
+     * Returns the edited values. If a {@link ZiggyNdArray} was edited, the values are returned as a
+     * ZiggyNdArray, which has the dimensions of the original if the number of values is unchanged
+     * and is 1-d otherwise.
+     */
     public Object asArray() {
         Object newArray = ZiggyArrayUtils.constructFullArray(new long[] { elements.size() },
             componentType, false);
@@ -38,6 +54,17 @@ public class ArrayEditorTableModel extends AbstractTableModel {
             Array.set(newArray, index, elements.get(index));
         }
 
+        if (ndArrayDimensions != null) {
+            long elementCount = 1;
+            for (long dimension : ndArrayDimensions) {
+                elementCount *= dimension;
+            }
+            long[] dimensions = elementCount == elements.size() ? ndArrayDimensions
+                : new long[] { elements.size() };
+            ZiggyNdArray ndArray = ZiggyNdArray.allocate(componentType, dimensions);
+            ndArray.copyFrom(newArray);
+            return ndArray;
+        }
         return newArray;
     }
 
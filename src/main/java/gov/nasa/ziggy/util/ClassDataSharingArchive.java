@@ -0,0 +1,377 @@
+package gov.nasa.ziggy.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.module.hdf5.Hdf5ModuleInterface;
+import gov.nasa.ziggy.module.io.Persistable;
+import gov.nasa.ziggy.services.config.DirectoryProperties;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.config.ZiggyConfiguration;
+
+/**
+ * Generates and locates the application class-data-sharing (AppCDS) archive for Ziggy's Java
+ * processes.
+ * <p>
+ * Ziggy starts many short-lived JVMs, and much of their startup time is spent loading and
+ * verifying the same classes. An AppCDS archive contains those classes in a form that the JVM maps
+ * directly into memory. The archive is generated by running a training JVM that exercises the
+ * common startup paths of Ziggy programs and records the classes that it loaded, and then dumping
+ * those classes into the archive. Only the classes that programs actually load are archived: an
+ * archive of every class on the classpath is large enough that mapping it costs more than it
+ * saves. A JVM that cannot use the archive (for example, because it is a different Java version
+ * than the one that created it) silently ignores it.
+ * <p>
+ * An archive can only be used by a JVM whose classpath starts with the classpath that was used to
+ * create it, and directories are not allowed in that classpath. The archive classpath is therefore
+ * the Ziggy libraries plus the elements of the pipeline classpath up to the first one that is not a
+ * jar file. All the classes in the pipeline jar files are loaded during training. The JVM compares
+ * classpaths literally, so a directory wildcard, which the JVM expands in an unspecified order, is
+ * replaced by an explicit list of the directory's jar files, sorted by name (see
+ * {@link #expandClasspath(String)}). Once the archive is generated, a JVM is started that must map
+ * it with that classpath, so that an archive that would be ignored is not installed.
+ * <p>
+ * Usage: {@code runjava cds-archive [archive [classpath]]}. The archive defaults to
+ * {@link #archivePath()} and the classpath defaults to {@link #runjavaClasspath()}. AppCDS requires
+ * Java 11 or later; with an earlier Java version, no archive is generated. Since Ziggy currently
+ * supports JDK 1.8, the archive is neither generated by the build nor used by {@code runjava} or
+ * the worker. To use it with a later Java version, start the JVM with the arguments returned by
+ * {@link #jvmArguments(Path)} and the classpath returned by {@link #expandClasspath(String)}.
+ *
+ * @author PT
+ */
+public class ClassDataSharingArchive {
+    private static final Logger log = LoggerFactory.getLogger(ClassDataSharingArchive.class);
+
+    public static final String ARCHIVE_FILE_NAME = "ziggy.jsa";
+    static final String TRAIN_OPTION = "--train";
+    static final String VERIFY_OPTION = "--verify";
+
+    private static final int MINIMUM_JAVA_VERSION = 11;
+    private static final String LIBS_DIR_NAME = "libs";
+    private static final String WILDCARD = "*";
+    private static final String JAR_SUFFIX = ".jar";
+    private static final String CLASS_SUFFIX = ".class";
+
+    /** Main classes of the programs that are started most often. */
+    private static final String[] TRAINING_CLASS_NAMES = {
+        "gov.nasa.ziggy.module.TaskFileManager", "gov.nasa.ziggy.module.ComputeNodeMaster",
+        "gov.nasa.ziggy.module.SubtaskExecutor", "gov.nasa.ziggy.module.TaskConfigurationManager",
+        "gov.nasa.ziggy.ui.ClusterController", "gov.nasa.ziggy.models.ModelMetadataCli",
+        "gov.nasa.ziggy.parameters.ParameterLibraryImportExportCli",
+        "gov.nasa.ziggy.pipeline.definition.PipelineDefinitionCli",
+        "gov.nasa.ziggy.worker.WorkerPipelineProcess" };
+
+    /** System properties that are passed to the training JVM. */
+    private static final String[] TRAINING_PROPERTY_NAMES = { "log4j2.configurationFile",
+        "java.library.path" };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(TRAIN_OPTION)) {
+            train(Arrays.asList(args).subList(1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals(VERIFY_OPTION)) {
+
+            // The JVM that runs this has already mapped the archive or failed to start.
+            return;
+        }
+        Path archive = args.length > 0 ? Paths.get(args[0]) : archivePath();
+        String classpath = args.length > 1 ? args[1] : runjavaClasspath();
+        generate(classpath, archive);
+    }
+
+    /**
+     * Returns the location of the archive, which is set by the
+     * {@link PropertyNames#CDS_ARCHIVE_PROP_NAME} property. The default is
+     * {@value #ARCHIVE_FILE_NAME} in the Ziggy libs directory.
+     */
+    public static Path archivePath() {
+        String archive = ZiggyConfiguration.getInstance()
+            .getString(PropertyNames.CDS_ARCHIVE_PROP_NAME, null);
+        if (archive != null) {
+            return Paths.get(archive);
+        }
+        return DirectoryProperties.ziggyHomeDir().resolve(LIBS_DIR_NAME).resolve(ARCHIVE_FILE_NAME);
+    }
+
+    /**
+     * Returns the classpath that {@code runjava} uses: the Ziggy libraries followed by the pipeline
+     * classpath. The Ziggy libraries are given as a directory wildcard; see
+     * {@link #expandClasspath(String)}.
+     */
+    public static String runjavaClasspath() {
+        StringBuilder classpath = new StringBuilder(
+            DirectoryProperties.ziggyHomeDir().resolve(LIBS_DIR_NAME).resolve(WILDCARD).toString());
+        String pipelineClasspath = ZiggyConfiguration.getInstance()
+            .getString(PropertyNames.PIPELINE_CLASSPATH_PROP_NAME, null);
+        if (pipelineClasspath != null && !pipelineClasspath.isEmpty()) {
+            classpath.append(File.pathSeparator).append(pipelineClasspath);
+        }
+        return classpath.toString();
+    }
+
+    /**
+     * Replaces each directory wildcard in a classpath with the jar files in the directory, sorted
+     * by name. A JVM that uses the archive must be started with this classpath, so that the
+     * classpath that the archive is created with is a prefix of its classpath.
+     */
+    public static String expandClasspath(String classpath) {
+        return String.join(File.pathSeparator, expandedElements(classpath));
+    }
+
+    private static List<String> expandedElements(String classpath) {
+        List<String> elements = new ArrayList<>();
+        for (String element : classpath.split(File.pathSeparator)) {
+            if (element.isEmpty()) {
+                continue;
+            }
+            if (isWildcard(element)) {
+                Path directory = Paths.get(element).getParent();
+                elements.addAll(jars(directory != null ? directory : Paths.get(".")));
+            } else {
+                elements.add(element);
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Returns the jar files in a directory, sorted by name.
+     */
+    static List<String> jars(Path directory) {
+        File[] jarFiles = directory.toFile().listFiles((dir, name) -> name.endsWith(JAR_SUFFIX));
+        List<String> jars = new ArrayList<>();
+        if (jarFiles != null) {
+            for (File jarFile : jarFiles) {
+                jars.add(jarFile.getPath());
+            }
+        }
+        Collections.sort(jars);
+        return jars;
+    }
+
+    /**
+     * Returns the JVM arguments that use the specified archive, or an empty list if the archive
+     * does not exist. The arguments are accepted by all supported Java versions.
+     */
+    public static List<String> jvmArguments(Path archive) {
+        if (!Files.isRegularFile(archive)) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList("-XX:+UnlockDiagnosticVMOptions",
+            "-XX:SharedArchiveFile=" + archive.toAbsolutePath(), "-Xshare:auto");
+    }
+
+    /**
+     * Determines whether this JVM can generate an AppCDS archive.
+     */
+    public static boolean isSupported() {
+        return javaMajorVersion(
+            System.getProperty("java.specification.version")) >= MINIMUM_JAVA_VERSION;
+    }
+
+    static int javaMajorVersion(String specificationVersion) {
+        String version = specificationVersion.startsWith("1.") ? specificationVersion.substring(2)
+            : specificationVersion;
+        return Integer.parseInt(version.split("\\.")[0]);
+    }
+
+    /**
+     * Generates an archive for JVMs with the specified classpath. The archive is generated for the
+     * Java installation that runs this method. The archive is written to a temporary file that
+     * replaces the archive when it is complete, so JVMs that start during generation use the old
+     * archive or none at all.
+     *
+     * @return true if the archive was generated, false if this Java version cannot generate it.
+     */
+    public static boolean generate(String classpath, Path archive)
+        throws IOException, InterruptedException {
+        if (!isSupported()) {
+            log.info("Java " + System.getProperty("java.specification.version")
+                + " does not support application class-data sharing, not generating " + archive);
+            return false;
+        }
+        String archiveClasspath = archiveClasspath(classpath);
+        log.info("Generating class-data-sharing archive " + archive + " for classpath "
+            + archiveClasspath);
+
+        Path archiveDir = archive.toAbsolutePath().getParent();
+        Files.createDirectories(archiveDir);
+        Path classList = Files.createTempFile(archiveDir, ARCHIVE_FILE_NAME, ".classlist");
+        Path newArchive = Files.createTempFile(archiveDir, ARCHIVE_FILE_NAME, ".tmp");
+        try {
+            List<String> trainCommand = new ArrayList<>(Arrays.asList(javaCommand(),
+                "-Xshare:off", "-XX:DumpLoadedClassList=" + classList));
+            for (String propertyName : TRAINING_PROPERTY_NAMES) {
+                String value = System.getProperty(propertyName);
+                if (value != null) {
+                    trainCommand.add("-D" + propertyName + "=" + value);
+                }
+            }
+            trainCommand.addAll(Arrays.asList("-cp", archiveClasspath,
+                ClassDataSharingArchive.class.getName(), TRAIN_OPTION));
+
+            // Only the jar files that are listed explicitly (i.e., the pipeline jars) are loaded
+            // in their entirety.
+            List<String> classpathElements = Arrays.asList(classpath.split(File.pathSeparator));
+            for (String element : archiveClasspath.split(File.pathSeparator)) {
+                if (classpathElements.contains(element)) {
+                    trainCommand.add(element);
+                }
+            }
+            run(trainCommand);
+
+            run(Arrays.asList(javaCommand(), "-Xshare:dump",
+                "-XX:SharedClassListFile=" + classList, "-XX:SharedArchiveFile=" + newArchive,
+                "-cp", archiveClasspath));
+
+            // With -Xshare:on, a JVM that cannot map the archive fails to start.
+            String expandedClasspath = expandClasspath(classpath);
+            run(Arrays.asList(javaCommand(), "-XX:+UnlockDiagnosticVMOptions",
+                "-XX:SharedArchiveFile=" + newArchive, "-Xshare:on", "-cp", expandedClasspath,
+                ClassDataSharingArchive.class.getName(), VERIFY_OPTION));
+            log.info("Verified that class-data-sharing archive is mapped with classpath "
+                + expandedClasspath);
+            Files.move(newArchive, archive, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            log.info("Generated class-data-sharing archive " + archive + " ("
+                + Files.size(archive) / (1024 * 1024) + " MB)");
+            return true;
+        } finally {
+            Files.deleteIfExists(classList);
+            Files.deleteIfExists(newArchive);
+        }
+    }
+
+    /**
+     * Returns the longest prefix of a classpath that can be used to create an archive, namely the
+     * elements up to the first one that is not a jar file, with directory wildcards expanded.
+     */
+    static String archiveClasspath(String classpath) {
+        List<String> elements = new ArrayList<>();
+        for (String element : expandedElements(classpath)) {
+            if (!(element.endsWith(JAR_SUFFIX) && Files.isRegularFile(Paths.get(element)))) {
+                log.info("Classpath element " + element
+                    + " cannot be archived; it and subsequent elements will not be archived");
+                break;
+            }
+            elements.add(element);
+        }
+        if (elements.isEmpty()) {
+            throw new PipelineException("No classpath elements can be archived in " + classpath);
+        }
+        return String.join(File.pathSeparator, elements);
+    }
+
+    private static boolean isWildcard(String element) {
+        return element.equals(WILDCARD) || element.endsWith(File.separator + WILDCARD);
+    }
+
+    private static String javaCommand() {
+        return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    }
+
+    private static void run(List<String> command) throws IOException, InterruptedException {
+        log.debug("Running " + String.join(" ", command));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        int status = process.waitFor();
+        if (status != 0) {
+            throw new PipelineException(
+                "Command " + String.join(" ", command) + " failed with status " + status);
+        }
+    }
+
+    /**
+     * Performs the training workload. The workload exercises the startup path that all Ziggy
+     * programs share, initializes the main classes of the programs that {@code runjava} and the
+     * worker start most often, writes and reads a small HDF5 file, and loads (but does not
+     * initialize) all the classes in the specified pipeline jar files. Steps that fail, for
+     * example because the HDF5 library is not available, are skipped.
+     */
+    private static void train(List<String> pipelineJars) throws IOException {
+        try {
+            ZiggyConfiguration.getInstance();
+        } catch (RuntimeException e) {
+            log.debug("Configuration not available during training", e);
+        }
+
+        ClassLoader classLoader = ClassDataSharingArchive.class.getClassLoader();
+        for (String className : TRAINING_CLASS_NAMES) {
+            try {
+                Class.forName(className, true, classLoader);
+            } catch (LinkageError | ClassNotFoundException | RuntimeException e) {
+                log.debug("Unable to initialize " + className, e);
+            }
+        }
+
+        Path hdf5File = Files.createTempFile(ClassDataSharingArchive.class.getSimpleName(),
+            ".h5");
+        try {
+            TrainingData trainingData = new TrainingData();
+            Hdf5ModuleInterface hdf5ModuleInterface = new Hdf5ModuleInterface();
+            hdf5ModuleInterface.writeFile(hdf5File.toFile(), trainingData, true);
+            hdf5ModuleInterface.readFile(hdf5File.toFile(), new TrainingData(), true);
+        } catch (LinkageError | RuntimeException e) {
+            log.info("Unable to train HDF5 classes: " + e);
+        } finally {
+            Files.deleteIfExists(hdf5File);
+        }
+
+        int loadedCount = 0;
+        for (String pipelineJar : pipelineJars) {
+            loadedCount += loadClasses(Paths.get(pipelineJar));
+        }
+        log.info("Loaded " + loadedCount + " pipeline classes for class-data-sharing archive");
+    }
+
+    private static int loadClasses(Path jar) throws IOException {
+        ClassLoader classLoader = ClassDataSharingArchive.class.getClassLoader();
+        int loadedCount = 0;
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                String entryName = entries.nextElement().getName();
+                if (!entryName.endsWith(CLASS_SUFFIX) || entryName.startsWith("META-INF/")) {
+                    continue;
+                }
+                String className = entryName
+                    .substring(0, entryName.length() - CLASS_SUFFIX.length())
+                    .replace('/', '.');
+                try {
+                    Class.forName(className, false, classLoader);
+                    loadedCount++;
+                } catch (LinkageError | ClassNotFoundException e) {
+                    log.debug("Unable to load " + className, e);
+                }
+            }
+        }
+        return loadedCount;
+    }
+
+    /**
+     * Data written to and read from an HDF5 file during training.
+     */
+    public static class TrainingData implements Persistable {
+        private int[] intValues = { 1, 2, 3 };
+        private double[][] doubleValues = { { 1.0, 2.0 }, { 3.0, 4.0 } };
+        private String name = "training";
+    }
+}
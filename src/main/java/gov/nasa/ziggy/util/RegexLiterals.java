@@ -0,0 +1,286 @@
+package gov.nasa.ziggy.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Determines the literal prefix and suffix of a regular expression: that is, the strings that any
+ * input must start and end with in order to match the regular expression. These can be used to
+ * reject most non-matching inputs without running the regular expression engine.
+ * <p>
+ * The analysis is conservative: any construct that is not understood (top-level alternation, flag
+ * groups, quoted sections, etc.) results in an empty prefix and suffix, which never rejects an
+ * input.
+ *
+ * @author PT
+ */
+public class RegexLiterals {
+
+    private static final String META_CHARACTERS = ".^$|?*+()[]{}\\";
+
+    private final String prefix;
+    private final String suffix;
+    private final boolean literal;
+
+    public RegexLiterals(Pattern pattern) {
+        this(pattern.flags() == 0 ? pattern.pattern() : null);
+    }
+
+    public RegexLiterals(String regex) {
+        List<Character> tokens = regex == null ? null : tokenize(regex);
+        if (tokens == null) {
+            prefix = "";
+            suffix = "";
+            literal = false;
+            return;
+        }
+        StringBuilder prefixBuilder = new StringBuilder();
+        int i = 0;
+        while (i < tokens.size() && tokens.get(i) != null) {
+            prefixBuilder.append(tokens.get(i++));
+        }
+        literal = i == tokens.size();
+        StringBuilder suffixBuilder = new StringBuilder();
+        int j = tokens.size() - 1;
+        while (j >= 0 && tokens.get(j) != null) {
+            suffixBuilder.append(tokens.get(j--));
+        }
+        prefix = prefixBuilder.toString();
+        suffix = suffixBuilder.reverse().toString();
+    }
+
+    /**
+     * Literal string that all matching inputs start with.
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Literal string that all matching inputs end with.
+     */
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Indicates that the regular expression contains no metacharacters, hence the only input that
+     * matches it is the prefix (which is equal to the suffix).
+     */
+    public boolean isLiteral() {
+        return literal;
+    }
+
+    /**
+     * Determines whether an input can possibly match the regular expression. A return value of
+     * false means that the input definitely does not match; a return value of true means that the
+     * regular expression must be used to determine whether the input matches.
+     */
+    public boolean mayMatch(String input) {
+        if (literal) {
+            return input.equals(prefix);
+        }
+        return input.length() >= prefix.length() + suffix.length() && input.startsWith(prefix)
+            && input.endsWith(suffix);
+    }
+
+    /**
+     * Breaks a regular expression into tokens. Each literal character produces a token that
+     * contains the character; each construct that can match anything other than a single fixed
+     * character produces a null token. Returns null if the regex contains a construct that prevents
+     * analysis.
+     */
+    private static List<Character> tokenize(String regex) {
+        List<Character> tokens = new ArrayList<>();
+        int depth = 0;
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (META_CHARACTERS.indexOf(c) < 0) {
+                tokens.add(c);
+                i++;
+                continue;
+            }
+            switch (c) {
+                case '\\':
+                    int end = escapeEnd(regex, i);
+                    if (end < 0) {
+                        return null;
+                    }
+
+                    // Only an escaped metacharacter is known to match itself; anything else
+                    // (character classes, hex / unicode / octal escapes, back-references, etc.)
+                    // ends the literal prefix or suffix.
+                    char escaped = regex.charAt(i + 1);
+                    tokens.add(end == i + 2 && META_CHARACTERS.indexOf(escaped) >= 0 ? escaped
+                        : null);
+                    i = end;
+                    break;
+                case '[':
+                    int close = closingBracket(regex, i);
+                    if (close < 0) {
+                        return null;
+                    }
+                    tokens.add(null);
+                    i = close + 1;
+                    break;
+                case '(':
+                    if (i + 1 < regex.length() && regex.charAt(i + 1) == '?') {
+                        return null;
+                    }
+                    depth++;
+                    tokens.add(null);
+                    i++;
+                    break;
+                case ')':
+                    depth--;
+                    tokens.add(null);
+                    i++;
+                    break;
+                case '|':
+                    if (depth == 0) {
+                        return null;
+                    }
+                    tokens.add(null);
+                    i++;
+                    break;
+                case '?':
+                case '*':
+                case '+':
+                case '{':
+
+                    // A quantifier makes the preceding token variable.
+                    if (!tokens.isEmpty()) {
+                        tokens.set(tokens.size() - 1, null);
+                    }
+                    tokens.add(null);
+                    if (c == '{') {
+                        int closeBrace = regex.indexOf('}', i);
+                        if (closeBrace < 0) {
+                            return null;
+                        }
+                        i = closeBrace + 1;
+                    } else {
+                        i++;
+                    }
+                    break;
+                case '^':
+                case '$':
+
+                    // Anchors are implicit in a full match, so they can be dropped if they
+                    // appear at the start or end of the expression.
+                    if (i == 0 && c == '^' || i == regex.length() - 1 && c == '$') {
+                        i++;
+                        break;
+                    }
+                    tokens.add(null);
+                    i++;
+                    break;
+                default:
+                    tokens.add(null);
+                    i++;
+            }
+        }
+        return depth == 0 ? tokens : null;
+    }
+
+    /**
+     * Finds the end of the escape sequence that starts with the backslash at a given location:
+     * that is, the location of the first character after the escape sequence. Returns -1 if the
+     * escape sequence is malformed or introduces a quoted section.
+     */
+    private static int escapeEnd(String regex, int backslashLocation) {
+        int i = backslashLocation + 1;
+        if (i >= regex.length()) {
+            return -1;
+        }
+        char escaped = regex.charAt(i++);
+        switch (escaped) {
+            case 'Q':
+                return -1;
+            case 'x':
+                if (i < regex.length() && regex.charAt(i) == '{') {
+                    return closingBrace(regex, i);
+                }
+                return fixedWidthEnd(regex, i, 2);
+            case 'u':
+                return fixedWidthEnd(regex, i, 4);
+            case 'c':
+                return fixedWidthEnd(regex, i, 1);
+            case '0':
+
+                // Up to three octal digits, the first of which must be at most 3.
+                int maxDigits = i < regex.length() && regex.charAt(i) <= '3' ? 3 : 2;
+                int digits = 0;
+                while (digits < maxDigits && i < regex.length() && regex.charAt(i) >= '0'
+                    && regex.charAt(i) <= '7') {
+                    i++;
+                    digits++;
+                }
+                return digits == 0 ? -1 : i;
+            case 'p':
+            case 'P':
+            case 'N':
+                if (i < regex.length() && regex.charAt(i) == '{') {
+                    return closingBrace(regex, i);
+                }
+                return escaped == 'N' ? -1 : fixedWidthEnd(regex, i, 1);
+            case 'k':
+                if (i >= regex.length() || regex.charAt(i) != '<') {
+                    return -1;
+                }
+                int closeAngle = regex.indexOf('>', i);
+                return closeAngle < 0 ? -1 : closeAngle + 1;
+            default:
+
+                // A back-reference consumes as many digits as can form a group number. Taking
+                // all of them is conservative: a trailing digit that is really a literal simply
+                // doesn't contribute to the prefix or suffix.
+                if (escaped >= '1' && escaped <= '9') {
+                    while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+                        i++;
+                    }
+                }
+                return i;
+        }
+    }
+
+    private static int fixedWidthEnd(String regex, int start, int width) {
+        return start + width <= regex.length() ? start + width : -1;
+    }
+
+    private static int closingBrace(String regex, int openLocation) {
+        int closeLocation = regex.indexOf('}', openLocation);
+        return closeLocation < 0 ? -1 : closeLocation + 1;
+    }
+
+    /**
+     * Finds the closing bracket of a character class that starts at a given location, or -1 if no
+     * closing bracket is present.
+     */
+    private static int closingBracket(String regex, int openLocation) {
+        int depth = 0;
+        int i = openLocation;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = escapeEnd(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+}
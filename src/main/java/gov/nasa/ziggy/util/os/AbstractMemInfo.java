@@ -68,7 +68,7 @@ public abstract class AbstractMemInfo extends AbstractSysInfo implements MemInfo
         return getValueInKb(getFreeSwapKey());
     }
 
-    private long getValueInKb(String key) {
+    protected long getValueInKb(String key) {
         if (key == null) {
             return -1L;
         }
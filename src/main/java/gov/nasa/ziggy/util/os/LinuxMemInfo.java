@@ -1,6 +1,10 @@
 package gov.nasa.ziggy.util.os;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
 
 /**
  * Determines the total memory for the current hardware at runtime under the Linux operating system.
@@ -10,11 +14,14 @@ import java.io.IOException;
  */
 public class LinuxMemInfo extends AbstractMemInfo {
     private static final String MEMINFO_COMMAND = "/usr/bin/more /proc/meminfo";
+    private static final Path MEMINFO_PATH = Paths.get("/proc/meminfo");
 
     /*
      * @formatter:off
         MemTotal: Total amount of physical RAM, in kilobytes.
         MemFree: The amount of physical RAM, in kilobytes, left unused by the system.
+        MemAvailable: An estimate of the amount of physical RAM, in kilobytes, available for
+            starting new applications without swapping (kernel 3.14 and later).
         Buffers: The amount of physical RAM, in kilobytes, used for file buffers.
         Cached: The amount of physical RAM, in kilobytes, used as cache memory.
         SwapCached: The amount of swap, in kilobytes, used as cache memory.
@@ -33,6 +40,7 @@ public class LinuxMemInfo extends AbstractMemInfo {
 
     private static final String TOTAL_MEMORY_KEY = "MemTotal";
     private static final String FREE_MEMORY_KEY = "MemFree";
+    private static final String AVAILABLE_MEMORY_KEY = "MemAvailable";
     private static final String BUFFERS_KEY = "Buffers";
     private static final String CACHED_KEY = "Cached";
     private static final String SWAP_CACHED_KEY = "SwapCached";
@@ -43,6 +51,29 @@ public class LinuxMemInfo extends AbstractMemInfo {
         super(commandOutput(MEMINFO_COMMAND));
     }
 
+    public LinuxMemInfo(Collection<String> meminfo) throws IOException {
+        super(meminfo);
+    }
+
+    /**
+     * Reads /proc/meminfo directly rather than through an external process. This is cheap enough
+     * to be called every few seconds.
+     */
+    public static LinuxMemInfo fromProcMeminfo() throws IOException {
+        return new LinuxMemInfo(Files.readAllLines(MEMINFO_PATH));
+    }
+
+    /**
+     * Returns the memory available for new processes without swapping. Kernels that don't report
+     * MemAvailable are approximated by the sum of the free, buffer, and cache memory.
+     */
+    public long getAvailableMemoryKB() {
+        if (get(AVAILABLE_MEMORY_KEY) != null) {
+            return getValueInKb(AVAILABLE_MEMORY_KEY);
+        }
+        return getFreeMemoryKB() + getBuffersKB() + getCachedKB();
+    }
+
     @Override
     public String getTotalMemoryKey() {
         return TOTAL_MEMORY_KEY;
@@ -317,6 +317,39 @@ public class ZiggyArrayUtilsTest {
         Object floatArray1 = ZiggyArrayUtils.castNumericToNumeric(doubleArray1, ZIGGY_FLOAT);
         float[] expected = { 6, 7, 8, 9, 10 };
         assertTrue(Arrays.equals(expected, (float[]) floatArray1));
+
+        // The casts match the Number methods.
+        double[] doubleArray2 = { 3.7, -3.7, 3e9, 300 };
+        assertTrue(Arrays.equals(new byte[] { Double.valueOf(3.7).byteValue(),
+            Double.valueOf(-3.7).byteValue(), Double.valueOf(3e9).byteValue(),
+            Double.valueOf(300).byteValue() },
+            (byte[]) ZiggyArrayUtils.castNumericToNumeric(doubleArray2, ZIGGY_BYTE)));
+        assertTrue(Arrays.equals(new long[] { 3, -3, 3000000000L, 300 },
+            (long[]) ZiggyArrayUtils.castNumericToNumeric(doubleArray2, ZIGGY_LONG)));
+        short[] shortArray1 = { -2, 400 };
+        assertTrue(Arrays.equals(new double[] { -2, 400 },
+            (double[]) ZiggyArrayUtils.castNumericToNumeric(shortArray1, ZIGGY_DOUBLE)));
+        assertTrue(Arrays.equals(new byte[] { -2, (byte) 400 },
+            (byte[]) ZiggyArrayUtils.castNumericToNumeric(shortArray1, ZIGGY_BYTE)));
+    }
+
+    @Test
+    public void testFlattenAndUnflatten() {
+        int[][][] intArray3 = { { { 1, 2 }, { 3, 4 }, { 5, 6 } },
+            { { 7, 8 }, { 9, 10 }, { 11, 12 } } };
+        int[] flatArray = (int[]) ZiggyArrayUtils.flatten(intArray3);
+        assertTrue(Arrays.equals(new int[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }, flatArray));
+        Object unflattenedArray = ZiggyArrayUtils.unflatten(flatArray, new long[] { 2, 3, 2 });
+        assertTrue(Arrays.deepEquals(intArray3, (Object[]) unflattenedArray));
+
+        double[] doubleArray1 = { 1, 2 };
+        assertTrue(doubleArray1 == ZiggyArrayUtils.flatten(doubleArray1));
+        assertTrue(doubleArray1 == ZiggyArrayUtils.unflatten(doubleArray1, new long[] { 2 }));
+    }
+
+    @Test(expected = PipelineException.class)
+    public void testFlattenRaggedArray() {
+        ZiggyArrayUtils.flatten(new float[][] { { 1, 2 }, { 3 } });
     }
 
     @Test
@@ -0,0 +1,149 @@
+package gov.nasa.ziggy.collections;
+
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_BOOLEAN;
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_DOUBLE;
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_FLOAT;
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_INT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.nasa.ziggy.module.PipelineException;
+
+/**
+ * Unit tests for the {@link ZiggyNdArray} class.
+ *
+ * @author PT
+ */
+public class ZiggyNdArrayTest {
+
+    @Rule
+    public TemporaryFolder tFolder = new TemporaryFolder();
+
+    private static int[][][] intArray() {
+        int[][][] array = new int[3][4][5];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 4; j++) {
+                for (int k = 0; k < 5; k++) {
+                    array[i][j][k] = 100 * i + 10 * j + k;
+                }
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Tests that nested arrays are converted to and from each kind of storage.
+     */
+    @Test
+    public void testNestedArrayRoundTrip() throws IOException {
+        int[][][] array = intArray();
+        ZiggyNdArray heap = ZiggyNdArray.fromArray(array);
+        assertEquals(ZIGGY_INT, heap.getDataType());
+        assertEquals(ZiggyNdArray.Storage.HEAP, heap.getStorage());
+        assertArrayEquals(new long[] { 3, 4, 5 }, heap.getDimensions());
+        assertArrayEquals(array, (int[][][]) heap.toArray());
+        assertEquals(123, heap.get(1, 2, 3));
+
+        ZiggyNdArray direct = ZiggyNdArray.allocateDirect(ZIGGY_INT, 3, 4, 5);
+        direct.copyFrom(array);
+        assertArrayEquals(array, (int[][][]) direct.toArray());
+
+        ZiggyNdArray mapped = ZiggyNdArray.map(tFolder.newFile("mapped.dat"), ZIGGY_INT, 3, 4,
+            5);
+        mapped.copyFrom(heap);
+        assertArrayEquals(array, (int[][][]) mapped.toArray());
+    }
+
+    /**
+     * Tests that a memory-mapped array holds the contents of its file when the file is mapped
+     * again.
+     */
+    @Test
+    public void testMappedArrayPersists() throws IOException {
+        File file = new File(tFolder.getRoot(), "persisted.dat");
+        ZiggyNdArray mapped = ZiggyNdArray.map(file, ZIGGY_DOUBLE, 10, 20);
+        mapped.fill(2.5);
+        mapped.set(7.0, 9, 19);
+        mapped.force();
+        assertEquals(10 * 20 * 8, file.length());
+
+        ZiggyNdArray remapped = ZiggyNdArray.map(file, ZIGGY_DOUBLE, 10, 20);
+        assertEquals(2.5, remapped.getDouble(0, 0), 0);
+        assertEquals(7.0, remapped.getDouble(9, 19), 0);
+    }
+
+    /**
+     * Tests that views share the buffer of their parent array, including views that are not
+     * contiguous.
+     */
+    @Test
+    public void testViews() {
+        ZiggyNdArray ndArray = ZiggyNdArray.fromArray(intArray());
+
+        ZiggyNdArray slice = ndArray.slice(new long[] { 1, 1, 2 }, new long[] { 2, 2, 3 });
+        assertFalse(slice.isContiguous());
+        assertArrayEquals(new int[][][] { { { 112, 113, 114 }, { 122, 123, 124 } },
+            { { 212, 213, 214 }, { 222, 223, 224 } } }, (int[][][]) slice.toArray());
+        slice.fill(-1);
+        assertEquals(-1, ndArray.get(2, 2, 4));
+        assertEquals(230, ndArray.get(2, 3, 0));
+        assertEquals(111, ndArray.get(1, 1, 1));
+
+        ZiggyNdArray rectangle = ndArray.slice(new HyperRectangle(new int[] { 3, 4, 5 },
+            new int[] { 1, 2, 5 }, new int[] { 0, 1, 0 }));
+        assertTrue(rectangle.isContiguous());
+        assertArrayEquals(new int[][][] { { { 10, 11, 12, 13, 14 }, { 20, 21, 22, 23, 24 } } },
+            (int[][][]) rectangle.toArray());
+
+        ZiggyNdArray subArray = ndArray.subArray(2).subArray(3);
+        assertArrayEquals(new long[] { 5 }, subArray.getDimensions());
+        assertArrayEquals(new int[] { 230, 231, 232, 233, 234 }, (int[]) subArray.toArray());
+    }
+
+    @Test
+    public void testCastAndBoolean() {
+        ZiggyNdArray floats = ZiggyNdArray.allocate(ZIGGY_FLOAT, 2, 3);
+        floats.copyFrom(new double[][] { { 1.5, 2.5, 3.5 }, { 4.5, 5.5, 6.5 } });
+        assertArrayEquals(new float[] { 4.5F, 5.5F, 6.5F }, (float[]) floats.subArray(1).toArray(),
+            0);
+
+        ZiggyNdArray booleans = ZiggyNdArray.fromArray(new boolean[][] { { true, false } });
+        assertArrayEquals(new boolean[][] { { true, false } }, (boolean[][]) booleans.toArray());
+        booleans.set(true, 0, 1);
+        assertEquals(1.0, booleans.getDouble(0, 1), 0);
+        assertEquals(ZIGGY_BOOLEAN, ZiggyDataType.getDataType(booleans));
+    }
+
+    @Test
+    public void testArrayUtils() {
+        ZiggyNdArray ndArray = ZiggyNdArray.allocateDirect(ZIGGY_DOUBLE, 4, 2);
+        assertArrayEquals(new long[] { 4, 2 }, ZiggyArrayUtils.getArraySize(ndArray));
+        ZiggyArrayUtils.fill(ndArray, 3);
+        assertArrayEquals(new double[] { 3, 3, 3, 3, 3, 3, 3, 3 }, (double[]) ndArray.toFlatArray(),
+            0);
+    }
+
+    @Test(expected = PipelineException.class)
+    public void testSliceOutsideArray() {
+        ZiggyNdArray.allocate(ZIGGY_INT, 3, 4).slice(new long[] { 2, 0 }, new long[] { 2, 4 });
+    }
+
+    @Test(expected = PipelineException.class)
+    public void testArrayTooLarge() {
+        ZiggyNdArray.allocate(ZIGGY_DOUBLE, 65536, 65536);
+    }
+
+    @Test(expected = PipelineException.class)
+    public void testSizeMismatch() {
+        ZiggyNdArray.allocate(ZIGGY_INT, 3, 4).copyFrom(new int[11]);
+    }
+}
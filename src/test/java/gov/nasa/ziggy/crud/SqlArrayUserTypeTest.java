@@ -0,0 +1,85 @@
+package gov.nasa.ziggy.crud;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link SqlArrayUserType} class.
+ *
+ * @author PT
+ */
+public class SqlArrayUserTypeTest {
+
+    private Connection connection;
+    private SqlArrayUserType userType = new SqlArrayUserType("BIGINT");
+
+    @Before
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:sqlArrayUserTypeTest", "sa",
+            "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table ARRAYS (ID int, VALS bigint array)");
+        }
+    }
+
+    @After
+    public void teardown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("drop table ARRAYS");
+        }
+        connection.close();
+    }
+
+    @Test
+    public void testRoundTrip() throws SQLException {
+        insert(1, Arrays.asList(3L, 1L, 2L));
+        insert(2, null);
+
+        assertEquals(Arrays.asList(3L, 1L, 2L), select(1));
+        assertNull(select(2));
+    }
+
+    @Test
+    public void testDisassembleAndAssemble() {
+        List<Long> values = Arrays.asList(5L, 6L);
+        Serializable cached = userType.disassemble(values);
+        assertEquals(values, cached);
+        assertEquals(values, userType.assemble(cached, null));
+        assertNull(userType.disassemble(null));
+        assertNull(userType.assemble(null, null));
+    }
+
+    private void insert(int id, List<Long> values) throws SQLException {
+        try (PreparedStatement insert = connection
+            .prepareStatement("insert into ARRAYS (ID, VALS) values (?, ?)")) {
+            insert.setInt(1, id);
+            userType.nullSafeSet(insert, values, 2, null);
+            insert.executeUpdate();
+        }
+    }
+
+    private Object select(int id) throws SQLException {
+        try (PreparedStatement select = connection
+            .prepareStatement("select VALS from ARRAYS where ID = ?")) {
+            select.setInt(1, id);
+            try (ResultSet resultSet = select.executeQuery()) {
+                resultSet.next();
+                return userType.nullSafeGet(resultSet, new String[] { "VALS" }, null, null);
+            }
+        }
+    }
+}
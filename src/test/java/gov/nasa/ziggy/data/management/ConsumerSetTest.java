@@ -0,0 +1,102 @@
+package gov.nasa.ziggy.data.management;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link ConsumerSet} class.
+ *
+ * @author PT
+ */
+public class ConsumerSetTest {
+
+    @Test
+    public void testEmpty() {
+        assertTrue(ConsumerSet.of(Collections.emptySet()).isEmpty());
+        assertSame(ConsumerSet.EMPTY, ConsumerSet.fromBytes(null));
+        assertSame(ConsumerSet.EMPTY, ConsumerSet.fromBytes(new byte[0]));
+        assertEquals(ConsumerSet.EMPTY, ConsumerSet.fromBytes(ConsumerSet.EMPTY.toBytes()));
+        assertFalse(ConsumerSet.EMPTY.containsAny(Arrays.asList(0L, 1L)));
+        assertEquals(0, ConsumerSet.EMPTY.toArray().length);
+    }
+
+    @Test
+    public void testSortedDeltas() {
+
+        // Widely-spaced IDs of both signs should use the sorted-deltas format.
+        List<Long> ids = Arrays.asList(500000L, -12L, 3L, -700000L, 3L, Long.MAX_VALUE);
+        ConsumerSet consumerSet = ConsumerSet.of(ids);
+        assertEquals(ConsumerSet.SORTED_DELTAS, consumerSet.toBytes()[0]);
+        checkContents(new TreeSet<>(ids), consumerSet);
+    }
+
+    @Test
+    public void testBitmap() {
+
+        // Dense IDs should use the bitmap format.
+        Set<Long> ids = new TreeSet<>();
+        for (long id = 1000; id < 1100; id += 2) {
+            ids.add(id);
+        }
+        ConsumerSet consumerSet = ConsumerSet.of(ids);
+        assertEquals(ConsumerSet.BITMAP, consumerSet.toBytes()[0]);
+        assertTrue(consumerSet.toBytes().length < ids.size());
+        checkContents(ids, consumerSet);
+    }
+
+    @Test
+    public void testWith() {
+        ConsumerSet consumerSet = ConsumerSet.of(Arrays.asList(5L, 10L));
+        assertSame(consumerSet, consumerSet.with(10L));
+        ConsumerSet newSet = consumerSet.with(-5L);
+        assertArrayEquals(new long[] { -5L, 5L, 10L }, newSet.toArray());
+        assertArrayEquals(new long[] { 5L, 10L }, consumerSet.toArray());
+        assertEquals(ConsumerSet.of(Arrays.asList(10L, 5L, -5L)), newSet);
+        assertArrayEquals(new long[] { -5L, 1L, 5L, 10L },
+            newSet.withAll(Arrays.asList(1L, 5L)).toArray());
+    }
+
+    @Test
+    public void testRandomSets() {
+        Random random = new Random(1234L);
+        for (int i = 0; i < 100; i++) {
+            Set<Long> ids = new TreeSet<>();
+            int range = 1 + random.nextInt(100000);
+            int count = random.nextInt(200);
+            for (int j = 0; j < count; j++) {
+                ids.add((long) (random.nextInt(range) - range / 2));
+            }
+            checkContents(ids, ConsumerSet.of(ids));
+        }
+    }
+
+    private void checkContents(Set<Long> expected, ConsumerSet consumerSet) {
+        assertEquals(expected.size(), consumerSet.size());
+        assertEquals(expected, consumerSet.toSet());
+        ConsumerSet decoded = ConsumerSet.fromBytes(consumerSet.toBytes());
+        assertEquals(consumerSet, decoded);
+        assertEquals(expected, decoded.toSet());
+        List<Long> absent = new ArrayList<>();
+        for (long id : expected) {
+            assertTrue(consumerSet.contains(id));
+            assertTrue(consumerSet.containsAny(Arrays.asList(Long.MIN_VALUE, id)));
+            if (!expected.contains(id + 1)) {
+                absent.add(id + 1);
+            }
+        }
+        assertFalse(consumerSet.containsAny(absent));
+    }
+}
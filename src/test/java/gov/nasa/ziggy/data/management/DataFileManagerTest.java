@@ -6,6 +6,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
@@ -115,6 +116,10 @@ public class DataFileManagerTest {
         FileUtil.setPosixPermissionsRecursively(new File(datastoreRoot).toPath(), "rwxrwxrwx");
         FileUtils.forceDelete(new File(Filenames.BUILD_TEST));
         System.clearProperty(PropertyNames.USE_SYMLINKS_PROP_NAME);
+        System.clearProperty(PropertyNames.COPY_MODE_PROP_NAME);
+        FileSystemCapabilities.reset();
+        System.clearProperty(PropertyNames.DATASTORE_CATALOG_ENABLED_PROP_NAME);
+        DatastoreCatalog.reset();
         System.clearProperty(PropertyNames.ZIGGY_TEST_WORKING_DIR_PROP_NAME);
         System.setProperty("user.dir", originalWorkingDir);
     }
@@ -623,6 +628,44 @@ public class DataFileManagerTest {
 
     }
 
+    /**
+     * Tests that all subtask directories are populated at once with their own files and the shared
+     * files, which are hard-linked even though the copy mode is copy, or symlinked if symlinks are
+     * used.
+     */
+    @Test
+    public void testPopulateSubtaskDirectories() throws IOException {
+
+        constructTaskDirFiles();
+        TaskConfigurationManager taskConfigurationManager = new TaskConfigurationManager(
+            new File(taskDir));
+        taskConfigurationManager
+            .addFilesForSubtask(Sets.newHashSet("pa-001234567-20-results.h5"));
+        taskConfigurationManager
+            .addFilesForSubtask(Sets.newHashSet("pa-765432100-20-results.h5"));
+        dataFileManager2.populateSubtaskDirectories(taskConfigurationManager,
+            Collections.singleton("pdc-1-1-20-results.h5"));
+
+        for (int i = 0; i < 2; i++) {
+            Set<String> filesInSubtaskDir = getNamesFromListFiles(
+                TaskConfigurationManager.subtaskDirectory(new File(taskDir), i).listFiles());
+            assertEquals(3, filesInSubtaskDir.size());
+            assertTrue(filesInSubtaskDir.contains("pdc-1-1-20-results.h5"));
+        }
+        Path subtaskFile = Paths.get(subtaskDir, "pa-001234567-20-results.h5");
+        Path taskDirFile = Paths.get(taskDir, "pa-001234567-20-results.h5");
+        assertFalse(java.nio.file.Files.isSymbolicLink(subtaskFile));
+        assertEquals(java.nio.file.Files.getAttribute(subtaskFile, "unix:ino"),
+            java.nio.file.Files.getAttribute(taskDirFile, "unix:ino"));
+
+        System.setProperty(PropertyNames.USE_SYMLINKS_PROP_NAME, "true");
+        initializeDataFileManager2();
+        FileUtils.deleteDirectory(new File(subtaskDir));
+        dataFileManager2.populateSubtaskDirectories(taskConfigurationManager,
+            Collections.singleton("pdc-1-1-20-results.h5"));
+        assertTrue(java.nio.file.Files.isSymbolicLink(subtaskFile));
+    }
+
     /**
      * Tests that when symlinks are deleted from the task directory, they remain in the subtask
      * directory and point to the datastore, not the task directory.
@@ -1161,6 +1204,94 @@ public class DataFileManagerTest {
 
     }
 
+    @Test
+    public void testHardlinkDataFilesByTypeToTaskDirectory()
+        throws IOException, InterruptedException {
+
+        // set up the datastore
+        constructDatastoreFiles();
+
+        // Enable hard links
+        System.setProperty(PropertyNames.COPY_MODE_PROP_NAME, "hardlink");
+        initializeDataFileManager2();
+
+        Set<DataFileType> dataFileTypes = new HashSet<>();
+        dataFileTypes.add(DataFileTestUtils.dataFileTypeSample1);
+        dataFileTypes.add(DataFileTestUtils.dataFileTypeSample2);
+        dataFileManager2.copyDataFilesByTypeToTaskDirectory(Paths.get(""), dataFileTypes, null);
+
+        File taskDirFile = new File(taskDir);
+        File[] endFileList = taskDirFile.listFiles();
+        assertEquals(5, endFileList.length);
+        assertTrue(checkForSymlinks(endFileList, false));
+
+        // The task directory files should be the same files as the datastore files
+        assertTrue(java.nio.file.Files.isSameFile(
+            taskDirFile.toPath().resolve("pa-001234567-20-results.h5"),
+            Paths.get(datastoreRoot, "pa", "20", "pa-001234567-20-results.h5")));
+        assertTrue(java.nio.file.Files.isSameFile(
+            taskDirFile.toPath().resolve("cal-1-1-B-20-results.h5"),
+            Paths.get(datastoreRoot, "cal", "20", "cal-1-1-B-20-results.h5")));
+    }
+
+    @Test
+    public void testHardlinkDirectoriesByTypeToTaskDirectory() throws IOException {
+
+        // set up the datastore
+        constructDatastoreDirectories();
+
+        // Enable hard links
+        System.setProperty(PropertyNames.COPY_MODE_PROP_NAME, "hardlink");
+        initializeDataFileManager2();
+
+        Set<DataFileType> dataFileTypes = new HashSet<>();
+        DataFileTestUtils.initializeDataFileTypeForDirectories();
+        dataFileTypes.add(DataFileTestUtils.dataFileTypeForDirectories);
+        dataFileManager2.copyDataFilesByTypeToTaskDirectory(Paths.get(""), dataFileTypes, null);
+
+        // The directories should be real directories, and their contents should be the same
+        // files as the datastore contents
+        Path taskDirDir = Paths.get(taskDir, "EO1H0230312000337112N0_WGS_01");
+        Path datastoreDir = Paths.get(datastoreRoot, "EO1H0230312000337112N0_WGS_01");
+        assertTrue(java.nio.file.Files.isDirectory(taskDirDir, LinkOption.NOFOLLOW_LINKS));
+        File[] datastoreDirContents = datastoreDir.toFile().listFiles();
+        assertEquals(datastoreDirContents.length, taskDirDir.toFile().listFiles().length);
+        for (File datastoreFile : datastoreDirContents) {
+            assertTrue(java.nio.file.Files.isSameFile(datastoreFile.toPath(),
+                taskDirDir.resolve(datastoreFile.getName())));
+        }
+    }
+
+    @Test
+    public void testReflinkDataFilesByTypeToTaskDirectory()
+        throws IOException, InterruptedException {
+
+        // set up the datastore
+        constructDatastoreFiles();
+
+        // Enable reflinks. On file systems that don't support them, copies are made instead.
+        System.setProperty(PropertyNames.COPY_MODE_PROP_NAME, "reflink");
+        initializeDataFileManager2();
+
+        Set<DataFileType> dataFileTypes = new HashSet<>();
+        dataFileTypes.add(DataFileTestUtils.dataFileTypeSample1);
+        dataFileTypes.add(DataFileTestUtils.dataFileTypeSample2);
+        dataFileManager2.copyDataFilesByTypeToTaskDirectory(Paths.get(""), dataFileTypes, null);
+
+        File taskDirFile = new File(taskDir);
+        File[] endFileList = taskDirFile.listFiles();
+        assertEquals(5, endFileList.length);
+        assertTrue(checkForSymlinks(endFileList, false));
+
+        // The task directory files should be independent of the datastore files
+        Path taskDirFilePath = taskDirFile.toPath().resolve("pa-001234567-20-results.h5");
+        Path datastoreFilePath = Paths.get(datastoreRoot, "pa", "20",
+            "pa-001234567-20-results.h5");
+        assertFalse(java.nio.file.Files.isSameFile(taskDirFilePath, datastoreFilePath));
+        assertEquals(java.nio.file.Files.size(datastoreFilePath),
+            java.nio.file.Files.size(taskDirFilePath));
+    }
+
     /**
      * Tests the deleteDataFilesByTypeFromTaskDirectory() method of DataFileManager.
      *
@@ -1315,6 +1446,46 @@ public class DataFileManagerTest {
 
     }
 
+    /**
+     * Tests that files moved to the datastore are added to the datastore catalog, and that the
+     * catalog is used to locate datastore files when it is enabled.
+     */
+    @Test
+    public void testMoveDataFilesByTypeToDatastoreWithCatalog() throws IOException {
+
+        System.setProperty(PropertyNames.DATASTORE_CATALOG_ENABLED_PROP_NAME, "true");
+        constructTaskDirFiles();
+
+        Set<DataFileType> dataFileTypes = new HashSet<>();
+        dataFileTypes.add(DataFileTestUtils.dataFileTypeSample1);
+        dataFileTypes.add(DataFileTestUtils.dataFileTypeSample2);
+        dataFileManager2.moveDataFilesByTypeToDatastore(dataFileTypes);
+
+        // Put a file into the datastore that does not go through the DataFileManager; it
+        // should not be found because the catalog doesn't know about it.
+        File paDatastoreFile = new File(datastoreRoot, "pa/20");
+        new File(paDatastoreFile, "pa-000000000-20-results.h5").createNewFile();
+
+        Map<DataFileType, Set<Path>> dataFileTypeMap = dataFileManager2
+            .datastoreDataFilesMap(Paths.get(""), dataFileTypes);
+        Set<String> d1Names = getNamesFromPaths(
+            dataFileTypeMap.get(DataFileTestUtils.dataFileTypeSample1));
+        assertEquals(2, d1Names.size());
+        assertTrue(d1Names.contains("pa-001234567-20-results.h5"));
+        assertTrue(d1Names.contains("pa-765432100-20-results.h5"));
+        Set<String> d2Names = getNamesFromPaths(
+            dataFileTypeMap.get(DataFileTestUtils.dataFileTypeSample2));
+        assertEquals(2, d2Names.size());
+        assertTrue(d2Names.contains("cal-1-1-A-20-results.h5"));
+        assertTrue(d2Names.contains("cal-1-1-B-20-results.h5"));
+
+        // After a rebuild of the catalog, the additional file is found.
+        DatastoreCatalog.forDatastore(Paths.get(datastoreRoot)).rebuild();
+        dataFileTypeMap = dataFileManager2.datastoreDataFilesMap(Paths.get("pa"), dataFileTypes);
+        assertEquals(3, dataFileTypeMap.get(DataFileTestUtils.dataFileTypeSample1).size());
+        assertTrue(dataFileTypeMap.get(DataFileTestUtils.dataFileTypeSample2).isEmpty());
+    }
+
     /**
      * Tests the deleteFromTaskDirectory() method in the case in which the objects to be deleted are
      * directories, including non-empty directories.
@@ -1941,7 +2112,7 @@ public class DataFileManagerTest {
      *
      * @author PT
      */
-    private static class ProducerConsumerCrud extends DatastoreProducerConsumerCrud {
+    private class ProducerConsumerCrud extends DatastoreProducerConsumerCrud {
 
         @Override
         public List<DatastoreProducerConsumer> retrieveByFilename(Set<Path> datafiles) {
@@ -1956,6 +2127,35 @@ public class DataFileManagerTest {
             return returns;
         }
 
+        /**
+         * Emulates the database-side filter using the task IDs for the node that are provided by
+         * the mocked {@link PipelineTaskCrud}.
+         */
+        @Override
+        public Set<Path> retrieveFilesNotConsumedByNode(Set<Path> datafiles,
+            PipelineDefinitionNode pipelineDefinitionNode) {
+            List<DatastoreProducerConsumer> dpcs = retrieveByFilename(datafiles);
+            Set<Long> allConsumers = new HashSet<>();
+            dpcs.stream().forEach(s -> allConsumers.addAll(s.getAllConsumers()));
+            List<Long> consumersWithMatchingNode = pipelineTaskCrud
+                .retrieveIdsForPipelineDefinitionNode(allConsumers, pipelineDefinitionNode);
+            return dpcs.stream()
+                .filter(s -> Collections.disjoint(s.getAllConsumers(), consumersWithMatchingNode))
+                .map(s -> Paths.get(s.getFilename()))
+                .collect(Collectors.toSet());
+        }
+
+        @Override
+        public Set<Path> retrieveFilesNotConsumedByTasks(Set<Path> datafiles,
+            Collection<Long> taskIds, PipelineDefinitionNode pipelineDefinitionNode) {
+            List<Long> tasksWithMatchingNode = pipelineTaskCrud
+                .retrieveIdsForPipelineDefinitionNode(taskIds, pipelineDefinitionNode);
+            return retrieveByFilename(datafiles).stream()
+                .filter(s -> Collections.disjoint(s.getConsumers(), tasksWithMatchingNode))
+                .map(s -> Paths.get(s.getFilename()))
+                .collect(Collectors.toSet());
+        }
+
         @Override
         public Set<Long> retrieveProducers(Set<Path> paths) {
             return Sets.newHashSet(PROD_TASK_ID1, PROD_TASK_ID2);
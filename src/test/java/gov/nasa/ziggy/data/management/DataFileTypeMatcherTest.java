@@ -0,0 +1,82 @@
+package gov.nasa.ziggy.data.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+import gov.nasa.ziggy.data.management.DataFileType.RegexType;
+
+/**
+ * Unit tests for the {@link DataFileTypeMatcher} class.
+ *
+ * @author PT
+ */
+public class DataFileTypeMatcherTest {
+
+    private DataFileTypeMatcher datastoreMatcher;
+    private DataFileTypeMatcher taskDirMatcher;
+
+    @Before
+    public void setup() {
+        DataFileTestUtils.initializeDataFileTypeSamples();
+        Set<DataFileType> dataFileTypes = Sets.newHashSet(DataFileTestUtils.dataFileTypeSample1,
+            DataFileTestUtils.dataFileTypeSample2);
+        datastoreMatcher = new DataFileTypeMatcher(dataFileTypes, RegexType.DATASTORE);
+        taskDirMatcher = new DataFileTypeMatcher(dataFileTypes, RegexType.TASK_DIR);
+    }
+
+    @Test
+    public void testMatchingTypes() {
+        assertEquals(1, datastoreMatcher.matchingTypes("pa/20/pa-001234567-20-results.h5").size());
+        assertEquals(DataFileTestUtils.dataFileTypeSample1,
+            datastoreMatcher.matchingTypes("pa/20/pa-001234567-20-results.h5").get(0));
+        assertEquals(DataFileTestUtils.dataFileTypeSample2,
+            datastoreMatcher.matchingTypes("cal/20/cal-1-1-A-20-results.h5").get(0));
+        assertTrue(datastoreMatcher.matchingTypes("pa-001234567-20-results.h5").isEmpty());
+        assertTrue(datastoreMatcher.matchingTypes("pdc/20/pdc-1-1-20-results.h5").isEmpty());
+
+        assertEquals(DataFileTestUtils.dataFileTypeSample1,
+            taskDirMatcher.matchingTypes("pa-001234567-20-results.h5").get(0));
+        assertTrue(taskDirMatcher.matchingTypes("pa/20/pa-001234567-20-results.h5").isEmpty());
+    }
+
+    @Test
+    public void testMultipleMatches() {
+        DataFileType allH5Files = new DataFileType();
+        allH5Files.setName("all");
+        allH5Files.setFileNameRegexForTaskDir(".*\\.h5");
+        allH5Files.setFileNameWithSubstitutionsForDatastore("$1");
+        DataFileTypeMatcher matcher = new DataFileTypeMatcher(
+            Sets.newHashSet(DataFileTestUtils.dataFileTypeSample1, allH5Files), RegexType.TASK_DIR);
+        assertEquals(Sets.newHashSet(DataFileTestUtils.dataFileTypeSample1, allH5Files),
+            Sets.newHashSet(matcher.matchingTypes("pa-001234567-20-results.h5")));
+        assertEquals(1, matcher.matchingTypes("cal-1-1-A-20-results.h5").size());
+    }
+
+    @Test
+    public void testDataFilesMap() {
+        Map<DataFileType, Set<Path>> dataFilesMap = datastoreMatcher.dataFilesMap(Stream.of(
+            Paths.get("pa/20/pa-001234567-20-results.h5"),
+            Paths.get("pa/20/pa-765432100-20-results.h5"),
+            Paths.get("cal/20/cal-1-1-A-20-results.h5"), Paths.get("pdc/20/pdc-1-1-20-results.h5"),
+            Paths.get("pa/20")));
+        assertEquals(2, dataFilesMap.size());
+        assertEquals(
+            Sets.newHashSet(Paths.get("pa/20/pa-001234567-20-results.h5"),
+                Paths.get("pa/20/pa-765432100-20-results.h5")),
+            dataFilesMap.get(DataFileTestUtils.dataFileTypeSample1));
+        assertEquals(Collections.singleton(Paths.get("cal/20/cal-1-1-A-20-results.h5")),
+            dataFilesMap.get(DataFileTestUtils.dataFileTypeSample2));
+    }
+}
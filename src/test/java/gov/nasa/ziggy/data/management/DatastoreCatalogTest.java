@@ -0,0 +1,168 @@
+package gov.nasa.ziggy.data.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+import gov.nasa.ziggy.util.io.Filenames;
+
+/**
+ * Unit tests for the {@link DatastoreCatalog} class.
+ *
+ * @author PT
+ */
+public class DatastoreCatalogTest {
+
+    private Path datastoreRoot;
+    private DatastoreCatalog catalog;
+
+    @Before
+    public void setup() throws IOException {
+        datastoreRoot = Paths.get(Filenames.BUILD_TEST, "datastore").toAbsolutePath();
+        Files.createDirectories(datastoreRoot);
+        DataFileTestUtils.initializeDataFileTypeSamples();
+        catalog = new DatastoreCatalog(datastoreRoot);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.forceDelete(new File(Filenames.BUILD_TEST));
+        DatastoreCatalog.reset();
+    }
+
+    @Test
+    public void testAddAndQuery() throws IOException {
+
+        createDatastoreFile("pa/20/pa-001234567-20-results.h5");
+        createDatastoreFile("pa/20/pa-765432100-20-results.h5");
+        createDatastoreFile("cal/20/cal-1-1-A-20-results.h5");
+        createDatastoreFile("cal/20/cal-1-1-B-20-results.h5");
+        createDatastoreFile("pdc/20/pdc-1-1-20-results.h5");
+        catalog.add(Sets.newHashSet(Paths.get("pa/20/pa-001234567-20-results.h5"),
+            Paths.get("pa/20/pa-765432100-20-results.h5"),
+            datastoreRoot.resolve("cal/20/cal-1-1-A-20-results.h5"),
+            datastoreRoot.resolve("cal/20/cal-1-1-B-20-results.h5"),
+            Paths.get("pdc/20/pdc-1-1-20-results.h5")));
+
+        // Parent directories should be present.
+        Set<Path> allPaths = catalog.paths(Paths.get(""));
+        assertEquals(11, allPaths.size());
+        assertTrue(allPaths.contains(Paths.get("pa")));
+        assertTrue(allPaths.contains(Paths.get("pa/20")));
+
+        Map<DataFileType, Set<Path>> dataFilesMap = catalog.dataFilesMap(Paths.get(""),
+            Sets.newHashSet(DataFileTestUtils.dataFileTypeSample1,
+                DataFileTestUtils.dataFileTypeSample2));
+        assertEquals(2, dataFilesMap.size());
+        assertEquals(Sets.newHashSet(Paths.get("pa/20/pa-001234567-20-results.h5"),
+            Paths.get("pa/20/pa-765432100-20-results.h5")),
+            dataFilesMap.get(DataFileTestUtils.dataFileTypeSample1));
+        assertEquals(Sets.newHashSet(Paths.get("cal/20/cal-1-1-A-20-results.h5"),
+            Paths.get("cal/20/cal-1-1-B-20-results.h5")),
+            dataFilesMap.get(DataFileTestUtils.dataFileTypeSample2));
+
+        // Queries limited to a subdirectory should only return files from that subdirectory.
+        dataFilesMap = catalog.dataFilesMap(datastoreRoot.resolve("pa"),
+            Sets.newHashSet(DataFileTestUtils.dataFileTypeSample1,
+                DataFileTestUtils.dataFileTypeSample2));
+        assertEquals(2, dataFilesMap.get(DataFileTestUtils.dataFileTypeSample1).size());
+        assertTrue(dataFilesMap.get(DataFileTestUtils.dataFileTypeSample2).isEmpty());
+
+        // A subdirectory whose name is a prefix of another should not pick up its sibling.
+        createDatastoreFile("pa/2/pa-001234567-02-results.h5");
+        catalog.add(Collections.singleton(Paths.get("pa/2/pa-001234567-02-results.h5")));
+        assertEquals(2, catalog.paths(Paths.get("pa/2")).size());
+    }
+
+    @Test
+    public void testAddDirectory() throws IOException {
+        createDatastoreFile("EO1H0230312000337112N0_WGS_01/EO12000337_00CA00C9_r1_WGS_01.L0");
+        createDatastoreFile("EO1H0230312000337112N0_WGS_01/subdir/content.L0");
+        catalog.add(Collections.singleton(Paths.get("EO1H0230312000337112N0_WGS_01")));
+        assertEquals(4, catalog.paths(Paths.get("EO1H0230312000337112N0_WGS_01")).size());
+    }
+
+    @Test
+    public void testIncrementalUpdatesFromOtherInstance() throws IOException {
+        createDatastoreFile("pa/20/pa-001234567-20-results.h5");
+        catalog.add(Collections.singleton(Paths.get("pa/20/pa-001234567-20-results.h5")));
+        assertEquals(3, catalog.paths(Paths.get("")).size());
+
+        // An update made through another instance (i.e., another process) should be visible.
+        DatastoreCatalog otherCatalog = new DatastoreCatalog(datastoreRoot);
+        assertEquals(3, otherCatalog.paths(Paths.get("")).size());
+        // Parent directories that are already in the catalog are not appended again.
+        createDatastoreFile("pa/20/pa-765432100-20-results.h5");
+        long sizeBeforeAdd = Files.size(catalog.getCatalogFile());
+        otherCatalog.add(Collections.singleton(Paths.get("pa/20/pa-765432100-20-results.h5")));
+        assertEquals(sizeBeforeAdd + "+pa/20/pa-765432100-20-results.h5\n".length(),
+            Files.size(catalog.getCatalogFile()));
+        assertEquals(4, catalog.paths(Paths.get("")).size());
+
+        // Compaction in the other instance should be detected, and the contents retained. Adding
+        // a path that is already present appends duplicate lines, which compaction discards.
+        otherCatalog.add(Collections.singleton(Paths.get("pa/20/pa-001234567-20-results.h5")));
+        long uncompactedSize = Files.size(catalog.getCatalogFile());
+        otherCatalog.compact();
+        assertTrue(Files.size(catalog.getCatalogFile()) < uncompactedSize);
+        assertEquals(Sets.newHashSet(Paths.get("pa"), Paths.get("pa/20"),
+            Paths.get("pa/20/pa-001234567-20-results.h5"),
+            Paths.get("pa/20/pa-765432100-20-results.h5")), catalog.paths(Paths.get("")));
+
+        // An append after compaction should be visible to both instances, and the lock file
+        // should not appear in the catalog.
+        createDatastoreFile("pa/20/pa-000000000-20-results.h5");
+        catalog.add(Collections.singleton(Paths.get("pa/20/pa-000000000-20-results.h5")));
+        assertEquals(5, otherCatalog.paths(Paths.get("")).size());
+        assertTrue(Files.exists(datastoreRoot.resolve(DatastoreCatalog.LOCK_FILE_NAME)));
+        otherCatalog.rebuild();
+        assertEquals(5, catalog.paths(Paths.get("")).size());
+    }
+
+    @Test
+    public void testVerifyAndRebuild() throws IOException {
+        createDatastoreFile("pa/20/pa-001234567-20-results.h5");
+        createDatastoreFile("pa/20/pa-765432100-20-results.h5");
+        catalog.add(Collections.singleton(Paths.get("pa/20/pa-001234567-20-results.h5")));
+        catalog.add(Collections.singleton(Paths.get("pa/20/pa-000000000-20-results.h5")));
+
+        DatastoreCatalog.Discrepancies discrepancies = catalog.verify();
+        assertFalse(discrepancies.isEmpty());
+        assertEquals(Collections.singleton("pa/20/pa-765432100-20-results.h5"),
+            discrepancies.getMissingFromCatalog());
+        assertEquals(Collections.singleton("pa/20/pa-000000000-20-results.h5"),
+            discrepancies.getMissingFromDatastore());
+
+        catalog.rebuild();
+        assertTrue(catalog.verify().isEmpty());
+        Set<Path> expectedPaths = new HashSet<>();
+        expectedPaths.add(Paths.get("pa"));
+        expectedPaths.add(Paths.get("pa/20"));
+        expectedPaths.add(Paths.get("pa/20/pa-001234567-20-results.h5"));
+        expectedPaths.add(Paths.get("pa/20/pa-765432100-20-results.h5"));
+        assertEquals(expectedPaths, catalog.paths(Paths.get("")));
+    }
+
+    private void createDatastoreFile(String relativePath) throws IOException {
+        Path file = datastoreRoot.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.createFile(file);
+    }
+}
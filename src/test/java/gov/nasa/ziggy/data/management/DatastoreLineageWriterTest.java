@@ -0,0 +1,315 @@
+package gov.nasa.ziggy.data.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.hibernate.dialect.HSQLDialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import gov.nasa.ziggy.data.management.DatastoreProducerConsumer.ConsumerStorage;
+import gov.nasa.ziggy.data.management.DatastoreProducerConsumer.DataReceiptFileType;
+import gov.nasa.ziggy.pipeline.definition.PipelineTask;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.database.DatabaseService;
+import gov.nasa.ziggy.services.database.DatabaseTransactionFactory;
+import gov.nasa.ziggy.services.database.TestUtils;
+
+/**
+ * Unit tests for the {@link DatastoreLineageWriter} class. In addition to checking the correctness
+ * of the bulk writes, these tests check the number of statements executed per file.
+ *
+ * @author PT
+ */
+public class DatastoreLineageWriterTest {
+
+    private static final int FILE_COUNT = 5000;
+    private static final long PRODUCER_ID = 10L;
+    private static final long CONSUMER_ID = 20L;
+
+    private final Function<String, String> nextValueExpression = new HSQLDialect()
+        ::getSelectSequenceNextValString;
+    private ConsumerStorage consumerStorage = ConsumerStorage.TABLE;
+    private AtomicInteger statementCount;
+    private List<String> filenames;
+
+    @Before
+    public void setup() {
+        TestUtils.setUpDatabase();
+        statementCount = new AtomicInteger();
+        filenames = new ArrayList<>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            filenames.add("pa/20/pa-" + String.format("%09d", i) + "-20-results.h5");
+        }
+    }
+
+    @After
+    public void teardown() {
+        System.clearProperty(PropertyNames.DATASTORE_CONSUMER_STORAGE_PROP_NAME);
+        TestUtils.tearDownDatabase();
+    }
+
+    @Test
+    public void testSetProducer() {
+
+        // Initial creation of the records.
+        write(writer -> writer.setProducer(PRODUCER_ID, filenames, DataReceiptFileType.DATA));
+        double statementsPerFile = (double) statementCount.get() / FILE_COUNT;
+        assertTrue("Statements per file: " + statementsPerFile, statementsPerFile < 0.01);
+        Map<String, DatastoreProducerConsumer> records = retrieveAll();
+        assertEquals(FILE_COUNT, records.size());
+        for (DatastoreProducerConsumer record : records.values()) {
+            assertEquals(PRODUCER_ID, record.getProducer());
+            assertEquals(DataReceiptFileType.DATA, record.getDataReceiptFileType());
+        }
+
+        // Update of existing records plus creation of a new one.
+        statementCount.set(0);
+        List<String> updateFilenames = new ArrayList<>(filenames);
+        updateFilenames.add("pa/20/pa-new-20-results.h5");
+        write(writer -> writer.setProducer(PRODUCER_ID + 1, updateFilenames,
+            DataReceiptFileType.MODEL));
+        statementsPerFile = (double) statementCount.get() / FILE_COUNT;
+        assertTrue("Statements per file: " + statementsPerFile, statementsPerFile < 0.01);
+        records = retrieveAll();
+        assertEquals(FILE_COUNT + 1, records.size());
+        for (DatastoreProducerConsumer record : records.values()) {
+            assertEquals(PRODUCER_ID + 1, record.getProducer());
+        }
+        assertEquals(DataReceiptFileType.DATA,
+            records.get(filenames.get(0)).getDataReceiptFileType());
+        assertEquals(DataReceiptFileType.MODEL,
+            records.get("pa/20/pa-new-20-results.h5").getDataReceiptFileType());
+    }
+
+    @Test
+    public void testAddConsumer() {
+        checkAddConsumer();
+    }
+
+    @Test
+    public void testAddConsumerBlob() {
+        useBlobStorage();
+        checkAddConsumer();
+    }
+
+    private void checkAddConsumer() {
+        write(writer -> writer.setProducer(PRODUCER_ID, filenames.subList(0, FILE_COUNT / 2),
+            DataReceiptFileType.DATA));
+
+        // Add the consumer to all files, some of which are not yet in the database.
+        statementCount.set(0);
+        write(writer -> writer.addConsumer(CONSUMER_ID, filenames));
+        double statementsPerFile = (double) statementCount.get() / FILE_COUNT;
+        assertTrue("Statements per file: " + statementsPerFile, statementsPerFile < 0.01);
+
+        // Adding the same consumer again, and another consumer, should not produce duplicates.
+        write(writer -> writer.addConsumer(CONSUMER_ID, filenames.subList(0, 10)));
+        write(writer -> writer.addConsumer(-(CONSUMER_ID + 1), filenames.subList(0, 10)));
+
+        Map<String, DatastoreProducerConsumer> records = retrieveAll();
+        assertEquals(FILE_COUNT, records.size());
+        for (int i = 0; i < FILE_COUNT; i++) {
+            DatastoreProducerConsumer record = records.get(filenames.get(i));
+            assertEquals(i < FILE_COUNT / 2 ? PRODUCER_ID : 0L, record.getProducer());
+            Set<Long> expectedConsumers = new HashSet<>();
+            expectedConsumers.add(CONSUMER_ID);
+            if (i < 10) {
+                expectedConsumers.add(-(CONSUMER_ID + 1));
+            }
+            assertEquals(expectedConsumers, record.getConsumers());
+        }
+    }
+
+    @Test
+    public void testMigrateConsumerTable() {
+        write(writer -> writer.setProducer(PRODUCER_ID, filenames, DataReceiptFileType.DATA));
+        write(writer -> writer.addConsumer(CONSUMER_ID, filenames));
+        write(writer -> writer.addConsumer(-(CONSUMER_ID + 1), filenames.subList(0, 10)));
+
+        // Migrate the consumers, then migrate again to show that migration is idempotent.
+        statementCount.set(0);
+        int[] fileCount = new int[1];
+        write(writer -> fileCount[0] = writer.migrateConsumerTable());
+        assertEquals(FILE_COUNT, fileCount[0]);
+        double statementsPerFile = (double) statementCount.get() / FILE_COUNT;
+        assertTrue("Statements per file: " + statementsPerFile, statementsPerFile < 0.01);
+        write(writer -> fileCount[0] = writer.migrateConsumerTable());
+        assertEquals(0, fileCount[0]);
+
+        // The table representation is now empty.
+        Number consumerRowCount = (Number) DatabaseTransactionFactory
+            .performTransaction(() -> DatabaseService.getInstance()
+                .getSession()
+                .createSQLQuery("select count(*) from PI_DATASTORE_CONSUMERS")
+                .uniqueResult());
+        assertEquals(0, consumerRowCount.intValue());
+
+        // The consumers are all present in the blob representation, which the records use
+        // regardless of the configured mode.
+        Map<String, DatastoreProducerConsumer> records = retrieveAll();
+        assertEquals(FILE_COUNT, records.size());
+        for (int i = 0; i < FILE_COUNT; i++) {
+            Set<Long> expectedConsumers = new HashSet<>();
+            expectedConsumers.add(CONSUMER_ID);
+            if (i < 10) {
+                expectedConsumers.add(-(CONSUMER_ID + 1));
+            }
+            assertEquals(expectedConsumers, records.get(filenames.get(i)).getConsumers());
+        }
+    }
+
+    @Test
+    public void testRetrieveFilesConsumedByAny() {
+        checkRetrieveFilesConsumedByAny();
+    }
+
+    @Test
+    public void testRetrieveFilesConsumedByAnyBlob() {
+        useBlobStorage();
+        checkRetrieveFilesConsumedByAny();
+    }
+
+    private void checkRetrieveFilesConsumedByAny() {
+        write(writer -> writer.addConsumer(CONSUMER_ID, filenames.subList(0, 10)));
+        write(writer -> writer.addConsumer(-(CONSUMER_ID + 1), filenames.subList(5, 15)));
+        DatastoreProducerConsumerCrud crud = new DatastoreProducerConsumerCrud();
+        Set<Path> somePaths = filenames.subList(0, 8)
+            .stream()
+            .map(Paths::get)
+            .collect(Collectors.toSet());
+
+        @SuppressWarnings("unchecked")
+        Set<String> consumed = (Set<String>) DatabaseTransactionFactory.performTransaction(
+            () -> crud.retrieveFilesConsumedByAny(null, Arrays.asList(-(CONSUMER_ID + 1), 1L)));
+        assertEquals(new HashSet<>(filenames.subList(5, 15)), consumed);
+
+        @SuppressWarnings("unchecked")
+        Set<String> consumedSubset = (Set<String>) DatabaseTransactionFactory.performTransaction(
+            () -> crud.retrieveFilesConsumedByAny(somePaths, Collections.singleton(CONSUMER_ID)));
+        assertEquals(new HashSet<>(filenames.subList(0, 8)), consumedSubset);
+
+        @SuppressWarnings("unchecked")
+        Set<String> consumedByTask = (Set<String>) DatabaseTransactionFactory
+            .performTransaction(() -> crud.retrieveFilesConsumedByTask(CONSUMER_ID + 1, somePaths));
+        assertTrue(consumedByTask.isEmpty());
+
+        // Only the candidate files are returned.
+        @SuppressWarnings("unchecked")
+        Set<String> consumedCandidates = (Set<String>) DatabaseTransactionFactory
+            .performTransaction(() -> crud.retrieveFilesConsumedByTask(CONSUMER_ID, somePaths));
+        assertEquals(new HashSet<>(filenames.subList(0, 8)), consumedCandidates);
+    }
+
+    /**
+     * Tests the consistency of the bulk write methods of {@link DatastoreProducerConsumerCrud}
+     * with instances that were previously loaded into the Hibernate session.
+     */
+    @Test
+    public void testCrudBulkWrites() {
+        PipelineTask pipelineTask = Mockito.mock(PipelineTask.class);
+        Mockito.when(pipelineTask.getId()).thenReturn(CONSUMER_ID);
+        DatastoreProducerConsumerCrud crud = new DatastoreProducerConsumerCrud();
+        Set<String> someFilenames = new HashSet<>(filenames.subList(0, 100));
+        Set<Path> somePaths = someFilenames.stream().map(Paths::get).collect(Collectors.toSet());
+        DatabaseTransactionFactory.performTransaction(() -> {
+            crud.createOrUpdateProducer(pipelineTask, somePaths, DataReceiptFileType.DATA);
+            List<DatastoreProducerConsumer> records = crud.retrieveAll();
+            assertEquals(100, records.size());
+            assertTrue(records.get(0).getConsumers().isEmpty());
+
+            // The records retrieved after the bulk write should reflect the write.
+            crud.addConsumer(pipelineTask, someFilenames);
+            for (DatastoreProducerConsumer record : crud.retrieveAll()) {
+                assertEquals(CONSUMER_ID, record.getProducer());
+                assertEquals(Collections.singleton(CONSUMER_ID), record.getConsumers());
+            }
+            return null;
+        });
+    }
+
+    private void useBlobStorage() {
+        consumerStorage = ConsumerStorage.BLOB;
+        System.setProperty(PropertyNames.DATASTORE_CONSUMER_STORAGE_PROP_NAME, "blob");
+    }
+
+    private void write(LineageWork work) {
+        DatabaseTransactionFactory.performTransaction(() -> {
+            DatabaseService.getInstance()
+                .getSession()
+                .doWork(connection -> work.write(
+                    new DatastoreLineageWriter(countingConnection(connection), nextValueExpression,
+                        consumerStorage)));
+            return null;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, DatastoreProducerConsumer> retrieveAll() {
+        return (Map<String, DatastoreProducerConsumer>) DatabaseTransactionFactory
+            .performTransaction(() -> {
+                DatabaseService.getInstance().getSession().clear();
+                List<DatastoreProducerConsumer> records = new DatastoreProducerConsumerCrud()
+                    .retrieveAll();
+                records.forEach(r -> r.getConsumers().size());
+                return records.stream()
+                    .collect(Collectors.toMap(DatastoreProducerConsumer::getFilename, r -> r));
+            });
+    }
+
+    /**
+     * Wraps a {@link Connection} so that each execution of a statement or batch is counted.
+     */
+    private Connection countingConnection(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                Object result = invoke(connection, method, args);
+                if (!method.getName().equals("prepareStatement")) {
+                    return result;
+                }
+                PreparedStatement statement = (PreparedStatement) result;
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, (p, m, a) -> {
+                        if (m.getName().startsWith("execute")) {
+                            statementCount.incrementAndGet();
+                        }
+                        return invoke(statement, m, a);
+                    });
+            });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args)
+        throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @FunctionalInterface
+    private interface LineageWork {
+        void write(DatastoreLineageWriter writer) throws SQLException;
+    }
+}
@@ -0,0 +1,208 @@
+package gov.nasa.ziggy.data.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import gov.nasa.ziggy.metrics.Metric;
+import gov.nasa.ziggy.metrics.ValueMetric;
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.util.io.Filenames;
+
+/**
+ * Unit tests for the {@link FileStagingEngine} class.
+ *
+ * @author PT
+ */
+public class FileStagingEngineTest {
+
+    private static final int FILE_COUNT = 50;
+    private static final int FILE_SIZE = 100;
+
+    private Path sourceDir;
+    private Path destDir;
+    private Map<Path, Path> sourceToDestination;
+
+    @Before
+    public void setup() throws IOException {
+        sourceDir = Paths.get(Filenames.BUILD_TEST, "source").toAbsolutePath();
+        destDir = Paths.get(Filenames.BUILD_TEST, "dest").toAbsolutePath();
+        Files.createDirectories(sourceDir);
+        sourceToDestination = new LinkedHashMap<>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            Path src = sourceDir.resolve("file-" + i);
+            Files.write(src, new byte[FILE_SIZE]);
+            sourceToDestination.put(src,
+                destDir.resolve("subdir-" + i % 5).resolve("file-" + i));
+        }
+        Metric.clear();
+        Metric.enableThreadMetrics();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        Metric.disableThreadMetrics();
+        FileUtils.forceDelete(new File(Filenames.BUILD_TEST));
+    }
+
+    @Test
+    public void testParallelStaging() {
+        CopyOperation operation = new CopyOperation(-1);
+        FileStagingEngine engine = new FileStagingEngine(operation, 4);
+        engine.stage(sourceToDestination);
+
+        for (Path dest : sourceToDestination.values()) {
+            assertTrue(Files.isRegularFile(dest));
+        }
+        assertEquals(FILE_COUNT, operation.transferCount.get());
+        assertEquals(sourceToDestination.keySet().size(), operation.permissionsSet.size());
+        assertTrue(operation.threadNames.size() > 1);
+        assertEquals(FILE_COUNT, engine.getFileCount());
+        assertEquals(FILE_COUNT * FILE_SIZE, engine.getByteCount());
+
+        ValueMetric fileCountMetric = (ValueMetric) Metric.getThreadMetrics()
+            .get(FileStagingEngine.FILE_COUNT_METRIC);
+        assertEquals(FILE_COUNT, fileCountMetric.getSum());
+        ValueMetric byteCountMetric = (ValueMetric) Metric.getThreadMetrics()
+            .get(FileStagingEngine.BYTE_COUNT_METRIC);
+        assertEquals(FILE_COUNT * FILE_SIZE, byteCountMetric.getSum());
+    }
+
+    @Test
+    public void testSingleThreadStaging() {
+        CopyOperation operation = new CopyOperation(-1);
+        new FileStagingEngine(operation, 1).stage(sourceToDestination);
+        assertEquals(FILE_COUNT, operation.transferCount.get());
+        assertEquals(1, operation.threadNames.size());
+        assertTrue(operation.threadNames.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testFailure() {
+        CopyOperation operation = new CopyOperation(0);
+        try {
+            new FileStagingEngine(operation, 4).stage(sourceToDestination);
+            fail("Expected PipelineException");
+        } catch (PipelineException e) {
+            assertTrue(e.getMessage().startsWith("Unable to copy file"));
+            assertTrue(e.getCause() instanceof IOException);
+        }
+
+        // None of the permissions should have been set, and the transfers that were not yet
+        // started at the time of the failure should not have been performed.
+        assertTrue(operation.permissionsSet.isEmpty());
+        assertTrue(operation.transferCount.get() < FILE_COUNT);
+        assertFalse(Files.exists(sourceToDestination.get(sourceDir.resolve("file-0"))));
+    }
+
+    /**
+     * Tests that an operation that stages files in groups receives files grouped by destination
+     * directory, with no more than its batch size in each group.
+     */
+    @Test
+    public void testBatchedStaging() {
+        BatchCopyOperation operation = new BatchCopyOperation(4);
+        FileStagingEngine engine = new FileStagingEngine(operation, 4);
+        engine.stage(sourceToDestination);
+
+        for (Path dest : sourceToDestination.values()) {
+            assertTrue(Files.isRegularFile(dest));
+        }
+        assertEquals(FILE_COUNT, operation.transferCount.get());
+        assertEquals(FILE_COUNT * FILE_SIZE, engine.getByteCount());
+
+        // Each of the 5 destination directories gets 10 files, hence 3 batches.
+        assertEquals(15, operation.batchCount.get());
+    }
+
+    /**
+     * Copies files, optionally failing on a specified file. Records the threads used and the files
+     * whose permissions were set.
+     */
+    private static class CopyOperation implements FileStagingEngine.StagingOperation {
+
+        private final int failingFileIndex;
+        final AtomicInteger transferCount = new AtomicInteger();
+        private final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        private final Set<Path> permissionsSet = ConcurrentHashMap.newKeySet();
+
+        public CopyOperation(int failingFileIndex) {
+            this.failingFileIndex = failingFileIndex;
+        }
+
+        @Override
+        public long transfer(Path src, Path dest) throws IOException {
+            threadNames.add(Thread.currentThread().getName());
+            if (src.getFileName().toString().equals("file-" + failingFileIndex)) {
+                throw new IOException("Simulated failure");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
+            transferCount.incrementAndGet();
+            return Files.size(dest);
+        }
+
+        @Override
+        public void setPermissions(Path dest) {
+            permissionsSet.add(dest);
+        }
+
+        @Override
+        public String failureMessage(Path src, Path dest) {
+            return "Unable to copy file " + src + " to " + dest;
+        }
+    }
+
+    /**
+     * Copies files in groups, checking that each group shares a destination directory.
+     */
+    private static class BatchCopyOperation extends CopyOperation {
+
+        private final int batchSize;
+        private final AtomicInteger batchCount = new AtomicInteger();
+
+        public BatchCopyOperation(int batchSize) {
+            super(-1);
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public long transfer(Path destDir, List<Map.Entry<Path, Path>> sourcesAndDestinations)
+            throws IOException {
+            assertTrue(sourcesAndDestinations.size() <= batchSize);
+            for (Map.Entry<Path, Path> entry : sourcesAndDestinations) {
+                assertEquals(destDir, entry.getValue().getParent());
+            }
+            batchCount.incrementAndGet();
+            return super.transfer(destDir, sourcesAndDestinations);
+        }
+
+        @Override
+        public int batchSize() {
+            return batchSize;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package gov.nasa.ziggy.data.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import gov.nasa.ziggy.util.io.Filenames;
+
+/**
+ * Unit tests for the {@link FileSystemCapabilities} class.
+ *
+ * @author PT
+ */
+public class FileSystemCapabilitiesTest {
+
+    private Path sourceDir;
+    private Path destDir;
+
+    @Before
+    public void setup() throws IOException {
+        sourceDir = Paths.get(Filenames.BUILD_TEST, "source").toAbsolutePath();
+        destDir = Paths.get(Filenames.BUILD_TEST, "dest").toAbsolutePath();
+        Files.createDirectories(sourceDir);
+        Files.createDirectories(destDir);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileSystemCapabilities.reset();
+        FileUtils.forceDelete(new File(Filenames.BUILD_TEST));
+    }
+
+    @Test
+    public void testProbe() {
+        FileSystemCapabilities capabilities = FileSystemCapabilities.forDirectories(sourceDir,
+            destDir);
+        assertTrue(capabilities.isSameFileStore());
+        assertTrue(capabilities.hardLinksSupported());
+
+        // The probe files should be gone.
+        assertEquals(0, sourceDir.toFile().listFiles().length);
+        assertEquals(0, destDir.toFile().listFiles().length);
+
+        // The results should be cached, including for a destination that doesn't exist yet.
+        assertSame(capabilities, FileSystemCapabilities.forDirectories(sourceDir, destDir));
+        assertSame(capabilities,
+            FileSystemCapabilities.forDirectories(sourceDir, destDir.resolve("a/b")));
+    }
+
+    @Test
+    public void testMissingSourceDirectory() {
+        FileSystemCapabilities capabilities = FileSystemCapabilities
+            .forDirectories(sourceDir.resolve("nonexistent"), destDir);
+        assertFalse(capabilities.isSameFileStore());
+        assertFalse(capabilities.hardLinksSupported());
+        assertFalse(capabilities.reflinksSupported());
+    }
+}
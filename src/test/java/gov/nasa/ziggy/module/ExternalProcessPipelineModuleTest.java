@@ -99,7 +99,7 @@ public class ExternalProcessPipelineModuleTest {
         ds = mock(DatabaseService.class);
         DatabaseService.setInstance(ds);
         dpcc = mock(DatastoreProducerConsumerCrud.class);
-        when(dpcc.retrieveFilesConsumedByTask(100L)).thenReturn(Collections.emptySet());
+        when(dpcc.retrieveFilesConsumedByTask(eq(100L), any())).thenReturn(Collections.emptySet());
         System.clearProperty("pi.processing.halt.step");
         t = new TestPipelineModule(p, RunMode.STANDARD);
         System.setProperty(PropertyNames.DATASTORE_ROOT_DIR_PROP_NAME, "/dev/null");
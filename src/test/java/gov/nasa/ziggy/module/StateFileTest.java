@@ -8,6 +8,8 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
@@ -229,6 +231,34 @@ public class StateFileTest {
         testStateFileProperties(stateFile);
     }
 
+    /**
+     * Tests that a state file that is persisted immediately after its predecessor was created
+     * replaces the predecessor, even if the watcher of the state file directory has not yet
+     * indexed the predecessor.
+     */
+    @Test
+    public void testPersistImmediatelyAfterCreate() throws Exception {
+        StateFileWatcher.getInstance(workingDirectory.toPath());
+        try {
+            for (long taskId = 1; taskId <= 100; taskId++) {
+                StateFile stateFile = new StateFile("foo", 1, taskId);
+                stateFile.setState(State.QUEUED);
+                stateFile.persist();
+                StateFile newStateFile = new StateFile(stateFile);
+                newStateFile.setState(State.SUBMITTED);
+                newStateFile.persist();
+
+                String prefix = stateFile.invariantPart() + ".";
+                String[] stateFileNames = workingDirectory
+                    .list((dir, name) -> name.startsWith(prefix));
+                assertEquals(Collections.singletonList(newStateFile.name()),
+                    Arrays.asList(stateFileNames));
+            }
+        } finally {
+            StateFileWatcher.shutdown();
+        }
+    }
+
     @Test
     public void testFileIO() {
         StateFile stateFile = createStateFile();
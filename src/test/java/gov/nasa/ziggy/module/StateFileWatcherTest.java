@@ -0,0 +1,95 @@
+package gov.nasa.ziggy.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for {@link StateFileWatcher}.
+ *
+ * @author PT
+ */
+public class StateFileWatcherTest {
+
+    private static final String INVARIANT_PART = StateFile.PREFIX + "10.20.modulename";
+
+    @Rule
+    public TemporaryFolder tFolder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        StateFileWatcher.shutdown();
+    }
+
+    @Test
+    public void testInvariantPart() {
+        assertEquals(INVARIANT_PART,
+            StateFileWatcher.invariantPart(INVARIANT_PART + ".PROCESSING_10-5-0"));
+        assertNull(StateFileWatcher.invariantPart("old.10.20.modulename.COMPLETE_10-10-0"));
+        assertNull(StateFileWatcher.invariantPart(StateFile.PREFIX + "x"));
+    }
+
+    /**
+     * Tests that renames of state files are reported to listeners and reflected in the index.
+     */
+    @Test
+    public void testEvents() throws Exception {
+        File directory = tFolder.getRoot();
+        File queued = new File(directory, INVARIANT_PART + ".QUEUED_10-0-0");
+        assertTrue(queued.createNewFile());
+
+        StateFileWatcher watcher = StateFileWatcher.getInstance(directory.toPath());
+        assertEquals(queued.getName(), watcher.stateFileName(INVARIANT_PART));
+        Semaphore changes = new Semaphore(0);
+        watcher.addListener(changes::release);
+
+        File processing = new File(directory, INVARIANT_PART + ".PROCESSING_10-0-0");
+        assertTrue(queued.renameTo(processing));
+        if (!watcher.isEventDriven()) {
+            return;
+        }
+        assertTrue(changes.tryAcquire(10, TimeUnit.SECONDS));
+        long timeout = System.currentTimeMillis() + 10_000L;
+        while (!processing.getName().equals(watcher.stateFileName(INVARIANT_PART))
+            && System.currentTimeMillis() < timeout) {
+            changes.tryAcquire(100, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(processing.getName(), watcher.stateFileName(INVARIANT_PART));
+        assertEquals(Collections.singletonList(processing),
+            StateFileWatcher.indexedStateFiles(directory, INVARIANT_PART));
+
+        // Without an event-driven watcher, callers must search the directory.
+        watcher.stop();
+        assertNull(StateFileWatcher.indexedStateFiles(directory, INVARIANT_PART));
+    }
+
+    /**
+     * Tests that a rescan picks up changes that were not delivered as events.
+     */
+    @Test
+    public void testRescan() throws Exception {
+        File directory = new File(tFolder.getRoot(), "state");
+        StateFileWatcher watcher = StateFileWatcher.getInstance(directory.toPath());
+        assertNull(watcher.stateFileName(INVARIANT_PART));
+
+        assertTrue(directory.mkdir());
+        File complete = new File(directory, INVARIANT_PART + ".COMPLETE_10-10-0");
+        assertTrue(complete.createNewFile());
+        watcher.rescan();
+        assertEquals(complete.getName(), watcher.stateFileName(INVARIANT_PART));
+
+        assertTrue(complete.delete());
+        watcher.rescan();
+        assertNull(watcher.stateFileName(INVARIANT_PART));
+    }
+}
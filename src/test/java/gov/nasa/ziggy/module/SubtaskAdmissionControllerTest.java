@@ -0,0 +1,120 @@
+package gov.nasa.ziggy.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import gov.nasa.ziggy.metrics.CounterMetric;
+import gov.nasa.ziggy.metrics.Metric;
+import gov.nasa.ziggy.util.os.LinuxMemInfo;
+
+/**
+ * Unit tests for {@link SubtaskAdmissionController}.
+ *
+ * @author PT
+ */
+public class SubtaskAdmissionControllerTest {
+
+    private static final long TOTAL_KB = 100_000_000L;
+
+    private long availableKB;
+
+    @After
+    public void tearDown() {
+        Metric.clear();
+    }
+
+    private LinuxMemInfo memInfo() throws IOException {
+        return new LinuxMemInfo(Arrays.asList("MemTotal:       " + TOTAL_KB + " kB",
+            "MemFree:        1000 kB", "MemAvailable:   " + availableKB + " kB"));
+    }
+
+    @Test
+    public void testAvailableMemory() throws Exception {
+        availableKB = 5000L;
+        assertEquals(5000L, memInfo().getAvailableMemoryKB());
+
+        // Without MemAvailable, free memory plus buffers and cache is used.
+        LinuxMemInfo oldKernel = new LinuxMemInfo(Arrays.asList("MemTotal: 10000 kB",
+            "MemFree: 1000 kB", "Buffers: 200 kB", "Cached: 30 kB"));
+        assertEquals(1230L, oldKernel.getAvailableMemoryKB());
+    }
+
+    /**
+     * Tests that the limit grows by one per sample when memory is plentiful, and is reduced at once
+     * when the observed per-subtask memory shows that memory is short.
+     */
+    @Test
+    public void testLimit() throws Exception {
+        availableKB = 90_000_000L;
+        SubtaskAdmissionController controller = new SubtaskAdmissionController(1, 8, 2, 1000L,
+            40_000_000L, this::memInfo);
+
+        // The gigsPerSubtask estimate allows 2 subtasks: the initial limit is unchanged.
+        controller.sample();
+        assertEquals(2, controller.limit());
+
+        // Two subtasks that use 1 GB each: the limit grows by one per sample.
+        controller.acquire();
+        controller.acquire();
+        availableKB -= 2_000_000L;
+        controller.sample();
+        assertEquals(3, controller.limit());
+        controller.sample();
+        assertEquals(4, controller.limit());
+
+        // The subtasks grow to 30 GB each: no more subtasks fit.
+        availableKB = 90_000_000L - 60_000_000L;
+        controller.sample();
+        assertEquals(2, controller.limit());
+
+        // The limit never drops below the minimum.
+        controller.release();
+        controller.release();
+        availableKB = 20_000_000L;
+        controller.sample();
+        assertEquals(1, controller.limit());
+    }
+
+    /**
+     * Tests that a thread that requests admission is held until the limit allows it to run.
+     */
+    @Test
+    public void testHold() throws Exception {
+        availableKB = 90_000_000L;
+        SubtaskAdmissionController controller = new SubtaskAdmissionController(1, 4, 1, 0L,
+            10_000_000L, this::memInfo);
+        controller.acquire();
+
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                controller.acquire();
+                admitted.countDown();
+            } catch (InterruptedException e) {
+                // Test fails below.
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+
+        controller.sample();
+        assertTrue(admitted.await(10, TimeUnit.SECONDS));
+        assertEquals(2, controller.running());
+        assertEquals(1, ((CounterMetric) Metric.getGlobalMetricsSnapshot()
+            .get(SubtaskAdmissionController.HELD_METRIC)).getCount());
+
+        controller.release();
+        controller.release();
+        assertEquals(0, controller.running());
+    }
+}
@@ -1,9 +1,14 @@
 package gov.nasa.ziggy.module;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -89,4 +94,122 @@ public class SubtaskAllocatorTest {
         assertEquals(-1, allocation.getSubtaskIndex());
 
     }
+
+    /**
+     * Tests that batches of subtasks are leased in order, and that completed subtasks are not
+     * offered again.
+     */
+    @Test
+    public void testBatchLeases() {
+        when(taskConfigurationManager.numSubTasks()).thenReturn(5);
+        SubtaskAllocator allocator = new SubtaskAllocator(taskConfigurationManager);
+        Object holder = new Object();
+
+        SubtaskAllocation allocation = allocator.nextSubtasks(3, holder);
+        assertEquals(SubtaskServer.ResponseType.OK, allocation.getStatus());
+        assertArrayEquals(new int[] { 0, 1, 2 }, allocation.getSubtaskIndices());
+        assertEquals(2, allocator.availableCount());
+        allocation = allocator.nextSubtasks(3, holder);
+        assertArrayEquals(new int[] { 3, 4 }, allocation.getSubtaskIndices());
+        assertEquals(SubtaskServer.ResponseType.TRY_AGAIN,
+            allocator.nextSubtasks(3, holder).getStatus());
+
+        // Locked subtasks are offered again.
+        allocator.markSubtaskLocked(1);
+        allocator.markSubtaskLocked(3);
+        assertArrayEquals(new int[] { 1, 3 },
+            allocator.nextSubtasks(3, holder).getSubtaskIndices());
+
+        for (int i = 0; i < 5; i++) {
+            allocator.markSubtaskComplete(i);
+        }
+        assertEquals(SubtaskServer.ResponseType.NO_MORE,
+            allocator.nextSubtasks(3, holder).getStatus());
+    }
+
+    /**
+     * Tests that subtasks whose leases expire or are released are offered again, and that renewed
+     * leases do not expire.
+     */
+    @Test
+    public void testLeaseExpiration() {
+        when(taskConfigurationManager.numSubTasks()).thenReturn(4);
+        AtomicLong clock = new AtomicLong();
+        SubtaskAllocator allocator = new SubtaskAllocator(taskConfigurationManager, 1000,
+            clock::get);
+        Object holder1 = new Object();
+        Object holder2 = new Object();
+
+        assertArrayEquals(new int[] { 0, 1 },
+            allocator.nextSubtasks(2, holder1).getSubtaskIndices());
+        assertArrayEquals(new int[] { 2, 3 },
+            allocator.nextSubtasks(2, holder2).getSubtaskIndices());
+
+        // Holder 1 renews its leases, holder 2 does not.
+        clock.set(600);
+        allocator.renewLeases(new int[] { 0, 1 }, holder1);
+        clock.set(1200);
+        SubtaskAllocation allocation = allocator.nextSubtasks(4, holder1);
+        assertEquals(SubtaskServer.ResponseType.OK, allocation.getStatus());
+        assertArrayEquals(new int[] { 2, 3 }, allocation.getSubtaskIndices());
+
+        // Holder 2 can neither renew nor release leases it no longer holds.
+        allocator.renewLeases(new int[] { 2, 3 }, holder2);
+        allocator.releaseLeases(new int[] { 2, 3 }, holder2);
+        assertEquals(SubtaskServer.ResponseType.TRY_AGAIN,
+            allocator.nextSubtasks(4, holder2).getStatus());
+
+        // Subtasks released by their holder are offered again.
+        allocator.releaseLeases(new int[] { 0, 2 }, holder1);
+        assertArrayEquals(new int[] { 0, 2 },
+            allocator.nextSubtasks(4, holder2).getSubtaskIndices());
+    }
+
+    /**
+     * Tests that a released subtask can be claimed again unless it is complete or has been leased
+     * to another holder, and that a claimed subtask is not offered to anyone else.
+     */
+    @Test
+    public void testClaim() {
+        when(taskConfigurationManager.numSubTasks()).thenReturn(4);
+        SubtaskAllocator allocator = new SubtaskAllocator(taskConfigurationManager);
+        Object holder1 = new Object();
+        Object holder2 = new Object();
+
+        assertArrayEquals(new int[] { 0, 1, 2 },
+            allocator.nextSubtasks(3, holder1).getSubtaskIndices());
+        allocator.markSubtaskComplete(2);
+        allocator.releaseLeases(new int[] { 0, 1 }, holder1);
+        assertArrayEquals(new int[] { 3, 0 },
+            allocator.nextSubtasks(2, holder2).getSubtaskIndices());
+
+        // Subtask 0 now belongs to holder 2, and subtask 2 is complete.
+        Object holder3 = new Object();
+        assertTrue(allocator.claim(1, holder3));
+        assertFalse(allocator.claim(0, holder3));
+        assertFalse(allocator.claim(2, holder3));
+        assertEquals(SubtaskServer.ResponseType.TRY_AGAIN,
+            allocator.nextSubtasks(4, holder2).getStatus());
+
+        // The claimed lease can be renewed and released like any other.
+        allocator.releaseLeases(new int[] { 1 }, holder3);
+        assertArrayEquals(new int[] { 1 },
+            allocator.nextSubtasks(4, holder2).getSubtaskIndices());
+    }
+
+    /**
+     * Tests that subtasks are first offered in the specified order, and requeued subtasks after
+     * all the others.
+     */
+    @Test
+    public void testOfferOrder() {
+        when(taskConfigurationManager.numSubTasks()).thenReturn(4);
+        SubtaskAllocator allocator = new SubtaskAllocator(taskConfigurationManager, 1000,
+            new int[] { 2, 0, 3, 1 });
+        assertArrayEquals(new int[] { 2, 0 },
+            allocator.nextSubtasks(2, null).getSubtaskIndices());
+        allocator.markSubtaskLocked(2);
+        assertArrayEquals(new int[] { 3, 1, 2 },
+            allocator.nextSubtasks(4, null).getSubtaskIndices());
+    }
 }
@@ -225,7 +225,7 @@ public class SubtaskExecutorTest {
             .runInputsOutputsCommand(PipelineInputsSample.class);
         int retCode = externalProcessExecutor.execAlgorithmInternal(0);
         assertEquals(1, retCode);
-        assertTrue(new File(subTaskDir, ".FAILED").exists());
+        assertTrue(new AlgorithmStateFiles(subTaskDir).isFailed());
         Mockito.verify(externalProcessExecutor, Mockito.never())
             .runCommandline(Matchers.anyList(), Matchers.any(String.class),
                 Matchers.any(String.class));
@@ -0,0 +1,170 @@
+package gov.nasa.ziggy.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.nasa.ziggy.metrics.CounterMetric;
+import gov.nasa.ziggy.metrics.Metric;
+import gov.nasa.ziggy.metrics.ValueMetric;
+
+/**
+ * Unit tests for {@link SubtaskResultCache}.
+ *
+ * @author PT
+ */
+public class SubtaskResultCacheTest {
+
+    @Rule
+    public TemporaryFolder tFolder = new TemporaryFolder();
+
+    private File taskDir;
+    private Path cacheDir;
+    private SubtaskResultCache cache;
+
+    @Before
+    public void setup() throws Exception {
+        taskDir = tFolder.newFolder("10-20-module");
+        cacheDir = tFolder.newFolder("cache").toPath();
+        cache = new SubtaskResultCache(cacheDir, "task-key");
+    }
+
+    @After
+    public void teardown() {
+        Metric.clear();
+    }
+
+    private static void write(File file, String content) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSubtaskKey() throws Exception {
+        write(new File(taskDir, "input.h5"), "data");
+        Set<String> files = Collections.singleton("input.h5");
+        String key = cache.subtaskKey(taskDir, files);
+        assertEquals(key, cache.subtaskKey(taskDir, files));
+        assertNotEquals(key, new SubtaskResultCache(tFolder.getRoot().toPath(), "other-task-key")
+            .subtaskKey(taskDir, files));
+
+        write(new File(taskDir, "input.h5"), "other data");
+        assertNotEquals(key, new SubtaskResultCache(tFolder.getRoot().toPath(), "task-key")
+            .subtaskKey(taskDir, files));
+    }
+
+    /**
+     * Tests that the subtasks of a task share a cache until the task key changes.
+     */
+    @Test
+    public void testForTask() throws Exception {
+        assertNull(SubtaskResultCache.forTask(taskDir, cacheDir));
+        write(new File(taskDir, SubtaskResultCache.TASK_KEY_FILE_NAME), "task-key");
+        SubtaskResultCache taskCache = SubtaskResultCache.forTask(taskDir, cacheDir);
+        assertSame(taskCache, SubtaskResultCache.forTask(taskDir, cacheDir));
+
+        write(new File(taskDir, SubtaskResultCache.TASK_KEY_FILE_NAME), "other-task-key");
+        assertNotSame(taskCache, SubtaskResultCache.forTask(taskDir, cacheDir));
+    }
+
+    /**
+     * Tests that only the files written by the algorithm are cached, and that entries are
+     * read-only copies that don't change when the subtask's files do.
+     */
+    @Test
+    public void testStoreAndRestore() throws Exception {
+        File subtaskDir = TaskConfigurationManager.subtaskDirectory(taskDir, 0);
+        write(new File(subtaskDir, "inputs-0.h5"), "inputs");
+        new File(subtaskDir, TaskConfigurationManager.LOCK_FILE_NAME).createNewFile();
+        Map<Path, String> snapshot = SubtaskResultCache.snapshot(subtaskDir);
+
+        write(new File(subtaskDir, "outputs-0.h5"), "outputs");
+        write(new File(subtaskDir, "plots/plot.png"), "plot");
+        new File(subtaskDir, ".COMPLETE").createNewFile();
+        assertFalse(cache.restore("abcd", subtaskDir));
+        cache.store("abcd", subtaskDir, snapshot);
+
+        File newSubtaskDir = TaskConfigurationManager.subtaskDirectory(taskDir, 1);
+        newSubtaskDir.mkdirs();
+        assertTrue(cache.restore("abcd", newSubtaskDir));
+        assertEquals(2, newSubtaskDir.list().length);
+        assertEquals("outputs", new String(
+            Files.readAllBytes(new File(newSubtaskDir, "outputs-0.h5").toPath()),
+            StandardCharsets.UTF_8));
+        assertTrue(new File(newSubtaskDir, "plots/plot.png").exists());
+        assertTrue(new File(newSubtaskDir, "outputs-0.h5").canWrite());
+        assertNotEquals(
+            Files.getAttribute(new File(subtaskDir, "outputs-0.h5").toPath(), "unix:ino"),
+            Files.getAttribute(new File(newSubtaskDir, "outputs-0.h5").toPath(), "unix:ino"));
+
+        write(new File(subtaskDir, "outputs-0.h5"), "changed outputs");
+        write(new File(newSubtaskDir, "outputs-0.h5"), "changed outputs");
+        File otherSubtaskDir = TaskConfigurationManager.subtaskDirectory(taskDir, 2);
+        otherSubtaskDir.mkdirs();
+        assertTrue(cache.restore("abcd", otherSubtaskDir));
+        assertEquals("outputs", new String(
+            Files.readAllBytes(new File(otherSubtaskDir, "outputs-0.h5").toPath()),
+            StandardCharsets.UTF_8));
+
+        Map<String, Metric> metrics = Metric.getGlobalMetricsSnapshot();
+        assertEquals(2, ((CounterMetric) metrics.get(SubtaskResultCache.HIT_METRIC)).getCount());
+        assertEquals(1, ((CounterMetric) metrics.get(SubtaskResultCache.MISS_METRIC)).getCount());
+        assertEquals(22L,
+            ((ValueMetric) metrics.get(SubtaskResultCache.BYTES_SAVED_METRIC)).getSum());
+    }
+
+    /**
+     * Tests that entries that haven't been used recently are evicted, followed by the least
+     * recently used entries if the cache is too large.
+     */
+    @Test
+    public void testEvict() throws Exception {
+        long now = System.currentTimeMillis();
+        long day = TimeUnit.DAYS.toMillis(1);
+        Path expired = storeEntry("aa01", 10, now - 40 * day);
+        Path old = storeEntry("aa02", 10, now - 20 * day);
+        Path recent = storeEntry("bb01", 10, now - 10 * day);
+        Path newest = storeEntry("bb02", 10, now - day);
+
+        SubtaskResultCache.evict(cacheDir, 30 * day, 0, now);
+        assertFalse(Files.exists(expired));
+        assertTrue(Files.exists(old));
+
+        SubtaskResultCache.evict(cacheDir, 30 * day, 15, now);
+        assertFalse(Files.exists(old));
+        assertFalse(Files.exists(recent));
+        assertTrue(Files.exists(newest));
+        assertEquals(1, cacheDir.resolve("aa").toFile().list().length
+            + cacheDir.resolve("bb").toFile().list().length);
+    }
+
+    private Path storeEntry(String subtaskKey, int bytes, long lastUsedMillis) throws Exception {
+        File subtaskDir = tFolder.newFolder(subtaskKey);
+        Map<Path, String> snapshot = SubtaskResultCache.snapshot(subtaskDir);
+        Files.write(new File(subtaskDir, "outputs.h5").toPath(), new byte[bytes]);
+        cache.store(subtaskKey, subtaskDir, snapshot);
+        Path entry = cacheDir.resolve(subtaskKey.substring(0, 2)).resolve(subtaskKey);
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(lastUsedMillis));
+        return entry;
+    }
+}
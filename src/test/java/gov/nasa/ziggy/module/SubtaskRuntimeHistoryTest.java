@@ -0,0 +1,98 @@
+package gov.nasa.ziggy.module;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.nasa.ziggy.module.remote.TimestampFile;
+
+/**
+ * Unit tests for {@link SubtaskRuntimeHistory} and {@link SubtaskMakespanReport}.
+ *
+ * @author PT
+ */
+public class SubtaskRuntimeHistoryTest {
+
+    @Rule
+    public TemporaryFolder tFolder = new TemporaryFolder();
+
+    private static Set<String> files(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals("a.h5/b.h5", SubtaskRuntimeHistory.key(files("dir2/b.h5", "dir1/a.h5")));
+        assertEquals(SubtaskRuntimeHistory.key(files("x/a.h5", "x/b.h5")),
+            SubtaskRuntimeHistory.key(files("y/b.h5", "y/a.h5")));
+    }
+
+    /**
+     * Tests that runtimes saved by two histories of the same module are merged.
+     */
+    @Test
+    public void testSave() throws Exception {
+        Path historyFile = tFolder.getRoot()
+            .toPath()
+            .resolve("module" + SubtaskRuntimeHistory.FILE_SUFFIX);
+        SubtaskRuntimeHistory history1 = new SubtaskRuntimeHistory(historyFile);
+        SubtaskRuntimeHistory history2 = new SubtaskRuntimeHistory(historyFile);
+        history1.record(files("a.h5"), 100L);
+        history2.record(files("b.h5"), 200L);
+        history1.save();
+        history2.save();
+
+        SubtaskRuntimeHistory history = new SubtaskRuntimeHistory(historyFile);
+        assertEquals(100L, history.runtimeMillis(files("other/a.h5")));
+        assertEquals(200L, history.runtimeMillis(files("b.h5")));
+        assertEquals(-1L, history.runtimeMillis(files("c.h5")));
+    }
+
+    @Test
+    public void testLongestFirstOrder() {
+        // The missing runtime is taken to be the mean of the others, 20.
+        assertArrayEquals(new int[] { 3, 1, 2, 0 },
+            SubtaskRuntimeHistory.longestFirstOrder(new long[] { 10, 20, -1, 30 }));
+        assertArrayEquals(new int[] { 0, 1, 2 },
+            SubtaskRuntimeHistory.longestFirstOrder(new long[] { -1, -1, -1 }));
+    }
+
+    /**
+     * Tests that a straggler that starts last sets the predicted makespan, and that the actual
+     * makespan is taken from the subtask timestamp files.
+     */
+    @Test
+    public void testMakespanReport() throws Exception {
+        long[] runtimes = { 10_000, 10_000, 10_000, 10_000, 40_000 };
+        int[] order = SubtaskRuntimeHistory.longestFirstOrder(runtimes);
+        assertEquals(60_000L, SubtaskMakespanReport.predictedMakespanMillis(runtimes,
+            new int[] { 0, 1, 2, 3, 4 }, 2));
+        assertEquals(40_000L, SubtaskMakespanReport.predictedMakespanMillis(runtimes, order, 2));
+
+        File taskDir = tFolder.newFolder("10-20-module");
+        for (int i = 0; i < runtimes.length; i++) {
+            File subtaskDir = TaskConfigurationManager.subtaskDirectory(taskDir, i);
+            subtaskDir.mkdirs();
+            if (i < 2) {
+                TimestampFile.create(subtaskDir, TimestampFile.Event.SUB_TASK_START, 1000L * i);
+                TimestampFile.create(subtaskDir, TimestampFile.Event.SUB_TASK_FINISH,
+                    1000L * i + 5000L);
+            }
+        }
+        SubtaskMakespanReport report = SubtaskMakespanReport.create(taskDir, runtimes, order, 2);
+        assertEquals(5000L, report.actualRuntimeMillis(1));
+        assertEquals(-1L, report.actualRuntimeMillis(2));
+        assertEquals(6000L, report.actualMakespanMillis());
+        assertEquals(40_000L, report.predictedMakespanMillis());
+        assertEquals(60_000L, report.predictedIndexOrderMakespanMillis());
+    }
+}
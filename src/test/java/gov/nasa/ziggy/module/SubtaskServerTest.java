@@ -0,0 +1,158 @@
+package gov.nasa.ziggy.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import gov.nasa.ziggy.module.SubtaskServer.Response;
+import gov.nasa.ziggy.module.SubtaskServer.ResponseType;
+
+/**
+ * Unit tests for {@link SubtaskServer} and {@link SubtaskClient}.
+ *
+ * @author PT
+ */
+public class SubtaskServerTest {
+
+    private SubtaskServer subtaskServer;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() throws InterruptedException {
+        TaskConfigurationManager taskConfigurationManager = mock(TaskConfigurationManager.class);
+        when(taskConfigurationManager.numSubTasks()).thenReturn(3);
+        subtaskServer = new SubtaskServer("localhost", taskConfigurationManager);
+        subtaskServer.startSubtaskServer();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        executor.shutdownNow();
+        subtaskServer.shutdownServer();
+    }
+
+    /**
+     * Tests that a client reuses a single connection for all of its requests.
+     */
+    @Test
+    public void testPersistentConnection() throws Exception {
+        try (SubtaskClient client = newClient()) {
+            Response response = client.nextSubtask();
+            assertEquals(ResponseType.OK, response.status);
+            assertEquals(0, response.subtaskIndex);
+            client.reportSubTaskComplete(0);
+            for (int subtaskIndex = 1; subtaskIndex < 3; subtaskIndex++) {
+                response = client.nextSubtask();
+                assertEquals(subtaskIndex, response.subtaskIndex);
+                client.reportSubTaskComplete(subtaskIndex);
+            }
+            assertEquals(ResponseType.NO_MORE, client.nextSubtask().status);
+        }
+        assertEquals(1, subtaskServer.getConnectionCount());
+    }
+
+    /**
+     * Tests that a client that is waiting for a subtask is given one as soon as it is available.
+     */
+    @Test
+    public void testLongPoll() throws Exception {
+        try (SubtaskClient client = newClient()) {
+            for (int subtaskIndex = 0; subtaskIndex < 3; subtaskIndex++) {
+                assertEquals(subtaskIndex, client.nextSubtask().subtaskIndex);
+            }
+
+            // Subtask 0 is complete and the others are processing, so the next request waits.
+            client.reportSubTaskComplete(0);
+            Future<Response> waitingResponse = executor.submit(() -> {
+                try (SubtaskClient waitingClient = newClient()) {
+                    return waitingClient.nextSubtask();
+                }
+            });
+            Thread.sleep(200);
+            assertFalse(waitingResponse.isDone());
+
+            // Once subtask 1 is locked, it is offered to the waiting client.
+            long startTime = System.currentTimeMillis();
+            client.reportSubTaskLocked(1);
+            Response response = waitingResponse.get(SubtaskServer.LONG_POLL_TIMEOUT_MILLIS / 2,
+                TimeUnit.MILLISECONDS);
+            assertTrue(System.currentTimeMillis() - startTime < 1000);
+            assertEquals(ResponseType.OK, response.status);
+            assertEquals(1, response.subtaskIndex);
+        }
+    }
+
+    /**
+     * Tests that a client can lease several subtasks in one request, and that the leases it holds
+     * are released when it closes its connection.
+     */
+    @Test
+    public void testBatchLeases() throws Exception {
+        try (SubtaskClient client = new SubtaskClient("localhost",
+            subtaskServer.getServerPort(), 2, 0)) {
+            assertEquals(0, client.nextSubtask().subtaskIndex);
+            assertEquals(1, client.nextSubtask().subtaskIndex);
+            client.reportSubTaskComplete(0);
+        }
+
+        // Subtask 1 was never reported, so it is offered again after subtask 2.
+        try (SubtaskClient client = newClient()) {
+            assertEquals(2, client.nextSubtask().subtaskIndex);
+            client.reportSubTaskComplete(2);
+            assertEquals(1, client.nextSubtask().subtaskIndex);
+            client.reportSubTaskComplete(1);
+            assertEquals(ResponseType.NO_MORE, client.nextSubtask().status);
+        }
+    }
+
+    /**
+     * Tests that a client whose connection is dropped while it holds leases claims the subtask it
+     * is processing again and abandons the one it has not started, so that no subtask is handed
+     * out twice. The client reconnects when it next renews its leases.
+     */
+    @Test
+    public void testDroppedConnection() throws Exception {
+        try (SubtaskClient client = new SubtaskClient("localhost",
+            subtaskServer.getServerPort(), 2, 50)) {
+            assertEquals(0, client.nextSubtask().subtaskIndex);
+
+            // The server releases subtasks 0 and 1 when the connection drops, and the client
+            // claims subtask 0 and abandons subtask 1 when it reconnects.
+            subtaskServer.closeConnections();
+            Thread.sleep(200);
+            client.reportSubTaskComplete(0);
+            try (SubtaskClient otherClient = newClient()) {
+                assertEquals(2, otherClient.nextSubtask().subtaskIndex);
+                assertEquals(1, client.nextSubtask().subtaskIndex);
+
+                // Subtask 1 is claimed again after a second drop, so it is not offered to the
+                // other client, which waits until subtask 1 is complete.
+                subtaskServer.closeConnections();
+                Thread.sleep(200);
+                otherClient.reportSubTaskComplete(2);
+                Future<Response> waitingResponse = executor.submit(otherClient::nextSubtask);
+                Thread.sleep(200);
+                client.reportSubTaskComplete(1);
+                assertEquals(ResponseType.NO_MORE, waitingResponse
+                    .get(SubtaskServer.LONG_POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).status);
+            }
+            assertEquals(ResponseType.NO_MORE, client.nextSubtask().status);
+        }
+    }
+
+    private SubtaskClient newClient() {
+        return new SubtaskClient("localhost", subtaskServer.getServerPort());
+    }
+}
@@ -0,0 +1,227 @@
+package gov.nasa.ziggy.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.nasa.ziggy.metrics.CounterMetric;
+import gov.nasa.ziggy.metrics.Metric;
+import gov.nasa.ziggy.module.AlgorithmStateFiles.SubtaskState;
+
+/**
+ * Unit tests for {@link SubtaskSpeculator}.
+ *
+ * @author PT
+ */
+public class SubtaskSpeculatorTest {
+
+    @Rule
+    public TemporaryFolder tFolder = new TemporaryFolder();
+
+    private File taskDir;
+    private AtomicLong clock = new AtomicLong();
+    private File speculativeWorkingDir;
+    private BooleanSupplier speculativeOutputsGate;
+    private boolean speculativeClaimsOutputs;
+    private boolean speculativeInputLinked;
+    private SubtaskSpeculator speculator;
+
+    @Before
+    public void setup() throws Exception {
+        taskDir = tFolder.newFolder("10-20-module");
+        speculator = new SubtaskSpeculator(0.5, 2.0, 1, 2, null, this::speculativeExecution,
+            clock::get);
+    }
+
+    @After
+    public void teardown() {
+        speculator.shutdown();
+        SubtaskStateJournal.closeAll();
+        Metric.clear();
+    }
+
+    /**
+     * Fake speculative attempt, which records whether its input file is linked to the subtask
+     * directory's, and writes a result file and claims the outputs if
+     * {@link #speculativeClaimsOutputs} is set.
+     */
+    private SubtaskSpeculator.Execution speculativeExecution(int subtaskIndex, File workingDir,
+        BooleanSupplier outputsGate) {
+        speculativeWorkingDir = workingDir;
+        speculativeOutputsGate = outputsGate;
+        return new SubtaskSpeculator.Execution() {
+            @Override
+            public int execute() {
+                try {
+                    speculativeInputLinked = Files.isSameFile(
+                        new File(workingDir, "input.h5").toPath(),
+                        new File(subtaskDir(subtaskIndex), "input.h5").toPath());
+                    if (!speculativeClaimsOutputs) {
+                        return -1;
+                    }
+                    new File(workingDir, "result.h5").createNewFile();
+                } catch (Exception e) {
+                    return -1;
+                }
+                return outputsGate.getAsBoolean() ? 0 : -1;
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+
+    private File subtaskDir(int subtaskIndex) throws Exception {
+        File subtaskDir = TaskConfigurationManager.subtaskDirectory(taskDir, subtaskIndex);
+        subtaskDir.mkdirs();
+        return subtaskDir;
+    }
+
+    /**
+     * Completes subtask 0 in 10 seconds, then starts subtask 1, which has an input file.
+     */
+    private SubtaskSpeculator.Race startStraggler(AtomicBoolean originalCancelled)
+        throws Exception {
+        AlgorithmStateFiles.clearStaleStates(taskDir, Arrays.asList(subtaskDir(0), subtaskDir(1)));
+        SubtaskSpeculator.Race race0 = speculator.originalStarting(0, subtaskDir(0));
+        clock.addAndGet(10_000L);
+        assertEquals(0, speculator.originalFinished(race0, 0));
+
+        File subtaskDir = subtaskDir(1);
+        new File(subtaskDir, "input.h5").createNewFile();
+        SubtaskSpeculator.Race race = speculator.originalStarting(1, subtaskDir);
+        race.setOriginal(new SubtaskSpeculator.Execution() {
+            @Override
+            public int execute() {
+                return 0;
+            }
+
+            @Override
+            public void cancel() {
+                originalCancelled.set(true);
+            }
+        });
+        new File(subtaskDir, "original-scratch.h5").createNewFile();
+        return race;
+    }
+
+    /**
+     * Tests that a straggler is only re-executed once it has run for longer than the multiple of
+     * the median runtime, and that a speculative attempt that wins is promoted.
+     */
+    @Test
+    public void testSpeculativeWin() throws Exception {
+        AtomicBoolean originalCancelled = new AtomicBoolean();
+        SubtaskSpeculator.Race race = startStraggler(originalCancelled);
+
+        // Too many subtasks remain.
+        clock.addAndGet(30_000L);
+        speculator.check(2, 2);
+        assertNull(speculativeWorkingDir);
+
+        // Not yet a straggler.
+        clock.addAndGet(-15_000L);
+        speculator.check(2, 1);
+        assertNull(speculativeWorkingDir);
+
+        speculativeClaimsOutputs = true;
+        clock.addAndGet(15_000L);
+        speculator.check(2, 1);
+        File subtaskDir = subtaskDir(1);
+        assertEquals(AlgorithmStateFiles.speculativeAttemptDirectory(subtaskDir),
+            speculativeWorkingDir);
+        assertEquals(1, ((CounterMetric) Metric.getGlobalMetricsSnapshot()
+            .get(SubtaskSpeculator.LAUNCHED_METRIC)).getCount());
+
+        // The original attempt is cancelled when the speculative attempt claims the outputs.
+        assertEquals(0, speculator.originalFinished(race, -1));
+        assertTrue(originalCancelled.get());
+        assertFalse(race.claimOutputsForOriginal());
+        assertTrue(speculativeInputLinked);
+        assertFalse(speculativeWorkingDir.exists());
+        assertTrue(new File(subtaskDir, "input.h5").exists());
+        assertTrue(new File(subtaskDir, "result.h5").exists());
+        assertFalse(new File(subtaskDir, "original-scratch.h5").exists());
+        assertTrue(new AlgorithmStateFiles(subtaskDir).isComplete());
+        assertEquals(SubtaskState.COMPLETE, AlgorithmStateFiles.attemptOutcome(subtaskDir, true));
+        assertEquals(SubtaskState.FAILED, AlgorithmStateFiles.attemptOutcome(subtaskDir, false));
+
+        // Attempts aren't counted as subtasks.
+        assertEquals(1, AlgorithmStateFiles.journalStateCounts(taskDir).getCompletedSubtasks());
+
+        // The replaced subtask directory remains until the SubtaskMaster releases its lock.
+        File replacedDir = new File(taskDir, subtaskDir.getName() + ".replaced");
+        assertTrue(new File(replacedDir, "original-scratch.h5").exists());
+        SubtaskSpeculator.deleteReplacedDirectory(subtaskDir);
+        assertFalse(replacedDir.exists());
+    }
+
+    /**
+     * Tests that a speculative attempt is only started when the {@link SubtaskAdmissionController}
+     * admits it, and that it releases its admission when it ends.
+     */
+    @Test
+    public void testAdmission() throws Exception {
+        speculator.shutdown();
+        SubtaskAdmissionController admissionController = new SubtaskAdmissionController(1, 2, 2,
+            0L, 0L, () -> {
+                throw new UnsupportedOperationException();
+            });
+        speculator = new SubtaskSpeculator(0.5, 2.0, 1, 2, admissionController,
+            this::speculativeExecution, clock::get);
+        AtomicBoolean originalCancelled = new AtomicBoolean();
+        SubtaskSpeculator.Race race = startStraggler(originalCancelled);
+
+        // The original attempt and another subtask are running.
+        admissionController.acquire();
+        admissionController.acquire();
+        clock.addAndGet(30_000L);
+        speculator.check(2, 1);
+        assertNull(speculativeWorkingDir);
+
+        admissionController.release();
+        speculativeClaimsOutputs = true;
+        speculator.check(2, 1);
+        assertEquals(AlgorithmStateFiles.speculativeAttemptDirectory(subtaskDir(1)),
+            speculativeWorkingDir);
+        assertEquals(0, speculator.originalFinished(race, -1));
+        assertEquals(1, admissionController.running());
+    }
+
+    /**
+     * Tests that an original attempt that claims the outputs first wins, and that the speculative
+     * attempt directory is deleted.
+     */
+    @Test
+    public void testOriginalWin() throws Exception {
+        AtomicBoolean originalCancelled = new AtomicBoolean();
+        SubtaskSpeculator.Race race = startStraggler(originalCancelled);
+        clock.addAndGet(30_000L);
+        speculator.check(2, 1);
+        File subtaskDir = subtaskDir(1);
+
+        assertTrue(race.claimOutputsForOriginal());
+        assertFalse(speculativeOutputsGate.getAsBoolean());
+        assertEquals(0, speculator.originalFinished(race, 0));
+        assertFalse(originalCancelled.get());
+        assertFalse(AlgorithmStateFiles.speculativeAttemptDirectory(subtaskDir).exists());
+        assertTrue(new File(subtaskDir, "original-scratch.h5").exists());
+        assertEquals(SubtaskState.COMPLETE, AlgorithmStateFiles.attemptOutcome(subtaskDir, false));
+        assertEquals(SubtaskState.FAILED, AlgorithmStateFiles.attemptOutcome(subtaskDir, true));
+    }
+}
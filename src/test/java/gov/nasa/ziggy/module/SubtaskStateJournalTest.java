@@ -0,0 +1,203 @@
+package gov.nasa.ziggy.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.nasa.ziggy.module.AlgorithmStateFiles.SubtaskState;
+import gov.nasa.ziggy.module.AlgorithmStateFiles.SubtaskStateCounts;
+import gov.nasa.ziggy.services.config.PropertyNames;
+
+/**
+ * Unit tests for {@link SubtaskStateJournal} and its use by {@link AlgorithmStateFiles}.
+ *
+ * @author PT
+ */
+public class SubtaskStateJournalTest {
+
+    @Rule
+    public TemporaryFolder tFolder = new TemporaryFolder();
+
+    private File taskDir;
+
+    @Before
+    public void setup() throws Exception {
+        taskDir = tFolder.newFolder("10-20-modules");
+    }
+
+    @After
+    public void teardown() {
+        SubtaskStateJournal.closeAll();
+        System.clearProperty(PropertyNames.SUBTASK_STATE_FLAG_FILES_PROP_NAME);
+    }
+
+    /**
+     * Tests that a reader only consumes complete records, and that the last record for a subtask
+     * determines its state.
+     */
+    @Test
+    public void testIncrementalRead() throws Exception {
+        SubtaskStateJournal.Reader reader = new SubtaskStateJournal.Reader(taskDir);
+        assertFalse(reader.update());
+
+        try (SubtaskStateJournal journal = new SubtaskStateJournal(taskDir)) {
+            journal.append("st-0", SubtaskState.PROCESSING, false);
+            journal.append("st-1", SubtaskState.PROCESSING, false);
+            assertTrue(reader.update());
+            assertEquals(SubtaskState.PROCESSING, reader.state("st-0"));
+            assertEquals(SubtaskState.NULL, reader.state("st-2"));
+
+            journal.append(Arrays.asList(
+                new SubtaskStateJournal.Record("st-0", SubtaskState.COMPLETE, true),
+                new SubtaskStateJournal.Record("st-1", SubtaskState.FAILED, false)));
+        }
+
+        // A record that is still being written is not read.
+        Files.write(SubtaskStateJournal.journalFile(taskDir).toPath(),
+            "st-2\tCOMP".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertTrue(reader.update());
+        assertEquals(SubtaskState.COMPLETE, reader.state("st-0"));
+        assertTrue(reader.hasResults("st-0"));
+        assertEquals(SubtaskState.FAILED, reader.state("st-1"));
+        assertEquals(SubtaskState.NULL, reader.state("st-2"));
+        SubtaskStateCounts counts = reader.counts();
+        assertEquals(1, counts.getCompletedSubtasks());
+        assertEquals(1, counts.getFailedSubtasks());
+
+        Files.write(SubtaskStateJournal.journalFile(taskDir).toPath(),
+            "LETE\nst-1\tNULL\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertTrue(reader.update());
+        assertEquals(SubtaskState.COMPLETE, reader.state("st-2"));
+        assertFalse(reader.hasResults("st-2"));
+        assertEquals(SubtaskState.NULL, reader.state("st-1"));
+        counts = reader.counts();
+        assertEquals(2, counts.getCompletedSubtasks());
+        assertEquals(0, counts.getFailedSubtasks());
+        assertEquals(Arrays.asList("st-0", "st-2"),
+            sorted(reader.subtaskDirNames(SubtaskState.COMPLETE)));
+    }
+
+    /**
+     * Tests that subtask states are recorded in the journal and not in flag files.
+     */
+    @Test
+    public void testAlgorithmStateFiles() throws Exception {
+        File subtaskDir = new File(taskDir, "st-0");
+        subtaskDir.mkdir();
+        AlgorithmStateFiles.clearStaleStates(taskDir, Collections.singletonList(subtaskDir));
+        assertTrue(SubtaskStateJournal.journalFile(taskDir).exists());
+
+        AlgorithmStateFiles stateFiles = new AlgorithmStateFiles(subtaskDir);
+        assertFalse(stateFiles.subtaskStateExists());
+        stateFiles.updateCurrentState(SubtaskState.PROCESSING);
+        assertTrue(stateFiles.isProcessing());
+        stateFiles.setResultsFlag();
+        stateFiles.updateCurrentState(SubtaskState.COMPLETE);
+        assertTrue(stateFiles.isComplete());
+        assertTrue(AlgorithmStateFiles.hasResults(subtaskDir));
+        assertFalse(new File(subtaskDir, ".COMPLETE").exists());
+        assertFalse(new File(subtaskDir, ".PROCESSING").exists());
+
+        SubtaskStateCounts counts = AlgorithmStateFiles.journalStateCounts(taskDir);
+        assertEquals(1, counts.getCompletedSubtasks());
+        assertEquals(Collections.singletonList(subtaskDir), AlgorithmStateFiles
+            .completedSubtaskDirectories(taskDir, Collections.singletonList(subtaskDir), true));
+    }
+
+    /**
+     * Tests that a shared writer stays open while any subtask that it recorded is processing, and
+     * is closed when the last of them reaches another state.
+     */
+    @Test
+    public void testSharedWriterClosed() throws Exception {
+        SubtaskStateJournal.record(taskDir, "st-0", SubtaskState.PROCESSING, false);
+        SubtaskStateJournal.record(taskDir, "st-1", SubtaskState.PROCESSING, false);
+        assertEquals(1, SubtaskStateJournal.openWriterCount());
+        SubtaskStateJournal.record(taskDir, "st-0", SubtaskState.COMPLETE, true);
+        assertEquals(1, SubtaskStateJournal.openWriterCount());
+        SubtaskStateJournal.record(taskDir, "st-1", SubtaskState.FAILED, false);
+        assertEquals(0, SubtaskStateJournal.openWriterCount());
+
+        // A record that doesn't start processing doesn't leave the writer open.
+        SubtaskStateJournal.record(taskDir, "st-2", SubtaskState.NULL, false);
+        assertEquals(0, SubtaskStateJournal.openWriterCount());
+
+        SubtaskStateJournal.Reader reader = new SubtaskStateJournal.Reader(taskDir);
+        assertTrue(reader.update());
+        assertEquals(SubtaskState.COMPLETE, reader.state("st-0"));
+        assertEquals(SubtaskState.FAILED, reader.state("st-1"));
+    }
+
+    /**
+     * Tests that clearing stale states resets failed subtasks, and that the COMPLETE flag files of
+     * a task directory without a journal are copied into a new journal.
+     */
+    @Test
+    public void testClearStaleStates() throws Exception {
+        List<File> subtaskDirs = Arrays.asList(new File(taskDir, "st-0"),
+            new File(taskDir, "st-1"), new File(taskDir, "st-2"));
+        for (File subtaskDir : subtaskDirs) {
+            subtaskDir.mkdir();
+        }
+        new File(subtaskDirs.get(0), ".COMPLETE").createNewFile();
+        new File(subtaskDirs.get(0), ".HAS_RESULTS").createNewFile();
+        new File(subtaskDirs.get(1), ".FAILED").createNewFile();
+
+        // Without a journal, the flag files are used.
+        assertNull(AlgorithmStateFiles.journalStateCounts(taskDir));
+        assertTrue(new AlgorithmStateFiles(subtaskDirs.get(1)).isFailed());
+
+        AlgorithmStateFiles.clearStaleStates(taskDir, subtaskDirs);
+        assertTrue(new AlgorithmStateFiles(subtaskDirs.get(0)).isComplete());
+        assertTrue(AlgorithmStateFiles.hasResults(subtaskDirs.get(0)));
+        assertEquals(SubtaskState.NULL,
+            new AlgorithmStateFiles(subtaskDirs.get(1)).currentSubtaskState());
+
+        new AlgorithmStateFiles(subtaskDirs.get(2)).updateCurrentState(SubtaskState.FAILED);
+        assertEquals(1, AlgorithmStateFiles.journalStateCounts(taskDir).getFailedSubtasks());
+        AlgorithmStateFiles.clearStaleStates(taskDir, subtaskDirs);
+        SubtaskStateCounts counts = AlgorithmStateFiles.journalStateCounts(taskDir);
+        assertEquals(1, counts.getCompletedSubtasks());
+        assertEquals(0, counts.getFailedSubtasks());
+    }
+
+    /**
+     * Tests that flag files are written and read in the compatibility mode.
+     */
+    @Test
+    public void testFlagFileMode() throws Exception {
+        System.setProperty(PropertyNames.SUBTASK_STATE_FLAG_FILES_PROP_NAME, "true");
+        File subtaskDir = new File(taskDir, "st-0");
+        subtaskDir.mkdir();
+        AlgorithmStateFiles stateFiles = new AlgorithmStateFiles(subtaskDir);
+        stateFiles.updateCurrentState(SubtaskState.FAILED);
+        assertTrue(new File(subtaskDir, ".FAILED").exists());
+        assertTrue(stateFiles.isFailed());
+        assertNull(AlgorithmStateFiles.journalStateCounts(taskDir));
+
+        // The journal is kept up to date as well.
+        SubtaskStateJournal.Reader reader = new SubtaskStateJournal.Reader(taskDir);
+        assertTrue(reader.update());
+        assertEquals(SubtaskState.FAILED, reader.state("st-0"));
+    }
+
+    private static List<String> sorted(List<String> names) {
+        Collections.sort(names);
+        return names;
+    }
+}
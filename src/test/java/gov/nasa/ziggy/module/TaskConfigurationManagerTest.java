@@ -6,7 +6,9 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -178,4 +180,52 @@ public class TaskConfigurationManagerTest {
         assertEquals(h1, h2);
     }
 
+    /**
+     * Tests that the files for a single subtask are read from the persisted index, and that names
+     * shared by several subtasks are restored correctly.
+     */
+    @Test
+    public void testRestoreAndRetrieveFilesForSubtask() {
+        TaskConfigurationManager h1 = new TaskConfigurationManager(taskDir);
+        t1.add("shared.h5");
+        t1.add("a.h5");
+        t2.add("b.h5");
+        t2.add("shared.h5");
+        h1.addFilesForSubtask(t1);
+        h1.addFilesForSubtask(t2);
+        h1.addFilesForSubtask(t3);
+        h1.persist();
+
+        assertEquals(t2, TaskConfigurationManager.restoreAndRetrieveFilesForSubtask(taskDir, 1));
+        assertEquals(t3, TaskConfigurationManager.restoreAndRetrieveFilesForSubtask(taskDir, 2));
+        TaskConfigurationManager h2 = TaskConfigurationManager.restore(taskDir);
+        assertEquals(3, h2.getSubtaskCount());
+        assertEquals(t1, h2.filesForSubtask(0));
+        assertNull(h2.getInputsClass());
+        assertEquals(h1, h2);
+    }
+
+    /**
+     * Tests that a task directory persisted with Java serialization can still be restored.
+     */
+    @Test
+    public void testRestoreSerialized() throws IOException {
+        TaskConfigurationManager h1 = new TaskConfigurationManager(taskDir);
+        t1.add("a.h5");
+        h1.addFilesForSubtask(t1);
+        h1.setInputsClass(PipelineInputsSample.class);
+        try (ObjectOutputStream oos = new ObjectOutputStream(
+            new FileOutputStream(new File(taskDir, ".task-configuration.ser")))) {
+            oos.writeObject(h1);
+        }
+
+        assertTrue(TaskConfigurationManager.isPersistedInputsHandlerPresent(taskDir));
+        assertEquals(h1, TaskConfigurationManager.restore(taskDir));
+        assertEquals(t1, TaskConfigurationManager.restoreAndRetrieveFilesForSubtask(taskDir, 0));
+
+        // Persisting again replaces the serialized file.
+        TaskConfigurationManager.restore(taskDir).persist();
+        assertFalse(new File(taskDir, ".task-configuration.ser").exists());
+        assertEquals(h1, TaskConfigurationManager.restore(taskDir));
+    }
 }
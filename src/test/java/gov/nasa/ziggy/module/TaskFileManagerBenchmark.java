@@ -0,0 +1,76 @@
+package gov.nasa.ziggy.module;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Compares the per-subtask cost of running {@link TaskFileManager} in a new JVM for each request
+ * with the cost of running it in a {@link TaskFileManagerPool} helper. The only argument is the
+ * number of requests to run in each mode (default 20).
+ * <p>
+ * Both modes launch {@link TaskFileManager} through runjava, as {@link SubtaskExecutor} does, so
+ * the benchmark must be run with the Ziggy home directory configured, and with the test classes
+ * on the pipeline.classpath so that runjava can find the inputs class.
+ *
+ * @author PT
+ */
+public class TaskFileManagerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int requestCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        Path rootDir = Files.createTempDirectory("TaskFileManagerBenchmark");
+        try {
+            double forkMillis = timeForkPerRequest(rootDir.resolve("fork"), requestCount);
+            double poolMillis = timePool(rootDir.resolve("pool"), requestCount);
+            System.out.println(String.format("fork per request: %8.1f ms/request", forkMillis));
+            System.out.println(String.format("warm helper:      %8.1f ms/request", poolMillis));
+        } finally {
+            FileUtils.deleteDirectory(rootDir.toFile());
+        }
+    }
+
+    private static double timeForkPerRequest(Path dir, int requestCount)
+        throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < requestCount; i++) {
+            File subtaskDir = Files.createDirectories(dir.resolve("st-" + i)).toFile();
+            List<String> command = SubtaskExecutor
+                .taskFileManagerCommand(TaskFileManagerPoolTest.MarkerInputs.class.getName());
+            Process process = new ProcessBuilder(command).directory(subtaskDir)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .start();
+            check(process.waitFor());
+        }
+        return (System.nanoTime() - start) / 1e6 / requestCount;
+    }
+
+    private static double timePool(Path dir, int requestCount)
+        throws IOException, InterruptedException {
+        TaskFileManagerPool pool = new TaskFileManagerPool(
+            SubtaskExecutor.taskFileManagerCommand(TaskFileManager.SERVE_OPTION),
+            Collections.emptyMap(), 1);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < requestCount; i++) {
+                File subtaskDir = Files.createDirectories(dir.resolve("st-" + i)).toFile();
+                check(pool.execute(subtaskDir, TaskFileManagerPoolTest.MarkerInputs.class));
+            }
+            return (System.nanoTime() - start) / 1e6 / requestCount;
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static void check(int status) {
+        if (status != 0) {
+            throw new PipelineException("TaskFileManager returned status " + status);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package gov.nasa.ziggy.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.nasa.ziggy.data.management.DatastorePathLocator;
+import gov.nasa.ziggy.pipeline.definition.PipelineTask;
+import gov.nasa.ziggy.services.config.PropertyNames;
+
+/**
+ * Unit tests for {@link TaskFileManagerPool}.
+ *
+ * @author PT
+ */
+public class TaskFileManagerPoolTest {
+
+    static final String MARKER_FILE_NAME = "inputs-marker";
+    static final String CRASH_DIR_NAME = "crash";
+    static final String HANG_DIR_NAME = "hang";
+
+    @Rule
+    public TemporaryFolder tFolder = new TemporaryFolder();
+
+    private TaskFileManagerPool pool;
+
+    @Before
+    public void setup() {
+        pool = new TaskFileManagerPool(helperCommand(), Collections.emptyMap(), 1);
+    }
+
+    @After
+    public void teardown() {
+        pool.close();
+    }
+
+    /**
+     * Tests that a single helper processes requests in several directories.
+     */
+    @Test
+    public void testExecute() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            File subtaskDir = tFolder.newFolder("st-" + i);
+            assertEquals(0, pool.execute(subtaskDir, MarkerInputs.class));
+            assertTrue(new File(subtaskDir, MARKER_FILE_NAME).exists());
+        }
+        assertEquals(1, pool.getStartCount());
+
+        // A class that is neither an inputs nor an outputs class fails without killing the
+        // helper.
+        assertEquals(1, pool.execute(tFolder.newFolder("st-3"), String.class));
+        assertEquals(1, pool.getStartCount());
+    }
+
+    /**
+     * Tests that a helper that does not complete a request within the timeout is killed and
+     * replaced.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        pool.close();
+        pool = new TaskFileManagerPool(helperCommand(), Collections.emptyMap(), 1, 2000);
+        assertEquals(0, pool.execute(tFolder.newFolder("st-0"), MarkerInputs.class));
+        long startTime = System.currentTimeMillis();
+        assertEquals(TaskFileManagerPool.HELPER_FAILED,
+            pool.execute(tFolder.newFolder(HANG_DIR_NAME), MarkerInputs.class));
+        assertTrue(System.currentTimeMillis() - startTime < 10000);
+        File subtaskDir = tFolder.newFolder("st-1");
+        assertEquals(0, pool.execute(subtaskDir, MarkerInputs.class));
+        assertTrue(new File(subtaskDir, MARKER_FILE_NAME).exists());
+        assertEquals(2, pool.getStartCount());
+    }
+
+    /**
+     * Tests that a helper that exits during a request is replaced.
+     */
+    @Test
+    public void testHelperCrash() throws Exception {
+        assertEquals(0, pool.execute(tFolder.newFolder("st-0"), MarkerInputs.class));
+        assertEquals(TaskFileManagerPool.HELPER_FAILED,
+            pool.execute(tFolder.newFolder(CRASH_DIR_NAME), MarkerInputs.class));
+        File subtaskDir = tFolder.newFolder("st-1");
+        assertEquals(0, pool.execute(subtaskDir, MarkerInputs.class));
+        assertTrue(new File(subtaskDir, MARKER_FILE_NAME).exists());
+        assertEquals(2, pool.getStartCount());
+    }
+
+    static List<String> helperCommand() {
+        return Arrays.asList(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp",
+            System.getProperty("java.class.path"), TaskFileManager.class.getName(),
+            TaskFileManager.SERVE_OPTION);
+    }
+
+    /**
+     * Inputs class that writes a marker file to its working directory, kills its JVM if the
+     * working directory is named {@link #CRASH_DIR_NAME}, or never returns if the working
+     * directory is named {@link #HANG_DIR_NAME}.
+     */
+    public static class MarkerInputs extends PipelineInputs {
+
+        @Override
+        public void populateSubTaskInputs() {
+            Path workingDir = Paths.get(System.getProperty(PropertyNames.CURRENT_DIR_PROP_NAME));
+            if (workingDir.getFileName().toString().equals(CRASH_DIR_NAME)) {
+                Runtime.getRuntime().halt(3);
+            }
+            try {
+                if (workingDir.getFileName().toString().equals(HANG_DIR_NAME)) {
+                    Thread.sleep(Long.MAX_VALUE);
+                }
+                Files.createFile(workingDir.resolve(MARKER_FILE_NAME));
+            } catch (IOException | InterruptedException e) {
+                throw new PipelineException(e);
+            }
+        }
+
+        @Override
+        public DatastorePathLocator datastorePathLocator(PipelineTask pipelineTask) {
+            return null;
+        }
+
+        @Override
+        public void copyDatastoreFilesToTaskDirectory(
+            TaskConfigurationManager taskConfigurationManager, PipelineTask pipelineTask,
+            Path taskDirectory) {
+        }
+
+        @Override
+        public Set<Path> findDatastoreFilesForInputs(PipelineTask pipelineTask) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package gov.nasa.ziggy.module.hdf5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import gov.nasa.ziggy.collections.ZiggyDataType;
+import gov.nasa.ziggy.collections.ZiggyNdArray;
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.module.io.Persistable;
+
+/**
+ * Unit tests for the {@link Hdf5FileReader} class.
+ *
+ * @author PT
+ */
+public class Hdf5FileReaderTest {
+
+    @Rule
+    public TemporaryFolder tFolder = new TemporaryFolder();
+
+    private Hdf5ModuleInterface moduleInterface = new Hdf5ModuleInterface();
+    private File hdf5File;
+    private ReaderSample sample;
+
+    @Before
+    public void setup() throws IOException {
+        hdf5File = tFolder.newFile("hdf5ReaderTestFile.h5");
+        sample = new ReaderSample();
+        sample.image = new float[20][30];
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 30; j++) {
+                sample.image[i][j] = 100 * i + j;
+            }
+        }
+        sample.scalars = new PersistableSample3[7];
+        for (int i = 0; i < sample.scalars.length; i++) {
+            sample.scalars[i] = new PersistableSample3();
+            sample.scalars[i].setIntVar(i);
+            sample.scalars[i].setStringVar("scalar " + i);
+        }
+        sample.nested = new PersistableSample2();
+        sample.nested.intScalar = 31;
+        sample.nested.persistableArray2 = new PersistableSample1[2][3];
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 3; j++) {
+                sample.nested.persistableArray2[i][j] = PersistableSample1.newInstance(i + 1, j + 1,
+                    2, 2, 1, 1, 1);
+            }
+        }
+        sample.nested.persistableScalar1 = PersistableSample1.newInstance(3, 3, 3, 3, 3, 3, 3);
+        moduleInterface.writeFile(hdf5File, sample, true);
+    }
+
+    @Test
+    public void testHasFieldAndDimensions() {
+        try (Hdf5FileReader reader = moduleInterface.openFile(hdf5File, false)) {
+            assertTrue(reader.hasField("image"));
+            assertTrue(reader.hasField("nested/intScalar"));
+            assertFalse(reader.hasField("nested/noSuchField"));
+            assertArrayEquals(new long[] { 20, 30 }, reader.getDimensions("image"));
+            assertArrayEquals(new long[] { 2, 3 },
+                reader.getDimensions("nested/persistableArray2"));
+        }
+    }
+
+    /**
+     * Tests that reading a single field sets only that field, and constructs any null objects on
+     * the path to it.
+     */
+    @Test
+    public void testReadField() {
+        try (Hdf5FileReader reader = moduleInterface.openFile(hdf5File, false)) {
+            ReaderSample readSample = reader.readField(new ReaderSample(), "nested/intScalar");
+            assertEquals(31, readSample.nested.intScalar);
+            assertNull(readSample.image);
+            assertNull(readSample.nested.persistableScalar1);
+
+            reader.readField(readSample, "nested/persistableScalar1");
+            assertEquals(sample.nested.persistableScalar1, readSample.nested.persistableScalar1);
+            assertNull(readSample.nested.persistableArray2);
+        }
+    }
+
+    @Test
+    public void testReadArrayAndHyperslab() {
+        try (Hdf5FileReader reader = moduleInterface.openFile(hdf5File, false)) {
+            assertArrayEquals(sample.image, (float[][]) reader.readArray("image"));
+
+            float[][] region = (float[][]) reader.readHyperslab("image", new long[] { 5, 10 },
+                new long[] { 3, 4 });
+            assertEquals(3, region.length);
+            for (int i = 0; i < 3; i++) {
+                assertArrayEquals(new float[] { 100 * (i + 5) + 10, 100 * (i + 5) + 11,
+                    100 * (i + 5) + 12, 100 * (i + 5) + 13 }, region[i], 0);
+            }
+        }
+    }
+
+    /**
+     * Tests reading a field and a region of it into {@link ZiggyNdArray}s, with a cast.
+     */
+    @Test
+    public void testReadIntoNdArray() {
+        try (Hdf5FileReader reader = moduleInterface.openFile(hdf5File, false)) {
+            ZiggyNdArray image = ZiggyNdArray.allocateDirect(ZiggyDataType.ZIGGY_FLOAT, 20, 30);
+            reader.readArray("image", image);
+            assertArrayEquals(sample.image, (float[][]) image.toArray());
+
+            ZiggyNdArray region = ZiggyNdArray.allocate(ZiggyDataType.ZIGGY_DOUBLE, 2, 3);
+            reader.readHyperslab("image", new long[] { 4, 7 }, region);
+            assertArrayEquals(new double[] { 407, 408, 409, 507, 508, 509 },
+                (double[]) region.toFlatArray(), 0);
+        }
+    }
+
+    @Test(expected = PipelineException.class)
+    public void testHyperslabOutsideArray() {
+        try (Hdf5FileReader reader = moduleInterface.openFile(hdf5File, false)) {
+            reader.readHyperslab("image", new long[] { 18, 0 }, new long[] { 3, 30 });
+        }
+    }
+
+    /**
+     * Tests iteration over arrays of Persistable objects stored as parallel arrays and as a group
+     * per object.
+     */
+    @Test
+    public void testElementIterator() {
+        try (Hdf5FileReader reader = moduleInterface.openFile(hdf5File, false)) {
+            Iterator<PersistableSample3> scalars = reader.elementIterator("scalars",
+                PersistableSample3.class);
+            for (PersistableSample3 scalar : sample.scalars) {
+                assertTrue(scalars.hasNext());
+                assertEquals(scalar, scalars.next());
+            }
+            assertFalse(scalars.hasNext());
+
+            Iterator<PersistableSample1> objects = reader
+                .elementIterator("nested/persistableArray2", PersistableSample1.class);
+            for (PersistableSample1[] row : sample.nested.persistableArray2) {
+                for (PersistableSample1 object : row) {
+                    assertEquals(object, objects.next());
+                }
+            }
+            assertFalse(objects.hasNext());
+        }
+    }
+
+    @Test(expected = PipelineException.class)
+    public void testMissingField() {
+        try (Hdf5FileReader reader = moduleInterface.openFile(hdf5File, false)) {
+            reader.readArray("noSuchField");
+        }
+    }
+
+    public static class ReaderSample implements Persistable {
+        private float[][] image;
+        private PersistableSample3[] scalars;
+        private PersistableSample2 nested;
+    }
+}
@@ -0,0 +1,106 @@
+package gov.nasa.ziggy.module.hdf5;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+import gov.nasa.ziggy.module.io.Persistable;
+
+/**
+ * Writes and reads a representative sample file with {@link Hdf5ModuleInterface} under each of a
+ * set of {@link Hdf5StorageProfile}s, and reports the size of the file and the time taken to write
+ * and read it. The sample holds a square float image of a smooth background with noise, an int
+ * quality flag image that is mostly zero, and a double time series. The only argument is the
+ * number of rows and columns in the images (default 2048).
+ *
+ * @author PT
+ */
+public class Hdf5StorageProfileBenchmark {
+
+    private static final int REPETITIONS = 3;
+    private static final long CHUNK_CACHE_BYTES = 64L * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        Sample sample = new Sample(size);
+        Path dir = Files.createTempDirectory("Hdf5StorageProfileBenchmark");
+        try {
+            for (Map.Entry<String, Hdf5StorageProfile> entry : profiles().entrySet()) {
+                File file = dir.resolve("sample.h5").toFile();
+                Hdf5ModuleInterface hdf5ModuleInterface = new Hdf5ModuleInterface();
+                hdf5ModuleInterface.setStorageProfile(entry.getValue());
+                for (int i = 0; i < REPETITIONS; i++) {
+                    long start = System.nanoTime();
+                    hdf5ModuleInterface.writeFile(file, sample, true);
+                    long writeNanos = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    hdf5ModuleInterface.readFile(file, new Sample(), false);
+                    long readNanos = System.nanoTime() - start;
+                    System.out.println(
+                        String.format("%-28s: %10.2f MB, write %8.1f ms, read %8.1f ms",
+                            entry.getKey(), file.length() / 1e6, writeNanos / 1e6,
+                            readNanos / 1e6));
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    private static Map<String, Hdf5StorageProfile> profiles() {
+        Map<String, Hdf5StorageProfile> profiles = new LinkedHashMap<>();
+        profiles.put("contiguous", Hdf5StorageProfile.DEFAULT);
+        profiles.put("deflate 1", new Hdf5StorageProfile.Builder().deflateLevel(1).build());
+        profiles.put("deflate 6", new Hdf5StorageProfile.Builder().deflateLevel(6).build());
+        profiles.put("shuffle, deflate 1",
+            new Hdf5StorageProfile.Builder().shuffle(true).deflateLevel(1).build());
+        profiles.put("shuffle, deflate 6",
+            new Hdf5StorageProfile.Builder().shuffle(true).deflateLevel(6).build());
+        profiles.put("shuffle, deflate 6, fletcher",
+            new Hdf5StorageProfile.Builder().shuffle(true)
+                .deflateLevel(6)
+                .fletcher32(true)
+                .build());
+        profiles.put("shuffle, deflate 6, 64MB cache",
+            new Hdf5StorageProfile.Builder().shuffle(true)
+                .deflateLevel(6)
+                .chunkCacheBytes(CHUNK_CACHE_BYTES)
+                .build());
+        profiles.put("shuffle, deflate 6, 64K chunk",
+            new Hdf5StorageProfile.Builder().shuffle(true)
+                .deflateLevel(6)
+                .chunkBytes(64 * 1024)
+                .build());
+        return profiles;
+    }
+
+    public static class Sample implements Persistable {
+        private float[][] image;
+        private int[][] qualityFlags;
+        private double[] timeSeries;
+
+        public Sample() {
+        }
+
+        Sample(int size) {
+            Random random = new Random(0);
+            image = new float[size][size];
+            qualityFlags = new int[size][size];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    image[i][j] = (float) (1000 + 0.1 * i + 0.05 * j + random.nextGaussian());
+                    qualityFlags[i][j] = random.nextInt(100) == 0 ? 1 << random.nextInt(8) : 0;
+                }
+            }
+            timeSeries = new double[size * 16];
+            for (int i = 0; i < timeSeries.length; i++) {
+                timeSeries[i] = Math.sin(i / 100.0) + 0.01 * random.nextGaussian();
+            }
+        }
+    }
+}
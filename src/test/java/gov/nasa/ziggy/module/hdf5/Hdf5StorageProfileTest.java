@@ -0,0 +1,138 @@
+package gov.nasa.ziggy.module.hdf5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.module.hdf5.PersistableSchema.FieldSchema;
+import gov.nasa.ziggy.module.io.Persistable;
+import gov.nasa.ziggy.services.config.PropertyNames;
+
+/**
+ * Unit tests for {@link Hdf5StorageProfile}.
+ *
+ * @author PT
+ */
+public class Hdf5StorageProfileTest {
+
+    @After
+    public void teardown() {
+        System.clearProperty(PropertyNames.HDF5_DEFLATE_LEVEL_PROP_NAME);
+        System.clearProperty(PropertyNames.HDF5_DEFLATE_LEVEL_PROP_NAME + ".tps");
+        System.clearProperty(PropertyNames.HDF5_SHUFFLE_PROP_NAME);
+        System.clearProperty(PropertyNames.HDF5_CHUNK_CACHE_MEGABYTES_PROP_NAME);
+    }
+
+    @Test
+    public void testIsChunked() {
+        assertFalse(Hdf5StorageProfile.DEFAULT.isChunked(1000000));
+        Hdf5StorageProfile profile = new Hdf5StorageProfile.Builder().fletcher32(true).build();
+        assertFalse(profile.isChunked(Hdf5StorageProfile.MIN_CHUNKED_ELEMENTS));
+        assertTrue(profile.isChunked(Hdf5StorageProfile.MIN_CHUNKED_ELEMENTS + 1));
+    }
+
+    /**
+     * Tests that chunks keep the trailing dimensions whole and fit in the chunk size, and that a
+     * given chunk shape is reduced to fit the array.
+     */
+    @Test
+    public void testChunkShape() {
+        Hdf5StorageProfile profile = new Hdf5StorageProfile.Builder().deflateLevel(4).build();
+        assertArrayEquals(new long[] { 32, 4000 },
+            profile.chunkShape(new long[] { 4000, 4000 }, 8));
+        assertArrayEquals(new long[] { 1, 131072 },
+            profile.chunkShape(new long[] { 10, 1000000 }, 8));
+        assertArrayEquals(new long[] { 10, 20 }, profile.chunkShape(new long[] { 10, 20 }, 8));
+
+        profile = new Hdf5StorageProfile.Builder().chunkShape(new long[] { 100, 100 }).build();
+        assertTrue(profile.isChunked(1000));
+        assertArrayEquals(new long[] { 50, 100 }, profile.chunkShape(new long[] { 50, 400 }, 4));
+    }
+
+    @Test(expected = PipelineException.class)
+    public void testChunkShapeMismatch() {
+        new Hdf5StorageProfile.Builder().chunkShape(new long[] { 100, 100 })
+            .build()
+            .chunkShape(new long[] { 1000 }, 8);
+    }
+
+    @Test(expected = PipelineException.class)
+    public void testInvalidDeflateLevel() {
+        new Hdf5StorageProfile.Builder().deflateLevel(10);
+    }
+
+    /**
+     * Tests that the profile of a module is read from the pipeline properties, and that a property
+     * with the module name appended takes precedence.
+     */
+    @Test
+    public void testForModule() {
+        System.setProperty(PropertyNames.HDF5_DEFLATE_LEVEL_PROP_NAME, "4");
+        System.setProperty(PropertyNames.HDF5_DEFLATE_LEVEL_PROP_NAME + ".tps", "9");
+        System.setProperty(PropertyNames.HDF5_SHUFFLE_PROP_NAME, "true");
+        System.setProperty(PropertyNames.HDF5_CHUNK_CACHE_MEGABYTES_PROP_NAME, "2");
+
+        Hdf5StorageProfile profile = Hdf5StorageProfile.forModule("tps");
+        assertEquals(9, profile.getDeflateLevel());
+        assertTrue(profile.isShuffle());
+        assertFalse(profile.isFletcher32());
+        assertEquals(2L * 1024 * 1024, profile.getChunkCacheBytes());
+        assertEquals(Hdf5StorageProfile.DEFAULT_CHUNK_BYTES, profile.getChunkBytes());
+        assertTrue(BigInteger.valueOf(profile.chunkCacheSlots()).isProbablePrime(20));
+
+        assertEquals(4, Hdf5StorageProfile.forModule("pa").getDeflateLevel());
+    }
+
+    @Test
+    public void testAnnotation() throws NoSuchFieldException {
+        Hdf5StorageProfile profile = new FieldSchema(
+            AnnotatedSample.class.getDeclaredField("image")).getStorageProfile();
+        assertArrayEquals(new long[] { 64, 64 }, profile.getChunkShape());
+        assertEquals(6, profile.getDeflateLevel());
+        assertTrue(profile.isShuffle());
+        assertFalse(profile.isFletcher32());
+        assertEquals(4096L, profile.getChunkCacheBytes());
+
+        assertNull(new FieldSchema(AnnotatedSample.class.getDeclaredField("values"))
+            .getStorageProfile());
+    }
+
+    /**
+     * Tests that each array uses the storage profile of the array that created it, unless its
+     * field has an annotation.
+     */
+    @Test
+    public void testArrayProfiles() throws NoSuchFieldException {
+        Hdf5StorageProfile profile = new Hdf5StorageProfile.Builder().deflateLevel(2).build();
+        PersistableHdf5Array parent = (PersistableHdf5Array) AbstractHdf5Array
+            .newInstance(new AnnotatedSample(), profile);
+        PrimitiveHdf5Array values = parent.member(new PrimitiveHdf5Array(
+            new FieldSchema(AnnotatedSample.class.getDeclaredField("values"))));
+        assertSame(profile, values.storageProfile());
+        PrimitiveHdf5Array image = parent.member(new PrimitiveHdf5Array(
+            new FieldSchema(AnnotatedSample.class.getDeclaredField("image"))));
+        assertEquals(6, image.storageProfile().getDeflateLevel());
+
+        assertSame(Hdf5StorageProfile.DEFAULT,
+            ((PrimitiveHdf5Array) AbstractHdf5Array.newInstance(new double[] { 1.0 }))
+                .storageProfile());
+    }
+
+    static class AnnotatedSample implements Persistable {
+
+        @Hdf5Storage(chunkShape = { 64, 64 }, deflateLevel = 6, shuffle = true,
+            chunkCacheBytes = 4096)
+        private float[][] image;
+
+        private double[] values;
+    }
+}
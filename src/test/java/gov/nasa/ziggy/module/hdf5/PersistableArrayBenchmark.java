@@ -0,0 +1,132 @@
+package gov.nasa.ziggy.module.hdf5;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+
+import gov.nasa.ziggy.module.PipelineException;
+import gov.nasa.ziggy.module.io.Persistable;
+
+/**
+ * Times writing and reading an HDF5 file that holds an array of Persistable objects with
+ * {@link Hdf5ModuleInterface}. Arrays of objects whose fields are all primitive scalars are stored
+ * as parallel arrays; arrays of other objects are stored with a group per object. The only
+ * argument is the number of elements in each array (default 100000).
+ *
+ * @author PT
+ */
+public class PersistableArrayBenchmark {
+
+    private static final int REPETITIONS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int elementCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Path dir = Files.createTempDirectory("PersistableArrayBenchmark");
+        try {
+            File file = dir.resolve("structs.h5").toFile();
+            for (int i = 0; i < REPETITIONS; i++) {
+                time("parallel arrays", file, new ScalarStructs(elementCount),
+                    new ScalarStructs(0));
+            }
+            for (int i = 0; i < REPETITIONS; i++) {
+                time("object groups  ", file, new ArrayStructs(elementCount), new ArrayStructs(0));
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    private static void time(String label, File file, StructArray written, StructArray read) {
+        Hdf5ModuleInterface hdf5ModuleInterface = new Hdf5ModuleInterface();
+        long start = System.nanoTime();
+        hdf5ModuleInterface.writeFile(file, written, true);
+        long writeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        hdf5ModuleInterface.readFile(file, read, false);
+        long readNanos = System.nanoTime() - start;
+        if (read.length() != written.length()) {
+            throw new PipelineException(
+                "Read " + read.length() + " elements, expected " + written.length());
+        }
+        System.out.println(String.format("%s: write %8.1f ms, read %8.1f ms", label,
+            writeNanos / 1e6, readNanos / 1e6));
+    }
+
+    interface StructArray extends Persistable {
+        int length();
+    }
+
+    public static class ScalarStruct implements Persistable {
+        private int index;
+        private double value;
+        private Long boxedValue;
+        private String name;
+        private boolean flag;
+
+        public ScalarStruct() {
+        }
+
+        ScalarStruct(int index) {
+            this.index = index;
+            value = index * 0.5;
+            boxedValue = Long.valueOf(index);
+            name = "struct-" + index;
+            flag = index % 2 == 0;
+        }
+    }
+
+    public static class ScalarStructs implements StructArray {
+        private ScalarStruct[] structs;
+
+        public ScalarStructs() {
+        }
+
+        ScalarStructs(int elementCount) {
+            structs = new ScalarStruct[elementCount];
+            for (int i = 0; i < elementCount; i++) {
+                structs[i] = new ScalarStruct(i);
+            }
+        }
+
+        @Override
+        public int length() {
+            return structs.length;
+        }
+    }
+
+    public static class ArrayStruct implements Persistable {
+        private int index;
+        private double value;
+        private float[] samples;
+
+        public ArrayStruct() {
+        }
+
+        ArrayStruct(int index) {
+            this.index = index;
+            value = index * 0.5;
+            samples = new float[] { index, index + 1, index + 2 };
+        }
+    }
+
+    public static class ArrayStructs implements StructArray {
+        private ArrayStruct[] structs;
+
+        public ArrayStructs() {
+        }
+
+        ArrayStructs(int elementCount) {
+            structs = new ArrayStruct[elementCount];
+            for (int i = 0; i < elementCount; i++) {
+                structs[i] = new ArrayStruct(i);
+            }
+        }
+
+        @Override
+        public int length() {
+            return structs.length;
+        }
+    }
+}
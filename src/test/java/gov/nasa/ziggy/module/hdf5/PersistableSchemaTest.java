@@ -0,0 +1,93 @@
+package gov.nasa.ziggy.module.hdf5;
+
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_ENUM;
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_INT;
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_PERSISTABLE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import gov.nasa.ziggy.module.hdf5.PersistableSchema.FieldSchema;
+import gov.nasa.ziggy.module.io.Persistable;
+import gov.nasa.ziggy.module.io.ProxyIgnore;
+
+/**
+ * Unit tests for {@link PersistableSchema}.
+ *
+ * @author PT
+ */
+public class PersistableSchemaTest {
+
+    /**
+     * Tests that the schema has the persisted fields in declaration order, without static and
+     * {@link ProxyIgnore} fields, and that it is only built once.
+     */
+    @Test
+    public void testFields() {
+        PersistableSchema schema = PersistableSchema.of(IgnoredFieldSample.class);
+        assertSame(schema, PersistableSchema.of(IgnoredFieldSample.class));
+        List<String> names = new ArrayList<>();
+        for (FieldSchema field : schema.fields()) {
+            names.add(field.getName());
+        }
+        assertEquals(2, names.size());
+        assertEquals("intVar", names.get(0));
+        assertEquals("finalVar", names.get(1));
+        assertTrue(schema.allFieldsPrimitiveScalar());
+
+        assertFalse(PersistableSchema.of(PersistableSample1.class).allFieldsPrimitiveScalar());
+        assertTrue(PersistableSchema.of(PersistableSample3.class).allFieldsPrimitiveScalar());
+    }
+
+    @Test
+    public void testFieldSchema() throws NoSuchFieldException {
+        FieldSchema intList = new FieldSchema(PersistableSample1.class.getField("intList"));
+        assertEquals(ZIGGY_INT, intList.getDataType());
+        assertTrue(intList.isBoxed());
+        assertFalse(intList.isScalar());
+
+        FieldSchema enumScalar = new FieldSchema(PersistableSample1.class.getField("enumScalar"));
+        assertEquals(ZIGGY_ENUM, enumScalar.getDataType());
+        assertEquals(EnumTest.class, enumScalar.getElementClass());
+        assertTrue(enumScalar.isScalar());
+
+        FieldSchema persistableArray = new FieldSchema(
+            PersistableSample2.class.getDeclaredField("persistableArray2"));
+        assertEquals(ZIGGY_PERSISTABLE, persistableArray.getDataType());
+        assertEquals(PersistableSample1.class, persistableArray.getElementClass());
+    }
+
+    @Test
+    public void testGetAndSet() {
+        PersistableSchema schema = PersistableSchema.of(IgnoredFieldSample.class);
+        IgnoredFieldSample sample = (IgnoredFieldSample) schema.newInstance();
+        FieldSchema intVar = schema.fields().get(0);
+        FieldSchema finalVar = schema.fields().get(1);
+        assertEquals(3, intVar.get(sample));
+        intVar.set(sample, 4);
+        assertEquals(4, sample.intVar);
+        finalVar.set(sample, 6L);
+        assertEquals(6L, finalVar.get(sample));
+    }
+
+    static class IgnoredFieldSample implements Persistable {
+
+        static int staticVar = 1;
+
+        private int intVar = 3;
+
+        @ProxyIgnore
+        private String ignoredVar = "ignored";
+
+        private final long finalVar = 5L;
+
+        private IgnoredFieldSample() {
+        }
+    }
+}
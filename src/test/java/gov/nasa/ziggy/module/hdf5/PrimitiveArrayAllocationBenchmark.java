@@ -0,0 +1,102 @@
+package gov.nasa.ziggy.module.hdf5;
+
+import static gov.nasa.ziggy.collections.ZiggyDataType.ZIGGY_DOUBLE;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+
+import com.sun.management.ThreadMXBean;
+
+import gov.nasa.ziggy.collections.ZiggyArrayUtils;
+import gov.nasa.ziggy.module.io.Persistable;
+
+/**
+ * Measures the time taken and the bytes allocated by the main thread when a square image is cast
+ * between primitive types, and when it is written to and read from HDF5 with
+ * {@link Hdf5ModuleInterface}. The image is read both into a field of the type that was written and
+ * into a field of a wider type, which requires a cast. The only argument is the number of rows and
+ * columns in the image (default 4000).
+ * <p>
+ * An image of doubles occupies 8 bytes per pixel, so a path that doesn't box its values allocates a
+ * small multiple of that; boxing every pixel costs another 16 bytes or more per pixel.
+ *
+ * @author PT
+ */
+public class PrimitiveArrayAllocationBenchmark {
+
+    private static final int REPETITIONS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        long pixelCount = (long) size * size;
+        FloatImage floatImage = new FloatImage(size);
+        DoubleImage doubleImage = new DoubleImage(size);
+        Path dir = Files.createTempDirectory("PrimitiveArrayAllocationBenchmark");
+        try {
+            File doubleFile = dir.resolve("double-image.h5").toFile();
+            File floatFile = dir.resolve("float-image.h5").toFile();
+            Hdf5ModuleInterface hdf5ModuleInterface = new Hdf5ModuleInterface();
+            for (int i = 0; i < REPETITIONS; i++) {
+                measure("cast float to double ", pixelCount,
+                    () -> ZiggyArrayUtils.castArray(floatImage.image, ZIGGY_DOUBLE));
+                measure("write double image   ", pixelCount,
+                    () -> hdf5ModuleInterface.writeFile(doubleFile, doubleImage, true));
+                measure("read double image    ", pixelCount,
+                    () -> hdf5ModuleInterface.readFile(doubleFile, new DoubleImage(0), false));
+                hdf5ModuleInterface.writeFile(floatFile, floatImage, true);
+                measure("read float as double ", pixelCount,
+                    () -> hdf5ModuleInterface.readFile(floatFile, new DoubleImage(0), false));
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    private static void measure(String label, long pixelCount, Runnable operation) {
+        ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        operation.run();
+        long nanos = System.nanoTime() - start;
+        long bytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+        System.out.println(String.format("%s: %8.1f ms, %8.1f MB allocated, %6.2f bytes/pixel",
+            label, nanos / 1e6, bytes / 1e6, (double) bytes / pixelCount));
+    }
+
+    public static class FloatImage implements Persistable {
+        private float[][] image;
+
+        public FloatImage() {
+        }
+
+        FloatImage(int size) {
+            image = new float[size][size];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    image[i][j] = i + j * 0.5F;
+                }
+            }
+        }
+    }
+
+    public static class DoubleImage implements Persistable {
+        private double[][] image;
+
+        public DoubleImage() {
+        }
+
+        DoubleImage(int size) {
+            image = new double[size][size];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    image[i][j] = i + j * 0.5;
+                }
+            }
+        }
+    }
+}
@@ -5,10 +5,15 @@ import static org.junit.Assert.assertTrue;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -17,9 +22,15 @@ import org.mockito.Mockito;
 
 import com.google.common.collect.Sets;
 
+import gov.nasa.ziggy.crud.InListStrategy;
 import gov.nasa.ziggy.data.management.DatastoreProducerConsumer;
 import gov.nasa.ziggy.data.management.DatastoreProducerConsumerCrud;
+import gov.nasa.ziggy.pipeline.definition.FakePipelineTaskFactory;
+import gov.nasa.ziggy.pipeline.definition.PipelineDefinitionNode;
+import gov.nasa.ziggy.pipeline.definition.PipelineInstanceNode;
 import gov.nasa.ziggy.pipeline.definition.PipelineTask;
+import gov.nasa.ziggy.services.config.PropertyNames;
+import gov.nasa.ziggy.services.database.DatabaseService;
 import gov.nasa.ziggy.services.database.DatabaseTransactionFactory;
 import gov.nasa.ziggy.services.database.TestUtils;
 
@@ -51,6 +62,8 @@ public class DatastoreProducerConsumerCrudTest {
 
     @After
     public void teardown() {
+        System.clearProperty(PropertyNames.DATASTORE_CONSUMER_STORAGE_PROP_NAME);
+        System.clearProperty(PropertyNames.DATABASE_IN_LIST_STRATEGY_PROP_NAME);
         TestUtils.tearDownDatabase();
     }
 
@@ -152,4 +165,159 @@ public class DatastoreProducerConsumerCrudTest {
         assertTrue(originators.contains(TASK_ID + 1));
     }
 
+    /**
+     * Tests retrieval of file sets that are too large for a single IN clause with each of the
+     * {@link InListStrategy} options.
+     */
+    @Test
+    public void testLargeFileSets() {
+        for (InListStrategy strategy : InListStrategy.values()) {
+            System.setProperty(PropertyNames.DATABASE_IN_LIST_STRATEGY_PROP_NAME,
+                strategy.name().toLowerCase());
+            checkLargeFileSet(strategy.ordinal() * 10000);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void checkLargeFileSet(int offset) {
+        Set<Path> producedFiles = new HashSet<>();
+        Set<Path> allFiles = new HashSet<>();
+        for (int i = 0; i < 2500; i++) {
+            Path path = Paths.get("d1", "large-file-" + (offset + i) + ".h5");
+            allFiles.add(path);
+            if (i % 2 == 0) {
+                producedFiles.add(path);
+            }
+        }
+        DatabaseTransactionFactory.performTransaction(() -> {
+            resultsOriginatorCrud.createOrUpdateProducer(pipelineTask, producedFiles,
+                DatastoreProducerConsumer.DataReceiptFileType.DATA);
+            return null;
+        });
+        List<DatastoreProducerConsumer> dpcs = (List<DatastoreProducerConsumer>) DatabaseTransactionFactory
+            .performTransaction(() -> resultsOriginatorCrud.retrieveByFilename(allFiles));
+        assertEquals(allFiles.size(), dpcs.size());
+        assertEquals(producedFiles.size(),
+            dpcs.stream().filter(dpc -> dpc.getProducer() == TASK_ID).count());
+        Set<String> consumedFiles = (Set<String>) DatabaseTransactionFactory
+            .performTransaction(() -> {
+                resultsOriginatorCrud.addConsumer(pipelineTask, dpcs.stream()
+                    .map(DatastoreProducerConsumer::getFilename)
+                    .collect(Collectors.toSet()));
+                return resultsOriginatorCrud.retrieveFilesConsumedByAny(allFiles,
+                    Collections.singleton(TASK_ID));
+            });
+        assertEquals(allFiles.size(), consumedFiles.size());
+
+        // The consumer IDs can also be too numerous for a single IN clause.
+        Set<Long> consumerIds = LongStream.range(TASK_ID - 1000, TASK_ID + 1000)
+            .boxed()
+            .collect(Collectors.toSet());
+        Set<String> consumedByAnyFiles = (Set<String>) DatabaseTransactionFactory
+            .performTransaction(
+                () -> resultsOriginatorCrud.retrieveFilesConsumedByAny(allFiles, consumerIds));
+        assertEquals(consumedFiles, consumedByAnyFiles);
+    }
+
+    /**
+     * Tests that in BLOB mode the first consumer added to a record that has no consumers is
+     * stored in the blob rather than in the consumers table.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAddFirstConsumerBlob() {
+        System.setProperty(PropertyNames.DATASTORE_CONSUMER_STORAGE_PROP_NAME, "blob");
+        DatabaseTransactionFactory.performTransaction(() -> {
+            resultsOriginatorCrud.createOrUpdateProducer(pipelineTask, PATH_1,
+                DatastoreProducerConsumer.DataReceiptFileType.DATA);
+            return null;
+        });
+        DatabaseTransactionFactory.performTransaction(() -> {
+            DatastoreProducerConsumer dpc = resultsOriginatorCrud
+                .retrieveByFilename(Collections.singleton(PATH_1))
+                .get(0);
+            dpc.addConsumer(TASK_ID + 1);
+            return null;
+        });
+
+        Number consumerRowCount = (Number) DatabaseTransactionFactory
+            .performTransaction(() -> DatabaseService.getInstance()
+                .getSession()
+                .createSQLQuery("select count(*) from PI_DATASTORE_CONSUMERS")
+                .uniqueResult());
+        assertEquals(0, consumerRowCount.intValue());
+        Set<String> consumedFiles = (Set<String>) DatabaseTransactionFactory
+            .performTransaction(() -> resultsOriginatorCrud.retrieveFilesConsumedByTask(
+                TASK_ID + 1, Collections.singleton(PATH_1)));
+        assertEquals(Collections.singleton(FILE_NAME_1), consumedFiles);
+    }
+
+    /**
+     * Tests the keep-up and bugfix reprocessing filters.
+     */
+    @Test
+    public void testRetrieveFilesNotConsumed() {
+        checkRetrieveFilesNotConsumed();
+    }
+
+    @Test
+    public void testRetrieveFilesNotConsumedBlob() {
+        System.setProperty(PropertyNames.DATASTORE_CONSUMER_STORAGE_PROP_NAME, "blob");
+        checkRetrieveFilesNotConsumed();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void checkRetrieveFilesNotConsumed() {
+
+        // Tasks 1 and 2 are on one pipeline definition node, task 3 on another.
+        PipelineTask task1 = new FakePipelineTaskFactory().newTask();
+        PipelineInstanceNode instanceNode = task1.getPipelineInstanceNode();
+        PipelineDefinitionNode definitionNode = instanceNode.getPipelineDefinitionNode();
+        List<PipelineTask> tasks = (List<PipelineTask>) DatabaseTransactionFactory
+            .performTransaction(() -> {
+                PipelineTaskCrud pipelineTaskCrud = new PipelineTaskCrud();
+                PipelineTask task2 = new PipelineTask(task1.getPipelineInstance(), instanceNode);
+                pipelineTaskCrud.create(task2);
+                PipelineDefinitionNode otherDefinitionNode = new PipelineDefinitionNode(
+                    definitionNode);
+                pipelineTaskCrud.create(otherDefinitionNode);
+                PipelineInstanceNode otherInstanceNode = new PipelineInstanceNode(
+                    task1.getPipelineInstance(), otherDefinitionNode,
+                    instanceNode.getPipelineModuleDefinition());
+                pipelineTaskCrud.create(otherInstanceNode);
+                PipelineTask task3 = new PipelineTask(task1.getPipelineInstance(),
+                    otherInstanceNode);
+                pipelineTaskCrud.create(task3);
+                return Arrays.asList(task2, task3);
+            });
+        PipelineTask task2 = tasks.get(0);
+        PipelineTask task3 = tasks.get(1);
+
+        // File 1 was consumed by task 1, file 2 by task 2 without producing results, file 3 by
+        // task 3, and file 4 was never consumed; file 5 has no database entry.
+        Path path4 = Paths.get("d1/d2/d3/fake-file-4.h5");
+        Path path5 = Paths.get("d1/d2/d3/fake-file-5.h5");
+        DatabaseTransactionFactory.performTransaction(() -> {
+            resultsOriginatorCrud.createOrUpdateProducer(pipelineTask,
+                Sets.newHashSet(PATH_1, PATH_2, PATH_3, path4),
+                DatastoreProducerConsumer.DataReceiptFileType.DATA);
+            resultsOriginatorCrud.addConsumer(task1, Collections.singleton(FILE_NAME_1));
+            resultsOriginatorCrud.addNonProducingConsumer(task2,
+                Collections.singleton(FILE_NAME_2));
+            resultsOriginatorCrud.addConsumer(task3, Collections.singleton(FILE_NAME_3));
+            return null;
+        });
+        Set<Path> allPaths = Sets.newHashSet(PATH_1, PATH_2, PATH_3, path4, path5);
+
+        Set<Path> keepUpPaths = (Set<Path>) DatabaseTransactionFactory.performTransaction(
+            () -> resultsOriginatorCrud.retrieveFilesNotConsumedByNode(allPaths, definitionNode));
+        assertEquals(Sets.newHashSet(PATH_3, path4, path5), keepUpPaths);
+
+        // Only consumers that produced results and that are on the same node are excluded.
+        Set<Path> bugfixPaths = (Set<Path>) DatabaseTransactionFactory
+            .performTransaction(() -> resultsOriginatorCrud.retrieveFilesNotConsumedByTasks(
+                allPaths, Arrays.asList(task1.getId(), task2.getId(), task3.getId()),
+                definitionNode));
+        assertEquals(Sets.newHashSet(PATH_2, PATH_3, path4, path5), bugfixPaths);
+    }
 }
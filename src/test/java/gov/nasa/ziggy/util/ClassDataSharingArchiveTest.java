@@ -0,0 +1,90 @@
+package gov.nasa.ziggy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for {@link ClassDataSharingArchive}.
+ *
+ * @author PT
+ */
+public class ClassDataSharingArchiveTest {
+
+    @Rule
+    public TemporaryFolder tFolder = new TemporaryFolder();
+
+    @Test
+    public void testJavaMajorVersion() {
+        assertEquals(8, ClassDataSharingArchive.javaMajorVersion("1.8"));
+        assertEquals(11, ClassDataSharingArchive.javaMajorVersion("11"));
+        assertEquals(17, ClassDataSharingArchive.javaMajorVersion("17.0"));
+    }
+
+    @Test
+    public void testArchiveClasspath() throws Exception {
+        File libsDir = tFolder.newFolder("libs");
+        String libs = new File(libsDir, "*").getPath();
+        String ziggyJar = newFile(libsDir, "ziggy.jar");
+        String jar1 = tFolder.newFile("pipeline1.jar").getPath();
+        String jar2 = tFolder.newFile("pipeline2.jar").getPath();
+        String classesDir = tFolder.newFolder("classes").getPath();
+        String missingJar = new File(tFolder.getRoot(), "missing.jar").getPath();
+
+        assertEquals(String.join(File.pathSeparator, ziggyJar, jar1, jar2), ClassDataSharingArchive
+            .archiveClasspath(String.join(File.pathSeparator, libs, jar1, jar2)));
+
+        // Elements after a directory or a missing jar can't be archived.
+        assertEquals(String.join(File.pathSeparator, ziggyJar, jar1),
+            ClassDataSharingArchive.archiveClasspath(
+                String.join(File.pathSeparator, libs, jar1, classesDir, jar2)));
+        assertEquals(ziggyJar, ClassDataSharingArchive
+            .archiveClasspath(String.join(File.pathSeparator, libs, missingJar, jar1)));
+    }
+
+    /**
+     * Tests that directory wildcards are replaced by the directory's jar files in name order, and
+     * that other elements are kept.
+     */
+    @Test
+    public void testExpandClasspath() throws Exception {
+        File libsDir = tFolder.newFolder("libs");
+        String jarB = newFile(libsDir, "b.jar");
+        String jarA = newFile(libsDir, "a.jar");
+        String jarC = newFile(libsDir, "c-1.0.jar");
+        newFile(libsDir, "notes.txt");
+        String classesDir = tFolder.newFolder("classes").getPath();
+
+        assertEquals(String.join(File.pathSeparator, jarA, jarB, jarC, classesDir),
+            ClassDataSharingArchive.expandClasspath(
+                String.join(File.pathSeparator, new File(libsDir, "*").getPath(), classesDir)));
+        assertEquals(Arrays.asList(jarA, jarB, jarC),
+            ClassDataSharingArchive.jars(libsDir.toPath()));
+    }
+
+    private String newFile(File directory, String name) throws IOException {
+        File file = new File(directory, name);
+        assertTrue(file.createNewFile());
+        return file.getPath();
+    }
+
+    @Test
+    public void testJvmArguments() throws Exception {
+        File archive = new File(tFolder.getRoot(), ClassDataSharingArchive.ARCHIVE_FILE_NAME);
+        assertTrue(ClassDataSharingArchive.jvmArguments(archive.toPath()).isEmpty());
+
+        assertTrue(archive.createNewFile());
+        List<String> jvmArguments = ClassDataSharingArchive.jvmArguments(archive.toPath());
+        assertEquals(3, jvmArguments.size());
+        assertTrue(jvmArguments.contains("-XX:SharedArchiveFile=" + archive.getAbsolutePath()));
+        assertTrue(jvmArguments.contains("-Xshare:auto"));
+    }
+}
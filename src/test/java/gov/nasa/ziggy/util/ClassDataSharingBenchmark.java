@@ -0,0 +1,154 @@
+package gov.nasa.ziggy.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import gov.nasa.ziggy.module.hdf5.Hdf5ModuleInterface;
+
+/**
+ * Measures JVM startup times with and without a class-data-sharing archive. An archive is
+ * generated for the specified classpath, and then a probe JVM is started repeatedly with and
+ * without the archive. For each probe, the benchmark reports the time from starting the JVM until
+ * its main method runs, and until it has written its first HDF5 file.
+ * <p>
+ * Arguments: [classpath [iterations]]. The classpath must consist of jar files or directory
+ * wildcards, and defaults to build/libs/*; the number of iterations defaults to 10.
+ *
+ * @author PT
+ */
+public class ClassDataSharingBenchmark {
+
+    private static final String PROBE_OPTION = "--probe";
+    private static final String MAIN_MARKER = "probe-main";
+    private static final String HDF5_MARKER = "probe-hdf5";
+    private static final String HDF5_FAILED_MARKER = "probe-hdf5-failed";
+    private static final String[] PROBE_PROPERTY_NAMES = { "log4j2.configurationFile",
+        "java.library.path" };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(PROBE_OPTION)) {
+            probe();
+            return;
+        }
+        String classpath = args.length > 0 ? args[0] : Paths.get("build", "libs", "*").toString();
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Path archiveDir = Files
+            .createTempDirectory(ClassDataSharingBenchmark.class.getSimpleName());
+        try {
+            Path archive = archiveDir.resolve(ClassDataSharingArchive.ARCHIVE_FILE_NAME);
+            if (!ClassDataSharingArchive.generate(classpath, archive)) {
+                System.out.println("Class-data sharing is not supported by this JVM");
+                return;
+            }
+
+            // The probe class is not in the archive, so it is added after the archive classpath.
+            String probeClasspath = ClassDataSharingArchive.archiveClasspath(classpath)
+                + File.pathSeparator + Paths.get(ClassDataSharingBenchmark.class
+                    .getProtectionDomain()
+                    .getCodeSource()
+                    .getLocation()
+                    .toURI());
+
+            List<String> archiveArguments = ClassDataSharingArchive.jvmArguments(archive);
+            time(probeClasspath, Collections.emptyList(), 1);
+            time(probeClasspath, archiveArguments, 1);
+            Timings withoutArchive = time(probeClasspath, Collections.emptyList(), iterations);
+            Timings withArchive = time(probeClasspath, archiveArguments, iterations);
+            System.out.println(String.format("%-16s %14s %18s", "", "time-to-main",
+                "time-to-first-HDF5"));
+            System.out.println(String.format("%-16s %14s %18s", "without archive",
+                withoutArchive.mainString(), withoutArchive.hdf5String()));
+            System.out.println(String.format("%-16s %14s %18s", "with archive",
+                withArchive.mainString(), withArchive.hdf5String()));
+        } finally {
+            FileUtils.deleteDirectory(archiveDir.toFile());
+        }
+    }
+
+    private static Timings time(String classpath, List<String> jvmArguments, int iterations)
+        throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArguments);
+        for (String propertyName : PROBE_PROPERTY_NAMES) {
+            String value = System.getProperty(propertyName);
+            if (value != null) {
+                command.add("-D" + propertyName + "=" + value);
+            }
+        }
+        command.add("-cp");
+        command.add(classpath);
+        command.add(ClassDataSharingBenchmark.class.getName());
+        command.add(PROBE_OPTION);
+
+        Timings timings = new Timings();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (BufferedReader output = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    long elapsedNanos = System.nanoTime() - start;
+                    if (line.equals(MAIN_MARKER)) {
+                        timings.mainNanos += elapsedNanos;
+                    } else if (line.equals(HDF5_MARKER)) {
+                        timings.hdf5Nanos += elapsedNanos;
+                    } else if (line.equals(HDF5_FAILED_MARKER)) {
+                        timings.hdf5Failed = true;
+                    }
+                }
+            }
+            process.waitFor();
+        }
+        timings.iterations = iterations;
+        return timings;
+    }
+
+    /**
+     * Runs in the probe JVM.
+     */
+    private static void probe() throws IOException {
+        System.out.println(MAIN_MARKER);
+        System.out.flush();
+        Path hdf5File = Files.createTempFile(ClassDataSharingBenchmark.class.getSimpleName(),
+            ".h5");
+        try {
+            new Hdf5ModuleInterface().writeFile(hdf5File.toFile(),
+                new ClassDataSharingArchive.TrainingData(), true);
+            System.out.println(HDF5_MARKER);
+        } catch (LinkageError | RuntimeException e) {
+            System.out.println(HDF5_FAILED_MARKER);
+        } finally {
+            Files.deleteIfExists(hdf5File);
+        }
+    }
+
+    private static class Timings {
+        private int iterations;
+        private long mainNanos;
+        private long hdf5Nanos;
+        private boolean hdf5Failed;
+
+        public String mainString() {
+            return String.format("%.1f ms", mainNanos / 1e6 / iterations);
+        }
+
+        public String hdf5String() {
+            return hdf5Failed ? "unavailable"
+                : String.format("%.1f ms", hdf5Nanos / 1e6 / iterations);
+        }
+    }
+}
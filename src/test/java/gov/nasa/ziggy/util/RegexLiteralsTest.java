@@ -0,0 +1,109 @@
+package gov.nasa.ziggy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link RegexLiterals} class.
+ *
+ * @author PT
+ */
+public class RegexLiteralsTest {
+
+    @Test
+    public void testPrefixAndSuffix() {
+        RegexLiterals literals = new RegexLiterals("pa-([0-9]+)-([0-9]+)-results\\.h5");
+        assertEquals("pa-", literals.getPrefix());
+        assertEquals("-results.h5", literals.getSuffix());
+        assertFalse(literals.isLiteral());
+        assertTrue(literals.mayMatch("pa-001234567-20-results.h5"));
+        assertFalse(literals.mayMatch("cal-1-1-A-20-results.h5"));
+        assertFalse(literals.mayMatch("pa-001234567-20-results.h5.bak"));
+        assertFalse(literals.mayMatch("pa-results.h5"));
+    }
+
+    @Test
+    public void testQuantifiers() {
+
+        // A quantified character is not part of the prefix or suffix.
+        RegexLiterals literals = new RegexLiterals("abc?d.*e+fg");
+        assertEquals("ab", literals.getPrefix());
+        assertEquals("fg", literals.getSuffix());
+
+        literals = new RegexLiterals("ab{2,3}c");
+        assertEquals("a", literals.getPrefix());
+        assertEquals("c", literals.getSuffix());
+    }
+
+    @Test
+    public void testAnchorsAndLiterals() {
+        RegexLiterals literals = new RegexLiterals("^models/calibration\\.xml$");
+        assertTrue(literals.isLiteral());
+        assertEquals("models/calibration.xml", literals.getPrefix());
+        assertEquals("models/calibration.xml", literals.getSuffix());
+        assertTrue(literals.mayMatch("models/calibration.xml"));
+        assertFalse(literals.mayMatch("models/calibration.xml2"));
+    }
+
+    @Test
+    public void testUnanalyzableConstructs() {
+        assertNoLiterals(new RegexLiterals("abc|abd"));
+        assertNoLiterals(new RegexLiterals("(?i)abc"));
+        assertNoLiterals(new RegexLiterals("\\Qa.b\\E"));
+        assertNoLiterals(new RegexLiterals(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)));
+
+        // Alternation inside a group does not prevent analysis of the rest of the expression.
+        RegexLiterals literals = new RegexLiterals("x-(a|b)-y");
+        assertEquals("x-", literals.getPrefix());
+        assertEquals("-y", literals.getSuffix());
+
+        // Neither do character classes that contain brackets.
+        literals = new RegexLiterals("x[\\[\\]a]y");
+        assertEquals("x", literals.getPrefix());
+        assertEquals("y", literals.getSuffix());
+    }
+
+    /**
+     * Tests that escapes that are longer than two characters, or that do not stand for a single
+     * metacharacter, end the literal prefix and suffix.
+     */
+    @Test
+    public void testMultiCharacterEscapes() {
+        assertLiterals("data-\\x41\\.h5", "data-A.h5", "data-", ".h5");
+        assertLiterals("data-\\x{41}\\.h5", "data-A.h5", "data-", ".h5");
+        assertLiterals("data-\\u0041\\.h5", "data-A.h5", "data-", ".h5");
+        assertLiterals("data-\\0101\\.h5", "data-A.h5", "data-", ".h5");
+        assertLiterals("data-\\07\\.h5", "data-\u0007.h5", "data-", ".h5");
+        assertLiterals("x\\p{Alpha}y", "xAy", "x", "y");
+        assertLiterals("x\\cAy", "x\u0001y", "x", "y");
+
+        // The back-reference consumes all of its digits.
+        assertLiterals("(a)(b)(c)(d)(e)(f)(g)(h)(i)(j)(k)(l)-\\12\\.h5",
+            "abcdefghijkl-l.h5", "", ".h5");
+        assertLiterals("(a)-\\12", "a-a2", "", "");
+
+        // Escaped letters never contribute, even when they stand for a single character.
+        assertLiterals("a\\tb", "a\tb", "a", "b");
+    }
+
+    private void assertLiterals(String regex, String matchingInput, String expectedPrefix,
+        String expectedSuffix) {
+        assertTrue(Pattern.matches(regex, matchingInput));
+        RegexLiterals literals = new RegexLiterals(regex);
+        assertEquals(expectedPrefix, literals.getPrefix());
+        assertEquals(expectedSuffix, literals.getSuffix());
+        assertTrue(literals.mayMatch(matchingInput));
+    }
+
+    private void assertNoLiterals(RegexLiterals literals) {
+        assertEquals("", literals.getPrefix());
+        assertEquals("", literals.getSuffix());
+        assertFalse(literals.isLiteral());
+        assertTrue(literals.mayMatch("anything"));
+    }
+}